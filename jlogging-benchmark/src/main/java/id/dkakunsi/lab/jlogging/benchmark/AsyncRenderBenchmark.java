@@ -0,0 +1,110 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import id.dkakunsi.lab.jlogging.appender.AsyncRenderAppender;
+import id.dkakunsi.lab.jlogging.appender.QueueFullPolicy;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+/**
+ * <p>
+ * Time spent on the logging thread per event: rendering it there with
+ * {@link CustomJsonLayout}, against capturing and queuing it with
+ * {@link AsyncRenderAppender}. The queue drops what the render thread cannot
+ * keep up with, so only the logging thread is measured.
+ * </p>
+ *
+ * <pre>
+ * java -jar jlogging-benchmark/target/benchmarks.jar AsyncRenderBenchmark -prof gc
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncRenderBenchmark {
+
+    @Param({ "DEFAULT", "FULL", "STACKTRACE" })
+    private Scenario scenario;
+
+    private NullAppender target;
+
+    private AsyncRenderAppender appender;
+
+    private LogEvent event;
+
+    @Setup
+    public void setup() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setCharset(StandardCharsets.UTF_8)
+                .setAttributes(this.scenario.getAttributes())
+                .build();
+        this.target = new NullAppender(layout);
+        this.target.start();
+
+        DefaultConfiguration configuration = new DefaultConfiguration();
+        configuration.addAppender(this.target);
+        this.appender = AsyncRenderAppender.newBuilder().withName("async").setConfiguration(configuration)
+                .withAppenderRefs(AppenderRef.createAppenderRef(this.target.getName(), null, null))
+                .withQueueFullPolicy(QueueFullPolicy.DROP).build();
+        this.appender.start();
+        this.event = this.scenario.createEvent();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.appender.stop();
+        this.target.stop();
+    }
+
+    @Benchmark
+    public long renderOnCaller() {
+        this.target.append(this.event);
+        return this.target.destination.flush();
+    }
+
+    @Benchmark
+    public long captureAndQueue() {
+        this.appender.append(this.event);
+        return this.appender.getDroppedCount();
+    }
+
+    /**
+     * Renders into a {@link NullDestination}.
+     */
+    private static final class NullAppender extends AbstractAppender {
+
+        private final NullDestination destination = new NullDestination();
+
+        NullAppender(CustomJsonLayout layout) {
+            super("null", null, layout, false);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            getLayout().encode(event, this.destination);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.ContextAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.EventAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.HostAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.StacktraceAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.TimestampAttributeLoader;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+/**
+ * Cost of each {@link AttributeLoader} writing one attribute into a generator
+ * that discards its output. Run with {@code -prof gc} for the allocation per
+ * attribute.
+ * 
+ * @author dkakunsi
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeLoaderBenchmark {
+
+    @Param({ "timestamp", "host", "thread", "category", "level", "message", "correlationId", "stacktrace",
+            "recursiveStacktrace" })
+    private String attribute;
+
+    private AttributeLoader loader;
+
+    private SerializableString key;
+
+    private LogEvent event;
+
+    private JsonGenerator generator;
+
+    @Setup
+    public void setup() throws IOException {
+        boolean recursive = "recursiveStacktrace".equals(this.attribute);
+        String name = recursive ? "stacktrace" : this.attribute;
+
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setCharset(StandardCharsets.UTF_8)
+                .setRecursiveStackTrace(recursive)
+                .setAttributes(name)
+                .build();
+        this.loader = createLoader(name, layout);
+        this.key = new SerializedString(name);
+        this.event = (name.equals("stacktrace") ? (recursive ? Scenario.RECURSIVE_STACKTRACE : Scenario.STACKTRACE)
+                : Scenario.FULL).createEvent();
+        this.generator = new JsonFactory().createGenerator(new NullWriter());
+    }
+
+    @Setup(Level.Iteration)
+    public void startObject() throws IOException {
+        this.generator.writeStartObject();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endObject() throws IOException {
+        this.generator.writeEndObject();
+        this.generator.flush();
+    }
+
+    private static AttributeLoader createLoader(String name, CustomJsonLayout layout) {
+        switch (name) {
+            case "timestamp":
+                return new TimestampAttributeLoader(layout);
+            case "host":
+                return new HostAttributeLoader();
+            case "stacktrace":
+                return new StacktraceAttributeLoader(layout);
+            case "correlationId":
+                return new ContextAttributeLoader(layout);
+            default:
+                return new EventAttributeLoader(layout);
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        this.loader.write(this.key, this.event, this.generator);
+    }
+
+    /**
+     * {@link Writer} that discards everything.
+     */
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            // discard
+        }
+
+        @Override
+        public void flush() {
+            // nothing to flush
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.JsonLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.OutputFormat;
+
+/**
+ * <p>
+ * Throughput and latency of rendering one event with {@link CustomJsonLayout},
+ * against log4j's {@link JsonLayout} on the same event as baseline. The
+ * layout is measured in every {@link OutputFormat}, pass {@code -p format=JSON}
+ * to only measure one.
+ * </p>
+ * <p>
+ * Build the layout first, then run with the GC profiler to get the allocation
+ * per event ({@code gc.alloc.rate.norm}):
+ * </p>
+ * 
+ * <pre>
+ * mvn -f jlogging/pom.xml install
+ * mvn -f jlogging-benchmark/pom.xml package
+ * java -jar jlogging-benchmark/target/benchmarks.jar -prof gc -rf json
+ * </pre>
+ * 
+ * @author dkakunsi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomJsonLayoutBenchmark {
+
+    @Param
+    private Scenario scenario;
+
+    @Param
+    private OutputFormat format;
+
+    private CustomJsonLayout layout;
+
+    private Layout<String> baseline;
+
+    private LogEvent event;
+
+    private NullDestination destination;
+
+    @Setup
+    public void setup() {
+        this.layout = CustomJsonLayout.newBuilder()
+                .setCharset(StandardCharsets.UTF_8)
+                .setRecursiveStackTrace(this.scenario.isRecursiveStackTrace())
+                .setAttributes(this.scenario.getAttributes())
+                .setFormat(this.format)
+                .build();
+        this.baseline = createBaseline();
+        this.event = this.scenario.createEvent();
+        this.destination = new NullDestination();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Layout<String> createBaseline() {
+        JsonLayout.Builder builder = JsonLayout.newBuilder();
+        builder.setCompact(true);
+        builder.setProperties(true);
+        builder.setCharset(StandardCharsets.UTF_8);
+        return builder.build();
+    }
+
+    @Benchmark
+    public String toSerializable() {
+        return this.layout.toSerializable(this.event);
+    }
+
+    @Benchmark
+    public long encode() {
+        this.layout.encode(this.event, this.destination);
+        return this.destination.flush();
+    }
+
+    @Benchmark
+    public String baselineToSerializable() {
+        return this.baseline.toSerializable(this.event);
+    }
+
+    @Benchmark
+    public long baselineEncode() {
+        this.baseline.encode(this.event, this.destination);
+        return this.destination.flush();
+    }
+}
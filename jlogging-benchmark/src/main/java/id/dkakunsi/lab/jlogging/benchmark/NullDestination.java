@@ -0,0 +1,52 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+/**
+ * {@link ByteBufferDestination} that discards everything, counting the bytes so
+ * the work cannot be optimized away.
+ * 
+ * @author dkakunsi
+ */
+public class NullDestination implements ByteBufferDestination {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    private long written;
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(ByteBuffer buf) {
+        buf.flip();
+        this.written += buf.remaining();
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    public void writeBytes(ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(byte[] data, int offset, int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    /**
+     * Discard the pending bytes.
+     * 
+     * @return total bytes written so far
+     */
+    public long flush() {
+        drain(this.buffer);
+        return this.written;
+    }
+}
@@ -0,0 +1,132 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+
+/**
+ * Events and layout attributes measured by the benchmarks.
+ * 
+ * @author dkakunsi
+ */
+public enum Scenario {
+
+    /**
+     * Layout defaults, a plain message.
+     */
+    DEFAULT("timestamp,category,level,message", false, 0, 0),
+
+    /**
+     * Attributes of the sample {@code log4j2.xml}, with the usual context.
+     */
+    FULL(Scenario.FULL_ATTRIBUTES, false, 0, 0),
+
+    /**
+     * Thirty context values, all of them printed.
+     */
+    CONTEXT_HEAVY(Scenario.FULL_ATTRIBUTES + Scenario.EXTRA_CONTEXT_ATTRIBUTES, false, 0, 0),
+
+    /**
+     * Full attributes with a deep stack trace and its causes, printed
+     * recursively.
+     */
+    RECURSIVE_STACKTRACE(Scenario.FULL_ATTRIBUTES, true, 3, 100),
+
+    /**
+     * Full attributes with a deep stack trace, printing the inner exception only.
+     */
+    STACKTRACE(Scenario.FULL_ATTRIBUTES, false, 3, 100),
+
+    /**
+     * Full attributes with a message mostly out of ASCII.
+     */
+    UNICODE(Scenario.FULL_ATTRIBUTES, false, 0, 0);
+
+    private static final String FULL_ATTRIBUTES = "timestamp,correlationId,tid,principal,host,service,instance,"
+            + "version,thread,category,level,message,fault,stacktrace,payload";
+
+    private static final String EXTRA_CONTEXT_ATTRIBUTES = ",key0,key1,key2,key3,key4,key5,key6,key7,key8,key9,"
+            + "key10,key11,key12,key13,key14,key15,key16,key17,key18,key19,key20,key21";
+
+    private static final String MESSAGE = "Processed request for \"account\" 12345 in 10 ms";
+
+    private static final String UNICODE_MESSAGE = "Pedido \u00abn\u00famero\u00bb 12345 \u2014 \u0437\u0430\u043a"
+            + "\u0430\u0437 \u043e\u043f\u043b\u0430\u0447\u0435\u043d \u6ce8\u6587\u304c\u5b8c\u4e86 "
+            + "\ud83d\ude00 caf\u00e9 \u20ac100";
+
+    private static final String[] CONTEXT = { "correlationId", "tid", "principal", "service", "instance", "version",
+            "fault", "payload" };
+
+    private final String attributes;
+
+    private final boolean recursiveStackTrace;
+
+    private final int causes;
+
+    private final int depth;
+
+    Scenario(String attributes, boolean recursiveStackTrace, int causes, int depth) {
+        this.attributes = attributes;
+        this.recursiveStackTrace = recursiveStackTrace;
+        this.causes = causes;
+        this.depth = depth;
+    }
+
+    public String getAttributes() {
+        return this.attributes;
+    }
+
+    public boolean isRecursiveStackTrace() {
+        return this.recursiveStackTrace;
+    }
+
+    public LogEvent createEvent() {
+        StringMap context = ContextDataFactory.createContextData();
+        if (this != DEFAULT) {
+            for (String key : CONTEXT) {
+                context.putValue(key, key + "-0xoqwie1267sdh2");
+            }
+        }
+        if (this == CONTEXT_HEAVY) {
+            for (int i = 0; i < 22; i++) {
+                context.putValue("key" + i, "value of context key number " + i);
+            }
+        }
+
+        Log4jLogEvent.Builder builder = Log4jLogEvent.newBuilder()
+                .setLoggerName("id.dkakunsi.lab.jlogging.benchmark.Scenario")
+                .setLoggerFqcn("id.dkakunsi.lab.jlogging.benchmark.Scenario")
+                .setLevel(this.causes > 0 ? Level.ERROR : Level.INFO)
+                .setMessage(new SimpleMessage(this == UNICODE ? UNICODE_MESSAGE : MESSAGE))
+                .setThreadName("http-nio-8080-exec-1")
+                .setContextData(context)
+                .setTimeMillis(System.currentTimeMillis());
+        if (this.causes > 0) {
+            builder.setThrown(createException(this.causes, this.depth));
+        }
+        return builder.build();
+    }
+
+    private static Throwable createException(int causes, int depth) {
+        Throwable thrown = null;
+        for (int i = 0; i <= causes; i++) {
+            try {
+                recurse(depth, thrown, i);
+            } catch (RuntimeException ex) {
+                thrown = ex;
+            }
+        }
+        return thrown;
+    }
+
+    private static void recurse(int depth, Throwable cause, int level) {
+        if (depth > 0) {
+            recurse(depth - 1, cause, level);
+            return;
+        }
+        throw new IllegalStateException("Failure at level " + level, cause);
+    }
+}
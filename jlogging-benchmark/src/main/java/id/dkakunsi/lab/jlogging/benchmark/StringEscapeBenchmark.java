@@ -0,0 +1,142 @@
+package id.dkakunsi.lab.jlogging.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.apache.logging.log4j.core.layout.StringBuilderEncoder;
+import org.apache.logging.log4j.core.util.StringBuilderWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import id.dkakunsi.lab.jlogging.attributeloader.JsonStringEscaper;
+
+/**
+ * <p>
+ * Cost of writing one message as JSON string into UTF-8 bytes:
+ * </p>
+ * <ul>
+ * <li>{@code charsThenEncode}, the path used before the layout wrote UTF-8:
+ * Jackson escapes into a {@link StringBuilder}, which is then encoded into the
+ * destination.</li>
+ * <li>{@code jacksonUtf8}, Jackson's UTF-8 generator escaping the message.</li>
+ * <li>{@code escaper}, {@link JsonStringEscaper} escaping into the same UTF-8
+ * generator.</li>
+ * </ul>
+ *
+ * @author dkakunsi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringEscapeBenchmark {
+
+    /**
+     * Content of the measured message.
+     */
+    public enum Text {
+
+        ASCII("Processed request for \"account\" 12345 in 10 ms, response sent to client 10.0.0.1:8080 "
+                + "with status 200 and 1024 bytes\tfrom cache"),
+
+        UNICODE("Pedido \u00abn\u00famero\u00bb 12345 \u2014 \u0437\u0430\u043a\u0430\u0437 "
+                + "\u043e\u043f\u043b\u0430\u0447\u0435\u043d, \u6ce8\u6587\u304c\u5b8c\u4e86\u3057\u307e"
+                + "\u3057\u305f \ud83d\ude00\ud83d\udce6 caf\u00e9 \u00fcber \u20ac100");
+
+        private final String message;
+
+        Text(String message) {
+            this.message = message;
+        }
+    }
+
+    @Param
+    private Text text;
+
+    private String message;
+
+    private StringBuilder builder;
+
+    private JsonGenerator charGenerator;
+
+    private StringBuilderEncoder encoder;
+
+    private NullDestination destination;
+
+    private Output output;
+
+    private JsonGenerator utf8Generator;
+
+    @Setup
+    public void setup() throws IOException {
+        JsonFactory factory = new JsonFactory();
+        this.message = this.text.message;
+
+        this.builder = new StringBuilder(1024);
+        this.charGenerator = factory.createGenerator(new StringBuilderWriter(this.builder));
+        this.charGenerator.setRootValueSeparator(null);
+        this.encoder = new StringBuilderEncoder(StandardCharsets.UTF_8);
+        this.destination = new NullDestination();
+
+        this.output = new Output();
+        this.utf8Generator = factory.createGenerator(this.output, JsonEncoding.UTF8);
+        this.utf8Generator.setRootValueSeparator(null);
+    }
+
+    @Benchmark
+    public long charsThenEncode() throws IOException {
+        this.builder.setLength(0);
+        this.charGenerator.writeString(this.message);
+        this.charGenerator.flush();
+        this.encoder.encode(this.builder, this.destination);
+        return this.destination.flush();
+    }
+
+    @Benchmark
+    public long jacksonUtf8() throws IOException {
+        this.output.reset();
+        this.utf8Generator.writeString(this.message);
+        this.utf8Generator.flush();
+        return this.output.writeTo(this.destination);
+    }
+
+    @Benchmark
+    public long escaper() throws IOException {
+        this.output.reset();
+        JsonStringEscaper.writeString(this.message, this.utf8Generator);
+        this.utf8Generator.flush();
+        return this.output.writeTo(this.destination);
+    }
+
+    /**
+     * Byte array stream copying its buffer into a destination.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(1024);
+        }
+
+        long writeTo(NullDestination destination) {
+            destination.writeBytes(this.buf, 0, this.count);
+            return destination.flush();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.util.BufferRecyclers;
+
+/**
+ * <p>
+ * Match one line against the criteria of a {@link LogQuery}, with a streaming
+ * parser. Only the top-level fields of the criteria and the timestamp are
+ * read, any other value is skipped without being decoded. Parsing stops as
+ * soon as a criterion fails or every needed field is read.
+ * </p>
+ * <p>
+ * Before parsing, the line is searched for the value of every required field,
+ * as it is escaped by the layout. A line without them is rejected
+ * without parsing, which is most lines of a selective query.
+ * </p>
+ * <p>
+ * Not thread-safe, every worker has its own.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class EntryFilter {
+
+    private static final int TIMESTAMP = -1;
+
+    private static final int LEVEL = -2;
+
+    private final JsonFactory factory;
+
+    private final TimestampParser timestampParser;
+
+    private final Set<String> levels;
+
+    private final long from;
+
+    private final long to;
+
+    /**
+     * Field name to its index in {@link #values}, or {@link #TIMESTAMP} and
+     * {@link #LEVEL}.
+     */
+    private final Map<String, Integer> fields = new HashMap<>();
+
+    private final String[] values;
+
+    private final byte[][] patterns;
+
+    private final int needed;
+
+    private final int required;
+
+    private long timestamp;
+
+    EntryFilter(LogQuery query, JsonFactory factory) {
+        this.factory = factory;
+        this.timestampParser = new TimestampParser(query.getDateFormat(), query.getTimezone());
+        this.levels = query.getLevels();
+        this.from = query.getFrom();
+        this.to = query.getTo();
+
+        Map<String, String> values = query.getFieldValues();
+        this.values = new String[values.size()];
+        this.patterns = new byte[values.size()][];
+        JsonStringEncoder encoder = BufferRecyclers.getJsonStringEncoder();
+        int i = 0;
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            this.fields.put(value.getKey(), i);
+            this.values[i] = value.getValue();
+            this.patterns[i] = encoder.quoteAsUTF8(value.getValue());
+            i++;
+        }
+        this.fields.put(query.getTimestampField(), TIMESTAMP);
+        if (this.levels != null) {
+            this.fields.put(query.getLevelField(), LEVEL);
+        }
+        this.needed = this.fields.size();
+        this.required = this.needed - 1;
+    }
+
+    /**
+     * @param line   the line
+     * @param length length of the line
+     * @return whether the line matches, its timestamp is then in
+     *         {@link #getTimestamp()}
+     * @throws IOException when the parser fails, other than for invalid JSON
+     */
+    boolean matches(byte[] line, int length) throws IOException {
+        for (byte[] pattern : this.patterns) {
+            if (indexOf(line, length, pattern) < 0) {
+                return false;
+            }
+        }
+
+        this.timestamp = TimestampParser.UNKNOWN;
+        try (JsonParser parser = this.factory.createParser(line, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            int found = 0;
+            int required = 0;
+            while (found < this.needed && parser.nextToken() == JsonToken.FIELD_NAME) {
+                Integer field = this.fields.get(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+                if (field == null) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (!matches(field, token, parser)) {
+                    return false;
+                }
+                found++;
+                required += field == TIMESTAMP ? 0 : 1;
+            }
+            // without timestamp, the entry only matches a query without range
+            return required == this.required && isInRange();
+        } catch (JsonParseException ex) {
+            return false;
+        }
+    }
+
+    long getTimestamp() {
+        return this.timestamp;
+    }
+
+    private boolean matches(int field, JsonToken token, JsonParser parser) throws IOException {
+        switch (field) {
+            case TIMESTAMP:
+                if (token == JsonToken.VALUE_NUMBER_INT) {
+                    this.timestamp = TimestampParser.fromMillis(parser.getLongValue());
+                } else if (token == JsonToken.VALUE_STRING) {
+                    this.timestamp = this.timestampParser.parse(parser.getText());
+                }
+                return isInRange();
+            case LEVEL:
+                return token == JsonToken.VALUE_STRING && this.levels.contains(parser.getText());
+            default:
+                return token.isScalarValue() && this.values[field].equals(parser.getText());
+        }
+    }
+
+    /**
+     * Whether the timestamp is in the queried range. Without a range, an entry
+     * without timestamp matches.
+     */
+    private boolean isInRange() {
+        if (this.from == Long.MIN_VALUE && this.to == Long.MAX_VALUE) {
+            return true;
+        }
+        return this.timestamp != TimestampParser.UNKNOWN && this.timestamp >= this.from
+                && this.timestamp < this.to;
+    }
+
+    private static int indexOf(byte[] line, int length, byte[] pattern) {
+        if (pattern.length == 0) {
+            return 0;
+        }
+        byte first = pattern[0];
+        int last = length - pattern.length;
+        outer: for (int i = 0; i <= last; i++) {
+            if (line[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (line[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,54 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Part of a queried file, scanned by one worker. It holds the lines starting
+ * in {@code [start, end)}: the line running over {@code end} is finished by
+ * this region, and skipped by the next one.
+ *
+ * @author dkakunsi
+ */
+final class FileRegion {
+
+    private final int fileIndex;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final long start;
+
+    private final long end;
+
+    FileRegion(int fileIndex, FileChannel channel, long size, long start, long end) {
+        this.fileIndex = fileIndex;
+        this.channel = channel;
+        this.size = size;
+        this.start = start;
+        this.end = end;
+    }
+
+    int getFileIndex() {
+        return this.fileIndex;
+    }
+
+    FileChannel getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * @return size of the file when the query started
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    long getStart() {
+        return this.start;
+    }
+
+    long getEnd() {
+        return this.end;
+    }
+}
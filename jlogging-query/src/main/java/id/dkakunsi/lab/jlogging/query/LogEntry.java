@@ -0,0 +1,111 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One log entry matched by a {@link LogQuery}: where its line is in the file,
+ * its timestamp and, once read from the file, the line as it is there.
+ * <p>
+ * Entries are ordered by timestamp, then by file and position. An entry
+ * without a readable timestamp comes first.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class LogEntry implements Comparable<LogEntry> {
+
+    private final long timestamp;
+
+    private final int fileIndex;
+
+    private final long offset;
+
+    private final int length;
+
+    private final byte[] line;
+
+    LogEntry(long timestamp, int fileIndex, long offset, int length) {
+        this(timestamp, fileIndex, offset, length, null);
+    }
+
+    private LogEntry(long timestamp, int fileIndex, long offset, int length, byte[] line) {
+        this.timestamp = timestamp;
+        this.fileIndex = fileIndex;
+        this.offset = offset;
+        this.length = length;
+        this.line = line;
+    }
+
+    /**
+     * @param line the line read from the file
+     * @return this entry with its line
+     */
+    LogEntry withLine(byte[] line) {
+        return new LogEntry(this.timestamp, this.fileIndex, this.offset, this.length, line);
+    }
+
+    /**
+     * @return nanoseconds since the epoch, {@link Long#MIN_VALUE} when the entry
+     *         has no readable timestamp
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return index of the file in the queried files
+     */
+    public int getFileIndex() {
+        return this.fileIndex;
+    }
+
+    /**
+     * @return position of the line in the file
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return length of the line in bytes, without line break
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * @return the line, without line break
+     */
+    public String getLine() {
+        return new String(this.line, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the line as it is in the file, followed by a line break.
+     *
+     * @param output target stream
+     * @throws IOException when writing fails
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(this.line);
+        output.write('\n');
+    }
+
+    @Override
+    public int compareTo(LogEntry other) {
+        if (this.timestamp != other.timestamp) {
+            return this.timestamp < other.timestamp ? -1 : 1;
+        }
+        if (this.fileIndex != other.fileIndex) {
+            return this.fileIndex < other.fileIndex ? -1 : 1;
+        }
+        return this.offset < other.offset ? -1 : this.offset == other.offset ? 0 : 1;
+    }
+
+    @Override
+    public String toString() {
+        return getLine();
+    }
+}
@@ -0,0 +1,477 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * <p>
+ * Query newline-delimited JSON log files written by {@code CustomJsonLayout}
+ * with {@code eventEol}, in parallel.
+ * </p>
+ * <p>
+ * Each file is memory-mapped and cut into regions of {@code chunkSize} bytes,
+ * split on line boundaries. The regions are scanned by a {@link ForkJoinPool}
+ * of {@code parallelism} workers, each matching its lines with a streaming
+ * parser that skips the fields the query does not need. The matching entries
+ * of all the files are merged in timestamp order as the workers join. An
+ * entry is the position of its line, which is copied from the mapped file
+ * only when the merged result is written. The
+ * workers share nothing but the files, so a query scales with the cores as
+ * long as the files are in the page cache or the disk keeps up.
+ * </p>
+ * <p>
+ * An entry matches when it has every criterion:
+ * </p>
+ * <ul>
+ * <li>{@code levels}, or {@code minLevel} which selects it and the more severe
+ * levels.</li>
+ * <li>{@code from} (inclusive) and {@code to} (exclusive), ISO-8601 timestamps.
+ * An entry without a readable timestamp only matches a query without
+ * range.</li>
+ * <li>{@code correlationId}, and any other top-level field equal to a value,
+ * e.g. context keys.</li>
+ * </ul>
+ * <p>
+ * From the command line, the matching lines are printed as they are in the
+ * files:
+ * </p>
+ *
+ * <pre>
+ * java -jar jlogging-query/target/jlogging-query.jar --min-level WARN --from 2019-02-03T10:00:00Z \
+ *     --correlation-id 5f2c --field service=order app.log app.log.1
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+public final class LogQuery {
+
+    private static final String[] LEVELS = { "FATAL", "ERROR", "WARN", "INFO", "DEBUG", "TRACE" };
+
+    private static final String CORRELATION_ID = "correlationId";
+
+    private final Set<String> levels;
+
+    private final long from;
+
+    private final long to;
+
+    private final Map<String, String> fieldValues;
+
+    private final String timestampField;
+
+    private final String levelField;
+
+    private final String dateFormat;
+
+    private final String timezone;
+
+    private final int parallelism;
+
+    private final long chunkSize;
+
+    private LogQuery(Builder builder) {
+        this.levels = builder.levels != null ? Collections.unmodifiableSet(builder.levels) : null;
+        this.fieldValues = Collections.unmodifiableMap(new LinkedHashMap<>(builder.fieldValues));
+        this.timestampField = builder.timestampField;
+        this.levelField = builder.levelField;
+        this.dateFormat = builder.dateFormat;
+        this.timezone = builder.timezone;
+        this.from = builder.from != null ? parseBound(builder.from, builder.timezone) : Long.MIN_VALUE;
+        this.to = builder.to != null ? parseBound(builder.to, builder.timezone) : Long.MAX_VALUE;
+        this.parallelism = builder.parallelism > 0 ? builder.parallelism
+                : Runtime.getRuntime().availableProcessors();
+        if (builder.chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + builder.chunkSize);
+        }
+        this.chunkSize = builder.chunkSize;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the selected levels, null for all of them
+     */
+    public Set<String> getLevels() {
+        return this.levels;
+    }
+
+    /**
+     * @return start of the range in nanoseconds since the epoch, inclusive
+     */
+    public long getFrom() {
+        return this.from;
+    }
+
+    /**
+     * @return end of the range in nanoseconds since the epoch, exclusive
+     */
+    public long getTo() {
+        return this.to;
+    }
+
+    /**
+     * @return top-level fields and the value they must have
+     */
+    public Map<String, String> getFieldValues() {
+        return this.fieldValues;
+    }
+
+    public String getTimestampField() {
+        return this.timestampField;
+    }
+
+    public String getLevelField() {
+        return this.levelField;
+    }
+
+    public String getDateFormat() {
+        return this.dateFormat;
+    }
+
+    public String getTimezone() {
+        return this.timezone;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public long getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Find the matching entries of the files. Every matching line is read into
+     * memory: use {@link #search(List, OutputStream)} for a broad query.
+     *
+     * @param files log files
+     * @return matching entries, in timestamp order
+     * @throws IOException when a file cannot be read
+     */
+    public List<LogEntry> search(List<File> files) throws IOException {
+        List<FileChannel> channels = open(files);
+        try {
+            List<LogEntry> entries = query(channels);
+            MappedWindow[] windows = getWindows(channels);
+            List<LogEntry> lines = new ArrayList<>(entries.size());
+            for (LogEntry entry : entries) {
+                byte[] line = new byte[entry.getLength()];
+                windows[entry.getFileIndex()].copy(entry.getOffset(), entry.getLength(), line);
+                lines.add(entry.withLine(line));
+            }
+            return lines;
+        } finally {
+            close(channels);
+        }
+    }
+
+    /**
+     * Write the matching lines of the files, in timestamp order. Only the
+     * positions of the matching lines are held in memory, the lines are copied
+     * from the files as they are written.
+     *
+     * @param files  log files
+     * @param output target of the lines, flushed but not closed
+     * @return number of matching lines
+     * @throws IOException when a file cannot be read or the output written
+     */
+    public long search(List<File> files, OutputStream output) throws IOException {
+        List<FileChannel> channels = open(files);
+        try {
+            List<LogEntry> entries = query(channels);
+            MappedWindow[] windows = getWindows(channels);
+            byte[] line = new byte[1024];
+            for (LogEntry entry : entries) {
+                if (line.length < entry.getLength()) {
+                    line = new byte[Math.max(entry.getLength(), line.length * 2)];
+                }
+                windows[entry.getFileIndex()].copy(entry.getOffset(), entry.getLength(), line);
+                output.write(line, 0, entry.getLength());
+                output.write('\n');
+            }
+            output.flush();
+            return entries.size();
+        } finally {
+            close(channels);
+        }
+    }
+
+    private static List<FileChannel> open(List<File> files) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            for (File file : files) {
+                channels.add(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            }
+            return channels;
+        } catch (IOException | RuntimeException ex) {
+            close(channels);
+            throw ex;
+        }
+    }
+
+    private static void close(List<FileChannel> channels) throws IOException {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Find the matching entries of the opened files, without their lines.
+     */
+    private List<LogEntry> query(List<FileChannel> channels) throws IOException {
+        ForkJoinPool pool = null;
+        try {
+            List<FileRegion> regions = new ArrayList<>();
+            for (int i = 0; i < channels.size(); i++) {
+                FileChannel channel = channels.get(i);
+                long size = channel.size();
+                for (long start = 0; start < size; start += this.chunkSize) {
+                    regions.add(new FileRegion(i, channel, size, start, Math.min(size, start + this.chunkSize)));
+                }
+            }
+            if (regions.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            pool = new ForkJoinPool(this.parallelism);
+            return pool.invoke(new QueryTask(this, new JsonFactory(), regions, 0, regions.size()));
+        } catch (RuntimeException ex) {
+            for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw ex;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private MappedWindow[] getWindows(List<FileChannel> channels) throws IOException {
+        MappedWindow[] windows = new MappedWindow[channels.size()];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new MappedWindow(channels.get(i), channels.get(i).size(), this.chunkSize);
+        }
+        return windows;
+    }
+
+    private static long parseBound(String timestamp, String timezone) {
+        long parsed = TimestampParser.parseIso(timestamp,
+                TimeZone.getTimeZone(timezone != null ? timezone : "UTC"));
+        if (parsed == TimestampParser.UNKNOWN) {
+            throw new IllegalArgumentException("Invalid ISO-8601 timestamp: " + timestamp);
+        }
+        return parsed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Builder builder = newBuilder();
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    files.add(new File(arg));
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--level":
+                        builder.setLevels(value.split(","));
+                        break;
+                    case "--min-level":
+                        builder.setMinLevel(value);
+                        break;
+                    case "--from":
+                        builder.setFrom(value);
+                        break;
+                    case "--to":
+                        builder.setTo(value);
+                        break;
+                    case "--correlation-id":
+                        builder.setCorrelationId(value);
+                        break;
+                    case "--field":
+                        int separator = value.indexOf('=');
+                        if (separator <= 0) {
+                            throw new IllegalArgumentException("Invalid field: " + value);
+                        }
+                        builder.setField(value.substring(0, separator), value.substring(separator + 1));
+                        break;
+                    case "--date-format":
+                        builder.setDateFormat(value);
+                        break;
+                    case "--timezone":
+                        builder.setTimezone(value);
+                        break;
+                    case "--threads":
+                        builder.setParallelism(Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No file to query");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: LogQuery [--level LEVEL,...] [--min-level LEVEL] [--from TIME] [--to TIME]"
+                    + " [--correlation-id ID] [--field KEY=VALUE]... [--date-format PATTERN] [--timezone ZONE]"
+                    + " [--threads N] file...");
+            System.exit(1);
+        }
+
+        OutputStream output = new BufferedOutputStream(System.out, 64 * 1024);
+        builder.build().search(files, output);
+    }
+
+    /**
+     * Builder of {@link LogQuery}.
+     */
+    public static class Builder {
+
+        private Set<String> levels;
+
+        private String from;
+
+        private String to;
+
+        private final Map<String, String> fieldValues = new LinkedHashMap<>();
+
+        private String timestampField = "timestamp";
+
+        private String levelField = "level";
+
+        private String dateFormat;
+
+        private String timezone;
+
+        private int parallelism;
+
+        private long chunkSize = 32 * 1024 * 1024;
+
+        /**
+         * @param levels selected levels, e.g. {@code ERROR} and {@code WARN}
+         */
+        public Builder setLevels(String... levels) {
+            this.levels = new HashSet<>();
+            for (String level : levels) {
+                this.levels.add(level.trim().toUpperCase());
+            }
+            return this;
+        }
+
+        /**
+         * @param minLevel least severe selected level, e.g. {@code WARN} selects
+         *                 {@code FATAL}, {@code ERROR} and {@code WARN}
+         */
+        public Builder setMinLevel(String minLevel) {
+            int index = Arrays.asList(LEVELS).indexOf(minLevel.trim().toUpperCase());
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown level: " + minLevel);
+            }
+            return setLevels(Arrays.copyOf(LEVELS, index + 1));
+        }
+
+        /**
+         * @param from ISO-8601 timestamp, inclusive
+         */
+        public Builder setFrom(String from) {
+            this.from = from;
+            return this;
+        }
+
+        /**
+         * @param to ISO-8601 timestamp, exclusive
+         */
+        public Builder setTo(String to) {
+            this.to = to;
+            return this;
+        }
+
+        public Builder setCorrelationId(String correlationId) {
+            return setField(CORRELATION_ID, correlationId);
+        }
+
+        /**
+         * @param name  top-level field, e.g. a context key
+         * @param value value it must have
+         */
+        public Builder setField(String name, String value) {
+            this.fieldValues.put(name, value);
+            return this;
+        }
+
+        public Builder setTimestampField(String timestampField) {
+            this.timestampField = timestampField;
+            return this;
+        }
+
+        public Builder setLevelField(String levelField) {
+            this.levelField = levelField;
+            return this;
+        }
+
+        /**
+         * @param dateFormat the layout's {@code dateFormat} when it is not the
+         *                   default ISO-8601
+         */
+        public Builder setDateFormat(String dateFormat) {
+            this.dateFormat = dateFormat;
+            return this;
+        }
+
+        /**
+         * @param timezone timezone of timestamps without offset, default to UTC
+         */
+        public Builder setTimezone(String timezone) {
+            this.timezone = timezone;
+            return this;
+        }
+
+        /**
+         * @param parallelism number of workers, default to the number of
+         *                    processors
+         */
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param chunkSize bytes of file scanned by one task, default to 32 MiB
+         */
+        public Builder setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public LogQuery build() {
+            return new LogQuery(this);
+        }
+    }
+}
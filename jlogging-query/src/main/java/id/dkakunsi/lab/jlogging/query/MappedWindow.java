@@ -0,0 +1,84 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Part of a file mapped in memory, moved along as it is read. Not
+ * thread-safe.
+ *
+ * @author dkakunsi
+ */
+final class MappedWindow {
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final long windowSize;
+
+    private MappedByteBuffer buffer;
+
+    private long start;
+
+    private long end;
+
+    /**
+     * @param channel    the file
+     * @param size       size of the file
+     * @param windowSize bytes mapped at once, at most {@link Integer#MAX_VALUE}
+     */
+    MappedWindow(FileChannel channel, long size, long windowSize) {
+        this.channel = channel;
+        this.size = size;
+        this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+    }
+
+    byte get(long position) throws IOException {
+        if (position < this.start || position >= this.end) {
+            map(position, this.windowSize);
+        }
+        return this.buffer.get((int) (position - this.start));
+    }
+
+    /**
+     * @return position of the first {@code value} at or after {@code from}, or
+     *         -1
+     */
+    long indexOf(byte value, long from) throws IOException {
+        long position = from;
+        while (position < this.size) {
+            if (position < this.start || position >= this.end) {
+                map(position, this.windowSize);
+            }
+            int limit = (int) (this.end - this.start);
+            for (int i = (int) (position - this.start); i < limit; i++) {
+                if (this.buffer.get(i) == value) {
+                    return this.start + i;
+                }
+            }
+            position = this.end;
+        }
+        return -1;
+    }
+
+    /**
+     * Copy {@code length} bytes at {@code position} to the start of
+     * {@code target}.
+     */
+    void copy(long position, int length, byte[] target) throws IOException {
+        if (position < this.start || position + length > this.end) {
+            map(position, Math.max(length, this.windowSize));
+        }
+        this.buffer.position((int) (position - this.start));
+        this.buffer.get(target, 0, length);
+    }
+
+    private void map(long position, long length) throws IOException {
+        long mapped = Math.min(length, this.size - position);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+        this.start = position;
+        this.end = position + mapped;
+    }
+}
@@ -0,0 +1,140 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * <p>
+ * Fork-join task querying a range of {@link FileRegion}s. A range of several
+ * regions is split in two halves run in parallel, and their entries are merged
+ * in timestamp order. A single region is scanned through a memory-mapped
+ * window, its matching entries sorted. Entries are kept as the position of
+ * their line, not its bytes, so a broad query holds little on the heap.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class QueryTask extends RecursiveTask<List<LogEntry>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Mapped beyond the end of a region, to finish its last line without
+     * mapping again.
+     */
+    private static final int SLACK = 64 * 1024;
+
+    private final LogQuery query;
+
+    private final JsonFactory factory;
+
+    private final List<FileRegion> regions;
+
+    private final int from;
+
+    private final int to;
+
+    QueryTask(LogQuery query, JsonFactory factory, List<FileRegion> regions, int from, int to) {
+        this.query = query;
+        this.factory = factory;
+        this.regions = regions;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected List<LogEntry> compute() {
+        if (this.to - this.from == 1) {
+            try {
+                return scan(this.regions.get(this.from));
+            } catch (IOException ex) {
+                throw new ScanFailure(ex);
+            }
+        }
+
+        int middle = (this.from + this.to) >>> 1;
+        QueryTask left = new QueryTask(this.query, this.factory, this.regions, this.from, middle);
+        left.fork();
+        List<LogEntry> right = new QueryTask(this.query, this.factory, this.regions, middle, this.to).compute();
+        return merge(left.join(), right);
+    }
+
+    private List<LogEntry> scan(FileRegion region) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        MappedWindow window = new MappedWindow(region.getChannel(), region.getSize(),
+                region.getEnd() - region.getStart() + SLACK);
+        long position = region.getStart();
+        if (position > 0 && window.get(position - 1) != '\n') {
+            long newline = window.indexOf((byte) '\n', position);
+            if (newline < 0) {
+                return entries;
+            }
+            position = newline + 1;
+        }
+
+        EntryFilter filter = new EntryFilter(this.query, this.factory);
+        byte[] line = new byte[1024];
+        while (position < region.getEnd()) {
+            long newline = window.indexOf((byte) '\n', position);
+            long lineEnd = newline < 0 ? region.getSize() : newline;
+            if (lineEnd - position > Integer.MAX_VALUE - 8) {
+                throw new IOException("Line at " + position + " is too long");
+            }
+
+            int length = (int) (lineEnd - position);
+            if (line.length < length) {
+                line = new byte[Math.max(length, line.length * 2)];
+            }
+            window.copy(position, length, line);
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            if (length > 0 && filter.matches(line, length)) {
+                entries.add(new LogEntry(filter.getTimestamp(), region.getFileIndex(), position, length));
+            }
+
+            if (newline < 0) {
+                break;
+            }
+            position = newline + 1;
+        }
+        // mostly in order already, as a file is written in time order
+        Collections.sort(entries);
+        return entries;
+    }
+
+    private static List<LogEntry> merge(List<LogEntry> left, List<LogEntry> right) {
+        if (left.isEmpty()) {
+            return right;
+        }
+        if (right.isEmpty()) {
+            return left;
+        }
+        List<LogEntry> merged = new ArrayList<>(left.size() + right.size());
+        int i = 0;
+        int j = 0;
+        while (i < left.size() && j < right.size()) {
+            merged.add(left.get(i).compareTo(right.get(j)) <= 0 ? left.get(i++) : right.get(j++));
+        }
+        merged.addAll(left.subList(i, left.size()));
+        merged.addAll(right.subList(j, right.size()));
+        return merged;
+    }
+
+    /**
+     * Carries an {@link IOException} of a worker out of the pool.
+     */
+    static final class ScanFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ScanFailure(IOException cause) {
+            super(cause);
+        }
+    }
+}
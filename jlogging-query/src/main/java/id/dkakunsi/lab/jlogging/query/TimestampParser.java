@@ -0,0 +1,202 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Parse the timestamps of log entries into nanoseconds since the epoch.
+ * </p>
+ * <p>
+ * Without a date format, the text is read as ISO-8601, the layout's default:
+ * {@code 2019-02-03T04:05:06.123+0000}, with up to nine fraction digits and
+ * an offset written as {@code Z}, {@code +07}, {@code +0700} or
+ * {@code +07:00}. A timestamp without offset is in the configured timezone.
+ * With a date format, the text is parsed by {@link SimpleDateFormat}, to the
+ * millisecond. A number is read as milliseconds since the epoch.
+ * </p>
+ * <p>
+ * Not thread-safe, every worker has its own.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class TimestampParser {
+
+    /**
+     * Returned for a text that is not a timestamp.
+     */
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final long NANOS_PER_MILLISECOND = 1000000L;
+
+    private final SimpleDateFormat format;
+
+    private final TimeZone timezone;
+
+    /**
+     * @param dateFormat {@link SimpleDateFormat} pattern, null for ISO-8601
+     * @param timezone   timezone of timestamps without offset, null for UTC
+     */
+    TimestampParser(String dateFormat, String timezone) {
+        this.timezone = TimeZone.getTimeZone(timezone != null ? timezone : "UTC");
+        if (dateFormat != null) {
+            this.format = new SimpleDateFormat(dateFormat);
+            this.format.setTimeZone(this.timezone);
+            this.format.setLenient(false);
+        } else {
+            this.format = null;
+        }
+    }
+
+    /**
+     * @param text timestamp
+     * @return nanoseconds since the epoch, or {@link #UNKNOWN}
+     */
+    long parse(String text) {
+        if (this.format == null) {
+            return parseIso(text, this.timezone);
+        }
+        try {
+            return this.format.parse(text).getTime() * NANOS_PER_MILLISECOND;
+        } catch (ParseException ex) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param epochMillisecond milliseconds since the epoch
+     * @return nanoseconds since the epoch
+     */
+    static long fromMillis(long epochMillisecond) {
+        return epochMillisecond * NANOS_PER_MILLISECOND;
+    }
+
+    /**
+     * Parse an ISO-8601 timestamp.
+     *
+     * @param text     timestamp
+     * @param timezone timezone of a timestamp without offset
+     * @return nanoseconds since the epoch, or {@link #UNKNOWN}
+     */
+    static long parseIso(String text, TimeZone timezone) {
+        int length = text.length();
+        if (length < 16 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(13) != ':') {
+            return UNKNOWN;
+        }
+        char separator = text.charAt(10);
+        if (separator != 'T' && separator != ' ') {
+            return UNKNOWN;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59) {
+            return UNKNOWN;
+        }
+
+        int position = 16;
+        int second = 0;
+        if (position < length && text.charAt(position) == ':') {
+            second = digits(text, position + 1, 2);
+            if (second < 0 || second > 60) {
+                return UNKNOWN;
+            }
+            position += 3;
+        }
+        long nanos = 0;
+        if (position < length && (text.charAt(position) == '.' || text.charAt(position) == ',')) {
+            position++;
+            long scale = NANOS_PER_SECOND;
+            int start = position;
+            while (position < length && isDigit(text.charAt(position))) {
+                if (position - start < 9) {
+                    scale /= 10;
+                    nanos += (text.charAt(position) - '0') * scale;
+                }
+                position++;
+            }
+            if (position == start) {
+                return UNKNOWN;
+            }
+        }
+
+        long local = (daysFromCivil(year, month, day) * 86400L + hour * 3600L + minute * 60L + second)
+                * NANOS_PER_SECOND + nanos;
+        if (position == length) {
+            long localMillis = local / NANOS_PER_MILLISECOND;
+            return local - timezone.getOffset(localMillis - timezone.getRawOffset()) * NANOS_PER_MILLISECOND;
+        }
+        int offset = parseOffset(text, position);
+        return offset == Integer.MIN_VALUE ? UNKNOWN : local - offset * NANOS_PER_SECOND;
+    }
+
+    /**
+     * @return offset in seconds, or {@link Integer#MIN_VALUE}
+     */
+    private static int parseOffset(String text, int position) {
+        int length = text.length();
+        char sign = text.charAt(position);
+        if (sign == 'Z') {
+            return position + 1 == length ? 0 : Integer.MIN_VALUE;
+        }
+        if (sign != '+' && sign != '-' || position + 3 > length) {
+            return Integer.MIN_VALUE;
+        }
+        int hours = digits(text, position + 1, 2);
+        int minutes = 0;
+        position += 3;
+        if (position < length && text.charAt(position) == ':') {
+            position++;
+        }
+        if (position < length) {
+            minutes = digits(text, position, 2);
+            position += 2;
+        }
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59 || position != length) {
+            return Integer.MIN_VALUE;
+        }
+        int offset = hours * 3600 + minutes * 60;
+        return sign == '-' ? -offset : offset;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date of the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the number, or -1 when a character is not a digit
+     */
+    private static int digits(String text, int start, int count) {
+        if (start + count > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,251 @@
+package id.dkakunsi.lab.jlogging.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link LogQuery} finds the same entries as reading the files line by
+ * line, over files written by {@link CustomJsonLayout}.
+ *
+ * @author dkakunsi
+ */
+public class LogQueryTest {
+
+    private static final long START = 1549188000000L;
+
+    private static final Level[] LEVELS = { Level.DEBUG, Level.INFO, Level.INFO, Level.WARN, Level.ERROR };
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private List<File> files = new ArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setEventEol(true)
+                .setAttributes("timestamp,correlationId,service,level,message").build();
+        // two files with interleaved timestamps, the second slightly out of order
+        this.files.add(write(layout, 0, 3000, 0));
+        this.files.add(write(layout, 1, 3000, 7));
+    }
+
+    @After
+    public void destroy() {
+        for (File file : this.files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        verify(LogQuery.newBuilder().setMinLevel("warn"));
+        verify(LogQuery.newBuilder().setLevels("DEBUG", "ERROR"));
+    }
+
+    @Test
+    public void testFields() throws IOException {
+        verify(LogQuery.newBuilder().setCorrelationId("request-17"));
+        verify(LogQuery.newBuilder().setField("service", "order \"east\""));
+        verify(LogQuery.newBuilder().setField("service", "payment").setCorrelationId("request-3")
+                .setMinLevel("INFO"));
+        verify(LogQuery.newBuilder().setField("unknown", "value"));
+    }
+
+    @Test
+    public void testTimeRange() throws IOException {
+        verify(LogQuery.newBuilder().setFrom("2019-02-03T10:00:30Z").setTo("2019-02-03T10:01:00.500+0000"));
+        verify(LogQuery.newBuilder().setFrom("2019-02-03T17:00:30+07:00").setMinLevel("ERROR"));
+        verify(LogQuery.newBuilder().setTo("2019-02-03T10:00:01Z"));
+    }
+
+    @Test
+    public void testAll() throws IOException {
+        List<LogEntry> entries = verify(LogQuery.newBuilder());
+        assertEquals(6000, entries.size());
+    }
+
+    @Test
+    public void testOutput() throws IOException {
+        LogQuery query = LogQuery.newBuilder().setCorrelationId("request-5").setChunkSize(1000).build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long count = query.search(this.files, output);
+
+        StringBuilder expected = new StringBuilder();
+        for (LogEntry entry : query.search(this.files)) {
+            expected.append(entry.getLine()).append('\n');
+        }
+        assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(count, expected.toString().split("\n").length);
+    }
+
+    @Test
+    public void testLinesAcrossRegions() throws IOException {
+        File file = File.createTempFile("query", ".log");
+        this.files.add(file);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(("{\"timestamp\":\"2019-02-03T10:00:02.000+0000\",\"level\":\"INFO\",\"message\":\"" + big
+                    + "\"}\r\n\n").getBytes(StandardCharsets.UTF_8));
+            output.write("not json\n{\"level\":\"WARN\",\"message\":\"no timestamp\"}\n{\"level\":\"ERROR\",\"mes"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (long chunkSize : new long[] { 1000, 70000, 1000000 }) {
+            List<LogEntry> entries = LogQuery.newBuilder().setChunkSize(chunkSize).build()
+                    .search(Collections.singletonList(file));
+            assertEquals(2, entries.size());
+            assertEquals("{\"level\":\"WARN\",\"message\":\"no timestamp\"}", entries.get(0).getLine());
+            assertEquals(Long.MIN_VALUE, entries.get(0).getTimestamp());
+            assertEquals(big.toString(), mapper.readTree(entries.get(1).getLine()).get("message").asText());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertEquals(2, LogQuery.newBuilder().setChunkSize(chunkSize).build()
+                    .search(Collections.singletonList(file), output));
+            assertEquals(entries.get(0).getLine() + "\n" + entries.get(1).getLine() + "\n",
+                    new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+            entries = LogQuery.newBuilder().setChunkSize(chunkSize).setFrom("2019-02-03T10:00:00Z").build()
+                    .search(Collections.singletonList(file));
+            assertEquals(1, entries.size());
+        }
+    }
+
+    @Test
+    public void testTimestampParser() throws Exception {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        long millis = format.parse("2019-02-03T04:05:06.123+0000").getTime();
+
+        assertEquals(millis * 1000000, TimestampParser.parseIso("2019-02-03T04:05:06.123+0000", utc));
+        assertEquals(millis * 1000000 + 456789, TimestampParser.parseIso("2019-02-03T04:05:06.123456789Z", utc));
+        assertEquals(millis * 1000000, TimestampParser.parseIso("2019-02-03T11:05:06.123+07:00", utc));
+        assertEquals(millis * 1000000, TimestampParser.parseIso("2019-02-03 01:05:06.123-03", utc));
+        assertEquals(millis * 1000000,
+                TimestampParser.parseIso("2019-02-03T13:05:06.123", TimeZone.getTimeZone("Asia/Tokyo")));
+        assertEquals(-86400L * 1000000000, TimestampParser.parseIso("1969-12-31T00:00Z", utc));
+        assertEquals(TimestampParser.UNKNOWN, TimestampParser.parseIso("2019-13-03T04:05:06Z", utc));
+        assertEquals(TimestampParser.UNKNOWN, TimestampParser.parseIso("yesterday", utc));
+        assertEquals(TimestampParser.UNKNOWN, TimestampParser.parseIso("2019-02-03T04:05:06+07:00x", utc));
+
+        TimestampParser custom = new TimestampParser("dd/MM/yyyy HH:mm:ss.SSS", "UTC");
+        assertEquals(millis * 1000000, custom.parse("03/02/2019 04:05:06.123"));
+        assertEquals(TimestampParser.UNKNOWN, custom.parse("2019-02-03"));
+    }
+
+    /**
+     * Query with several region sizes and workers, and check against a
+     * sequential read of every line.
+     */
+    private List<LogEntry> verify(LogQuery.Builder builder) throws IOException {
+        List<String> expected = null;
+        List<LogEntry> entries = null;
+        for (long chunkSize : new long[] { 4096, 100000, 1 << 30 }) {
+            LogQuery query = builder.setChunkSize(chunkSize).setParallelism(4).build();
+            entries = query.search(this.files);
+            if (expected == null) {
+                expected = scan(query);
+                assertTrue(!expected.isEmpty() || query.getFieldValues().containsKey("unknown"));
+            }
+            List<String> lines = new ArrayList<>();
+            for (LogEntry entry : entries) {
+                lines.add(entry.getLine());
+            }
+            assertEquals(expected, lines);
+        }
+        return entries;
+    }
+
+    /**
+     * Read every line of the files, keep the matching ones and sort them by
+     * timestamp, then file and line.
+     */
+    private List<String> scan(final LogQuery query) throws IOException {
+        List<Object[]> matches = new ArrayList<>();
+        TimestampParser parser = new TimestampParser(null, null);
+        for (int i = 0; i < this.files.size(); i++) {
+            List<String> lines = Files.readAllLines(this.files.get(i).toPath(), StandardCharsets.UTF_8);
+            for (int j = 0; j < lines.size(); j++) {
+                JsonNode entry = mapper.readTree(lines.get(j));
+                long timestamp = parser.parse(entry.get("timestamp").asText());
+                boolean matched = timestamp >= query.getFrom() && timestamp < query.getTo()
+                        && (query.getLevels() == null || query.getLevels().contains(entry.get("level").asText()));
+                for (String field : query.getFieldValues().keySet()) {
+                    matched &= entry.has(field)
+                            && entry.get(field).asText().equals(query.getFieldValues().get(field));
+                }
+                if (matched) {
+                    matches.add(new Object[] { timestamp, i, j, lines.get(j) });
+                }
+            }
+        }
+        Collections.sort(matches, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] left, Object[] right) {
+                for (int i = 0; i < 3; i++) {
+                    @SuppressWarnings("unchecked")
+                    int compared = ((Comparable<Object>) left[i]).compareTo(right[i]);
+                    if (compared != 0) {
+                        return compared;
+                    }
+                }
+                return 0;
+            }
+        });
+
+        List<String> lines = new ArrayList<>();
+        for (Object[] match : matches) {
+            lines.add((String) match[3]);
+        }
+        return lines;
+    }
+
+    private static File write(CustomJsonLayout layout, int offset, int count, int shuffle) throws IOException {
+        File file = File.createTempFile("query", ".log");
+        String[] services = { "order \"east\"", "payment", "café 😀" };
+        try (OutputStream output = new FileOutputStream(file)) {
+            for (int i = 0; i < count; i++) {
+                StringMap context = ContextDataFactory.createContextData();
+                context.putValue("correlationId", "request-" + (i % 50));
+                if (i % 4 != 0) {
+                    context.putValue("service", services[i % services.length]);
+                }
+                // every few entries jump back a little, as an async appender would
+                int millis = i * 20 + offset * 10 - (shuffle > 0 && i % shuffle == 0 ? 45 : 0);
+                output.write(layout.toByteArray(Log4jLogEvent.newBuilder().setLoggerName("query")
+                        .setLevel(LEVELS[(i + offset) % LEVELS.length]).setContextData(context)
+                        .setMessage(new SimpleMessage("Entry " + i + " of file " + offset))
+                        .setTimeMillis(START + millis).build()));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,638 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderControl;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.filter.Filterable;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+
+import id.dkakunsi.lab.jlogging.context.ContextKeyReader;
+import id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+/**
+ * <p>
+ * Appender that moves the rendering off the logging thread. The logging
+ * thread only captures the event into a small immutable record, with the
+ * message parameters unformatted, the context keys the appenders read and the
+ * throwable as a reference, and offers it to a lock-free queue. A render
+ * thread takes the records in order and calls the referenced appenders, so
+ * their layout, e.g. {@link CustomJsonLayout}, and their I/O run there.
+ * </p>
+ * <p>
+ * When one render thread cannot keep up, e.g. during bursts on many cores,
+ * {@code renderThreads} shards the events by logging thread over as many
+ * render workers, each with its own queue. A worker encodes its events with
+ * the {@link CustomJsonLayout} of the referenced appenders, on its own
+ * per-thread buffers, and a single writer thread merges the encoded events by
+ * sequence, so the appenders copy the bytes in order instead of rendering
+ * them. The events of one logging thread are always written in order; those
+ * of different threads in the order they were captured, as long as the
+ * workers keep up. Other layouts render on the writer thread.
+ * </p>
+ * <p>
+ * When every referenced appender renders with {@code CustomJsonLayout} and
+ * has no filter, only the context keys of their attributes, and the sidecar
+ * keys of a {@link MappedRollingFileAppender}, are kept. Otherwise, e.g. for a
+ * {@code %X{key}} pattern or a context map filter, the whole context of the
+ * event is kept, which is only the keys read by the configuration once
+ * {@link SnapshotContextDataInjector} is installed. The message
+ * is formatted on the render thread, so its parameters must not be changed
+ * once logged. Declare it after the appenders it references: log4j stops the
+ * appenders in reverse order, so the queued events are rendered before they
+ * stop.
+ * </p>
+ *
+ * <pre>
+ * &lt;AsyncRender name="async" queueFullPolicy="DROP"&gt;
+ *   &lt;AppenderRef ref="file"/&gt;
+ * &lt;/AsyncRender&gt;
+ * </pre>
+ * <p>
+ * Configurable attributes:
+ * <ul>
+ * <li>{@code AppenderRef} elements, the appenders to call. Required.</li>
+ * <li>{@code queueSize}, number of queued events per render thread, rounded up
+ * to a power of two. Default to 4096.</li>
+ * <li>{@code queueFullPolicy}, see {@link QueueFullPolicy}. Default to
+ * BLOCK.</li>
+ * <li>{@code sampleRate}, one of how many events is kept by
+ * {@link QueueFullPolicy#SAMPLE}. Default to 10.</li>
+ * <li>{@code includeLocation}, whether to capture the location of the caller,
+ * which is costly. Default to false.</li>
+ * <li>{@code renderThreads}, number of render workers. Default to 1, which
+ * renders and writes on one thread.</li>
+ * </ul>
+ * </p>
+ *
+ * @author dkakunsi
+ */
+@Plugin(name = "AsyncRender", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public final class AsyncRenderAppender extends AbstractAppender implements ContextKeyReader {
+
+    /**
+     * Longest park of a render thread when its queue is empty.
+     */
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AppenderRef[] appenderRefs;
+
+    private final Configuration configuration;
+
+    private final QueueFullPolicy queueFullPolicy;
+
+    private final int sampleRate;
+
+    private final boolean includeLocation;
+
+    /**
+     * Captured events, one queue per render thread.
+     */
+    private final MpscQueue<CapturedEvent>[] queues;
+
+    /**
+     * Events encoded by each render worker, for the writer thread. Only used
+     * with more than one render thread.
+     */
+    private final MpscQueue<CapturedEvent>[] renderedQueues;
+
+    /**
+     * Whether each render worker holds an event taken from its queue and not
+     * handed to the writer yet. Only used with more than one render thread.
+     */
+    private final AtomicIntegerArray inFlight;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private final AtomicLong fullCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile boolean running;
+
+    /**
+     * Context keys to capture, sorted, {@code null} for the whole context.
+     */
+    private volatile String[] contextKeys;
+
+    /**
+     * Consumer of each queue: the writer thread, or the render workers.
+     */
+    private Thread[] renderThreads;
+
+    private Thread writerThread;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private AsyncRenderAppender(String name, Filter filter, boolean ignoreExceptions, Builder<?> builder) {
+        super(name, filter, null, ignoreExceptions);
+        this.appenderRefs = builder.appenderRefs.clone();
+        this.configuration = builder.getConfiguration();
+        this.queueFullPolicy = builder.queueFullPolicy != null ? builder.queueFullPolicy : QueueFullPolicy.BLOCK;
+        this.sampleRate = builder.sampleRate;
+        this.includeLocation = builder.includeLocation;
+
+        int renderThreads = Math.max(1, builder.renderThreads);
+        int queueSize = Math.max(2, builder.queueSize);
+        this.queues = new MpscQueue[renderThreads];
+        for (int i = 0; i < renderThreads; i++) {
+            this.queues[i] = new MpscQueue<>(queueSize);
+        }
+        if (renderThreads > 1) {
+            this.renderedQueues = new MpscQueue[renderThreads];
+            for (int i = 0; i < renderThreads; i++) {
+                this.renderedQueues[i] = new MpscQueue<>(queueSize);
+            }
+            this.inFlight = new AtomicIntegerArray(renderThreads);
+        } else {
+            this.renderedQueues = null;
+            this.inFlight = null;
+        }
+    }
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void start() {
+        setStarting();
+        List<AppenderControl> controls = new ArrayList<>();
+        Map<String, Appender> appenders = this.configuration.getAppenders();
+        for (AppenderRef ref : this.appenderRefs) {
+            Appender appender = appenders.get(ref.getRef());
+            if (appender != null) {
+                controls.add(new AppenderControl(appender, ref.getLevel(), ref.getFilter()));
+            } else {
+                LOGGER.error("No appender named {} was found for appender {}", ref.getRef(), getName());
+            }
+        }
+        if (controls.isEmpty()) {
+            error("No appender to render to");
+            return;
+        }
+
+        this.contextKeys = getContextKeys(controls, this.appenderRefs);
+        this.running = true;
+        AppenderControl[] targets = controls.toArray(new AppenderControl[controls.size()]);
+        this.renderThreads = new Thread[this.queues.length];
+        if (this.renderedQueues == null) {
+            this.writerThread = Log4jThreadFactory.createDaemonThreadFactory("AsyncRender-" + getName())
+                    .newThread(new Writer(targets, this.queues));
+            this.renderThreads[0] = this.writerThread;
+        } else {
+            Layout<?>[] layouts = getPreRenderedLayouts(targets);
+            this.activeWorkers.set(this.queues.length);
+            this.writerThread = Log4jThreadFactory.createDaemonThreadFactory("AsyncRender-" + getName() + "-writer")
+                    .newThread(new Writer(targets, this.renderedQueues));
+            Log4jThreadFactory factory = Log4jThreadFactory.createDaemonThreadFactory("AsyncRender-" + getName());
+            for (int i = 0; i < this.queues.length; i++) {
+                this.renderThreads[i] = factory.newThread(new Worker(i, layouts));
+                this.renderThreads[i].start();
+            }
+        }
+        this.writerThread.start();
+        super.start();
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        super.stop(timeout, timeUnit, false);
+        this.running = false;
+        if (this.writerThread != null) {
+            for (Thread thread : this.renderThreads) {
+                LockSupport.unpark(thread);
+            }
+            long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+            try {
+                for (Thread thread : this.renderThreads) {
+                    join(thread, timeout > 0 ? Math.max(1, deadline - System.nanoTime()) : 0);
+                }
+                join(this.writerThread, timeout > 0 ? Math.max(1, deadline - System.nanoTime()) : 0);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        setStopped();
+        return this.writerThread == null || !this.writerThread.isAlive();
+    }
+
+    /**
+     * Wait for a thread to end, at most {@code nanos}, or without limit when
+     * 0.
+     */
+    private static void join(Thread thread, long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.timedJoin(thread, nanos);
+        } else {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        boolean sharded = this.queues.length > 1;
+        CapturedEvent captured = new CapturedEvent(event, this.includeLocation,
+                sharded ? this.sequence.getAndIncrement() : 0, this.contextKeys);
+        int shard = sharded ? (int) ((captured.getThreadId() & Long.MAX_VALUE) % this.queues.length) : 0;
+        MpscQueue<CapturedEvent> queue = this.queues[shard];
+        if (queue.offer(captured)) {
+            return;
+        }
+        if (!this.queueFullPolicy.shouldWait(event.getLevel(), this.fullCount.getAndIncrement(), this.sampleRate)) {
+            this.droppedCount.incrementAndGet();
+            return;
+        }
+        while (!queue.offer(captured)) {
+            if (!this.running) {
+                this.droppedCount.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(this.renderThreads[shard]);
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    /**
+     * The referenced appenders tell their own keys, only a filter on a
+     * reference may read any key.
+     *
+     * @return no key, {@code null} when a reference has a filter
+     */
+    @Override
+    public String[] getContextKeys() {
+        for (AppenderRef ref : this.appenderRefs) {
+            if (ref.getFilter() != null) {
+                return null;
+            }
+        }
+        return new String[0];
+    }
+
+    /**
+     * Get the context keys the referenced appenders read: those of their
+     * {@link CustomJsonLayout} and sidecar index.
+     *
+     * @return the keys, sorted, {@code null} when an appender may read any key,
+     *         through another layout or a filter
+     */
+    private static String[] getContextKeys(List<AppenderControl> controls, AppenderRef[] refs) {
+        for (AppenderRef ref : refs) {
+            if (ref.getFilter() != null) {
+                return null;
+            }
+        }
+        Set<String> keys = new TreeSet<>();
+        for (AppenderControl control : controls) {
+            Appender appender = control.getAppender();
+            if (!(appender.getLayout() instanceof CustomJsonLayout)
+                    || (appender instanceof Filterable && ((Filterable) appender).hasFilter())) {
+                return null;
+            }
+            keys.addAll(Arrays.asList(((CustomJsonLayout) appender.getLayout()).getContextKeys()));
+            if (appender instanceof MappedRollingFileAppender) {
+                String[] sidecarKeys = ((MappedRollingFileAppender) appender).getSidecarKeys();
+                if (sidecarKeys != null) {
+                    keys.addAll(Arrays.asList(sidecarKeys));
+                }
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Get the layouts the render workers encode with, the
+     * {@link CustomJsonLayout} of the referenced appenders. Other layouts
+     * render on the writer thread.
+     */
+    private static Layout<?>[] getPreRenderedLayouts(AppenderControl[] controls) {
+        List<Layout<?>> layouts = new ArrayList<>();
+        for (AppenderControl control : controls) {
+            Layout<?> layout = control.getAppender().getLayout();
+            if (layout instanceof CustomJsonLayout && !layouts.contains(layout)) {
+                layouts.add(layout);
+            }
+        }
+        return layouts.toArray(new Layout<?>[layouts.size()]);
+    }
+
+    private static boolean isEmpty(MpscQueue<CapturedEvent>[] queues) {
+        for (MpscQueue<CapturedEvent> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a render worker has a captured event not handed to the writer
+     * yet: in its queue, or taken and being encoded. The queue is read before
+     * the flag, which is raised before the event is taken from it, so an event
+     * is seen in at least one of them until it is in the rendered queue.
+     */
+    private boolean isPending(int shard) {
+        return !this.queues[shard].isEmpty() || this.inFlight.get(shard) != 0;
+    }
+
+    private boolean isPending() {
+        if (this.inFlight != null) {
+            for (int i = 0; i < this.queues.length; i++) {
+                if (isPending(i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * @return number of events that found the queue full, then waited or were
+     *         dropped
+     */
+    public long getQueueFullCount() {
+        return this.fullCount.get();
+    }
+
+    /**
+     * @return number of events queued and not written yet
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (MpscQueue<CapturedEvent> queue : this.queues) {
+            size += queue.size();
+        }
+        if (this.renderedQueues != null) {
+            for (MpscQueue<CapturedEvent> queue : this.renderedQueues) {
+                size += queue.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of events each render thread queues
+     */
+    public int getQueueCapacity() {
+        return this.queues[0].getCapacity();
+    }
+
+    public int getRenderThreads() {
+        return this.queues.length;
+    }
+
+    /**
+     * Encodes the events of one shard with the {@link CustomJsonLayout} of the
+     * referenced appenders, in order, for the writer thread.
+     */
+    private final class Worker implements Runnable {
+
+        private final int shard;
+
+        private final MpscQueue<CapturedEvent> queue;
+
+        private final MpscQueue<CapturedEvent> rendered;
+
+        private final Layout<?>[] layouts;
+
+        Worker(int shard, Layout<?>[] layouts) {
+            this.shard = shard;
+            this.queue = queues[shard];
+            this.rendered = renderedQueues[shard];
+            this.layouts = layouts;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long idleNanos = 1000;
+                while (running || !this.queue.isEmpty()) {
+                    CapturedEvent event = null;
+                    if (!this.queue.isEmpty()) {
+                        inFlight.set(this.shard, 1);
+                        event = this.queue.poll();
+                        if (event == null) {
+                            inFlight.set(this.shard, 0);
+                        }
+                    }
+                    if (event == null) {
+                        if (running) {
+                            LockSupport.parkNanos(idleNanos);
+                            idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                        } else {
+                            Thread.yield();
+                        }
+                        continue;
+                    }
+
+                    idleNanos = 1000;
+                    render(event);
+                    while (!this.rendered.offer(event)) {
+                        LockSupport.unpark(writerThread);
+                        LockSupport.parkNanos(1000);
+                    }
+                    inFlight.set(this.shard, 0);
+                }
+            } finally {
+                activeWorkers.decrementAndGet();
+                LockSupport.unpark(writerThread);
+            }
+        }
+
+        private void render(CapturedEvent event) {
+            if (this.layouts.length == 0) {
+                return;
+            }
+            byte[][] entries = new byte[this.layouts.length][];
+            for (int i = 0; i < this.layouts.length; i++) {
+                try {
+                    entries[i] = this.layouts[i].toByteArray(event);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Unable to render event for appender {}", getName(), ex);
+                }
+            }
+            event.setRendered(this.layouts, entries);
+        }
+    }
+
+    /**
+     * Writes the events with the referenced appenders. With one render thread,
+     * it renders the captured events in order. Otherwise, it merges the events
+     * encoded by the workers by their sequence.
+     */
+    private final class Writer implements Runnable {
+
+        private final AppenderControl[] controls;
+
+        private final MpscQueue<CapturedEvent>[] sources;
+
+        Writer(AppenderControl[] controls, MpscQueue<CapturedEvent>[] sources) {
+            this.controls = controls;
+            this.sources = sources;
+        }
+
+        @Override
+        public void run() {
+            long idleNanos = 1000;
+            while (isRendering() || !isEmpty(this.sources)) {
+                CapturedEvent event = next();
+                if (event == null) {
+                    if (!isRendering()) {
+                        Thread.yield();
+                    } else if (isPending()) {
+                        // a worker is encoding an earlier event
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(idleNanos);
+                        idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                    }
+                    continue;
+                }
+
+                idleNanos = 1000;
+                while (event != null) {
+                    CapturedEvent following = next();
+                    event.setEndOfBatch(following == null && isEmpty(this.sources) && !isPending());
+                    write(event);
+                    event = following;
+                }
+            }
+        }
+
+        private boolean isRendering() {
+            return renderedQueues == null ? running : activeWorkers.get() > 0;
+        }
+
+        /**
+         * Take the event of the lowest sequence of the shards. None is taken
+         * while a shard without encoded event still has a captured one, queued
+         * or being encoded, which may be earlier.
+         */
+        private CapturedEvent next() {
+            if (this.sources.length == 1) {
+                return this.sources[0].poll();
+            }
+            CapturedEvent first = null;
+            int shard = -1;
+            for (int i = 0; i < this.sources.length; i++) {
+                // read before the head, see isPending(int)
+                boolean pending = isPending(i);
+                CapturedEvent head = this.sources[i].peek();
+                if (head == null) {
+                    if (pending) {
+                        return null;
+                    }
+                } else if (first == null || head.getSequence() < first.getSequence()) {
+                    first = head;
+                    shard = i;
+                }
+            }
+            return first != null ? this.sources[shard].poll() : null;
+        }
+
+        private void write(CapturedEvent event) {
+            for (AppenderControl control : this.controls) {
+                try {
+                    control.callAppender(event);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Unable to render event with {} for appender {}", control.getAppenderName(),
+                            getName(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds {@link AsyncRenderAppender}.
+     */
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<AsyncRenderAppender> {
+
+        @PluginElement("AppenderRef")
+        @Required
+        private AppenderRef[] appenderRefs;
+
+        @PluginBuilderAttribute
+        private int queueSize = 4096;
+
+        @PluginBuilderAttribute
+        private QueueFullPolicy queueFullPolicy = QueueFullPolicy.BLOCK;
+
+        @PluginBuilderAttribute
+        private int sampleRate = 10;
+
+        @PluginBuilderAttribute
+        private boolean includeLocation;
+
+        @PluginBuilderAttribute
+        private int renderThreads = 1;
+
+        public B withAppenderRefs(AppenderRef... appenderRefs) {
+            this.appenderRefs = appenderRefs;
+            return asBuilder();
+        }
+
+        public B withQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return asBuilder();
+        }
+
+        public B withQueueFullPolicy(QueueFullPolicy queueFullPolicy) {
+            this.queueFullPolicy = queueFullPolicy;
+            return asBuilder();
+        }
+
+        public B withSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return asBuilder();
+        }
+
+        public B withIncludeLocation(boolean includeLocation) {
+            this.includeLocation = includeLocation;
+            return asBuilder();
+        }
+
+        public B withRenderThreads(int renderThreads) {
+            this.renderThreads = renderThreads;
+            return asBuilder();
+        }
+
+        @Override
+        public AsyncRenderAppender build() {
+            return new AsyncRenderAppender(getName(), getFilter(), isIgnoreExceptions(), this);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import id.dkakunsi.lab.jlogging.compress.Compression;
+import id.dkakunsi.lab.jlogging.compress.CompressedLogReader;
+import id.dkakunsi.lab.jlogging.compress.FrameEncoder;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+
+/**
+ * <p>
+ * File appender that keeps the request path free of I/O. The calling thread
+ * encodes the event into a slot of a lock-free bounded ring buffer, and a
+ * dedicated writer thread gathers the queued events into one direct
+ * {@link ByteBuffer} and writes them with a single {@link FileChannel#write}
+ * per batch.
+ * </p>
+ * <p>
+ * Made for {@link id.dkakunsi.lab.jlogging.layout.CustomJsonLayout} with
+ * {@code eventEol="true"}, but works with any layout.
+ * </p>
+ * <p>
+ * Configurable attributes:
+ * <ul>
+ * <li>{@code fileName}, the file to write. Required.</li>
+ * <li>{@code append}, whether to append to an existing file. Default to
+ * true.</li>
+ * <li>{@code ringBufferSize}, number of queued events, rounded up to a power of
+ * two. Default to 4096.</li>
+ * <li>{@code batchSize}, number of events written at once. Default to 512.</li>
+ * <li>{@code batchBufferSize}, size of the direct buffer in bytes. A batch is
+ * written early when it is full. Default to 256 KB.</li>
+ * <li>{@code flushInterval}, the longest time in milliseconds an event waits
+ * for its batch to fill up. Default to 100.</li>
+ * <li>{@code queueFullPolicy}, see {@link QueueFullPolicy}. Default to
+ * BLOCK.</li>
+ * <li>{@code sampleRate}, one of how many events is kept by
+ * {@link QueueFullPolicy#SAMPLE}. Default to 10.</li>
+ * <li>{@code compression}, see {@link Compression}. Each batch is written as
+ * one compressed frame, read back with {@link CompressedLogReader}. Default to
+ * NONE.</li>
+ * <li>{@code compressionLevel}, level of the codec, 0 for its default.</li>
+ * </ul>
+ * </p>
+ *
+ * @author dkakunsi
+ */
+@Plugin(name = "BatchingFile", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public final class BatchingFileAppender extends AbstractAppender {
+
+    private static final int SLOT_CAPACITY = 512;
+
+    /**
+     * Longest park of the writer thread when the ring is empty.
+     */
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String fileName;
+
+    private final boolean append;
+
+    private final int batchSize;
+
+    private final int batchBufferSize;
+
+    private final long flushIntervalNanos;
+
+    private final QueueFullPolicy queueFullPolicy;
+
+    private final int sampleRate;
+
+    private final Compression compression;
+
+    private final int compressionLevel;
+
+    private final EventRingBuffer ringBuffer;
+
+    private final AtomicLong fullCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    private BatchingFileAppender(String name, Filter filter, Layout<? extends Serializable> layout,
+            boolean ignoreExceptions, Builder<?> builder) {
+        super(name, filter, layout, ignoreExceptions);
+        this.fileName = builder.fileName;
+        this.append = builder.append;
+        this.batchSize = Math.max(1, builder.batchSize);
+        this.batchBufferSize = Math.max(SLOT_CAPACITY, builder.batchBufferSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, builder.flushInterval));
+        this.queueFullPolicy = builder.queueFullPolicy != null ? builder.queueFullPolicy : QueueFullPolicy.BLOCK;
+        this.sampleRate = builder.sampleRate;
+        this.compression = builder.compression != null ? builder.compression : Compression.NONE;
+        this.compressionLevel = builder.compressionLevel;
+        this.ringBuffer = new EventRingBuffer(Math.max(2, builder.ringBufferSize), SLOT_CAPACITY);
+    }
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void start() {
+        setStarting();
+        FileChannel channel;
+        try {
+            channel = openChannel();
+        } catch (IOException ex) {
+            error("Unable to open " + this.fileName, ex);
+            return;
+        }
+        this.running = true;
+        this.writerThread = Log4jThreadFactory.createDaemonThreadFactory("BatchingFile-" + getName())
+                .newThread(new Writer(channel));
+        this.writerThread.start();
+        super.start();
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        super.stop(timeout, timeUnit, false);
+        this.running = false;
+        if (this.writerThread != null) {
+            LockSupport.unpark(this.writerThread);
+            try {
+                if (timeout > 0) {
+                    this.writerThread.join(timeUnit.toMillis(timeout));
+                } else {
+                    this.writerThread.join();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        setStopped();
+        return this.writerThread == null || !this.writerThread.isAlive();
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        EventRingBuffer.Slot slot = claim(event);
+        if (slot == null) {
+            return;
+        }
+        try {
+            getLayout().encode(event, slot);
+        } catch (RuntimeException ex) {
+            slot.discard();
+            error("Unable to encode event", event, ex);
+            if (!ignoreExceptions()) {
+                throw new AppenderLoggingException(ex);
+            }
+        } finally {
+            this.ringBuffer.publish(slot);
+        }
+    }
+
+    private EventRingBuffer.Slot claim(LogEvent event) {
+        EventRingBuffer.Slot slot = this.ringBuffer.tryClaim();
+        if (slot != null) {
+            return slot;
+        }
+        if (!this.queueFullPolicy.shouldWait(event.getLevel(), this.fullCount.getAndIncrement(), this.sampleRate)) {
+            this.droppedCount.incrementAndGet();
+            return null;
+        }
+        while ((slot = this.ringBuffer.tryClaim()) == null) {
+            if (!this.running) {
+                this.droppedCount.incrementAndGet();
+                return null;
+            }
+            LockSupport.unpark(this.writerThread);
+            LockSupport.parkNanos(1000);
+        }
+        return slot;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        File file = new File(this.fileName);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        if (this.append) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return number of events dropped because the ring buffer was full
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Moves the queued events to the file, in batches.
+     */
+    private final class Writer implements Runnable {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer batch;
+
+        private final FrameEncoder encoder;
+
+        private long sequence;
+
+        private int batchedEvents;
+
+        private long batchStart;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            this.batch = ByteBuffer.allocateDirect(batchBufferSize);
+            this.encoder = compression.createEncoder(compressionLevel);
+        }
+
+        @Override
+        public void run() {
+            long idleNanos = 1000;
+            while (running || sequence < ringBuffer.getClaimed()) {
+                boolean consumed = false;
+                EventRingBuffer.Slot slot;
+                while (this.batchedEvents < batchSize && (slot = ringBuffer.peek(this.sequence)) != null) {
+                    add(slot.getEncoded());
+                    ringBuffer.release(slot);
+                    this.sequence++;
+                    consumed = true;
+                }
+
+                if (this.batchedEvents >= batchSize || !running
+                        || (this.batchedEvents > 0 && System.nanoTime() - this.batchStart >= flushIntervalNanos)) {
+                    flush();
+                }
+
+                if (consumed) {
+                    idleNanos = 1000;
+                } else if (running) {
+                    LockSupport.parkNanos(idleNanos);
+                    idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                } else {
+                    Thread.yield();
+                }
+            }
+            flush();
+            close();
+        }
+
+        private void add(ByteBuffer event) {
+            if (event.remaining() > this.batch.remaining()) {
+                flush();
+            }
+            if (this.batchedEvents == 0) {
+                this.batchStart = System.nanoTime();
+            }
+            if (event.remaining() > this.batch.capacity()) {
+                write(event);
+            } else {
+                this.batch.put(event);
+            }
+            this.batchedEvents++;
+        }
+
+        private void flush() {
+            if (this.batch.position() > 0) {
+                this.batch.flip();
+                write(this.batch);
+            }
+            this.batch.clear();
+            this.batchedEvents = 0;
+        }
+
+        private void write(ByteBuffer buffer) {
+            try {
+                if (this.encoder != null) {
+                    buffer = this.encoder.encode(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
+            } catch (IOException ex) {
+                LOGGER.error("Unable to write to {} for appender {}", fileName, getName(), ex);
+            }
+        }
+
+        private void close() {
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                LOGGER.error("Unable to close {} for appender {}", fileName, getName(), ex);
+            }
+        }
+    }
+
+    /**
+     * Builds {@link BatchingFileAppender}.
+     */
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<BatchingFileAppender> {
+
+        @PluginBuilderAttribute
+        @Required
+        private String fileName;
+
+        @PluginBuilderAttribute
+        private boolean append = true;
+
+        @PluginBuilderAttribute
+        private int ringBufferSize = 4096;
+
+        @PluginBuilderAttribute
+        private int batchSize = 512;
+
+        @PluginBuilderAttribute
+        private int batchBufferSize = 256 * 1024;
+
+        @PluginBuilderAttribute
+        private long flushInterval = 100;
+
+        @PluginBuilderAttribute
+        private QueueFullPolicy queueFullPolicy = QueueFullPolicy.BLOCK;
+
+        @PluginBuilderAttribute
+        private int sampleRate = 10;
+
+        @PluginBuilderAttribute
+        private Compression compression = Compression.NONE;
+
+        @PluginBuilderAttribute
+        private int compressionLevel;
+
+        public B withFileName(String fileName) {
+            this.fileName = fileName;
+            return asBuilder();
+        }
+
+        public B withAppend(boolean append) {
+            this.append = append;
+            return asBuilder();
+        }
+
+        public B withRingBufferSize(int ringBufferSize) {
+            this.ringBufferSize = ringBufferSize;
+            return asBuilder();
+        }
+
+        public B withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return asBuilder();
+        }
+
+        public B withBatchBufferSize(int batchBufferSize) {
+            this.batchBufferSize = batchBufferSize;
+            return asBuilder();
+        }
+
+        public B withFlushInterval(long flushInterval) {
+            this.flushInterval = flushInterval;
+            return asBuilder();
+        }
+
+        public B withQueueFullPolicy(QueueFullPolicy queueFullPolicy) {
+            this.queueFullPolicy = queueFullPolicy;
+            return asBuilder();
+        }
+
+        public B withSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return asBuilder();
+        }
+
+        public B withCompression(Compression compression) {
+            this.compression = compression;
+            return asBuilder();
+        }
+
+        public B withCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return asBuilder();
+        }
+
+        @Override
+        public BatchingFileAppender build() {
+            return new BatchingFileAppender(getName(), getFilter(), getOrCreateLayout(), isIgnoreExceptions(), this);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.util.Map;
+
+import id.dkakunsi.lab.jlogging.context.ContextSnapshot;
+import id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector;
+import id.dkakunsi.lab.jlogging.layout.RenderedEvent;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.ThrowableProxy;
+import org.apache.logging.log4j.core.time.Instant;
+import org.apache.logging.log4j.core.time.MutableInstant;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ReusableMessage;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+
+/**
+ * <p>
+ * What the logging thread keeps of an event to render it later on another
+ * thread: the fields read as they are, the message with its unformatted
+ * parameters, the context keys the appenders read (see
+ * {@link SnapshotContextDataInjector#capture(ReadOnlyStringMap, String[])})
+ * and the throwable as a reference. Nothing is formatted or rendered.
+ * </p>
+ * <p>
+ * Immutable, except for what the render threads set: the entries encoded by a
+ * render worker and the end of batch flag.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class CapturedEvent implements RenderedEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String loggerFqcn;
+
+    private final String loggerName;
+
+    private final Level level;
+
+    private final Marker marker;
+
+    private final transient Message message;
+
+    private final MutableInstant instant = new MutableInstant();
+
+    private final long nanoTime;
+
+    private final ContextSnapshot contextData;
+
+    private final ThreadContext.ContextStack contextStack;
+
+    private final String threadName;
+
+    private final long threadId;
+
+    private final int threadPriority;
+
+    private final transient Throwable thrown;
+
+    private final StackTraceElement source;
+
+    private final boolean includeLocation;
+
+    private final long sequence;
+
+    private transient ThrowableProxy thrownProxy;
+
+    private transient Layout<?>[] renderedLayouts;
+
+    private transient byte[][] rendered;
+
+    private boolean endOfBatch;
+
+    /**
+     * Capture an event, on the logging thread. The event may be reused by
+     * log4j once this returns.
+     *
+     * @param event           event to capture
+     * @param includeLocation whether to capture the location of the caller
+     * @param sequence        order of the event among those of the appender
+     * @param contextKeys     context keys to keep, sorted, {@code null} to keep
+     *                        all of them
+     */
+    CapturedEvent(LogEvent event, boolean includeLocation, long sequence, String[] contextKeys) {
+        this.loggerFqcn = event.getLoggerFqcn();
+        this.loggerName = event.getLoggerName();
+        this.level = event.getLevel();
+        this.marker = event.getMarker();
+        this.message = event.getMessage() instanceof ReusableMessage
+                ? ((ReusableMessage) event.getMessage()).memento()
+                : event.getMessage();
+        this.instant.initFrom(event.getInstant());
+        this.nanoTime = event.getNanoTime();
+        this.contextData = SnapshotContextDataInjector.capture(event.getContextData(), contextKeys);
+        this.contextStack = event.getContextStack();
+        this.threadName = event.getThreadName();
+        this.threadId = event.getThreadId();
+        this.threadPriority = event.getThreadPriority();
+        this.thrown = event.getThrown();
+        this.source = includeLocation ? event.getSource() : null;
+        this.includeLocation = includeLocation;
+        this.sequence = sequence;
+    }
+
+    long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Keep the entries encoded by a render worker.
+     *
+     * @param layouts  layouts that encoded the event
+     * @param rendered their entries, {@code null} where one failed
+     */
+    void setRendered(Layout<?>[] layouts, byte[][] rendered) {
+        this.renderedLayouts = layouts;
+        this.rendered = rendered;
+    }
+
+    @Override
+    public byte[] getRendered(Layout<?> layout) {
+        if (this.renderedLayouts != null) {
+            for (int i = 0; i < this.renderedLayouts.length; i++) {
+                if (this.renderedLayouts[i] == layout) {
+                    return this.rendered[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public LogEvent toImmutable() {
+        return this;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public Map<String, String> getContextMap() {
+        return this.contextData.toMap();
+    }
+
+    @Override
+    public ReadOnlyStringMap getContextData() {
+        return this.contextData;
+    }
+
+    @Override
+    public ThreadContext.ContextStack getContextStack() {
+        return this.contextStack;
+    }
+
+    @Override
+    public String getLoggerFqcn() {
+        return this.loggerFqcn;
+    }
+
+    @Override
+    public Level getLevel() {
+        return this.level;
+    }
+
+    @Override
+    public String getLoggerName() {
+        return this.loggerName;
+    }
+
+    @Override
+    public Marker getMarker() {
+        return this.marker;
+    }
+
+    @Override
+    public Message getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public long getTimeMillis() {
+        return this.instant.getEpochMillisecond();
+    }
+
+    @Override
+    public Instant getInstant() {
+        return this.instant;
+    }
+
+    @Override
+    public StackTraceElement getSource() {
+        return this.source;
+    }
+
+    @Override
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    @Override
+    public long getThreadId() {
+        return this.threadId;
+    }
+
+    @Override
+    public int getThreadPriority() {
+        return this.threadPriority;
+    }
+
+    @Override
+    public Throwable getThrown() {
+        return this.thrown;
+    }
+
+    @Override
+    public ThrowableProxy getThrownProxy() {
+        if (this.thrownProxy == null && this.thrown != null) {
+            this.thrownProxy = new ThrowableProxy(this.thrown);
+        }
+        return this.thrownProxy;
+    }
+
+    @Override
+    public boolean isEndOfBatch() {
+        return this.endOfBatch;
+    }
+
+    @Override
+    public boolean isIncludeLocation() {
+        return this.includeLocation;
+    }
+
+    @Override
+    public void setEndOfBatch(boolean endOfBatch) {
+        this.endOfBatch = endOfBatch;
+    }
+
+    @Override
+    public void setIncludeLocation(boolean includeLocation) {
+        // the location is captured or not
+    }
+
+    @Override
+    public long getNanoTime() {
+        return this.nanoTime;
+    }
+
+    /**
+     * Serialized as a {@link Log4jLogEvent}, with the formatted message.
+     */
+    private Object writeReplace() {
+        return Log4jLogEvent.createMemento(this, this.includeLocation);
+    }
+
+    @Override
+    public String toString() {
+        return "CapturedEvent[" + this.loggerName + ", " + this.level + ", " + this.message + "]";
+    }
+}
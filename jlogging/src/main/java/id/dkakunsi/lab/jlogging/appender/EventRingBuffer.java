@@ -0,0 +1,128 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Lock-free bounded ring of encoded events, for many producers and a single
+ * consumer. Each slot owns a reusable buffer the producer encodes into, so
+ * queuing an event does not allocate in steady state.
+ * </p>
+ * <p>
+ * A producer claims the next sequence with a CAS, encodes into the slot and
+ * publishes it. The consumer reads slots in sequence order and releases each of
+ * them once copied.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+final class EventRingBuffer {
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    /**
+     * Next sequence to claim.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Next sequence to consume.
+     */
+    private final AtomicLong consumed = new AtomicLong();
+
+    EventRingBuffer(int size, int slotCapacity) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Slot(slotCapacity);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Claim the next slot for a producer.
+     * 
+     * @return the slot, or {@code null} if the ring is full
+     */
+    Slot tryClaim() {
+        for (;;) {
+            long sequence = this.claimed.get();
+            if (sequence - this.consumed.get() >= this.slots.length) {
+                return null;
+            }
+            if (this.claimed.compareAndSet(sequence, sequence + 1)) {
+                Slot slot = this.slots[(int) sequence & this.mask];
+                slot.sequence = sequence;
+                slot.clear();
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Make a claimed slot visible to the consumer. It must be called for every
+     * claimed slot, even when encoding failed, or the consumer stalls.
+     * 
+     * @param slot claimed slot
+     */
+    void publish(Slot slot) {
+        slot.published = slot.sequence;
+    }
+
+    /**
+     * Get the published slot of a sequence, for the consumer.
+     * 
+     * @param sequence next sequence to consume
+     * @return the slot, or {@code null} if it is not published yet
+     */
+    Slot peek(long sequence) {
+        Slot slot = this.slots[(int) sequence & this.mask];
+        return slot.published == sequence ? slot : null;
+    }
+
+    /**
+     * Give a consumed slot back to the producers.
+     * 
+     * @param slot consumed slot
+     */
+    void release(Slot slot) {
+        this.consumed.lazySet(slot.sequence + 1);
+    }
+
+    /**
+     * @return next sequence to be claimed
+     */
+    long getClaimed() {
+        return this.claimed.get();
+    }
+
+    int getCapacity() {
+        return this.slots.length;
+    }
+
+    /**
+     * One queued event, the layout encodes straight into it.
+     */
+    static final class Slot extends GrowableDestination {
+
+        private volatile long published = -1;
+
+        private long sequence;
+
+        Slot(int capacity) {
+            super(capacity);
+        }
+
+        /**
+         * Discard what was encoded, e.g. after a failure.
+         */
+        void discard() {
+            getByteBuffer().clear();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+/**
+ * Reusable heap buffer a layout encodes one event into. It grows instead of
+ * draining, so an event is never split.
+ * 
+ * @author dkakunsi
+ */
+class GrowableDestination implements ByteBufferDestination {
+
+    private final int initialCapacity;
+
+    private ByteBuffer buffer;
+
+    GrowableDestination(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(ByteBuffer buf) {
+        ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+        buf.flip();
+        grown.put(buf);
+        this.buffer = grown;
+        return grown;
+    }
+
+    @Override
+    public void writeBytes(ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(byte[] data, int offset, int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    /**
+     * Discard what was encoded. A buffer grown by an unusually big event is
+     * given back.
+     */
+    void clear() {
+        if (this.buffer.capacity() > this.initialCapacity * 64) {
+            this.buffer = ByteBuffer.allocate(this.initialCapacity);
+        } else {
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * @return encoded event, ready to be read
+     */
+    ByteBuffer getEncoded() {
+        this.buffer.flip();
+        return this.buffer;
+    }
+}
@@ -0,0 +1,496 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.appender.rolling.FileSize;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+
+import id.dkakunsi.lab.jlogging.context.ContextKeyReader;
+import id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector;
+
+/**
+ * <p>
+ * Appender writing into pre-allocated, memory-mapped segment files. The calling
+ * thread encodes the event, reserves its range in the current segment with a
+ * CAS and copies it into the mapping, so an event costs no lock and no system
+ * call.
+ * </p>
+ * <p>
+ * Segments are named {@code fileName.000001}, {@code fileName.000002} and so
+ * on. The next segment is created and mapped in the background while the
+ * current one is written, so rolling over is a swap. The full segment is
+ * closed in the background too: its file is trimmed to the written events and
+ * gets an index footer, see {@link SegmentIndex}.
+ * </p>
+ * <p>
+ * With {@code sidecarKeys}, every closed segment also gets a sidecar index of
+ * the values of these context keys and of the event times, see
+ * {@link SidecarIndex}. Finding the events of a {@code correlationId} then
+ * reads only them, see {@link id.dkakunsi.lab.jlogging.tool.TraceLookup}.
+ * Recording costs a hash per key and a store per event, and the sidecar
+ * builder holds {@code 8 * (2 + keys)} bytes per event until the segment is
+ * closed.
+ * </p>
+ * <p>
+ * Made for {@link id.dkakunsi.lab.jlogging.layout.CustomJsonLayout} with
+ * {@code eventEol="true"}, which makes the segments newline-delimited JSON.
+ * </p>
+ * <p>
+ * Configurable attributes:
+ * <ul>
+ * <li>{@code fileName}, base name of the segments. Required.</li>
+ * <li>{@code segmentSize}, size of a segment, e.g. "64 MB". An event bigger
+ * than a segment is dropped. Default to 64 MB.</li>
+ * <li>{@code rolloverInterval}, seconds after which a segment is rolled over
+ * even if not full, 0 to roll by size only. Default to 0.</li>
+ * <li>{@code indexInterval}, every how many events an index entry is written.
+ * Default to 1024.</li>
+ * <li>{@code sidecarKeys}, comma-separated context keys indexed in the sidecar,
+ * e.g. "correlationId,tid". Default to none, without sidecar.</li>
+ * <li>{@code sidecarBucketMillis}, time span of a bucket of the sidecar's time
+ * table, in milliseconds. Default to 1000.</li>
+ * </ul>
+ * </p>
+ *
+ * @author dkakunsi
+ */
+@Plugin(name = "MappedRollingFile", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public final class MappedRollingFileAppender extends AbstractAppender implements ContextKeyReader {
+
+    private static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private static final int ENCODE_BUFFER_CAPACITY = 512;
+
+    private final String fileName;
+
+    private final int segmentSize;
+
+    private final long rolloverIntervalMillis;
+
+    private final int indexInterval;
+
+    private final String[] sidecarKeys;
+
+    private final long sidecarBucketMillis;
+
+    private final ThreadLocal<Writer> writers = new ThreadLocal<>();
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    private volatile MappedSegment current;
+
+    private Future<MappedSegment> next;
+
+    private MappedRollingFileAppender(String name, Filter filter, Layout<? extends Serializable> layout,
+            boolean ignoreExceptions, Builder<?> builder) {
+        super(name, filter, layout, ignoreExceptions);
+        this.fileName = builder.fileName;
+        this.segmentSize = (int) Math.min(MAX_SEGMENT_SIZE,
+                Math.max(ENCODE_BUFFER_CAPACITY, FileSize.parse(builder.segmentSize, 64 * 1024 * 1024)));
+        this.rolloverIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(0, builder.rolloverInterval));
+        this.indexInterval = Math.max(1, builder.indexInterval);
+        this.sidecarKeys = parseKeys(builder.sidecarKeys);
+        this.sidecarBucketMillis = Math.max(1, builder.sidecarBucketMillis);
+        SnapshotContextDataInjector.watch(builder.getConfiguration());
+    }
+
+    private static String[] parseKeys(String keys) {
+        if (keys == null || keys.trim().isEmpty()) {
+            return null;
+        }
+        String[] parsed = keys.split(",");
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = parsed[i].trim();
+        }
+        return parsed;
+    }
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void start() {
+        setStarting();
+        this.executor = Executors.newSingleThreadExecutor(
+                Log4jThreadFactory.createDaemonThreadFactory("MappedRollingFile-" + getName()));
+        try {
+            synchronized (this) {
+                this.sequence.set(findLastSequence());
+                this.current = activate(createSegment(), System.currentTimeMillis());
+                this.next = prepareSegment();
+            }
+        } catch (IOException ex) {
+            error("Unable to create segment of " + this.fileName, ex);
+            this.executor.shutdown();
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        super.stop(timeout, timeUnit, false);
+        synchronized (this) {
+            final MappedSegment last = this.current;
+            final Future<MappedSegment> unused = this.next;
+            this.current = null;
+            this.next = null;
+            if (last != null) {
+                this.executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        close(last);
+                        MappedSegment segment = getSegment(unused);
+                        if (segment != null) {
+                            segment.discard();
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+
+        boolean stopped = true;
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                stopped = this.executor.awaitTermination(timeout > 0 ? timeout : Long.MAX_VALUE, timeUnit);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                stopped = false;
+            }
+        }
+        setStopped();
+        return stopped;
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        Writer writer = getWriter();
+        try {
+            ByteBuffer encoded = writer.encode(getLayout(), event);
+            long[] hashes = this.sidecarKeys != null ? writer.hash(this.sidecarKeys, event) : null;
+            int length = encoded.remaining();
+            if (length > this.segmentSize) {
+                error("Event of " + length + " bytes does not fit a segment of " + this.segmentSize + " bytes", event,
+                        null);
+                return;
+            }
+
+            for (;;) {
+                MappedSegment segment = this.current;
+                if (segment == null) {
+                    error("Appender " + getName() + " has no segment", event, null);
+                    return;
+                }
+                long offset = event.getTimeMillis() < segment.getRollAt() ? segment.reserve(length) : -1;
+                if (offset >= 0) {
+                    segment.write(offset, encoded, writer.getView(segment), event.getTimeMillis(), hashes);
+                    return;
+                }
+                if (!roll(segment, event.getTimeMillis())) {
+                    return;
+                }
+            }
+        } catch (RuntimeException ex) {
+            error("Unable to write event", event, ex);
+            if (!ignoreExceptions()) {
+                throw new AppenderLoggingException(ex);
+            }
+        } finally {
+            writer.clear();
+        }
+    }
+
+    private Writer getWriter() {
+        if (!Constants.ENABLE_THREADLOCALS) {
+            return new Writer();
+        }
+        Writer writer = this.writers.get();
+        if (writer == null) {
+            writer = new Writer();
+            this.writers.set(writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Swap the full segment for the prepared one, and close the full one in the
+     * background.
+     *
+     * @param full      segment to roll over
+     * @param timestamp time of the event that did not fit
+     * @return false if no segment is available
+     */
+    private synchronized boolean roll(final MappedSegment full, long timestamp) {
+        if (this.current != full) {
+            return this.current != null;
+        }
+
+        MappedSegment segment = getSegment(this.next);
+        try {
+            if (segment == null) {
+                segment = createSegment();
+            }
+        } catch (IOException ex) {
+            error("Unable to create segment of " + this.fileName, ex);
+            return false;
+        }
+        this.current = activate(segment, timestamp);
+        this.next = prepareSegment();
+
+        this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                close(full);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Start the rollover interval from {@code timestamp}, or now, whichever is
+     * later, so the triggering event fits.
+     */
+    private MappedSegment activate(MappedSegment segment, long timestamp) {
+        if (this.rolloverIntervalMillis > 0) {
+            segment.setRollAt(Math.max(System.currentTimeMillis(), timestamp) + this.rolloverIntervalMillis);
+        }
+        return segment;
+    }
+
+    private Future<MappedSegment> prepareSegment() {
+        return this.executor.submit(new Callable<MappedSegment>() {
+            @Override
+            public MappedSegment call() throws Exception {
+                return createSegment();
+            }
+        });
+    }
+
+    /**
+     * Get a prepared segment, or {@code null} if preparing it failed.
+     */
+    private MappedSegment getSegment(Future<MappedSegment> future) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.error("Unable to create segment of {} for appender {}", this.fileName, getName(), ex.getCause());
+        }
+        return null;
+    }
+
+    private MappedSegment createSegment() throws IOException {
+        File file = new File(getSegmentName(this.fileName, this.sequence.incrementAndGet()));
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        SidecarWriter sidecar = this.sidecarKeys != null
+                ? new SidecarWriter(this.sidecarKeys, this.sidecarBucketMillis)
+                : null;
+        return MappedSegment.create(file, this.segmentSize, this.indexInterval, sidecar);
+    }
+
+    private void close(MappedSegment segment) {
+        try {
+            segment.close();
+        } catch (IOException ex) {
+            LOGGER.error("Unable to close segment {} for appender {}", segment.getFile(), getName(), ex);
+        }
+    }
+
+    /**
+     * Continue after the segments already on disk, never overwrite them.
+     */
+    private int findLastSequence() {
+        File base = new File(this.fileName).getAbsoluteFile();
+        String[] names = base.getParentFile() != null ? base.getParentFile().list() : null;
+        int last = 0;
+        if (names != null) {
+            String prefix = base.getName() + ".";
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    try {
+                        last = Math.max(last, Integer.parseInt(name.substring(prefix.length())));
+                    } catch (NumberFormatException ex) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @param fileName base name of the segments
+     * @param sequence sequence of the segment, from 1
+     * @return file name of the segment
+     */
+    public static String getSegmentName(String fileName, int sequence) {
+        return String.format("%s.%06d", fileName, sequence);
+    }
+
+    /**
+     * @return the context keys indexed in the sidecar, {@code null} when none
+     */
+    public String[] getSidecarKeys() {
+        return this.sidecarKeys != null ? this.sidecarKeys.clone() : null;
+    }
+
+    /**
+     * @return the context keys indexed in the sidecar, none without sidecar
+     */
+    @Override
+    public String[] getContextKeys() {
+        return this.sidecarKeys != null ? this.sidecarKeys.clone() : new String[0];
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Per-thread encoding buffer, sidecar key hashes and view of the current
+     * segment.
+     */
+    private static final class Writer {
+
+        private final GrowableDestination destination = new GrowableDestination(ENCODE_BUFFER_CAPACITY);
+
+        private long[] hashes;
+
+        private MappedSegment segment;
+
+        private ByteBuffer view;
+
+        ByteBuffer encode(Layout<? extends Serializable> layout, LogEvent event) {
+            layout.encode(event, this.destination);
+            return this.destination.getEncoded();
+        }
+
+        /**
+         * @return hash of the context value of every key, 0 when absent, in an
+         *         array reused for the next event
+         */
+        long[] hash(String[] keys, LogEvent event) {
+            if (this.hashes == null) {
+                this.hashes = new long[keys.length];
+            }
+            ReadOnlyStringMap context = event.getContextData();
+            for (int i = 0; i < keys.length; i++) {
+                Object value = context != null ? context.getValue(keys[i]) : null;
+                this.hashes[i] = value != null ? SidecarIndex.hash(value.toString()) : 0;
+            }
+            return this.hashes;
+        }
+
+        ByteBuffer getView(MappedSegment segment) {
+            if (this.segment != segment) {
+                this.segment = segment;
+                this.view = segment.newView();
+            }
+            return this.view;
+        }
+
+        void clear() {
+            this.destination.clear();
+        }
+    }
+
+    /**
+     * Builds {@link MappedRollingFileAppender}.
+     */
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<MappedRollingFileAppender> {
+
+        @PluginBuilderAttribute
+        @Required
+        private String fileName;
+
+        @PluginBuilderAttribute
+        private String segmentSize = "64 MB";
+
+        @PluginBuilderAttribute
+        private long rolloverInterval;
+
+        @PluginBuilderAttribute
+        private int indexInterval = 1024;
+
+        @PluginBuilderAttribute
+        private String sidecarKeys;
+
+        @PluginBuilderAttribute
+        private long sidecarBucketMillis = 1000;
+
+        public B withFileName(String fileName) {
+            this.fileName = fileName;
+            return asBuilder();
+        }
+
+        public B withSegmentSize(String segmentSize) {
+            this.segmentSize = segmentSize;
+            return asBuilder();
+        }
+
+        public B withRolloverInterval(long rolloverInterval) {
+            this.rolloverInterval = rolloverInterval;
+            return asBuilder();
+        }
+
+        public B withIndexInterval(int indexInterval) {
+            this.indexInterval = indexInterval;
+            return asBuilder();
+        }
+
+        public B withSidecarKeys(String sidecarKeys) {
+            this.sidecarKeys = sidecarKeys;
+            return asBuilder();
+        }
+
+        public B withSidecarBucketMillis(long sidecarBucketMillis) {
+            this.sidecarBucketMillis = sidecarBucketMillis;
+            return asBuilder();
+        }
+
+        @Override
+        public MappedRollingFileAppender build() {
+            return new MappedRollingFileAppender(getName(), getFilter(), getOrCreateLayout(), isIgnoreExceptions(),
+                    this);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * One pre-allocated, memory-mapped file of a {@link MappedRollingFileAppender}.
+ * Writers reserve a range with a CAS on the write position and copy the event
+ * into the mapping, so no lock is held and no system call is made.
+ * </p>
+ * <p>
+ * When sealed, the segment waits for the writers still copying, trims the file
+ * to the written data and appends the index footer read by
+ * {@link SegmentIndex}. With a {@link SidecarWriter}, it then writes the
+ * sidecar read by {@link SidecarIndex}.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class MappedSegment {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Write position of a sealed segment, no reservation fits after it.
+     */
+    private static final long SEALED = Long.MAX_VALUE / 2;
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private final int indexInterval;
+
+    private final AtomicLong position = new AtomicLong();
+
+    private final AtomicLong events = new AtomicLong();
+
+    private final AtomicInteger writers = new AtomicInteger();
+
+    private final SidecarWriter sidecar;
+
+    /**
+     * Offset and timestamp pairs of every {@code indexInterval}-th event.
+     */
+    private long[] index = new long[64];
+
+    private int indexLength;
+
+    private volatile long rollAt = Long.MAX_VALUE;
+
+    private MappedSegment(File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int indexInterval,
+            SidecarWriter sidecar) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        this.indexInterval = indexInterval;
+        this.sidecar = sidecar;
+    }
+
+    /**
+     * Create and map a segment file of {@code size} bytes.
+     *
+     * @param sidecar writer of the sidecar index, or {@code null} for none
+     */
+    static MappedSegment create(File file, int size, int indexInterval, SidecarWriter sidecar) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new MappedSegment(file, randomAccessFile, buffer, indexInterval, sidecar);
+        } catch (IOException | RuntimeException ex) {
+            randomAccessFile.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reserve {@code length} bytes. On success, the caller copies the event with
+     * {@link #write(long, ByteBuffer, ByteBuffer, long, long[])}, which ends the
+     * reservation.
+     *
+     * @return offset of the reserved range, or -1 if the segment is full or
+     *         sealed
+     */
+    long reserve(int length) {
+        this.writers.incrementAndGet();
+        for (;;) {
+            long offset = this.position.get();
+            if (offset + length > this.capacity) {
+                this.writers.decrementAndGet();
+                return -1;
+            }
+            if (this.position.compareAndSet(offset, offset + length)) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Copy a reserved event into the mapping, through {@code view}.
+     *
+     * @param offset    reserved offset
+     * @param event     encoded event
+     * @param view      a duplicate of this segment's buffer, owned by the caller
+     * @param timestamp event time, for the index
+     * @param hashes    hashes of the sidecar keys of the event, {@code null}
+     *                  without sidecar
+     */
+    void write(long offset, ByteBuffer event, ByteBuffer view, long timestamp, long[] hashes) {
+        try {
+            view.limit(this.capacity);
+            view.position((int) offset);
+            view.put(event);
+            long number = this.events.getAndIncrement();
+            if (number % this.indexInterval == 0) {
+                addIndex(offset, timestamp);
+            }
+            if (this.sidecar != null) {
+                this.sidecar.record(number, offset, timestamp, hashes);
+            }
+        } finally {
+            this.writers.decrementAndGet();
+        }
+    }
+
+    ByteBuffer newView() {
+        return this.buffer.duplicate();
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    long getRollAt() {
+        return this.rollAt;
+    }
+
+    void setRollAt(long rollAt) {
+        this.rollAt = rollAt;
+    }
+
+    private synchronized void addIndex(long offset, long timestamp) {
+        if (this.indexLength + 2 > this.index.length) {
+            this.index = Arrays.copyOf(this.index, this.index.length * 2);
+        }
+        this.index[this.indexLength++] = offset;
+        this.index[this.indexLength++] = timestamp;
+    }
+
+    /**
+     * Stop new reservations, wait for the writers, then trim the file and write
+     * the index footer, and the sidecar if any.
+     */
+    void close() throws IOException {
+        long length = Math.min(this.position.getAndSet(SEALED), this.capacity);
+        while (this.writers.get() > 0) {
+            LockSupport.parkNanos(1000);
+        }
+
+        try {
+            this.buffer.force();
+            FileChannel channel = this.randomAccessFile.getChannel();
+            channel.truncate(length);
+            ByteBuffer footer = ByteBuffer.wrap(renderFooter(length).getBytes(UTF_8));
+            long position = length;
+            while (footer.hasRemaining()) {
+                position += channel.write(footer, position);
+            }
+        } finally {
+            this.randomAccessFile.close();
+        }
+        if (this.sidecar != null) {
+            this.sidecar.write(SidecarIndex.getFile(this.file), length, this.events.get());
+        }
+    }
+
+    /**
+     * Close and delete a segment that was never written.
+     */
+    void discard() throws IOException {
+        this.randomAccessFile.close();
+        if (!this.file.delete() && this.file.exists()) {
+            throw new IOException("Unable to delete " + this.file);
+        }
+    }
+
+    /**
+     * Index entries sorted by offset, as writers may record them out of order.
+     */
+    private synchronized String renderFooter(long length) {
+        long[][] entries = new long[this.indexLength / 2][];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new long[] { this.index[i * 2], this.index[i * 2 + 1] };
+        }
+        Arrays.sort(entries, SegmentIndex.BY_OFFSET);
+
+        StringBuilder footer = new StringBuilder(64 + entries.length * 32);
+        footer.append("{\"").append(SegmentIndex.INDEX_FIELD).append("\":{");
+        footer.append("\"dataLength\":").append(length);
+        footer.append(",\"events\":").append(this.events.get());
+        footer.append(",\"interval\":").append(this.indexInterval);
+        footer.append(",\"entries\":[");
+        for (int i = 0; i < entries.length; i++) {
+            if (i > 0) {
+                footer.append(',');
+            }
+            footer.append('[').append(entries[i][0]).append(',').append(entries[i][1]).append(']');
+        }
+        footer.append("]}}\n");
+        return footer.toString();
+    }
+}
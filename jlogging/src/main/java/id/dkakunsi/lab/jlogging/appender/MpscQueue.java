@@ -0,0 +1,127 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Lock-free bounded queue of references, for many producers and a single
+ * consumer. Unlike {@link EventRingBuffer}, a slot holds the element itself,
+ * not an encoded copy of it.
+ * </p>
+ * <p>
+ * A producer claims the next sequence with a CAS, stores the element and
+ * publishes the slot. The consumer takes the slots in sequence order, so the
+ * elements of one producer come out in the order it offered them.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class MpscQueue<E> {
+
+    private final Cell<E>[] cells;
+
+    private final int mask;
+
+    /**
+     * Next sequence to claim.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Next sequence to consume, written by the consumer only.
+     */
+    private final AtomicLong consumed = new AtomicLong();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    MpscQueue(int size) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.cells = new Cell[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.cells[i] = new Cell<>();
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Queue an element, from any thread.
+     *
+     * @param element element to queue
+     * @return false if the queue is full
+     */
+    boolean offer(E element) {
+        for (;;) {
+            long sequence = this.claimed.get();
+            if (sequence - this.consumed.get() >= this.cells.length) {
+                return false;
+            }
+            if (this.claimed.compareAndSet(sequence, sequence + 1)) {
+                Cell<E> cell = this.cells[(int) sequence & this.mask];
+                cell.element = element;
+                cell.published = sequence;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take the next element, from the consumer thread only.
+     *
+     * @return the element, or {@code null} if the next one is not published
+     *         yet
+     */
+    E poll() {
+        long sequence = this.consumed.get();
+        Cell<E> cell = this.cells[(int) sequence & this.mask];
+        if (cell.published != sequence) {
+            return null;
+        }
+        E element = cell.element;
+        cell.element = null;
+        this.consumed.lazySet(sequence + 1);
+        return element;
+    }
+
+    /**
+     * Look at the next element without taking it, from the consumer thread
+     * only.
+     *
+     * @return the element, or {@code null} if the next one is not published
+     *         yet
+     */
+    E peek() {
+        long sequence = this.consumed.get();
+        Cell<E> cell = this.cells[(int) sequence & this.mask];
+        return cell.published == sequence ? cell.element : null;
+    }
+
+    /**
+     * @return whether no element is claimed and not consumed yet
+     */
+    boolean isEmpty() {
+        return this.claimed.get() == this.consumed.get();
+    }
+
+    /**
+     * @return number of elements claimed and not consumed yet
+     */
+    int size() {
+        return (int) Math.max(0, this.claimed.get() - this.consumed.get());
+    }
+
+    int getCapacity() {
+        return this.cells.length;
+    }
+
+    /**
+     * One slot of the queue.
+     */
+    private static final class Cell<E> {
+
+        private volatile long published = -1;
+
+        private E element;
+    }
+}
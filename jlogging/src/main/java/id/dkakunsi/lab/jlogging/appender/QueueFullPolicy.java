@@ -0,0 +1,43 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * What an appender does with an event when its queue is full. Events at
+ * {@link Level#WARN} or more severe always wait for space.
+ * 
+ * @author dkakunsi
+ */
+public enum QueueFullPolicy {
+
+    /**
+     * Wait for space.
+     */
+    BLOCK,
+
+    /**
+     * Drop DEBUG, INFO and other less severe events.
+     */
+    DROP,
+
+    /**
+     * Keep one out of {@code sampleRate} of the less severe events, waiting for
+     * space, and drop the rest.
+     */
+    SAMPLE;
+
+    /**
+     * Whether to wait for space, or drop the event.
+     * 
+     * @param level    event level
+     * @param sequence number of less severe events found the queue full so far
+     * @param rate     sampling rate
+     * @return true to wait for space
+     */
+    boolean shouldWait(Level level, long sequence, int rate) {
+        if (this == BLOCK || level.isMoreSpecificThan(Level.WARN)) {
+            return true;
+        }
+        return this == SAMPLE && rate > 0 && sequence % rate == 0;
+    }
+}
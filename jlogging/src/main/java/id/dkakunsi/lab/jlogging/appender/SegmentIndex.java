@@ -0,0 +1,168 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Comparator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Index footer of a segment written by {@link MappedRollingFileAppender}. It is
+ * the last line of the segment, a JSON object under the {@value #INDEX_FIELD}
+ * field:
+ * </p>
+ *
+ * <pre>
+ * {"@index":{"dataLength":1048320,"events":4096,"interval":1024,"entries":[[0,1546300800000],[262080,1546300800120],...]}}
+ * </pre>
+ * <p>
+ * Each entry is the offset and timestamp of every {@code interval}-th event.
+ * The events are the newline-delimited lines before {@code dataLength}, so a
+ * reader can seek to a time range without scanning the file.
+ * </p>
+ * <p>
+ * A segment without footer, e.g. after a crash, may end with zero bytes of the
+ * unused pre-allocated space.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class SegmentIndex {
+
+    public static final String INDEX_FIELD = "@index";
+
+    static final Comparator<long[]> BY_OFFSET = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return Long.compare(a[0], b[0]);
+        }
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final long dataLength;
+
+    private final long events;
+
+    private final int interval;
+
+    private final long[] offsets;
+
+    private final long[] timestamps;
+
+    private SegmentIndex(long dataLength, long events, int interval, long[] offsets, long[] timestamps) {
+        this.dataLength = dataLength;
+        this.events = events;
+        this.interval = interval;
+        this.offsets = offsets;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Read the footer of a segment.
+     *
+     * @param segment segment file
+     * @return the index, or {@code null} if the segment has no footer
+     * @throws IOException when the file cannot be read
+     */
+    public static SegmentIndex read(File segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            long end = file.length() - 1;
+            if (end < 0 || readByte(file, end) != '\n') {
+                return null;
+            }
+
+            long start = findLineStart(file, end);
+
+            byte[] line = new byte[(int) (end - start)];
+            file.seek(start);
+            file.readFully(line);
+            if (line.length == 0 || line[0] != '{') {
+                return null;
+            }
+
+            JsonNode index = MAPPER.readTree(line).get(INDEX_FIELD);
+            if (index == null) {
+                return null;
+            }
+            JsonNode entries = index.get("entries");
+            long[] offsets = new long[entries.size()];
+            long[] timestamps = new long[entries.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = entries.get(i).get(0).asLong();
+                timestamps[i] = entries.get(i).get(1).asLong();
+            }
+            return new SegmentIndex(index.get("dataLength").asLong(), index.get("events").asLong(),
+                    index.get("interval").asInt(), offsets, timestamps);
+        }
+    }
+
+    /**
+     * Scan back, a block at a time, for the start of the line ending at
+     * {@code end}.
+     */
+    private static long findLineStart(RandomAccessFile file, long end) throws IOException {
+        byte[] block = new byte[8192];
+        long blockEnd = end;
+        while (blockEnd > 0) {
+            int length = (int) Math.min(block.length, blockEnd);
+            long blockStart = blockEnd - length;
+            file.seek(blockStart);
+            file.readFully(block, 0, length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (block[i] == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    private static int readByte(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        return file.read();
+    }
+
+    /**
+     * Find where to start reading for events at or after {@code timestamp}.
+     * Timestamps of concurrent writers are not strictly ordered, so the reader
+     * still filters the events it reads.
+     *
+     * @param timestamp milliseconds since epoch
+     * @return offset of the last indexed event before {@code timestamp}, or 0
+     */
+    public long findOffset(long timestamp) {
+        long offset = 0;
+        for (int i = 0; i < this.offsets.length && this.timestamps[i] < timestamp; i++) {
+            offset = this.offsets[i];
+        }
+        return offset;
+    }
+
+    /**
+     * @return length of the events, where the footer starts
+     */
+    public long getDataLength() {
+        return this.dataLength;
+    }
+
+    public long getEvents() {
+        return this.events;
+    }
+
+    public int getInterval() {
+        return this.interval;
+    }
+
+    public long[] getOffsets() {
+        return this.offsets.clone();
+    }
+
+    public long[] getTimestamps() {
+        return this.timestamps.clone();
+    }
+}
@@ -0,0 +1,230 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Sidecar index of a segment written by {@link MappedRollingFileAppender} with
+ * {@code sidecarKeys}, in the file {@code <segment>.idx}. It is written when
+ * the segment is closed, next to the footer of {@link SegmentIndex}, and
+ * finds the events of a context value, e.g. a {@code correlationId}, without
+ * reading the segment.
+ * </p>
+ * <p>
+ * The file is big-endian binary:
+ * </p>
+ *
+ * <pre>
+ * int magic "JLIX", int version, long dataLength, long events, long bucketMillis, int keys
+ * int buckets, then per bucket: long start, long offset
+ * per key: UTF name, int count, then per event with the key: long hash, int offset
+ * </pre>
+ * <p>
+ * A bucket's offset is the lowest offset of the events at or after its start,
+ * so reading from there misses none of them. The events of a key are sorted
+ * by the {@link #hash(CharSequence) hash} of their value and looked up by
+ * binary search over the mapped file. An event is found by the hash of its
+ * value: a 64-bit collision would return a foreign event, which is not
+ * expected in practice.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class SidecarIndex {
+
+    public static final String SUFFIX = ".idx";
+
+    static final int MAGIC = 0x4A4C4958;
+
+    static final int VERSION = 1;
+
+    private static final int BUCKET_SIZE = 16;
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final ByteBuffer buffer;
+
+    private final long dataLength;
+
+    private final long events;
+
+    private final long bucketMillis;
+
+    private final int bucketsPosition;
+
+    private final int bucketCount;
+
+    /**
+     * Key name to the position and the count of its entries.
+     */
+    private final Map<String, int[]> keys;
+
+    private SidecarIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a sidecar index");
+        }
+        this.dataLength = buffer.getLong();
+        this.events = buffer.getLong();
+        this.bucketMillis = buffer.getLong();
+        int keyCount = buffer.getInt();
+        this.bucketCount = buffer.getInt();
+        this.bucketsPosition = buffer.position();
+        buffer.position(this.bucketsPosition + this.bucketCount * BUCKET_SIZE);
+
+        this.keys = new LinkedHashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            String name = readUTF(buffer);
+            int count = buffer.getInt();
+            this.keys.put(name, new int[] { buffer.position(), count });
+            buffer.position(buffer.position() + count * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * @param segment segment file
+     * @return sidecar file of the segment
+     */
+    public static File getFile(File segment) {
+        return new File(segment.getPath() + SUFFIX);
+    }
+
+    /**
+     * Map the sidecar of a segment.
+     *
+     * @param segment segment file
+     * @return the index, or {@code null} if the segment has no sidecar, e.g. it
+     *         is still written
+     * @throws IOException when the sidecar cannot be read or is invalid
+     */
+    public static SidecarIndex read(File segment) throws IOException {
+        File file = getFile(segment);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new SidecarIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (RuntimeException ex) {
+            throw new IOException("Invalid sidecar index " + file, ex);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of a value. Never 0, which marks an
+     * event without the key.
+     *
+     * @param value context value
+     * @return the hash
+     */
+    public static long hash(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Find the offsets of the events with a value of a key.
+     *
+     * @param key   indexed key
+     * @param value value of the key
+     * @return offsets of the events in ascending order, or {@code null} if the
+     *         key is not indexed
+     */
+    public long[] findOffsets(String key, String value) {
+        int[] table = this.keys.get(key);
+        if (table == null) {
+            return null;
+        }
+        long hash = hash(value);
+        int low = 0;
+        int high = table[1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.buffer.getLong(table[0] + middle * ENTRY_SIZE) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        long[] offsets = new long[8];
+        int count = 0;
+        for (int i = low; i < table[1] && this.buffer.getLong(table[0] + i * ENTRY_SIZE) == hash; i++) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = this.buffer.getInt(table[0] + i * ENTRY_SIZE + 8);
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Find where to start reading for events at or after {@code timestamp}.
+     * The events of the same bucket before {@code timestamp} are read too.
+     *
+     * @param timestamp milliseconds since epoch
+     * @return offset from which every event at or after {@code timestamp} is
+     *         read, {@link #getDataLength()} when there is none
+     */
+    public long findOffset(long timestamp) {
+        long start = timestamp > Long.MIN_VALUE + this.bucketMillis
+                ? SidecarWriter.floor(timestamp, this.bucketMillis)
+                : Long.MIN_VALUE;
+        int low = 0;
+        int high = this.bucketCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.buffer.getLong(this.bucketsPosition + middle * BUCKET_SIZE) < start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < this.bucketCount ? this.buffer.getLong(this.bucketsPosition + low * BUCKET_SIZE + 8)
+                : this.dataLength;
+    }
+
+    /**
+     * @return length of the events, where the footer starts
+     */
+    public long getDataLength() {
+        return this.dataLength;
+    }
+
+    public long getEvents() {
+        return this.events;
+    }
+
+    public long getBucketMillis() {
+        return this.bucketMillis;
+    }
+
+    /**
+     * @return the indexed keys
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(this.keys.keySet());
+    }
+
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] encoded = new byte[length + 2];
+        encoded[0] = (byte) (length >>> 8);
+        encoded[1] = (byte) length;
+        buffer.get(encoded, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+    }
+}
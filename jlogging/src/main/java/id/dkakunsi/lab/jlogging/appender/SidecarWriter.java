@@ -0,0 +1,189 @@
+package id.dkakunsi.lab.jlogging.appender;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Collects the offset, timestamp and key hashes of every event of a
+ * {@link MappedSegment}, and writes them as the sidecar read by
+ * {@link SidecarIndex} when the segment is closed.
+ * </p>
+ * <p>
+ * Writers record concurrently without lock: the event number of the segment
+ * gives every event its own slot. Slots are in chunks allocated on demand, so
+ * only the chunk directory is ever replaced, under lock, once every
+ * {@value #CHUNK_EVENTS} events.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class SidecarWriter {
+
+    private static final int CHUNK_EVENTS = 1024;
+
+    private static final Comparator<long[]> BY_HASH = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            int compared = Long.compare(a[0], b[0]);
+            return compared != 0 ? compared : Long.compare(a[1], b[1]);
+        }
+    };
+
+    private final String[] keys;
+
+    private final long bucketMillis;
+
+    /**
+     * Longs per event: offset, timestamp, then a hash per key.
+     */
+    private final int stride;
+
+    private volatile long[][] chunks = new long[16][];
+
+    SidecarWriter(String[] keys, long bucketMillis) {
+        this.keys = keys;
+        this.bucketMillis = bucketMillis;
+        this.stride = 2 + keys.length;
+    }
+
+    String[] getKeys() {
+        return this.keys;
+    }
+
+    /**
+     * @param event     event number in the segment, from 0
+     * @param offset    offset of the event
+     * @param timestamp event time
+     * @param hashes    hash of the value of every key, 0 when absent
+     */
+    void record(long event, long offset, long timestamp, long[] hashes) {
+        int chunk = (int) (event / CHUNK_EVENTS);
+        long[][] chunks = this.chunks;
+        long[] records = chunk < chunks.length ? chunks[chunk] : null;
+        if (records == null) {
+            records = allocate(chunk);
+        }
+        int position = (int) (event % CHUNK_EVENTS) * this.stride;
+        records[position] = offset;
+        records[position + 1] = timestamp;
+        System.arraycopy(hashes, 0, records, position + 2, this.keys.length);
+    }
+
+    /**
+     * Publish the chunk through the volatile directory, so a writer reading
+     * it sees an allocated array.
+     */
+    private synchronized long[] allocate(int chunk) {
+        long[][] chunks = this.chunks;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new long[CHUNK_EVENTS * this.stride];
+        }
+        this.chunks = chunks;
+        return chunks[chunk];
+    }
+
+    /**
+     * Write the sidecar of the segment, once its writers are done. It is
+     * written aside and renamed, so a reader never sees it partially.
+     *
+     * @param sidecar    target file
+     * @param dataLength length of the events in the segment
+     * @param events     number of events in the segment
+     */
+    void write(File sidecar, long dataLength, long events) throws IOException {
+        long[][] chunks = this.chunks;
+        File temporary = new File(sidecar.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024))) {
+            output.writeInt(SidecarIndex.MAGIC);
+            output.writeInt(SidecarIndex.VERSION);
+            output.writeLong(dataLength);
+            output.writeLong(events);
+            output.writeLong(this.bucketMillis);
+            output.writeInt(this.keys.length);
+            writeBuckets(output, chunks, events);
+            for (int key = 0; key < this.keys.length; key++) {
+                writeKey(output, chunks, events, key);
+            }
+        }
+        if (!temporary.renameTo(sidecar)) {
+            sidecar.delete();
+            if (!temporary.renameTo(sidecar)) {
+                temporary.delete();
+                throw new IOException("Unable to write " + sidecar);
+            }
+        }
+    }
+
+    /**
+     * Every non-empty bucket with the lowest offset of the events in it or in
+     * a later bucket. Concurrent writers may put an event before an older one,
+     * so seeking there misses none of the events since the bucket start.
+     */
+    private void writeBuckets(DataOutputStream output, long[][] chunks, long events) throws IOException {
+        TreeMap<Long, Long> buckets = new TreeMap<>();
+        for (long event = 0; event < events; event++) {
+            long[] records = chunks[(int) (event / CHUNK_EVENTS)];
+            int position = (int) (event % CHUNK_EVENTS) * this.stride;
+            long offset = records[position];
+            Long bucket = floor(records[position + 1], this.bucketMillis);
+            Long lowest = buckets.get(bucket);
+            if (lowest == null || offset < lowest) {
+                buckets.put(bucket, offset);
+            }
+        }
+
+        output.writeInt(buckets.size());
+        long[] starts = new long[buckets.size()];
+        long[] offsets = new long[buckets.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> bucket : buckets.entrySet()) {
+            starts[i] = bucket.getKey();
+            offsets[i++] = bucket.getValue();
+        }
+        for (i = offsets.length - 2; i >= 0; i--) {
+            offsets[i] = Math.min(offsets[i], offsets[i + 1]);
+        }
+        for (i = 0; i < starts.length; i++) {
+            output.writeLong(starts[i]);
+            output.writeLong(offsets[i]);
+        }
+    }
+
+    private void writeKey(DataOutputStream output, long[][] chunks, long events, int key) throws IOException {
+        long[][] entries = new long[(int) events][];
+        int count = 0;
+        for (long event = 0; event < events; event++) {
+            long[] records = chunks[(int) (event / CHUNK_EVENTS)];
+            int position = (int) (event % CHUNK_EVENTS) * this.stride;
+            long hash = records[position + 2 + key];
+            if (hash != 0) {
+                entries[count++] = new long[] { hash, records[position] };
+            }
+        }
+        Arrays.sort(entries, 0, count, BY_HASH);
+
+        output.writeUTF(this.keys[key]);
+        output.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            output.writeLong(entries[i][0]);
+            output.writeInt((int) entries[i][1]);
+        }
+    }
+
+    static long floor(long timestamp, long bucketMillis) {
+        long remainder = timestamp % bucketMillis;
+        return timestamp - (remainder < 0 ? remainder + bucketMillis : remainder);
+    }
+}
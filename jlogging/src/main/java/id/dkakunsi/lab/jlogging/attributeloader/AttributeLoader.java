@@ -1,7 +1,19 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
+import org.apache.logging.log4j.core.LogEvent;
+
 /**
  * Load attribute with the specified {@code key} from its context.
+ * <p>
+ * The event being rendered is passed into every call, so implementations must
+ * not keep per-event state. A single loader is shared by all threads logging
+ * through the same layout.
+ * </p>
  * 
  * @author dkakunsi
  */
@@ -10,10 +22,28 @@ public interface AttributeLoader {
     /**
      * Load attribute from context with the give {@code key}.
      * 
-     * @param key attribute key
+     * @param key   attribute key
+     * @param event event being rendered
      * @return attribute in K:V pair
      */
-    Object load(String key);
+    Object load(String key, LogEvent event);
+
+    /**
+     * Write attribute with the given {@code key} straight into the
+     * {@code generator}, including the field name. Nothing is written when the
+     * attribute has no value, the same way {@link #load(String, LogEvent)}
+     * returns {@code null}.
+     * <p>
+     * It is only called for keys this loader {@link #contains(String)}, the
+     * layout binds each key to its loader once at construction.
+     * </p>
+     * 
+     * @param key       attribute key, already encoded as JSON field name
+     * @param event     event being rendered
+     * @param generator generator of the current log entry
+     * @throws IOException when the generator fails to write
+     */
+    void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException;
 
     /**
      * Whether this loader can load attribute with the given {@code key}.
@@ -23,4 +53,4 @@ public interface AttributeLoader {
      */
     boolean contains(String key);
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.util.ServiceLoader;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+/**
+ * <p>
+ * Add attributes to {@link CustomJsonLayout} without changing it. Factories are
+ * discovered with {@link ServiceLoader}, listed in
+ * {@code META-INF/services/id.dkakunsi.lab.jlogging.attributeloader.AttributeLoaderFactory}
+ * and created with their no-argument constructor.
+ * </p>
+ * <p>
+ * A factory declares the keys its loader owns and their
+ * {@link AttributeScope}. An owned key is bound to its loader before the
+ * built-in loaders are asked, so a factory can also take over a built-in key.
+ * When two factories declare the same key, the first one discovered keeps it.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+public interface AttributeLoaderFactory {
+
+    /**
+     * @return name of the loader, e.g. in the layout metrics
+     */
+    String getName();
+
+    /**
+     * @return keys owned by the loader
+     */
+    String[] getKeys();
+
+    /**
+     * @param key one of the owned keys
+     * @return how often the value of {@code key} changes
+     */
+    AttributeScope getScope(String key);
+
+    /**
+     * Create the loader of a layout, once per layout.
+     * 
+     * @param layout the layout being created, with its configuration set
+     * @return the loader
+     */
+    AttributeLoader createLoader(CustomJsonLayout layout);
+}
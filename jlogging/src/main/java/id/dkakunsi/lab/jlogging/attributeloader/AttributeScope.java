@@ -0,0 +1,29 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+/**
+ * How often the value of an attribute changes, declared by an
+ * {@link AttributeLoaderFactory} for each key it owns. The layout loads a value
+ * only as often as its scope requires.
+ * 
+ * @author dkakunsi
+ */
+public enum AttributeScope {
+
+    /**
+     * Same value for every event. It is loaded once, when the layout is created,
+     * with a {@code null} event.
+     */
+    CONSTANT,
+
+    /**
+     * Same value for every event of the thread that logged it, e.g. a value
+     * derived from {@link org.apache.logging.log4j.core.LogEvent#getThreadId()}.
+     * It is loaded again when a rendering thread gets an event of another thread.
+     */
+    THREAD,
+
+    /**
+     * Value of the event, written by the loader for every event.
+     */
+    EVENT
+}
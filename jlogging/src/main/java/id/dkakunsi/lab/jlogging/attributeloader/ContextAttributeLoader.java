@@ -1,5 +1,16 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+
 import org.apache.logging.log4j.ThreadContext;
 import org.apache.logging.log4j.core.LogEvent;
 
@@ -7,26 +18,133 @@ import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
 
 /**
  * <p>
- * Load attributes from {@link ThreadContext} inside {@link LogEvent}. Each key
- * will be supported as long as it exists in the context. {@code null} will be
+ * Load attributes from {@link ThreadContext} inside {@link LogEvent}. Any key
+ * is accepted, so this loader must be the last one to be selected. The value
+ * is looked up in the context of the rendered event, {@code null} will be
  * returned if it is not exists.
  * </p>
+ * <p>
+ * A text value longer than the limit of its key is cut and ends with the
+ * layout's truncation marker. A cut never splits a surrogate pair.
+ * </p>
+ * <p>
+ * A text value of a raw JSON key that holds a single valid JSON value is
+ * embedded as JSON instead of a string. It is checked with a streaming parser
+ * and copied as it is into JSON text, or token by token when it spans lines or
+ * the output is binary. Invalid JSON, or JSON over the limit, is written as a
+ * string.
+ * </p>
  * 
  * @author dkakunsi
  */
 public class ContextAttributeLoader extends EventAttributeLoader {
 
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final int maxValueLength;
+
+    private final Map<String, Integer> valueLimits;
+
+    private final String truncationMarker;
+
+    private final Set<String> rawJsonKeys;
+
     public ContextAttributeLoader(CustomJsonLayout layout) {
         super(layout);
+        this.maxValueLength = layout.getMaxContextValueLength();
+        this.valueLimits = layout.getContextValueLimits();
+        this.truncationMarker = layout.getTruncationMarker();
+        this.rawJsonKeys = new HashSet<>(layout.getRawJsonAttributes());
+    }
+
+    @Override
+    public Object load(String key, LogEvent event) {
+        return event.getContextData().getValue(key);
     }
 
     @Override
-    public Object load(String key) {
-        return this.layout.getEvent().getContextData().getValue(key);
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        Object value = load(key.getValue(), event);
+        if (value == null) {
+            return;
+        }
+
+        generator.writeFieldName(key);
+        if (!(value instanceof CharSequence)) {
+            generator.writeObject(value);
+            return;
+        }
+
+        CharSequence text = (CharSequence) value;
+        int limit = getLimit(key.getValue());
+        if (text.length() <= limit) {
+            if (this.rawJsonKeys.contains(key.getValue()) && writeRawJson(text.toString(), generator)) {
+                return;
+            }
+            JsonStringEscaper.writeString(text, generator);
+        } else {
+            TextBuffer.writeTruncated(text, cutAt(text, limit), this.truncationMarker, generator);
+        }
     }
 
     @Override
     public boolean contains(String key) {
-        return load(key) != null;
+        return key != null;
+    }
+
+    private int getLimit(String key) {
+        Integer limit = this.valueLimits.get(key);
+        int length = limit != null ? limit : this.maxValueLength;
+        return length > 0 ? length : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Move the cut before a high surrogate, so its pair is not split.
+     */
+    private static int cutAt(CharSequence text, int limit) {
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    /**
+     * Write {@code json} as JSON value.
+     * 
+     * @return false if nothing is written because it is not a single JSON value
+     */
+    private static boolean writeRawJson(String json, JsonGenerator generator) throws IOException {
+        if (!isJsonValue(json)) {
+            return false;
+        }
+
+        if (JsonGenerators.isText(generator) && json.indexOf('\n') < 0 && json.indexOf('\r') < 0) {
+            generator.writeRawValue(json);
+            return true;
+        }
+        try (JsonParser parser = FACTORY.createParser(new StringReader(json))) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return true;
+    }
+
+    /**
+     * Whether the text is one complete JSON object or array, checked without
+     * copying it.
+     */
+    private static boolean isJsonValue(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        if (start == text.length() || (text.charAt(start) != '{' && text.charAt(start) != '[')) {
+            return false;
+        }
+
+        try (JsonParser parser = FACTORY.createParser(new StringReader(text))) {
+            parser.nextToken();
+            parser.skipChildren();
+            return parser.currentToken() != null && parser.nextToken() == null;
+        } catch (IOException ex) {
+            return false;
+        }
     }
 }
@@ -1,9 +1,23 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.message.MapMessage;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterConsumer;
+import org.apache.logging.log4j.message.ParameterVisitable;
+import org.apache.logging.log4j.message.ReusableMessage;
+import org.apache.logging.log4j.util.IndexedReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
 
 import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
 
@@ -17,8 +31,25 @@ import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
  * <li>category, which will return the logger name</li>
  * <li>level</li>
  * <li>message</li>
+ * <li>messageTemplate, the message before its parameters are applied, e.g.
+ * {@code "Order {} is paid"}</li>
+ * <li>messageParameters, the parameters of the message as JSON array</li>
+ * <li>messageFields, the entries of a {@link MapMessage} as JSON object</li>
  * <li>stacktrace, which will return exception stacktrace, if exists</li>
+ * <li>stacktraceHash, fingerprint of the exception stacktrace, if exists</li>
  * </ul>
+ * <p>
+ * Parameters and entries keep their type: numbers and booleans are written as
+ * JSON numbers and booleans, any other value as its {@link String} form. They
+ * are written without formatting the message. An attribute the message has no
+ * value for is not written. A trailing parameter that is the throwable of the
+ * message, as in {@code log.error("Failed {}", id, ex)}, is not a parameter of
+ * the template and is left out.
+ * </p>
+ * <p>
+ * Thread and logger names are escaped once and kept as UTF-8 bytes, for a
+ * layout rendering UTF-8.
+ * </p>
  * 
  * @author dkakunsi
  */
@@ -32,10 +63,21 @@ public class EventAttributeLoader implements AttributeLoader {
 
     private static final String MESSAGE = "message";
 
+    private static final String MESSAGE_TEMPLATE = "messageTemplate";
+
+    private static final String MESSAGE_PARAMETERS = "messageParameters";
+
+    private static final String MESSAGE_FIELDS = "messageFields";
+
     private static final List<String> SUPPORTED_ATTRIBUTES;
 
+    private static final int NAME_CACHE_SIZE = 256;
+
+    private static final ParameterWriter PARAMETER_WRITER = new ParameterWriter();
+
     static {
-        SUPPORTED_ATTRIBUTES = Arrays.asList(new String[] { THREAD, CATEGORY, LEVEL, MESSAGE });
+        SUPPORTED_ATTRIBUTES = Arrays.asList(new String[] { THREAD, CATEGORY, LEVEL, MESSAGE, MESSAGE_TEMPLATE,
+                MESSAGE_PARAMETERS, MESSAGE_FIELDS });
     }
 
     /**
@@ -43,28 +85,253 @@ public class EventAttributeLoader implements AttributeLoader {
      */
     protected CustomJsonLayout layout;
 
+    private final NameCache threadNames = new NameCache(NAME_CACHE_SIZE);
+
+    private final NameCache loggerNames = new NameCache(NAME_CACHE_SIZE);
+
     public EventAttributeLoader(CustomJsonLayout layout) {
         this.layout = layout;
     }
 
     @Override
-    public Object load(String key) {
+    public Object load(String key, LogEvent event) {
         switch (key) {
             case THREAD:
-                return this.layout.getEvent().getThreadName();
+                return event.getThreadName();
             case CATEGORY:
-                return this.layout.getEvent().getLoggerName();
+                return event.getLoggerName();
             case LEVEL:
-                return this.layout.getEvent().getLevel().getStandardLevel();
+                return event.getLevel().getStandardLevel();
             case MESSAGE:
-                return this.layout.getEvent().getMessage().getFormattedMessage();
+                return event.getMessage().getFormattedMessage();
+            case MESSAGE_TEMPLATE:
+                return getTemplate(event.getMessage());
+            case MESSAGE_PARAMETERS:
+                if (event.getMessage() instanceof MapMessage) {
+                    return null;
+                }
+                Object[] parameters = event.getMessage().getParameters();
+                int count = countParameters(parameters, event.getMessage());
+                return count > 0 ? Arrays.asList(Arrays.copyOf(parameters, count)) : null;
+            case MESSAGE_FIELDS:
+                return event.getMessage() instanceof MapMessage ? ((MapMessage<?, ?>) event.getMessage()).getData()
+                        : null;
             default:
                 return null;
         }
     }
 
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        switch (key.getValue()) {
+            case THREAD:
+                writeNameField(key, event.getThreadName(), this.threadNames, generator);
+                break;
+            case CATEGORY:
+                writeNameField(key, event.getLoggerName(), this.loggerNames, generator);
+                break;
+            case LEVEL:
+                generator.writeFieldName(key);
+                generator.writeString(event.getLevel().getStandardLevel().name());
+                break;
+            case MESSAGE:
+                generator.writeFieldName(key);
+                writeMessage(event.getMessage(), generator);
+                break;
+            case MESSAGE_TEMPLATE:
+                writeStringField(key, getTemplate(event.getMessage()), generator);
+                break;
+            case MESSAGE_PARAMETERS:
+                writeParameters(key, event.getMessage(), generator);
+                break;
+            case MESSAGE_FIELDS:
+                writeFields(key, event.getMessage(), generator);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write string field, skipping {@code null} value.
+     * 
+     * @param key       field name
+     * @param value     field value
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    protected static void writeStringField(SerializableString key, String value, JsonGenerator generator)
+            throws IOException {
+        if (value != null) {
+            generator.writeFieldName(key);
+            JsonStringEscaper.writeString(value, generator);
+        }
+    }
+
+    /**
+     * Write a name repeated across events, escaped once through {@code cache}.
+     */
+    private static void writeNameField(SerializableString key, String name, NameCache cache,
+            JsonGenerator generator) throws IOException {
+        if (name != null) {
+            generator.writeFieldName(key);
+            cache.write(name, generator);
+        }
+    }
+
+    /**
+     * Write the message text without creating an intermediate {@link String} when
+     * the message can format itself into a buffer and thread locals are allowed.
+     * 
+     * @param message   log message
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    private static void writeMessage(Message message, JsonGenerator generator) throws IOException {
+        if (Constants.ENABLE_THREADLOCALS && message instanceof StringBuilderFormattable
+                && TextBuffer.writeString((StringBuilderFormattable) message, generator)) {
+            return;
+        }
+        JsonStringEscaper.writeString(message.getFormattedMessage(), generator);
+    }
+
+    private static String getTemplate(Message message) {
+        if (message instanceof MapMessage) {
+            return null;
+        }
+        String format = message.getFormat();
+        return format != null && !format.isEmpty() ? format : null;
+    }
+
+    /**
+     * Write the parameters of the message, visiting them in place when the
+     * message is reusable and has no throwable, so no array is copied.
+     */
+    private static void writeParameters(SerializableString key, Message message, JsonGenerator generator)
+            throws IOException {
+        if (message instanceof MapMessage) {
+            return;
+        }
+        if (message instanceof ReusableMessage && message instanceof ParameterVisitable
+                && message.getThrowable() == null) {
+            if (((ReusableMessage) message).getParameterCount() == 0) {
+                return;
+            }
+            generator.writeFieldName(key);
+            generator.writeStartArray();
+            try {
+                ((ParameterVisitable) message).forEachParameter(PARAMETER_WRITER, generator);
+            } catch (WriteFailure ex) {
+                throw ex.getCause();
+            }
+            generator.writeEndArray();
+            return;
+        }
+
+        Object[] parameters = message.getParameters();
+        int count = countParameters(parameters, message);
+        if (count == 0) {
+            return;
+        }
+        generator.writeFieldName(key);
+        generator.writeStartArray();
+        for (int i = 0; i < count; i++) {
+            writeValue(parameters[i], generator);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * @return number of parameters to write, without a trailing one that is the
+     *         throwable of the message
+     */
+    private static int countParameters(Object[] parameters, Message message) {
+        if (parameters == null) {
+            return 0;
+        }
+        int count = parameters.length;
+        Throwable thrown = message.getThrowable();
+        if (thrown != null && count > 0 && parameters[count - 1] == thrown) {
+            count--;
+        }
+        return count;
+    }
+
+    private static void writeFields(SerializableString key, Message message, JsonGenerator generator)
+            throws IOException {
+        if (!(message instanceof MapMessage)) {
+            return;
+        }
+        IndexedReadOnlyStringMap fields = ((MapMessage<?, ?>) message).getIndexedReadOnlyStringMap();
+        generator.writeFieldName(key);
+        generator.writeStartObject();
+        for (int i = 0; i < fields.size(); i++) {
+            generator.writeFieldName(fields.getKeyAt(i));
+            writeValue(fields.getValueAt(i), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write a value keeping the type of numbers and booleans.
+     */
+    private static void writeValue(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            JsonStringEscaper.writeString((String) value, generator);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeString(String.valueOf(value));
+        }
+    }
+
     @Override
     public boolean contains(String key) {
         return SUPPORTED_ATTRIBUTES.contains(key);
     }
+
+    /**
+     * Write each visited parameter into the generator given as state.
+     */
+    private static final class ParameterWriter implements ParameterConsumer<JsonGenerator> {
+
+        @Override
+        public void accept(Object parameter, int parameterIndex, JsonGenerator generator) {
+            try {
+                writeValue(parameter, generator);
+            } catch (IOException ex) {
+                throw new WriteFailure(ex);
+            }
+        }
+    }
+
+    /**
+     * Carry an {@link IOException} out of a {@link ParameterConsumer}.
+     */
+    private static final class WriteFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        WriteFailure(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
 }
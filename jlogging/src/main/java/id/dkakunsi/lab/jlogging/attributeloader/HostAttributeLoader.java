@@ -1,7 +1,25 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
 
 /**
  * <p>
@@ -9,10 +27,21 @@ import java.net.UnknownHostException;
  * 
  * The supported attributes are:
  * <ul>
- * <li>hostname, which will produce {@link InetAddress} hostname</li>
- * <li>host, which will produce {@link InetAddress} hostname</li>
+ * <li>hostname, which will produce the host name</li>
+ * <li>host, which will produce the host name</li>
  * </ul>
  * </p>
+ * <p>
+ * The host name is resolved once, when the loader is created, from the first
+ * available of: the {@code HOSTNAME} environment variable, {@code /etc/hostname}
+ * and {@link InetAddress}. It is kept JSON-encoded, so no log call ever does a
+ * name lookup. When a refresh interval is given, the name is resolved again in
+ * the background.
+ * </p>
+ * <p>
+ * The environment and the host name file are given to the loader, so they can
+ * be replaced, e.g. in tests.
+ * </p>
  * 
  * @author dkakunsi
  */
@@ -22,22 +51,168 @@ public class HostAttributeLoader implements AttributeLoader {
 
     private static final String HOST = "host";
 
+    private static final String HOSTNAME_ENV = "HOSTNAME";
+
+    private static final Path HOSTNAME_FILE = Paths.get("/etc/hostname");
+
+    private static ScheduledExecutorService refresher;
+
+    private final Map<String, String> environment;
+
+    private final Path hostNameFile;
+
+    private volatile SerializableString hostName;
+
+    public HostAttributeLoader() {
+        this(0);
+    }
+
+    /**
+     * @param refreshInterval seconds between background resolution, 0 to resolve
+     *                        only once
+     */
+    public HostAttributeLoader(long refreshInterval) {
+        this(refreshInterval, System.getenv(), HOSTNAME_FILE);
+    }
+
+    /**
+     * @param refreshInterval seconds between background resolution, 0 to resolve
+     *                        only once
+     * @param environment     environment variables to read {@code HOSTNAME} from
+     * @param hostNameFile    file to read the host name from, in place of
+     *                        {@code /etc/hostname}
+     */
+    public HostAttributeLoader(long refreshInterval, Map<String, String> environment, Path hostNameFile) {
+        this.environment = environment;
+        this.hostNameFile = hostNameFile;
+        this.hostName = encode(resolveHostName(environment, hostNameFile));
+        if (refreshInterval > 0) {
+            scheduleRefresh(this, refreshInterval);
+        }
+    }
+
     @Override
-    public Object load(String key) {
+    public Object load(String key, LogEvent event) {
         if (!contains(key)) {
             return null;
         }
+        return this.hostName.getValue();
+    }
+
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        generator.writeFieldName(key);
+        generator.writeString(this.hostName);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return HOSTNAME.equals(key) || HOST.equals(key);
+    }
+
+    /**
+     * Resolve the host name from the environment, then {@code /etc/hostname},
+     * then {@link InetAddress}. This may block on a name lookup.
+     * 
+     * @return host name, or the lookup failure message
+     */
+    public static String resolveHostName() {
+        return resolveHostName(System.getenv(), HOSTNAME_FILE);
+    }
+
+    /**
+     * Resolve the host name from the given environment, then the given file,
+     * then {@link InetAddress}. This may block on a name lookup.
+     * 
+     * @param environment  environment variables to read {@code HOSTNAME} from
+     * @param hostNameFile file to read the host name from
+     * @return host name, or the lookup failure message
+     */
+    public static String resolveHostName(Map<String, String> environment, Path hostNameFile) {
+        String hostName = environment.get(HOSTNAME_ENV);
+        if (isPresent(hostName)) {
+            return hostName.trim();
+        }
+
+        hostName = readHostNameFile(hostNameFile);
+        if (isPresent(hostName)) {
+            return hostName;
+        }
 
         try {
-            InetAddress inetAddress = InetAddress.getLocalHost();
-            return inetAddress.getHostName();
+            return InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
             return e.getMessage();
         }
     }
 
-    @Override
-    public boolean contains(String key) {
-        return HOSTNAME.equals(key) || HOST.equals(key);
+    private static String readHostNameFile(Path hostNameFile) {
+        if (hostNameFile == null || !Files.isReadable(hostNameFile)) {
+            return null;
+        }
+        try {
+            for (String line : Files.readAllLines(hostNameFile, StandardCharsets.UTF_8)) {
+                if (isPresent(line)) {
+                    return line.trim();
+                }
+            }
+        } catch (IOException e) {
+            // fall through to the next source
+        }
+        return null;
+    }
+
+    private static boolean isPresent(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    private static SerializableString encode(String hostName) {
+        SerializableString encoded = new SerializedString(String.valueOf(hostName));
+        encoded.asQuotedChars();
+        encoded.asQuotedUTF8();
+        return encoded;
+    }
+
+    private static synchronized void scheduleRefresh(HostAttributeLoader loader, long refreshInterval) {
+        if (refresher == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    Log4jThreadFactory.createDaemonThreadFactory("HostAttributeLoader"));
+            executor.setRemoveOnCancelPolicy(true);
+            refresher = executor;
+        }
+        RefreshTask task = new RefreshTask(loader);
+        task.future = refresher.scheduleWithFixedDelay(task, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Resolve the host name of a loader in the background. The loader is only
+     * weakly referenced, the task cancels itself once the loader, and so its
+     * layout, is discarded on reconfiguration.
+     */
+    private static final class RefreshTask implements Runnable {
+
+        private final WeakReference<HostAttributeLoader> loader;
+
+        private volatile ScheduledFuture<?> future;
+
+        RefreshTask(HostAttributeLoader loader) {
+            this.loader = new WeakReference<>(loader);
+        }
+
+        @Override
+        public void run() {
+            HostAttributeLoader target = this.loader.get();
+            if (target == null) {
+                if (this.future != null) {
+                    this.future.cancel(false);
+                }
+                return;
+            }
+
+            String hostName = resolveHostName(target.environment, target.hostNameFile);
+            if (!String.valueOf(hostName).equals(target.hostName.getValue())) {
+                target.hostName = encode(hostName);
+            }
+        }
     }
 }
@@ -0,0 +1,39 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+
+/**
+ * Helpers for writers that copy pre-rendered JSON text.
+ * 
+ * @author dkakunsi
+ */
+public final class JsonGenerators {
+
+    private JsonGenerators() {
+    }
+
+    /**
+     * Whether the generator writes JSON text, so pre-rendered text can be copied
+     * with {@link JsonGenerator#writeRaw(String)}. Generators of binary formats
+     * do not support it, their values must be written one by one.
+     * 
+     * @param generator target generator
+     * @return true for a JSON text generator
+     */
+    public static boolean isText(JsonGenerator generator) {
+        return generator instanceof JsonGeneratorImpl;
+    }
+
+    /**
+     * Whether the generator writes JSON text as UTF-8 bytes, so escaped text can
+     * be copied with {@link JsonGenerator#writeRawUTF8String(byte[], int, int)}.
+     * 
+     * @param generator target generator
+     * @return true for a UTF-8 JSON text generator
+     */
+    public static boolean isUtf8(JsonGenerator generator) {
+        return generator instanceof UTF8JsonGenerator;
+    }
+}
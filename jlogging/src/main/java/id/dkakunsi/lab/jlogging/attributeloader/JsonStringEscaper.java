@@ -0,0 +1,259 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.apache.logging.log4j.core.util.Constants;
+
+/**
+ * <p>
+ * Write JSON strings into a generator writing UTF-8, escaping and encoding
+ * each character in one pass straight into a byte buffer, which the generator
+ * copies as is.
+ * </p>
+ * <p>
+ * ASCII characters are looked up in a 128-entry escape table, and a run of
+ * characters needing no escape is copied in a tight loop. Other characters are
+ * encoded as UTF-8 right away, a surrogate pair as one four-byte sequence. The
+ * escapes are the ones Jackson writes, so the bytes are the same as JSON text
+ * rendered as chars then encoded as UTF-8. An unpaired surrogate, which has no
+ * UTF-8 form, is written as a {@code \\uXXXX} escape.
+ * </p>
+ * <p>
+ * Any other generator gets the text through
+ * {@link JsonGenerator#writeString(String)}, as well as every generator when
+ * thread locals are disabled.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class JsonStringEscaper {
+
+    private static final int DEFAULT_SIZE = 256;
+
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private static final int UNICODE_ESCAPE = -1;
+
+    private static final int[] ESCAPES = new int[128];
+
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E',
+            'F' };
+
+    private static final ThreadLocal<Buffer> BUFFERS = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = UNICODE_ESCAPE;
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\r'] = 'r';
+    }
+
+    private JsonStringEscaper() {
+    }
+
+    /**
+     * Write {@code text} as JSON string.
+     *
+     * @param text      text to write
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    public static void writeString(CharSequence text, JsonGenerator generator) throws IOException {
+        if (!Constants.ENABLE_THREADLOCALS || !JsonGenerators.isUtf8(generator)) {
+            generator.writeString(text.toString());
+            return;
+        }
+
+        Buffer buffer = BUFFERS.get();
+        int length = text.length();
+        char[] chars = buffer.chars(length);
+        getChars(text, length, chars);
+        write(chars, 0, length, buffer, generator);
+    }
+
+    /**
+     * Write {@code length} characters of {@code text} as JSON string.
+     *
+     * @param text      text to write
+     * @param offset    first character
+     * @param length    characters to write
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    public static void writeString(char[] text, int offset, int length, JsonGenerator generator) throws IOException {
+        if (!Constants.ENABLE_THREADLOCALS || !JsonGenerators.isUtf8(generator)) {
+            generator.writeString(text, offset, length);
+            return;
+        }
+        write(text, offset, length, BUFFERS.get(), generator);
+    }
+
+    /**
+     * Escape {@code text} into a new array, without the enclosing quotes.
+     *
+     * @param text text to escape
+     * @return escaped UTF-8 bytes
+     */
+    public static byte[] escape(CharSequence text) {
+        Buffer buffer = new Buffer();
+        int length = text.length();
+        char[] chars = buffer.chars(length);
+        getChars(text, length, chars);
+        int size = escape(chars, 0, length, buffer);
+        return Arrays.copyOf(buffer.bytes, size);
+    }
+
+    private static void write(char[] text, int offset, int length, Buffer buffer, JsonGenerator generator)
+            throws IOException {
+        try {
+            int size = escape(text, offset, length, buffer);
+            generator.writeRawUTF8String(buffer.bytes, 0, size);
+        } finally {
+            buffer.trim();
+        }
+    }
+
+    private static void getChars(CharSequence text, int length, char[] chars) {
+        if (text instanceof String) {
+            ((String) text).getChars(0, length, chars, 0);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Escape and encode into the bytes of {@code buffer}.
+     *
+     * @return number of bytes written
+     */
+    private static int escape(char[] text, int offset, int length, Buffer buffer) {
+        int end = offset + length;
+        // room for three bytes per character, enough for all but escapes
+        byte[] bytes = buffer.bytes(length * 3);
+        int position = 0;
+        int i = offset;
+        while (i < end) {
+            while (i < end) {
+                char c = text[i];
+                if (c >= 128 || ESCAPES[c] != 0) {
+                    break;
+                }
+                bytes[position++] = (byte) c;
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+
+            char c = text[i++];
+            if (c < 128) {
+                bytes = ensure(buffer, bytes, position, end - i);
+                position = writeEscape(c, bytes, position);
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(text[i])) {
+                int codePoint = Character.toCodePoint(c, text[i++]);
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                bytes = ensure(buffer, bytes, position, end - i);
+                position = writeUnicodeEscape(c, bytes, position);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Make room for an escape, keeping three bytes per remaining character. Any
+     * other character fits in the room it was given.
+     */
+    private static byte[] ensure(Buffer buffer, byte[] bytes, int position, int remaining) {
+        int required = position + 6 + remaining * 3;
+        return required > bytes.length ? buffer.grow(position, required) : bytes;
+    }
+
+    private static int writeEscape(char c, byte[] bytes, int position) {
+        int escape = ESCAPES[c];
+        if (escape == UNICODE_ESCAPE) {
+            return writeUnicodeEscape(c, bytes, position);
+        }
+        bytes[position] = '\\';
+        bytes[position + 1] = (byte) escape;
+        return position + 2;
+    }
+
+    private static int writeUnicodeEscape(char c, byte[] bytes, int position) {
+        bytes[position] = '\\';
+        bytes[position + 1] = 'u';
+        bytes[position + 2] = HEX[(c >> 12) & 0xF];
+        bytes[position + 3] = HEX[(c >> 8) & 0xF];
+        bytes[position + 4] = HEX[(c >> 4) & 0xF];
+        bytes[position + 5] = HEX[c & 0xF];
+        return position + 6;
+    }
+
+    /**
+     * Scratch space of one thread.
+     */
+    private static final class Buffer {
+
+        private char[] chars = new char[DEFAULT_SIZE];
+
+        private byte[] bytes = new byte[DEFAULT_SIZE * 3];
+
+        char[] chars(int length) {
+            if (this.chars.length < length) {
+                this.chars = new char[Math.max(length, this.chars.length * 2)];
+            }
+            return this.chars;
+        }
+
+        byte[] bytes(int length) {
+            if (this.bytes.length < length) {
+                this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+            }
+            return this.bytes;
+        }
+
+        byte[] grow(int used, int length) {
+            byte[] grown = new byte[Math.max(length, this.bytes.length * 2)];
+            System.arraycopy(this.bytes, 0, grown, 0, used);
+            this.bytes = grown;
+            return grown;
+        }
+
+        void trim() {
+            if (this.chars.length > MAX_SIZE) {
+                this.chars = new char[DEFAULT_SIZE];
+            }
+            if (this.bytes.length > MAX_SIZE * 3) {
+                this.bytes = new byte[DEFAULT_SIZE * 3];
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * <p>
+ * Escaped UTF-8 bytes of names repeated by most events, e.g. logger and thread
+ * names, so they are escaped once rather than per event.
+ * </p>
+ * <p>
+ * The cache is a fixed-size table indexed by the name's hash, without locking:
+ * a name evicts the one in its slot, and the entries are immutable, so threads
+ * racing on a slot at worst escape the same name twice.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class NameCache {
+
+    private static final int MAX_NAME_LENGTH = 256;
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    NameCache(int size) {
+        int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        this.entries = new Entry[slots];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Write {@code name} as JSON string, from the cache when the generator writes
+     * UTF-8.
+     *
+     * @param name      name to write
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    void write(String name, JsonGenerator generator) throws IOException {
+        if (name.length() > MAX_NAME_LENGTH || !JsonGenerators.isUtf8(generator)) {
+            generator.writeString(name);
+            return;
+        }
+
+        int hash = name.hashCode();
+        int index = (hash ^ (hash >>> 16)) & this.mask;
+        Entry entry = this.entries[index];
+        if (entry == null || !entry.name.equals(name)) {
+            entry = new Entry(name, JsonStringEscaper.escape(name));
+            this.entries[index] = entry;
+        }
+        generator.writeRawUTF8String(entry.bytes, 0, entry.bytes.length);
+    }
+
+    private static final class Entry {
+
+        private final String name;
+
+        private final byte[] bytes;
+
+        Entry(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+/**
+ * <p>
+ * Load attributes of the process and of the logging thread, through
+ * {@link Factory}. The supported attributes are:
+ * <ul>
+ * <li>pid, the process id, constant</li>
+ * <li>threadId, id of the thread that logged the event, per thread</li>
+ * <li>threadPriority, priority of the thread that logged the event, per
+ * thread</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The factory is not listed for discovery, as its keys would take over the
+ * context values of the same names. Set it in the layout's
+ * {@code loaderFactories}, or list it in a
+ * {@code META-INF/services/id.dkakunsi.lab.jlogging.attributeloader.AttributeLoaderFactory}
+ * file of the application.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+public class ProcessAttributeLoader implements AttributeLoader {
+
+    private static final String PID = "pid";
+
+    private static final String THREAD_ID = "threadId";
+
+    private static final String THREAD_PRIORITY = "threadPriority";
+
+    private final Long pid = resolvePid();
+
+    @Override
+    public Object load(String key, LogEvent event) {
+        switch (key) {
+            case PID:
+                return this.pid;
+            case THREAD_ID:
+                return event.getThreadId();
+            case THREAD_PRIORITY:
+                return event.getThreadPriority();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        switch (key.getValue()) {
+            case PID:
+                if (this.pid != null) {
+                    generator.writeFieldName(key);
+                    generator.writeNumber(this.pid);
+                }
+                break;
+            case THREAD_ID:
+                generator.writeFieldName(key);
+                generator.writeNumber(event.getThreadId());
+                break;
+            case THREAD_PRIORITY:
+                generator.writeFieldName(key);
+                generator.writeNumber(event.getThreadPriority());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return PID.equals(key) || THREAD_ID.equals(key) || THREAD_PRIORITY.equals(key);
+    }
+
+    /**
+     * Get the process id from the runtime name, which is {@code pid@host} on the
+     * common JVMs.
+     */
+    private static Long resolvePid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int separator = name.indexOf('@');
+        try {
+            return Long.valueOf(separator > 0 ? name.substring(0, separator) : name);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Factory of {@link ProcessAttributeLoader}.
+     */
+    public static final class Factory implements AttributeLoaderFactory {
+
+        @Override
+        public String getName() {
+            return "process";
+        }
+
+        @Override
+        public String[] getKeys() {
+            return new String[] { PID, THREAD_ID, THREAD_PRIORITY };
+        }
+
+        @Override
+        public AttributeScope getScope(String key) {
+            return PID.equals(key) ? AttributeScope.CONSTANT : AttributeScope.THREAD;
+        }
+
+        @Override
+        public AttributeLoader createLoader(CustomJsonLayout layout) {
+            return new ProcessAttributeLoader();
+        }
+    }
+}
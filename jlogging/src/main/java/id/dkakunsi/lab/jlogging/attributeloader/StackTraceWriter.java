@@ -0,0 +1,374 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import id.dkakunsi.lab.jlogging.metrics.LayoutMetrics;
+
+/**
+ * <p>
+ * Stream exceptions into a {@link JsonGenerator}, in the format of
+ * {@link StacktraceAttributeLoader#generateStackTrace(Throwable, boolean)}.
+ * </p>
+ * <p>
+ * The {@code stack} array of each exception is rendered once and kept in a
+ * bounded cache keyed by its frames, so an exception thrown again and again
+ * from the same place is written by copying the cached JSON. The cache is
+ * direct-mapped: a slot is replaced by the latest stack hashing into it. The
+ * cache is bypassed for generators of binary formats.
+ * </p>
+ * <p>
+ * Big traces can be trimmed with:
+ * <ul>
+ * <li>{@code maxFrames}, frames written per exception.</li>
+ * <li>{@code maxCauseDepth}, causes written below the logged exception.</li>
+ * <li>{@code collapseCommonFrames}, whether to drop the frames a cause shares
+ * with its enclosing exception, as {@link Throwable#printStackTrace()} does.
+ * The count is written as {@code commonFrames}.</li>
+ * <li>{@code filteredPackages}, class name prefixes of frames to skip.</li>
+ * </ul>
+ * Frames skipped by the limit or the filter are counted in
+ * {@code omittedFrames}. Both counts are only written when not zero.
+ * </p>
+ * <p>
+ * {@link #fingerprint(Throwable, boolean)} identifies a trace by the classes
+ * of the exception and its causes and by their frames, but not by the
+ * messages, so the same failure has the same fingerprint across events and
+ * restarts.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class StackTraceWriter {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final SerializableString EXCEPTION_FIELD = new SerializedString("exception");
+
+    private static final SerializableString MESSAGE_FIELD = new SerializedString("message");
+
+    private static final SerializableString STACK_FIELD = new SerializedString("stack");
+
+    private static final SerializableString COMMON_FRAMES_FIELD = new SerializedString("commonFrames");
+
+    private static final SerializableString OMITTED_FRAMES_FIELD = new SerializedString("omittedFrames");
+
+    private static final SerializableString FILE_FIELD = new SerializedString("file");
+
+    private static final SerializableString METHOD_FIELD = new SerializedString("method");
+
+    private static final SerializableString LINE_FIELD = new SerializedString("line");
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Mixed in after the frames of each exception, so a frame cannot shift
+     * into the next exception.
+     */
+    private static final long SEPARATOR = 0x100000000L;
+
+    private final boolean recursive;
+
+    private final int maxFrames;
+
+    private final int maxCauseDepth;
+
+    private final boolean collapseCommonFrames;
+
+    private final String[] filteredPackages;
+
+    private final RenderedStack[] cache;
+
+    private final LayoutMetrics metrics;
+
+    /**
+     * @param recursive            whether to write the causes
+     * @param maxFrames            frames per exception, 0 or less for no limit
+     * @param maxCauseDepth        causes below the logged exception, less than
+     *                             0 for no limit
+     * @param collapseCommonFrames whether to drop frames shared with the
+     *                             enclosing exception
+     * @param filteredPackages     class name prefixes of frames to skip
+     * @param cacheSize            number of cached stacks, rounded up to a power
+     *                             of two, 0 to disable caching
+     */
+    public StackTraceWriter(boolean recursive, int maxFrames, int maxCauseDepth, boolean collapseCommonFrames,
+            String[] filteredPackages, int cacheSize) {
+        this(recursive, maxFrames, maxCauseDepth, collapseCommonFrames, filteredPackages, cacheSize, null);
+    }
+
+    /**
+     * Same as
+     * {@link #StackTraceWriter(boolean, int, int, boolean, String[], int)},
+     * counting written traces and cache lookups into {@code metrics}.
+     *
+     * @param metrics counters to update, {@code null} to not count
+     */
+    public StackTraceWriter(boolean recursive, int maxFrames, int maxCauseDepth, boolean collapseCommonFrames,
+            String[] filteredPackages, int cacheSize, LayoutMetrics metrics) {
+        this.recursive = recursive;
+        this.maxFrames = maxFrames > 0 ? maxFrames : Integer.MAX_VALUE;
+        this.maxCauseDepth = maxCauseDepth >= 0 ? maxCauseDepth : Integer.MAX_VALUE;
+        this.collapseCommonFrames = collapseCommonFrames;
+        this.filteredPackages = filteredPackages != null ? filteredPackages : new String[0];
+        this.cache = cacheSize > 0 ? new RenderedStack[powerOfTwo(cacheSize)] : null;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Write the exception, and its causes when recursive, as JSON array.
+     *
+     * @param thrown    the exception
+     * @param generator target generator, expecting a value
+     * @throws IOException when the generator fails to write
+     */
+    public void write(Throwable thrown, JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        if (this.recursive) {
+            List<Throwable> chain = getChain(thrown, this.maxCauseDepth);
+            StackTraceElement[][] frames = new StackTraceElement[chain.size()][];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = chain.get(i).getStackTrace();
+            }
+            for (int i = frames.length - 1; i >= 0; i--) {
+                writeException(chain.get(i), frames[i], i > 0 ? frames[i - 1] : null, generator);
+            }
+        } else {
+            Throwable inner = getInnerException(thrown);
+            writeException(inner, inner.getStackTrace(), null, generator);
+        }
+        generator.writeEndArray();
+        if (this.metrics != null) {
+            this.metrics.recordStackTrace();
+        }
+    }
+
+    /**
+     * Hash the trace: the class of the exception and of each of its causes,
+     * and the class and method of each of their frames. Each name is mixed in
+     * by its {@link String#hashCode()}, which the string caches and which is
+     * the same on any JVM, with FNV-1a. Messages are left out, and so are the
+     * frames of the filtered packages, e.g. the generated reflection accessors
+     * named differently on each run. The limits on frames and causes do not
+     * apply.
+     *
+     * @param thrown      the exception
+     * @param lineNumbers whether the line numbers of the frames are part of
+     *                    the hash, which then changes with any edit of the code
+     * @return the fingerprint
+     */
+    public long fingerprint(Throwable thrown, boolean lineNumbers) {
+        long hash = FNV_OFFSET;
+        for (Throwable element : getChain(thrown, Integer.MAX_VALUE)) {
+            hash = (hash ^ element.getClass().getName().hashCode()) * FNV_PRIME;
+            for (StackTraceElement frame : element.getStackTrace()) {
+                if (isFiltered(frame)) {
+                    continue;
+                }
+                hash = (hash ^ frame.getClassName().hashCode()) * FNV_PRIME;
+                hash = (hash ^ frame.getMethodName().hashCode()) * FNV_PRIME;
+                if (lineNumbers) {
+                    hash = (hash ^ frame.getLineNumber()) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ SEPARATOR) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private void writeException(Throwable thrown, StackTraceElement[] frames, StackTraceElement[] enclosing,
+            JsonGenerator generator) throws IOException {
+        int commonFrames = this.collapseCommonFrames && enclosing != null ? countCommonFrames(frames, enclosing) : 0;
+
+        generator.writeStartObject();
+        generator.writeFieldName(EXCEPTION_FIELD);
+        generator.writeString(thrown.getClass().getName());
+        generator.writeFieldName(MESSAGE_FIELD);
+        generator.writeString(thrown.getMessage());
+        generator.writeFieldName(STACK_FIELD);
+
+        int omittedFrames;
+        if (this.cache == null || !JsonGenerators.isText(generator)) {
+            omittedFrames = writeFrames(frames, frames.length - commonFrames, generator);
+        } else {
+            RenderedStack stack = getRenderedStack(frames, frames.length - commonFrames);
+            generator.writeRawValue(stack.json);
+            omittedFrames = stack.omittedFrames;
+        }
+
+        if (commonFrames > 0) {
+            generator.writeFieldName(COMMON_FRAMES_FIELD);
+            generator.writeNumber(commonFrames);
+        }
+        if (omittedFrames > 0) {
+            generator.writeFieldName(OMITTED_FRAMES_FIELD);
+            generator.writeNumber(omittedFrames);
+        }
+        generator.writeEndObject();
+    }
+
+    private RenderedStack getRenderedStack(StackTraceElement[] frames, int length) throws IOException {
+        int hash = hash(frames, length);
+        int slot = hash & (this.cache.length - 1);
+
+        RenderedStack stack = this.cache[slot];
+        boolean hit = stack != null && stack.matches(hash, frames, length);
+        if (this.metrics != null) {
+            this.metrics.recordStackTraceCache(hit);
+        }
+        if (hit) {
+            return stack;
+        }
+
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = FACTORY.createGenerator(json)) {
+            int omittedFrames = writeFrames(frames, length, generator);
+            generator.flush();
+            stack = new RenderedStack(hash, Arrays.copyOf(frames, length), json.toString(), omittedFrames);
+        }
+        this.cache[slot] = stack;
+        return stack;
+    }
+
+    /**
+     * Write the first {@code length} frames as JSON array, skipping filtered ones.
+     *
+     * @return number of frames not written
+     */
+    private int writeFrames(StackTraceElement[] frames, int length, JsonGenerator generator) throws IOException {
+        int written = 0;
+        generator.writeStartArray();
+        for (int i = 0; i < length && written < this.maxFrames; i++) {
+            StackTraceElement frame = frames[i];
+            if (isFiltered(frame)) {
+                continue;
+            }
+            generator.writeStartObject();
+            generator.writeFieldName(FILE_FIELD);
+            generator.writeString(frame.getFileName());
+            generator.writeFieldName(METHOD_FIELD);
+            generator.writeString(frame.getMethodName());
+            generator.writeFieldName(LINE_FIELD);
+            generator.writeNumber(frame.getLineNumber());
+            generator.writeEndObject();
+            written++;
+        }
+        generator.writeEndArray();
+        return length - written;
+    }
+
+    private boolean isFiltered(StackTraceElement frame) {
+        for (String filteredPackage : this.filteredPackages) {
+            if (frame.getClassName().startsWith(filteredPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the frames at the bottom of {@code frames} that are the same as the
+     * bottom of {@code enclosing}.
+     */
+    private static int countCommonFrames(StackTraceElement[] frames, StackTraceElement[] enclosing) {
+        int m = frames.length - 1;
+        int n = enclosing.length - 1;
+        while (m >= 0 && n >= 0 && frames[m].equals(enclosing[n])) {
+            m--;
+            n--;
+        }
+        return frames.length - 1 - m;
+    }
+
+    private static int powerOfTwo(int size) {
+        int power = 1;
+        while (power < size) {
+            power <<= 1;
+        }
+        return power;
+    }
+
+    private static int hash(StackTraceElement[] frames, int length) {
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + frames[i].hashCode();
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Get the exception followed by its causes, at most {@code maxCauseDepth} of
+     * them. A cause already in the chain ends it.
+     */
+    private static List<Throwable> getChain(Throwable thrown, int maxCauseDepth) {
+        List<Throwable> chain = new ArrayList<>();
+        chain.add(thrown);
+
+        Throwable cause = thrown.getCause();
+        while (cause != null && chain.size() <= maxCauseDepth && !containsInstance(chain, cause)) {
+            chain.add(cause);
+            cause = cause.getCause();
+        }
+        return chain;
+    }
+
+    /**
+     * Get the most inner exception, stopping at a circular cause.
+     */
+    static Throwable getInnerException(Throwable thrown) {
+        List<Throwable> chain = getChain(thrown, Integer.MAX_VALUE);
+        return chain.get(chain.size() - 1);
+    }
+
+    private static boolean containsInstance(List<Throwable> chain, Throwable thrown) {
+        for (Throwable element : chain) {
+            if (element == thrown) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JSON of a {@code stack} array, for the frames it was rendered from.
+     */
+    private static final class RenderedStack {
+
+        private final int hash;
+
+        private final StackTraceElement[] frames;
+
+        private final String json;
+
+        private final int omittedFrames;
+
+        RenderedStack(int hash, StackTraceElement[] frames, String json, int omittedFrames) {
+            this.hash = hash;
+            this.frames = frames;
+            this.json = json;
+            this.omittedFrames = omittedFrames;
+        }
+
+        boolean matches(int hash, StackTraceElement[] frames, int length) {
+            if (this.hash != hash || this.frames.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!this.frames[i].equals(frames[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,14 +1,44 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.util.Constants;
 
 import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
 
 /**
- * Loader for Exception stacktrace.
+ * <p>
+ * Loader for Exception stacktrace. The layout's stacktrace settings are
+ * compiled into a {@link StackTraceWriter}, which caches rendered stacks.
+ * </p>
+ * <p>
+ * {@code stacktraceHash} is the fingerprint of the trace, see
+ * {@link StackTraceWriter#fingerprint(Throwable, boolean)}, as 16 hex digits.
+ * With the layout's {@code stackTraceRepeatWindow}, a trace is only written
+ * the first time its fingerprint is seen in the window. The next events with
+ * it, until the window ends, write {@code "stacktraceRepeat": n} in place of
+ * the {@code stacktrace}, n counting the repeats since the trace was written.
+ * Print {@code stacktraceHash} too, to find the trace of a repeat. Both use
+ * one fingerprint per event: it is kept for the event being rendered by the
+ * thread, and dropped by {@link #endEvent()} once the event is rendered.
+ * </p>
+ * <p>
+ * The fingerprints seen are kept in a direct-mapped table of
+ * {@value #SEEN_SIZE} slots: two fingerprints sharing a slot replace each
+ * other, so both traces are written more often than once per window.
+ * </p>
  * 
  * @author dkakunsi
  */
@@ -16,23 +46,133 @@ public class StacktraceAttributeLoader extends EventAttributeLoader {
 
     private static final String STACKTRACE = "stacktrace";
 
+    private static final String STACKTRACE_HASH = "stacktraceHash";
+
+    private static final SerializableString STACKTRACE_REPEAT_FIELD = new SerializedString("stacktraceRepeat");
+
+    private static final int SEEN_SIZE = 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final StackTraceWriter writer;
+
+    private final boolean hashLineNumbers;
+
+    private final long repeatWindowMillis;
+
+    private final AtomicReferenceArray<SeenTrace> seen;
+
+    private final ThreadLocal<EventFingerprint> eventFingerprint = new ThreadLocal<EventFingerprint>() {
+
+        @Override
+        protected EventFingerprint initialValue() {
+            return new EventFingerprint();
+        }
+    };
+
     public StacktraceAttributeLoader(CustomJsonLayout layout) {
         super(layout);
+        this.writer = new StackTraceWriter(layout.isRecursiveStackTrace(), layout.getMaxStackFrames(),
+                layout.getMaxCauseDepth(), layout.isCollapseCommonFrames(), layout.getStackFilterPackages(),
+                layout.getStackTraceCacheSize(), layout.getMetrics());
+        this.hashLineNumbers = layout.isStackTraceHashLineNumbers();
+        this.repeatWindowMillis = TimeUnit.SECONDS.toMillis(Math.max(0, layout.getStackTraceRepeatWindow()));
+        this.seen = this.repeatWindowMillis > 0 ? new AtomicReferenceArray<SeenTrace>(SEEN_SIZE) : null;
     }
 
     @Override
-    public Object load(String key) {
-        if (!contains(key)) {
+    public Object load(String key, LogEvent event) {
+        if (!contains(key) || event.getThrown() == null) {
             return null;
         }
-        return layout.getEvent().getThrown() != null
-                ? generateStackTrace(this.layout.getEvent().getThrown(), this.layout.isRecursiveStackTrace())
-                : null;
+        return STACKTRACE_HASH.equals(key) ? toHex(this.writer.fingerprint(event.getThrown(), this.hashLineNumbers))
+                : generateStackTrace(event.getThrown(), this.layout.isRecursiveStackTrace());
+    }
+
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        Throwable thrown = event.getThrown();
+        if (thrown == null) {
+            return;
+        }
+        if (STACKTRACE_HASH.equals(key.getValue())) {
+            generator.writeFieldName(key);
+            generator.writeString(toHex(fingerprint(thrown)));
+            return;
+        }
+        if (this.seen != null) {
+            long repeats = recordRepeat(fingerprint(thrown), event.getTimeMillis());
+            if (repeats > 0) {
+                generator.writeFieldName(STACKTRACE_REPEAT_FIELD);
+                generator.writeNumber(repeats);
+                return;
+            }
+        }
+        generator.writeFieldName(key);
+        this.writer.write(thrown, generator);
     }
 
     @Override
     public boolean contains(String key) {
-        return STACKTRACE.equals(key);
+        return STACKTRACE.equals(key) || STACKTRACE_HASH.equals(key);
+    }
+
+    /**
+     * Forget the fingerprint of the event the thread rendered, so the thread
+     * does not hold on to its exception. Called by the layout once an event
+     * with an exception is rendered.
+     */
+    public void endEvent() {
+        if (Constants.ENABLE_THREADLOCALS) {
+            this.eventFingerprint.get().thrown = null;
+        }
+    }
+
+    /**
+     * Get the fingerprint of the trace, computed once for the event being
+     * rendered, so an event writing both {@code stacktraceHash} and the repeat
+     * window does not walk its trace twice.
+     */
+    private long fingerprint(Throwable thrown) {
+        if (!Constants.ENABLE_THREADLOCALS) {
+            return this.writer.fingerprint(thrown, this.hashLineNumbers);
+        }
+        EventFingerprint current = this.eventFingerprint.get();
+        if (current.thrown != thrown) {
+            current.fingerprint = this.writer.fingerprint(thrown, this.hashLineNumbers);
+            current.thrown = thrown;
+        }
+        return current.fingerprint;
+    }
+
+    /**
+     * Count a trace in its window. Only one event starts a window, even when
+     * several threads log the trace at once.
+     *
+     * @return 0 when the trace starts a window and is written, the number of
+     *         repeats in the window otherwise
+     */
+    private long recordRepeat(long fingerprint, long timeMillis) {
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & (SEEN_SIZE - 1);
+        for (;;) {
+            SeenTrace current = this.seen.get(slot);
+            if (current != null && current.fingerprint == fingerprint
+                    && timeMillis - current.firstMillis < this.repeatWindowMillis) {
+                return current.repeats.incrementAndGet();
+            }
+            if (this.seen.compareAndSet(slot, current, new SeenTrace(fingerprint, timeMillis))) {
+                return 0;
+            }
+        }
+    }
+
+    private static String toHex(long value) {
+        char[] digits = new char[16];
+        for (int i = digits.length - 1; i >= 0; i--) {
+            digits[i] = HEX_DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return new String(digits);
     }
 
     /**
@@ -66,7 +206,7 @@ public class StacktraceAttributeLoader extends EventAttributeLoader {
                 stack.addAll(generateStackTrace(thrown.getCause(), recursive));
             }
         } else {
-            thrown = getInnerException(thrown);
+            thrown = StackTraceWriter.getInnerException(thrown);
         }
 
         Map<String, Object> map = new LinkedHashMap<>();
@@ -79,19 +219,6 @@ public class StacktraceAttributeLoader extends EventAttributeLoader {
         return stack;
     }
 
-    /**
-     * Get the most inner exception.
-     * 
-     * @param thrown exception
-     * @return the most inner exception
-     */
-    private static Throwable getInnerException(Throwable thrown) {
-        while (thrown.getCause() != null) {
-            thrown = thrown.getCause();
-        }
-        return thrown;
-    }
-
     /**
      * <p>
      * Generate calling stacktrace of an exception. The result of list of calling
@@ -125,4 +252,31 @@ public class StacktraceAttributeLoader extends EventAttributeLoader {
 
         return stack;
     }
+
+    /**
+     * A trace written at the start of its window.
+     */
+    private static final class SeenTrace {
+
+        private final long fingerprint;
+
+        private final long firstMillis;
+
+        private final AtomicLong repeats = new AtomicLong();
+
+        SeenTrace(long fingerprint, long firstMillis) {
+            this.fingerprint = fingerprint;
+            this.firstMillis = firstMillis;
+        }
+    }
+
+    /**
+     * The exception of the event a thread is rendering, and its fingerprint.
+     */
+    private static final class EventFingerprint {
+
+        private Throwable thrown;
+
+        private long fingerprint;
+    }
 }
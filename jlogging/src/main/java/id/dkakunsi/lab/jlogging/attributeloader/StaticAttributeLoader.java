@@ -0,0 +1,59 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * <p>
+ * Load the static fields configured on the layout, e.g. the service name and
+ * version. Their values are fixed when the configuration is read, so
+ * {@code ${sys:...}} and {@code ${env:...}} lookups can be used in them. Every
+ * key is {@link AttributeScope#CONSTANT}.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+public class StaticAttributeLoader implements AttributeLoader {
+
+    private final Map<String, String> fields;
+
+    /**
+     * @param fields values by key, in output order
+     */
+    public StaticAttributeLoader(Map<String, String> fields) {
+        this.fields = Collections.unmodifiableMap(new LinkedHashMap<>(fields));
+    }
+
+    /**
+     * @return values by key, in output order
+     */
+    public Map<String, String> getFields() {
+        return this.fields;
+    }
+
+    @Override
+    public Object load(String key, LogEvent event) {
+        return this.fields.get(key);
+    }
+
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        String value = this.fields.get(key.getValue());
+        if (value != null) {
+            generator.writeFieldName(key);
+            generator.writeString(value);
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return this.fields.containsKey(key);
+    }
+}
@@ -0,0 +1,122 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+/**
+ * Per-thread scratch buffer used to hand formatted text over to the
+ * {@link JsonGenerator} without creating a {@link String} per event.
+ * 
+ * @author dkakunsi
+ */
+final class TextBuffer {
+
+    private static final int DEFAULT_SIZE = 256;
+
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<TextBuffer> BUFFERS = new ThreadLocal<TextBuffer>() {
+        @Override
+        protected TextBuffer initialValue() {
+            return new TextBuffer();
+        }
+    };
+
+    private final StringBuilder builder = new StringBuilder(DEFAULT_SIZE);
+
+    private char[] chars = new char[DEFAULT_SIZE];
+
+    private boolean busy;
+
+    private TextBuffer() {
+    }
+
+    /**
+     * Format {@code formattable} and write it as JSON string. The buffer is not
+     * available when formatting logs another event on the same thread, the
+     * caller then has to fall back to a plain {@link String}.
+     * 
+     * @param formattable text source
+     * @param generator   target generator
+     * @return false if nothing is written because the buffer is in use
+     * @throws IOException when the generator fails to write
+     */
+    static boolean writeString(StringBuilderFormattable formattable, JsonGenerator generator) throws IOException {
+        TextBuffer buffer = BUFFERS.get();
+        if (buffer.busy) {
+            return false;
+        }
+
+        buffer.busy = true;
+        try {
+            StringBuilder text = buffer.builder;
+            text.setLength(0);
+            formattable.formatTo(text);
+
+            int length = text.length();
+            if (buffer.chars.length < length) {
+                buffer.chars = new char[Math.max(length, buffer.chars.length * 2)];
+            }
+            text.getChars(0, length, buffer.chars, 0);
+            JsonStringEscaper.writeString(buffer.chars, 0, length, generator);
+        } finally {
+            buffer.trim();
+            buffer.busy = false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the first {@code length} characters of {@code text} followed by
+     * {@code marker} as one JSON string, without creating a {@link String}.
+     * 
+     * @param text      text to cut
+     * @param length    characters of {@code text} to write
+     * @param marker    appended text
+     * @param generator target generator
+     * @throws IOException when the generator fails to write
+     */
+    static void writeTruncated(CharSequence text, int length, String marker, JsonGenerator generator)
+            throws IOException {
+        TextBuffer buffer = BUFFERS.get();
+        if (buffer.busy) {
+            JsonStringEscaper.writeString(text.subSequence(0, length) + marker, generator);
+            return;
+        }
+
+        buffer.busy = true;
+        try {
+            int total = length + marker.length();
+            if (buffer.chars.length < total) {
+                buffer.chars = new char[Math.max(total, buffer.chars.length * 2)];
+            }
+            if (text instanceof String) {
+                ((String) text).getChars(0, length, buffer.chars, 0);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    buffer.chars[i] = text.charAt(i);
+                }
+            }
+            marker.getChars(0, marker.length(), buffer.chars, length);
+            JsonStringEscaper.writeString(buffer.chars, 0, total, generator);
+        } finally {
+            buffer.trim();
+            buffer.busy = false;
+        }
+    }
+
+    private void trim() {
+        if (this.builder.capacity() > MAX_SIZE) {
+            this.builder.setLength(MAX_SIZE);
+            this.builder.trimToSize();
+            this.chars = new char[MAX_SIZE];
+        }
+        if (this.chars.length > MAX_SIZE) {
+            this.chars = new char[MAX_SIZE];
+        }
+        this.builder.setLength(0);
+    }
+}
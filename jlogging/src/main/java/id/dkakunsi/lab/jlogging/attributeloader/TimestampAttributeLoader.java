@@ -1,14 +1,22 @@
 package id.dkakunsi.lab.jlogging.attributeloader;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.time.Instant;
+
 import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
 
 /**
- * Loader for ISO-8601.
+ * Loader for ISO-8601. The layout's date format and timezone are compiled once
+ * into a {@link TimestampFormatter}.
  * 
  * @author dkakunsi
  */
@@ -16,24 +24,33 @@ public class TimestampAttributeLoader extends EventAttributeLoader {
 
     private static final String TIMESTAMP = "timestamp";
 
-    private static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+    private final TimestampFormatter formatter;
 
     public TimestampAttributeLoader(CustomJsonLayout layout) {
         super(layout);
+        this.formatter = new TimestampFormatter(layout.getDateFormat(), layout.getTimezone(),
+                layout.getTimestampPrecision());
     }
 
     @Override
-    public Object load(String key) {
+    public Object load(String key, LogEvent event) {
         if (!contains(key)) {
             return null;
         }
-        return load(new Date(this.layout.getEvent().getTimeMillis()), this.layout.getTimezone(),
-                this.layout.getDateFormat());
+        Instant instant = event.getInstant();
+        return this.formatter.format(instant.getEpochMillisecond(), instant.getNanoOfMillisecond());
+    }
+
+    @Override
+    public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+        Instant instant = event.getInstant();
+        generator.writeFieldName(key);
+        this.formatter.write(instant.getEpochMillisecond(), instant.getNanoOfMillisecond(), generator);
     }
 
     public static Object load(Date date, String timezone, String dateFormat) {
         if (dateFormat == null) {
-            dateFormat = DEFAULT_DATE_FORMAT;
+            dateFormat = TimestampFormatter.DEFAULT_DATE_FORMAT;
         }
         DateFormat df = new SimpleDateFormat(dateFormat);
 
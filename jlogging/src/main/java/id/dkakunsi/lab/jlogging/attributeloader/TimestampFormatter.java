@@ -0,0 +1,323 @@
+package id.dkakunsi.lab.jlogging.attributeloader;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.BufferRecyclers;
+
+/**
+ * <p>
+ * Timestamp formatter compiled once from a {@link SimpleDateFormat} pattern and
+ * a timezone. It produces the same text as {@link SimpleDateFormat}, but the
+ * rendered date and time is cached per second and only the milliseconds are
+ * patched in for each event.
+ * </p>
+ * <p>
+ * The cached text is kept JSON-quoted, so
+ * {@link #write(long, int, JsonGenerator)} copies it straight into the
+ * generator's buffer without creating a {@link Date} or {@link String}. A
+ * generator of a binary format gets the formatted {@link String} instead.
+ * </p>
+ * <p>
+ * A pattern with more than one milliseconds field cannot be cached, it is
+ * formatted by {@link SimpleDateFormat} on every event.
+ * </p>
+ * <p>
+ * With {@link Precision#MICROSECOND} or {@link Precision#NANOSECOND}, the
+ * sub-millisecond digits are appended right after the milliseconds field. It
+ * needs a precise clock, which log4j uses on Java 9 and newer. On older JDK the
+ * extra digits are zero.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class TimestampFormatter {
+
+    /**
+     * Precision of the milliseconds field.
+     */
+    public enum Precision {
+        MILLISECOND, MICROSECOND, NANOSECOND
+    }
+
+    public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+
+    /**
+     * "000" to "999", three chars each.
+     */
+    private static final char[] DIGITS = new char[3000];
+
+    static {
+        for (int i = 0; i < 1000; i++) {
+            DIGITS[i * 3] = (char) ('0' + i / 100);
+            DIGITS[i * 3 + 1] = (char) ('0' + i / 10 % 10);
+            DIGITS[i * 3 + 2] = (char) ('0' + i % 10);
+        }
+    }
+
+    private static final char QUOTE = '"';
+
+    private final SimpleDateFormat prefixFormat;
+
+    private final SimpleDateFormat suffixFormat;
+
+    /**
+     * Set only when the pattern cannot be cached.
+     */
+    private final SimpleDateFormat uncachedFormat;
+
+    /**
+     * Length of the milliseconds field, 0 if the pattern has none.
+     */
+    private final int millisecondDigits;
+
+    private final Precision precision;
+
+    private volatile CachedSecond cached;
+
+    public TimestampFormatter(String dateFormat, String timezone, Precision precision) {
+        if (dateFormat == null) {
+            dateFormat = DEFAULT_DATE_FORMAT;
+        }
+        TimeZone tz = timezone != null ? TimeZone.getTimeZone(timezone) : TimeZone.getDefault();
+
+        int[] field = findMillisecondField(dateFormat);
+        if (field == null) {
+            this.prefixFormat = createFormat(dateFormat, tz);
+            this.suffixFormat = null;
+            this.uncachedFormat = null;
+            this.millisecondDigits = 0;
+        } else if (field.length == 0) {
+            this.prefixFormat = createFormat("", tz);
+            this.suffixFormat = null;
+            this.uncachedFormat = createFormat(dateFormat, tz);
+            this.millisecondDigits = 0;
+        } else {
+            this.prefixFormat = createFormat(dateFormat.substring(0, field[0]), tz);
+            this.suffixFormat = createFormat(dateFormat.substring(field[1]), tz);
+            this.uncachedFormat = null;
+            this.millisecondDigits = field[1] - field[0];
+        }
+
+        this.precision = precision != null ? precision : Precision.MILLISECOND;
+        this.cached = render(0);
+    }
+
+    /**
+     * Write the timestamp as JSON string value.
+     *
+     * @param epochMillisecond  milliseconds since epoch
+     * @param nanoOfMillisecond nanoseconds within the millisecond
+     * @param generator         target generator, expecting a value
+     * @throws IOException when the generator fails to write
+     */
+    public void write(long epochMillisecond, int nanoOfMillisecond, JsonGenerator generator) throws IOException {
+        if (this.uncachedFormat != null) {
+            generator.writeString(formatUncached(epochMillisecond));
+            return;
+        }
+        if (!JsonGenerators.isText(generator)) {
+            generator.writeString(format(epochMillisecond, nanoOfMillisecond));
+            return;
+        }
+
+        long epochSecond = floorDiv(epochMillisecond, 1000);
+        CachedSecond second = getSecond(epochSecond);
+
+        generator.writeRawValue(second.prefix, 0, second.prefix.length);
+        if (this.millisecondDigits > 0) {
+            writeMillisecond((int) (epochMillisecond - epochSecond * 1000), generator);
+            writeSubMillisecond(nanoOfMillisecond, generator);
+        }
+        generator.writeRaw(second.suffix, 0, second.suffix.length);
+    }
+
+    /**
+     * Format the timestamp into {@code buffer}, unquoted.
+     *
+     * @param epochMillisecond  milliseconds since epoch
+     * @param nanoOfMillisecond nanoseconds within the millisecond
+     * @param buffer            target buffer
+     */
+    public void formatTo(long epochMillisecond, int nanoOfMillisecond, StringBuilder buffer) {
+        if (this.uncachedFormat != null) {
+            buffer.append(formatUncached(epochMillisecond));
+            return;
+        }
+
+        long epochSecond = floorDiv(epochMillisecond, 1000);
+        CachedSecond second = getSecond(epochSecond);
+
+        buffer.append(second.text, 0, second.prefixLength);
+        if (this.millisecondDigits > 0) {
+            int millisecond = (int) (epochMillisecond - epochSecond * 1000);
+            int skip = skippedDigits(millisecond);
+            for (int i = 3; i < this.millisecondDigits; i++) {
+                buffer.append('0');
+            }
+            buffer.append(DIGITS, millisecond * 3 + skip, 3 - skip);
+            int extra = extraDigits();
+            if (extra > 0) {
+                buffer.append(DIGITS, nanoOfMillisecond / 1000 * 3, 3);
+            }
+            if (extra > 3) {
+                buffer.append(DIGITS, nanoOfMillisecond % 1000 * 3, 3);
+            }
+        }
+        buffer.append(second.text, second.prefixLength, second.text.length - second.prefixLength);
+    }
+
+    /**
+     * Format the timestamp into a new {@link String}.
+     *
+     * @param epochMillisecond  milliseconds since epoch
+     * @param nanoOfMillisecond nanoseconds within the millisecond
+     * @return formatted timestamp
+     */
+    public String format(long epochMillisecond, int nanoOfMillisecond) {
+        StringBuilder buffer = new StringBuilder(32);
+        formatTo(epochMillisecond, nanoOfMillisecond, buffer);
+        return buffer.toString();
+    }
+
+    private CachedSecond getSecond(long epochSecond) {
+        CachedSecond second = this.cached;
+        if (second.epochSecond != epochSecond) {
+            second = render(epochSecond);
+            this.cached = second;
+        }
+        return second;
+    }
+
+    private synchronized String formatUncached(long epochMillisecond) {
+        return this.uncachedFormat.format(new Date(epochMillisecond));
+    }
+
+    private synchronized CachedSecond render(long epochSecond) {
+        Date date = new Date(epochSecond * 1000);
+        String prefix = this.prefixFormat.format(date);
+        String suffix = this.suffixFormat != null ? this.suffixFormat.format(date) : "";
+        return new CachedSecond(epochSecond, prefix, suffix);
+    }
+
+    private void writeMillisecond(int millisecond, JsonGenerator generator) throws IOException {
+        for (int i = 3; i < this.millisecondDigits; i++) {
+            generator.writeRaw('0');
+        }
+        int skip = skippedDigits(millisecond);
+        generator.writeRaw(DIGITS, millisecond * 3 + skip, 3 - skip);
+    }
+
+    private void writeSubMillisecond(int nanoOfMillisecond, JsonGenerator generator) throws IOException {
+        int extra = extraDigits();
+        if (extra > 0) {
+            generator.writeRaw(DIGITS, nanoOfMillisecond / 1000 * 3, 3);
+        }
+        if (extra > 3) {
+            generator.writeRaw(DIGITS, nanoOfMillisecond % 1000 * 3, 3);
+        }
+    }
+
+    /**
+     * {@link SimpleDateFormat} pads the milliseconds up to the field length, but
+     * never truncates it. So "S" renders 7 as "7" and 123 as "123".
+     */
+    private int skippedDigits(int millisecond) {
+        int skip = 0;
+        while (skip < 3 - this.millisecondDigits && DIGITS[millisecond * 3 + skip] == '0') {
+            skip++;
+        }
+        return skip;
+    }
+
+    private int extraDigits() {
+        switch (this.precision) {
+            case MICROSECOND:
+                return 3;
+            case NANOSECOND:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    private static SimpleDateFormat createFormat(String pattern, TimeZone timezone) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(timezone);
+        return format;
+    }
+
+    /**
+     * Find the single milliseconds field ({@code S} run) outside quoted text.
+     *
+     * @param pattern {@link SimpleDateFormat} pattern
+     * @return start and end of the field, {@code null} if there is none, or an
+     *         empty array if there is more than one
+     */
+    private static int[] findMillisecondField(String pattern) {
+        int[] field = null;
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == 'S') {
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) == 'S') {
+                    end++;
+                }
+                if (field != null) {
+                    return new int[0];
+                }
+                field = new int[] { i, end };
+                i = end - 1;
+            }
+        }
+        return field;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * Text of one second, before and after the milliseconds field.
+     */
+    private static final class CachedSecond {
+
+        private final long epochSecond;
+
+        private final char[] text;
+
+        private final int prefixLength;
+
+        /**
+         * JSON-quoted text before the milliseconds, with the opening quote.
+         */
+        private final char[] prefix;
+
+        /**
+         * JSON-quoted text after the milliseconds, with the closing quote.
+         */
+        private final char[] suffix;
+
+        CachedSecond(long epochSecond, String prefix, String suffix) {
+            this.epochSecond = epochSecond;
+            this.text = (prefix + suffix).toCharArray();
+            this.prefixLength = prefix.length();
+            this.prefix = quote(QUOTE + "", prefix, "");
+            this.suffix = quote("", suffix, QUOTE + "");
+        }
+
+        private static char[] quote(String before, String text, String after) {
+            return (before + new String(BufferRecyclers.getJsonStringEncoder().quoteAsString(text)) + after).toCharArray();
+        }
+    }
+}
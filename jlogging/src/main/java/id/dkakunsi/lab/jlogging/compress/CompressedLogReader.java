@@ -0,0 +1,144 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Stream the events of a block-compressed, newline-delimited log file back
+ * out, one line at a time.
+ * </p>
+ * <p>
+ * A file cut short, e.g. by a crash while writing, ends at the last complete
+ * event: the unfinished frame and any partial line are skipped, and
+ * {@link #isTruncated()} tells it happened.
+ * </p>
+ *
+ * <pre>
+ * java -cp jlogging.jar:... id.dkakunsi.lab.jlogging.compress.CompressedLogReader ZSTD app.log.zst [more files]
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+public final class CompressedLogReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream input;
+
+    private final Charset charset;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+
+    private int position;
+
+    private int limit;
+
+    private boolean ended;
+
+    private boolean truncated;
+
+    /**
+     * @param input       compressed stream, closed by {@link #close()}
+     * @param compression codec of the stream
+     * @param charset     charset of the events
+     * @throws IOException when the stream cannot be read
+     */
+    public CompressedLogReader(InputStream input, Compression compression, Charset charset) throws IOException {
+        this.input = compression.decompress(input);
+        this.charset = charset;
+    }
+
+    /**
+     * @return the next event without its line end, or {@code null} at the end
+     * @throws IOException when the underlying stream cannot be read
+     */
+    public String readLine() throws IOException {
+        this.line.reset();
+        for (;;) {
+            if (this.position == this.limit && !fill()) {
+                if (this.line.size() > 0) {
+                    this.truncated = true;
+                }
+                return null;
+            }
+            for (int i = this.position; i < this.limit; i++) {
+                if (this.buffer[i] == '\n') {
+                    this.line.write(this.buffer, this.position, i - this.position);
+                    this.position = i + 1;
+                    return this.line.toString(this.charset.name());
+                }
+            }
+            this.line.write(this.buffer, this.position, this.limit - this.position);
+            this.position = this.limit;
+        }
+    }
+
+    /**
+     * A read failure of the decompressor is the end of a truncated stream.
+     */
+    private boolean fill() {
+        if (this.ended) {
+            return false;
+        }
+        try {
+            int read = this.input.read(this.buffer, 0, this.buffer.length);
+            if (read > 0) {
+                this.position = 0;
+                this.limit = read;
+                return true;
+            }
+        } catch (IOException ex) {
+            this.truncated = true;
+        }
+        this.ended = true;
+        return false;
+    }
+
+    /**
+     * @return whether the stream ended in the middle of a frame or an event
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompressedLogReader <NONE|LZ4|ZSTD> file...");
+            System.exit(1);
+        }
+
+        Compression compression = Compression.valueOf(args[0].toUpperCase());
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        for (int i = 1; i < args.length; i++) {
+            try (CompressedLogReader reader = new CompressedLogReader(
+                    new BufferedInputStream(new FileInputStream(args[i])), compression, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.write(line);
+                    output.write('\n');
+                }
+                if (reader.isTruncated()) {
+                    System.err.println(args[i] + " is truncated, the last partial block is skipped");
+                }
+            }
+        }
+        output.flush();
+    }
+}
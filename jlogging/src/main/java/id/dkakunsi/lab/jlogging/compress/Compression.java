@@ -0,0 +1,59 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+/**
+ * <p>
+ * Block compression of a log file. Each block of events is written as one
+ * standard frame of the codec, so every frame decodes on its own and the file
+ * can also be read with the {@code lz4} or {@code zstd} command line tools.
+ * </p>
+ * <p>
+ * The codecs need their library on the class path: {@code lz4-java} or
+ * {@code zstd-jni}.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public enum Compression {
+
+    NONE, LZ4, ZSTD;
+
+    /**
+     * Create an encoder, used by one thread at a time.
+     *
+     * @param level codec level, 0 for the codec default
+     * @return new encoder, {@code null} for {@link #NONE}
+     */
+    public FrameEncoder createEncoder(int level) {
+        switch (this) {
+            case LZ4:
+                return new Lz4FrameEncoder(level);
+            case ZSTD:
+                return new ZstdFrameEncoder(level);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decompress the frames of {@code input}, one after another.
+     *
+     * @param input compressed stream
+     * @return decompressed stream
+     * @throws IOException when the stream cannot be read
+     */
+    public InputStream decompress(InputStream input) throws IOException {
+        switch (this) {
+            case LZ4:
+                return new LZ4FrameInputStream(input);
+            case ZSTD:
+                return new ZstdFrameInputStream(input);
+            default:
+                return input;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compress a block of events into one frame. The encoder owns reusable direct
+ * buffers, so it is used by one thread at a time.
+ *
+ * @author dkakunsi
+ */
+public abstract class FrameEncoder {
+
+    private ByteBuffer output;
+
+    private ByteBuffer staging;
+
+    FrameEncoder() {
+    }
+
+    /**
+     * Compress the remaining bytes of {@code block} into one frame. The block is
+     * consumed.
+     *
+     * @param block events to compress
+     * @return the frame, ready to be read, valid until the next call
+     * @throws IOException when compression fails
+     */
+    public abstract ByteBuffer encode(ByteBuffer block) throws IOException;
+
+    /**
+     * @param capacity needed capacity
+     * @return cleared output buffer of at least {@code capacity} bytes
+     */
+    ByteBuffer getOutput(int capacity) {
+        if (this.output == null || this.output.capacity() < capacity) {
+            this.output = ByteBuffer.allocateDirect(capacity);
+        }
+        this.output.clear();
+        return this.output;
+    }
+
+    /**
+     * Get the block as direct buffer, copying a heap one into a staging buffer.
+     * The block is consumed.
+     */
+    ByteBuffer toDirect(ByteBuffer block) {
+        if (block.isDirect()) {
+            ByteBuffer direct = block.slice();
+            block.position(block.limit());
+            return direct;
+        }
+        if (this.staging == null || this.staging.capacity() < block.remaining()) {
+            this.staging = ByteBuffer.allocateDirect(block.remaining());
+        }
+        this.staging.clear();
+        this.staging.put(block);
+        this.staging.flip();
+        return this.staging;
+    }
+}
@@ -0,0 +1,93 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Write a block as one LZ4 frame, with independent blocks of up to 4 MB and the
+ * content size in the header. The frame is built in place in the output
+ * buffer, no intermediate array is created.
+ *
+ * @author dkakunsi
+ */
+final class Lz4FrameEncoder extends FrameEncoder {
+
+    private static final int MAGIC = 0x184D2204;
+
+    /**
+     * Version 01, independent blocks, content size present.
+     */
+    private static final byte FLG = 0x68;
+
+    /**
+     * Blocks of 4 MB at most.
+     */
+    private static final byte BD = 0x70;
+
+    private static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final int UNCOMPRESSED = 0x80000000;
+
+    private static final int HEADER_SIZE = 15;
+
+    private static final int END_MARK_SIZE = 4;
+
+    private final LZ4Compressor compressor;
+
+    private final XXHash32 hash;
+
+    Lz4FrameEncoder(int level) {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = level > 0 ? factory.highCompressor(level) : factory.fastCompressor();
+        this.hash = XXHashFactory.fastestInstance().hash32();
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer block) {
+        int length = block.remaining();
+        ByteBuffer output = getOutput(maxFrameLength(length));
+        output.order(ByteOrder.LITTLE_ENDIAN);
+
+        output.putInt(MAGIC);
+        int descriptor = output.position();
+        output.put(FLG);
+        output.put(BD);
+        output.putLong(length);
+        output.put((byte) (this.hash.hash(output, descriptor, output.position() - descriptor, 0) >> 8));
+
+        while (block.hasRemaining()) {
+            int offset = block.position();
+            int size = Math.min(MAX_BLOCK_SIZE, block.remaining());
+            int sizeField = output.position();
+            int data = sizeField + 4;
+
+            int compressed = this.compressor.compress(block, offset, size, output, data, output.capacity() - data);
+            if (compressed < size) {
+                output.putInt(sizeField, compressed);
+                output.position(data + compressed);
+            } else {
+                ByteBuffer raw = block.duplicate();
+                raw.limit(offset + size);
+                output.putInt(sizeField, size | UNCOMPRESSED);
+                output.position(data);
+                output.put(raw);
+            }
+            block.position(offset + size);
+        }
+        output.putInt(0);
+
+        output.flip();
+        return output;
+    }
+
+    private int maxFrameLength(int length) {
+        int blocks = Math.max(1, (length + MAX_BLOCK_SIZE - 1) / MAX_BLOCK_SIZE);
+        int perBlock = this.compressor.maxCompressedLength(Math.min(length, MAX_BLOCK_SIZE)) + 4;
+        return HEADER_SIZE + blocks * perBlock + END_MARK_SIZE;
+    }
+}
@@ -0,0 +1,51 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * <p>
+ * Write a block as one Zstandard frame, compressed between direct buffers.
+ * </p>
+ * <p>
+ * The frame is preceded by a skippable frame holding its compressed length, so
+ * {@link ZstdFrameInputStream} can tell a complete frame from a cut one. The
+ * {@code zstd} tool skips it.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class ZstdFrameEncoder extends FrameEncoder {
+
+    static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    static final int LENGTH_FRAME_SIZE = 12;
+
+    private final int level;
+
+    ZstdFrameEncoder(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer block) throws IOException {
+        ByteBuffer source = toDirect(block);
+        int bound = (int) Zstd.compressBound(source.remaining());
+        ByteBuffer output = getOutput(LENGTH_FRAME_SIZE + bound);
+
+        long size = Zstd.compressDirectByteBuffer(output, LENGTH_FRAME_SIZE, bound, source, source.position(),
+                source.remaining(), this.level);
+        if (Zstd.isError(size)) {
+            throw new IOException("Unable to compress block: " + Zstd.getErrorName(size));
+        }
+        output.order(ByteOrder.LITTLE_ENDIAN);
+        output.putInt(0, SKIPPABLE_MAGIC);
+        output.putInt(4, 4);
+        output.putInt(8, (int) size);
+        output.limit(LENGTH_FRAME_SIZE + (int) size);
+        return output;
+    }
+}
@@ -0,0 +1,109 @@
+package id.dkakunsi.lab.jlogging.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * <p>
+ * Decompress the frames written by {@link ZstdFrameEncoder}, one whole frame at
+ * a time.
+ * </p>
+ * <p>
+ * The length frame in front of each frame makes a cut frame show as
+ * {@link EOFException}; a plain {@code ZstdInputStream} ends silently when the
+ * stream is cut after a complete frame.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+final class ZstdFrameInputStream extends InputStream {
+
+    private final InputStream input;
+
+    private final ByteBuffer header = ByteBuffer.allocate(ZstdFrameEncoder.LENGTH_FRAME_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private byte[] frame = new byte[0];
+
+    private byte[] block = new byte[0];
+
+    private int position;
+
+    ZstdFrameInputStream(InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.position == this.block.length && !nextFrame()) {
+            return -1;
+        }
+        int count = Math.min(len, this.block.length - this.position);
+        System.arraycopy(this.block, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    private boolean nextFrame() throws IOException {
+        int headerRead = readFully(this.header.array(), ZstdFrameEncoder.LENGTH_FRAME_SIZE);
+        if (headerRead == 0) {
+            return false;
+        }
+        if (headerRead < ZstdFrameEncoder.LENGTH_FRAME_SIZE) {
+            throw new EOFException("Stream ends inside a frame header");
+        }
+        if (this.header.getInt(0) != ZstdFrameEncoder.SKIPPABLE_MAGIC || this.header.getInt(4) != 4) {
+            throw new IOException("Not a block-compressed log stream");
+        }
+
+        int length = this.header.getInt(8);
+        if (this.frame.length < length) {
+            this.frame = new byte[length];
+        }
+        if (readFully(this.frame, length) < length) {
+            throw new EOFException("Stream ends inside a frame");
+        }
+
+        long size = Zstd.decompressedSize(this.frame);
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Frame has no content size");
+        }
+        if (this.block.length != size) {
+            this.block = new byte[(int) size];
+        }
+        long decompressed = Zstd.decompressByteArray(this.block, 0, this.block.length, this.frame, 0, length);
+        if (Zstd.isError(decompressed)) {
+            throw new IOException("Unable to decompress frame: " + Zstd.getErrorName(decompressed));
+        }
+        this.position = 0;
+        return true;
+    }
+
+    private int readFully(byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = this.input.read(buffer, total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+}
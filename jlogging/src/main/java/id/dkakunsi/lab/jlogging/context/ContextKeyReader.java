@@ -0,0 +1,22 @@
+package id.dkakunsi.lab.jlogging.context;
+
+/**
+ * <p>
+ * Layout or appender telling which context keys it reads from an event, so
+ * {@link SnapshotContextDataInjector} only captures these.
+ * </p>
+ * <p>
+ * Implemented by the layout and appenders of this library. An appender that
+ * is a reader only tells the keys it reads itself: the keys of its layout are
+ * asked to the layout.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public interface ContextKeyReader {
+
+    /**
+     * @return the context keys read, {@code null} when any key may be read
+     */
+    String[] getContextKeys();
+}
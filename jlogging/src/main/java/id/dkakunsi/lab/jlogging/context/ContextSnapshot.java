@@ -0,0 +1,259 @@
+package id.dkakunsi.lab.jlogging.context;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.util.BiConsumer;
+import org.apache.logging.log4j.util.IndexedStringMap;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.TriConsumer;
+
+/**
+ * <p>
+ * Immutable context of an event: keys sorted in one array, their values in
+ * another. It is created frozen, any change throws
+ * {@link UnsupportedOperationException}, so it is shared as it is by every
+ * event, thread and scope it is given to.
+ * </p>
+ * <p>
+ * It is the context data of the events created with
+ * {@link SnapshotContextDataInjector}, and the value bound by
+ * {@link ScopedContext}.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class ContextSnapshot implements IndexedStringMap {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] NO_KEYS = new String[0];
+
+    public static final ContextSnapshot EMPTY = new ContextSnapshot(NO_KEYS, NO_KEYS, 0);
+
+    private final String[] keys;
+
+    private final String[] values;
+
+    private final int size;
+
+    /**
+     * @param keys   sorted keys, may be longer than {@code size} and shared
+     * @param values values of the keys
+     * @param size   number of entries
+     */
+    ContextSnapshot(String[] keys, String[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * @param keysAndValues keys each followed by its value, a {@code null}
+     *                      value is left out
+     * @return snapshot of the entries
+     */
+    public static ContextSnapshot of(String... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Keys and values are not paired");
+        }
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            entries.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return of(entries);
+    }
+
+    /**
+     * @param entries keys and their value, a {@code null} value is left out
+     * @return snapshot of the entries
+     */
+    public static ContextSnapshot of(Map<String, String> entries) {
+        String[] keys = new String[entries.size()];
+        int size = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                keys[size++] = entry.getKey();
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(keys, 0, size);
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = entries.get(keys[i]);
+        }
+        return new ContextSnapshot(keys, values, size);
+    }
+
+    /**
+     * @param key   key to set
+     * @param value its value, {@code null} to remove it
+     * @return a copy with the key set to the value
+     */
+    public ContextSnapshot with(String key, String value) {
+        Map<String, String> entries = new HashMap<>(toMap());
+        if (value != null) {
+            entries.put(key, value);
+        } else {
+            entries.remove(key);
+        }
+        return of(entries);
+    }
+
+    /**
+     * Keep the entries of some keys.
+     *
+     * @param selected sorted keys to keep
+     * @return this when it has no other key, a smaller copy otherwise
+     */
+    ContextSnapshot select(String[] selected) {
+        String[] keys = null;
+        String[] values = null;
+        int size = 0;
+        for (int i = 0; i < this.size; i++) {
+            boolean kept = Arrays.binarySearch(selected, this.keys[i]) >= 0;
+            if (kept && keys != null) {
+                keys[size] = this.keys[i];
+                values[size++] = this.values[i];
+            } else if (!kept && keys == null) {
+                keys = Arrays.copyOf(this.keys, this.size);
+                values = Arrays.copyOf(this.values, this.size);
+                size = i;
+            }
+        }
+        if (keys == null) {
+            return this;
+        }
+        return size > 0 ? new ContextSnapshot(keys, values, size) : EMPTY;
+    }
+
+    @Override
+    public String getKeyAt(int index) {
+        return index < this.size ? this.keys[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> V getValueAt(int index) {
+        return index < this.size ? (V) this.values[index] : null;
+    }
+
+    @Override
+    public int indexOfKey(String key) {
+        return key != null ? Arrays.binarySearch(this.keys, 0, this.size, key) : -1;
+    }
+
+    @Override
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>(this.size * 2);
+        for (int i = 0; i < this.size; i++) {
+            map.put(this.keys[i], this.values[i]);
+        }
+        return map;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return indexOfKey(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> void forEach(BiConsumer<String, ? super V> action) {
+        for (int i = 0; i < this.size; i++) {
+            action.accept(this.keys[i], (V) this.values[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V, S> void forEach(TriConsumer<String, ? super V, S> action, S state) {
+        for (int i = 0; i < this.size; i++) {
+            action.accept(this.keys[i], (V) this.values[i], state);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> V getValue(String key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? (V) this.values[index] : null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Context snapshot is immutable");
+    }
+
+    @Override
+    public void freeze() {
+        // always frozen
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return true;
+    }
+
+    @Override
+    public void putAll(ReadOnlyStringMap source) {
+        throw new UnsupportedOperationException("Context snapshot is immutable");
+    }
+
+    @Override
+    public void putValue(String key, Object value) {
+        throw new UnsupportedOperationException("Context snapshot is immutable");
+    }
+
+    @Override
+    public void remove(String key) {
+        throw new UnsupportedOperationException("Context snapshot is immutable");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ReadOnlyStringMap)) {
+            return false;
+        }
+        ReadOnlyStringMap map = (ReadOnlyStringMap) other;
+        if (map.size() != this.size) {
+            return false;
+        }
+        for (int i = 0; i < this.size; i++) {
+            if (!this.values[i].equals(map.getValue(this.keys[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < this.size; i++) {
+            hash += this.keys[i].hashCode() ^ this.values[i].hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,149 @@
+package id.dkakunsi.lab.jlogging.context;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import org.apache.logging.log4j.ThreadContext;
+
+/**
+ * <p>
+ * Run a task with a {@link ContextSnapshot} as the logging context, e.g. the
+ * {@code correlationId} and {@code principal} of a request.
+ * </p>
+ * <p>
+ * On a JDK with {@code java.lang.ScopedValue} (final in JDK 25, a preview
+ * before), and with {@link SnapshotContextDataInjector} installed, the
+ * snapshot is bound to a scoped value. Nothing is copied per thread: the
+ * binding is shared with the threads forked in the scope, e.g. by a
+ * {@code StructuredTaskScope}, and gone when the task ends. Otherwise, the
+ * entries are put in {@link ThreadContext} for the task and restored after.
+ * </p>
+ *
+ * <pre>
+ * ScopedContext.run(ContextSnapshot.of("correlationId", id, "principal", user), handler);
+ * </pre>
+ * <p>
+ * The scoped value is found by reflection, so this works on Java 7 too.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class ScopedContext {
+
+    /**
+     * {@code ScopedValue<ContextSnapshot>}, or {@code null} without scoped
+     * values.
+     */
+    private static final Object SCOPED_VALUE;
+
+    private static final MethodHandle IS_BOUND;
+
+    private static final MethodHandle GET;
+
+    private static final MethodHandle WHERE;
+
+    private static final MethodHandle RUN;
+
+    static {
+        Object scopedValue = null;
+        MethodHandle isBound = null;
+        MethodHandle get = null;
+        MethodHandle where = null;
+        MethodHandle run = null;
+        try {
+            Class<?> type = Class.forName("java.lang.ScopedValue");
+            Method whereMethod = type.getMethod("where", type, Object.class);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            isBound = lookup.unreflect(type.getMethod("isBound"))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            get = lookup.unreflect(type.getMethod("get")).asType(MethodType.methodType(Object.class, Object.class));
+            where = lookup.unreflect(whereMethod)
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            run = lookup.unreflect(whereMethod.getReturnType().getMethod("run", Runnable.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+            scopedValue = type.getMethod("newInstance").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            // scoped values are not available
+            scopedValue = null;
+        }
+        SCOPED_VALUE = scopedValue;
+        IS_BOUND = isBound;
+        GET = get;
+        WHERE = where;
+        RUN = run;
+    }
+
+    private ScopedContext() {
+    }
+
+    /**
+     * @return whether snapshots are bound to a scoped value, rather than put
+     *         in {@link ThreadContext}
+     */
+    public static boolean isScoped() {
+        return SCOPED_VALUE != null && SnapshotContextDataInjector.isInstalled();
+    }
+
+    /**
+     * @return the {@code ScopedValue<ContextSnapshot>} read by
+     *         {@link SnapshotContextDataInjector}, to bind it directly, or
+     *         {@code null} on a JDK without scoped values
+     */
+    public static Object getScopedValue() {
+        return SCOPED_VALUE;
+    }
+
+    /**
+     * @return the snapshot bound to the current scope, or {@code null}
+     */
+    public static ContextSnapshot current() {
+        if (SCOPED_VALUE == null) {
+            return null;
+        }
+        try {
+            return (boolean) IS_BOUND.invokeExact(SCOPED_VALUE) ? (ContextSnapshot) (Object) GET.invokeExact(
+                    SCOPED_VALUE) : null;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Unable to read the scoped context", ex);
+        }
+    }
+
+    /**
+     * Run a task with a logging context.
+     *
+     * @param context entries of the context
+     * @param task    task to run
+     */
+    public static void run(ContextSnapshot context, Runnable task) {
+        if (isScoped()) {
+            try {
+                Object carrier = WHERE.invokeExact(SCOPED_VALUE, (Object) context);
+                RUN.invokeExact(carrier, task);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+            return;
+        }
+
+        String[] previous = new String[context.size()];
+        for (int i = 0; i < context.size(); i++) {
+            previous[i] = ThreadContext.get(context.getKeyAt(i));
+            ThreadContext.put(context.getKeyAt(i), context.<String>getValueAt(i));
+        }
+        try {
+            task.run();
+        } finally {
+            for (int i = 0; i < context.size(); i++) {
+                if (previous[i] != null) {
+                    ThreadContext.put(context.getKeyAt(i), previous[i]);
+                } else {
+                    ThreadContext.remove(context.getKeyAt(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package id.dkakunsi.lab.jlogging.context;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.ContextDataInjector;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.filter.Filterable;
+import org.apache.logging.log4j.core.impl.Log4jContextFactory;
+import org.apache.logging.log4j.spi.LoggerContextFactory;
+import org.apache.logging.log4j.spi.ReadOnlyThreadContextMap;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringMap;
+
+/**
+ * <p>
+ * Gives every event a {@link ContextSnapshot} of only the context keys that
+ * are printed, instead of a copy of the whole {@link ThreadContext}. The keys
+ * are those the running configurations read: every layout and appender of
+ * every started {@link LoggerContext} must be a {@link ContextKeyReader}, e.g.
+ * {@link id.dkakunsi.lab.jlogging.layout.CustomJsonLayout} and its sidecar
+ * keys in {@link id.dkakunsi.lab.jlogging.appender.MappedRollingFileAppender}.
+ * The whole context is captured as soon as one of them may read any key: a
+ * {@code PatternLayout}, an appender of another library, or any filter, e.g.
+ * a {@code ThreadContextMapFilter}.
+ * </p>
+ * <p>
+ * The keys are computed again when a watched logger context is reconfigured,
+ * so the keys of a dropped layout are not captured anymore. The logger
+ * contexts of the layouts of this library are watched as the layouts are
+ * created, and the other ones when they are first seen, which is checked
+ * every {@value #REFRESH_SECONDS} s.
+ * </p>
+ * <p>
+ * The values come from the snapshot bound by {@link ScopedContext} when there
+ * is one, shared as it is when it has no other key. Otherwise, they are read
+ * from {@link ThreadContext} one key at a time, no map is copied. With
+ * millions of short-lived virtual threads, binding the context with
+ * {@link ScopedContext} instead of {@link ThreadContext} also saves the
+ * per-thread map.
+ * </p>
+ * <p>
+ * Installed with the log4j system property:
+ * </p>
+ *
+ * <pre>
+ * -Dlog4j2.ContextDataInjector=id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+public class SnapshotContextDataInjector implements ContextDataInjector {
+
+    private static final long REFRESH_SECONDS = 1;
+
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(REFRESH_SECONDS);
+
+    /**
+     * Logger contexts whose reconfigurations are listened to.
+     */
+    private static final Set<LoggerContext> WATCHED = Collections
+            .newSetFromMap(new WeakHashMap<LoggerContext, Boolean>());
+
+    private static final PropertyChangeListener LISTENER = new ReconfigurationListener();
+
+    private static final AtomicLong NEXT_REFRESH = new AtomicLong(System.nanoTime());
+
+    private static volatile boolean installed;
+
+    /**
+     * Keys read by the running configurations, sorted, {@code null} to capture
+     * the whole context. Replaced, never changed, so snapshots share it.
+     */
+    private static volatile String[] keys;
+
+    public SnapshotContextDataInjector() {
+        installed = true;
+    }
+
+    /**
+     * @return whether log4j uses this injector
+     */
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * Follow the reconfigurations of the logger context of a configuration.
+     * Called by the components of this library reading context keys, as they
+     * are created.
+     *
+     * @param configuration configuration of the component, may be {@code null}
+     */
+    public static void watch(Configuration configuration) {
+        LoggerContext context = configuration != null ? configuration.getLoggerContext() : null;
+        if (context != null) {
+            synchronized (WATCHED) {
+                if (WATCHED.add(context)) {
+                    context.addPropertyChangeListener(LISTENER);
+                }
+            }
+            refresh();
+        }
+    }
+
+    /**
+     * @return the captured keys, sorted, {@code null} when the whole context is
+     *         captured
+     */
+    public static String[] getKeys() {
+        String[] keys = SnapshotContextDataInjector.keys;
+        return keys != null ? keys.clone() : null;
+    }
+
+    /**
+     * Get the context keys a configuration reads.
+     *
+     * @param configuration a configuration
+     * @return the keys, sorted, {@code null} when any key may be read
+     */
+    public static String[] getContextKeys(Configuration configuration) {
+        if (configuration.hasFilter()) {
+            return null;
+        }
+        List<LoggerConfig> loggers = new ArrayList<>(configuration.getLoggers().values());
+        loggers.add(configuration.getRootLogger());
+        for (LoggerConfig logger : loggers) {
+            if (logger.hasFilter()) {
+                return null;
+            }
+            for (AppenderRef ref : logger.getAppenderRefs()) {
+                if (ref.getFilter() != null) {
+                    return null;
+                }
+            }
+        }
+
+        Set<String> keys = new TreeSet<>();
+        for (Appender appender : configuration.getAppenders().values()) {
+            if (!addContextKeys(appender, keys)) {
+                return null;
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Add the keys read by an appender and its layout.
+     *
+     * @return whether the keys are known
+     */
+    private static boolean addContextKeys(Appender appender, Set<String> keys) {
+        if (appender instanceof Filterable && ((Filterable) appender).hasFilter()) {
+            return false;
+        }
+        if (appender instanceof ContextKeyReader && !addContextKeys((ContextKeyReader) appender, keys)) {
+            return false;
+        }
+        Layout<?> layout = appender.getLayout();
+        if (layout == null) {
+            return appender instanceof ContextKeyReader;
+        }
+        return layout instanceof ContextKeyReader && addContextKeys((ContextKeyReader) layout, keys);
+    }
+
+    private static boolean addContextKeys(ContextKeyReader reader, Set<String> keys) {
+        String[] read = reader.getContextKeys();
+        if (read == null) {
+            return false;
+        }
+        keys.addAll(Arrays.asList(read));
+        return true;
+    }
+
+    /**
+     * Compute the keys again, from the configurations of the started logger
+     * contexts. Without any, the whole context is captured.
+     */
+    private static void refresh() {
+        List<LoggerContext> contexts = new ArrayList<>();
+        LoggerContextFactory factory = LogManager.getFactory();
+        if (factory instanceof Log4jContextFactory) {
+            contexts.addAll(((Log4jContextFactory) factory).getSelector().getLoggerContexts());
+        }
+
+        synchronized (WATCHED) {
+            for (LoggerContext context : contexts) {
+                if (WATCHED.add(context)) {
+                    context.addPropertyChangeListener(LISTENER);
+                }
+            }
+            Set<String> union = null;
+            for (LoggerContext context : WATCHED) {
+                if (!context.isStarting() && !context.isStarted()) {
+                    continue;
+                }
+                String[] read = getContextKeys(context.getConfiguration());
+                if (read == null) {
+                    keys = null;
+                    return;
+                }
+                if (union == null) {
+                    union = new TreeSet<>();
+                }
+                union.addAll(Arrays.asList(read));
+            }
+            // nothing is known to read the context before a configuration starts
+            keys = union != null ? union.toArray(new String[union.size()]) : null;
+        }
+    }
+
+    /**
+     * Refresh the keys when it is time to look for new logger contexts. Only
+     * the thread moving the deadline refreshes.
+     */
+    private static void refreshPeriodically() {
+        long next = NEXT_REFRESH.get();
+        long now = System.nanoTime();
+        if (now - next >= 0 && NEXT_REFRESH.compareAndSet(next, now + REFRESH_NANOS)) {
+            refresh();
+        }
+    }
+
+    @Override
+    public StringMap injectContextData(List<Property> properties, StringMap reusable) {
+        refreshPeriodically();
+        String[] keys = SnapshotContextDataInjector.keys;
+        ContextSnapshot scoped = ScopedContext.current();
+        ContextSnapshot snapshot;
+        if (scoped != null) {
+            snapshot = keys != null ? scoped.select(keys) : scoped;
+        } else if (keys != null) {
+            snapshot = capture(keys);
+        } else {
+            snapshot = ContextSnapshot.of(ThreadContext.getImmutableContext());
+        }
+
+        if (properties == null || properties.isEmpty()) {
+            return snapshot;
+        }
+        // the context wins over the configured properties, as in log4j
+        Map<String, String> merged = snapshot.toMap();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (!merged.containsKey(property.getName())) {
+                merged.put(property.getName(), property.getValue());
+            }
+        }
+        return ContextSnapshot.of(merged);
+    }
+
+    @Override
+    public ReadOnlyStringMap rawContextData() {
+        ContextSnapshot scoped = ScopedContext.current();
+        if (scoped != null) {
+            return scoped;
+        }
+        ReadOnlyThreadContextMap map = ThreadContext.getThreadContextMap();
+        return map != null ? map.getReadOnlyContextData() : ContextSnapshot.of(ThreadContext.getImmutableContext());
+    }
+
+    /**
+     * Keep the captured keys of a context, e.g. of an event to queue. The
+     * snapshot of an event created with this injector is returned as it is.
+     *
+     * @param context context data of an event
+     * @return snapshot of the captured keys of the context, all of it when the
+     *         whole context is captured
+     */
+    public static ContextSnapshot capture(ReadOnlyStringMap context) {
+        return capture(context, SnapshotContextDataInjector.keys);
+    }
+
+    /**
+     * Keep some keys of a context, e.g. those read by the appenders an event
+     * is queued for.
+     *
+     * @param context context data of an event
+     * @param keys    keys to keep, sorted, or {@code null} to keep all of them
+     * @return snapshot of the keys of the context
+     */
+    public static ContextSnapshot capture(ReadOnlyStringMap context, String[] keys) {
+        if (context instanceof ContextSnapshot) {
+            return keys != null ? ((ContextSnapshot) context).select(keys) : (ContextSnapshot) context;
+        }
+        if (context == null || context.isEmpty()) {
+            return ContextSnapshot.EMPTY;
+        }
+        if (keys == null) {
+            return ContextSnapshot.of(context.toMap());
+        }
+
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Object value = context.getValue(keys[i]);
+            values[i] = value != null ? value.toString() : null;
+        }
+        return snapshot(keys, values);
+    }
+
+    /**
+     * Read the keys from {@link ThreadContext}.
+     */
+    private static ContextSnapshot capture(String[] keys) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = ThreadContext.get(keys[i]);
+        }
+        return snapshot(keys, values);
+    }
+
+    /**
+     * Keep the keys with a value. When all have one, the snapshot shares the
+     * key array.
+     */
+    private static ContextSnapshot snapshot(String[] keys, String[] values) {
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            size += values[i] != null ? 1 : 0;
+        }
+        if (size == 0) {
+            return ContextSnapshot.EMPTY;
+        }
+        if (size == keys.length) {
+            return new ContextSnapshot(keys, values, size);
+        }
+
+        String[] present = new String[size];
+        String[] presentValues = new String[size];
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                present[j] = keys[i];
+                presentValues[j++] = values[i];
+            }
+        }
+        return new ContextSnapshot(present, presentValues, size);
+    }
+
+    /**
+     * Compute the keys again when a logger context is reconfigured.
+     */
+    private static final class ReconfigurationListener implements PropertyChangeListener {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName())) {
+                refresh();
+            }
+        }
+    }
+}
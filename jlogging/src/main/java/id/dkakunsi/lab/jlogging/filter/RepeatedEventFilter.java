@@ -0,0 +1,436 @@
+package id.dkakunsi.lab.jlogging.filter;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+
+/**
+ * <p>
+ * Let through the first {@code burst} events of each fingerprint per
+ * {@code interval}, and suppress the repeats. A fingerprint is the logger name,
+ * the message template (the format before parameters are applied), the
+ * exception type and the top frame of the exception.
+ * </p>
+ * <p>
+ * Once per interval, a summary event is logged for every fingerprint that had
+ * suppressed repeats, through the logger of the suppressed events. It has the
+ * level and message template of the first event and carries the number of
+ * repeats as {@value #SUPPRESSED_COUNT} in its context data, printed by
+ * {@code CustomJsonLayout} when {@code suppressedCount} is in its attributes.
+ * It is marked with {@link #SUMMARY_MARKER} and never suppressed.
+ * </p>
+ * <p>
+ * The fingerprints are kept in a bounded, open-addressed table updated with
+ * compare-and-set only. When the probed slots all hold other live
+ * fingerprints, the event is let through.
+ * </p>
+ * <p>
+ * Configured context-wide, the filter is also asked by the level checks such
+ * as {@code isDebugEnabled()}, which have no message. These are not events and
+ * get NEUTRAL, so a burst never disables the guarded logging of a logger.
+ * </p>
+ * <p>
+ * Configuration attributes:
+ * <ul>
+ * <li>{@code burst}, events let through per fingerprint and interval. Default
+ * to 10, at most {@value #MAX_BURST}.</li>
+ * <li>{@code interval}, length of the window in milliseconds. Default to
+ * 10000.</li>
+ * <li>{@code tableSize}, number of fingerprints tracked at once, rounded up to a
+ * power of two. Default to 1024.</li>
+ * <li>{@code onMatch}, result for an event let through. Default to NEUTRAL.</li>
+ * <li>{@code onMismatch}, result for a suppressed repeat. Default to DENY.</li>
+ * </ul>
+ * </p>
+ *
+ * <pre>
+ * {@code <RepeatedEventFilter burst="5" interval="1000" />}
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+@Plugin(name = "RepeatedEventFilter", category = Node.CATEGORY, elementType = Filter.ELEMENT_TYPE, printObject = true)
+public final class RepeatedEventFilter extends AbstractFilter {
+
+    public static final String SUPPRESSED_COUNT = "suppressedCount";
+
+    public static final Marker SUMMARY_MARKER = MarkerManager.getMarker("SUPPRESSED_SUMMARY");
+
+    private static final String FQCN = RepeatedEventFilter.class.getName();
+
+    private static final int MAX_PROBES = 4;
+
+    private static final int COUNT_BITS = 20;
+
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    static final int MAX_BURST = (int) COUNT_MASK - 1;
+
+    private final int burst;
+
+    private final long intervalMillis;
+
+    private final AtomicReferenceArray<Fingerprint> table;
+
+    private final int mask;
+
+    private final Configuration configuration;
+
+    private ScheduledExecutorService executor;
+
+    private RepeatedEventFilter(Builder builder) {
+        super(builder.getOnMatch(), builder.getOnMismatch());
+        this.burst = Math.min(MAX_BURST, Math.max(1, builder.burst));
+        this.intervalMillis = Math.max(1, builder.interval);
+        int size = 1;
+        while (size < builder.tableSize) {
+            size <<= 1;
+        }
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.configuration = builder.configuration;
+    }
+
+    @PluginBuilderFactory
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public void start() {
+        this.executor = new ScheduledThreadPoolExecutor(1,
+                Log4jThreadFactory.createDaemonThreadFactory("RepeatedEventFilter"));
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                logSummaries();
+            }
+        }, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+        super.start();
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = true;
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                stopped = this.executor.awaitTermination(timeout, timeUnit);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                stopped = false;
+            }
+            this.executor = null;
+        }
+        logSummaries();
+        setStopped();
+        return stopped;
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object... params) {
+        if (msg == null) {
+            return Result.NEUTRAL;
+        }
+        Object last = params != null && params.length > 0 ? params[params.length - 1] : null;
+        return filter(logger.getName(), level, marker, msg, last instanceof Throwable ? (Throwable) last : null);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Object msg, Throwable t) {
+        if (msg == null) {
+            return Result.NEUTRAL;
+        }
+        return filter(logger.getName(), level, marker, String.valueOf(msg), t);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Message msg, Throwable t) {
+        if (msg == null) {
+            return Result.NEUTRAL;
+        }
+        return filter(logger.getName(), level, marker, getTemplate(msg), t);
+    }
+
+    @Override
+    public Result filter(LogEvent event) {
+        return filter(event.getLoggerName(), event.getLevel(), event.getMarker(), getTemplate(event.getMessage()),
+                event.getThrown());
+    }
+
+    private Result filter(String loggerName, Level level, Marker marker, String template, Throwable thrown) {
+        if (marker != null && marker.isInstanceOf(SUMMARY_MARKER)) {
+            return this.onMatch;
+        }
+
+        String thrownType = thrown != null ? thrown.getClass().getName() : null;
+        StackTraceElement topFrame = getTopFrame(thrown);
+        long hash = hash(loggerName, template, thrownType, topFrame);
+        long now = System.currentTimeMillis();
+        long window = now / this.intervalMillis;
+
+        Fingerprint fingerprint = find(hash, loggerName, template, thrownType, topFrame, level, window);
+        if (fingerprint == null) {
+            return this.onMatch;
+        }
+        return fingerprint.count(window, this.burst) ? this.onMatch : this.onMismatch;
+    }
+
+    /**
+     * Find the fingerprint in the probed slots, taking the first free or stale
+     * one when it is not there.
+     *
+     * @return the fingerprint, {@code null} when the table has no room for it
+     */
+    private Fingerprint find(long hash, String loggerName, String template, String thrownType,
+            StackTraceElement topFrame, Level level, long window) {
+        int start = (int) hash & this.mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (start + probe) & this.mask;
+            Fingerprint current = this.table.get(slot);
+            if (current != null && current.matches(hash, loggerName, template, thrownType, topFrame)) {
+                return current;
+            }
+            if (current == null || current.isStale(window)) {
+                Fingerprint created = new Fingerprint(hash, loggerName, template, thrownType, topFrame, level,
+                        window);
+                if (this.table.compareAndSet(slot, current, created)) {
+                    return created;
+                }
+                current = this.table.get(slot);
+                if (current != null && current.matches(hash, loggerName, template, thrownType, topFrame)) {
+                    return current;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Log a summary for every fingerprint with suppressed repeats, and free the
+     * slots of fingerprints not seen for a whole interval.
+     */
+    public void logSummaries() {
+        long window = System.currentTimeMillis() / this.intervalMillis;
+        for (int slot = 0; slot < this.table.length(); slot++) {
+            Fingerprint fingerprint = this.table.get(slot);
+            if (fingerprint == null) {
+                continue;
+            }
+            logSummary(fingerprint);
+            if (fingerprint.isStale(window)) {
+                this.table.compareAndSet(slot, fingerprint, null);
+            }
+        }
+    }
+
+    private void logSummary(Fingerprint fingerprint) {
+        long suppressed = fingerprint.suppressed.getAndSet(0);
+        if (suppressed == 0) {
+            return;
+        }
+
+        StringMap contextData = ContextDataFactory.createContextData();
+        contextData.putValue(SUPPRESSED_COUNT, suppressed);
+        LogEvent summary = Log4jLogEvent.newBuilder()
+                .setLoggerName(fingerprint.loggerName)
+                .setLoggerFqcn(FQCN)
+                .setLevel(fingerprint.level)
+                .setMarker(SUMMARY_MARKER)
+                .setMessage(new SimpleMessage(fingerprint.template))
+                .setContextData(contextData)
+                .setTimeMillis(System.currentTimeMillis())
+                .build();
+
+        Configuration target = this.configuration;
+        if (target == null) {
+            target = ((LoggerContext) LogManager.getContext(false)).getConfiguration();
+        }
+        target.getLoggerConfig(fingerprint.loggerName).log(summary);
+    }
+
+    private static String getTemplate(Message message) {
+        if (message == null) {
+            return "";
+        }
+        String format = message.getFormat();
+        return format != null ? format : message.getFormattedMessage();
+    }
+
+    private static StackTraceElement getTopFrame(Throwable thrown) {
+        if (thrown == null) {
+            return null;
+        }
+        StackTraceElement[] frames = thrown.getStackTrace();
+        return frames.length > 0 ? frames[0] : null;
+    }
+
+    private static long hash(String loggerName, String template, String thrownType, StackTraceElement topFrame) {
+        long hash = loggerName != null ? loggerName.hashCode() : 0;
+        hash = hash * 31 + (template != null ? template.hashCode() : 0);
+        hash = hash * 31 + (thrownType != null ? thrownType.hashCode() : 0);
+        hash = hash * 31 + (topFrame != null ? topFrame.hashCode() : 0);
+
+        // spread the bits, so similar fingerprints do not probe the same slots
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Counts of one fingerprint within the current window. The window and the
+     * count of events in it are packed into one {@link AtomicLong}, the window
+     * in the high bits, so moving to a new window resets the count in the same
+     * compare-and-set.
+     */
+    private static final class Fingerprint {
+
+        private final long hash;
+
+        private final String loggerName;
+
+        private final String template;
+
+        private final String thrownType;
+
+        private final StackTraceElement topFrame;
+
+        private final Level level;
+
+        private final AtomicLong state;
+
+        private final AtomicLong suppressed = new AtomicLong();
+
+        Fingerprint(long hash, String loggerName, String template, String thrownType, StackTraceElement topFrame,
+                Level level, long window) {
+            this.hash = hash;
+            this.loggerName = loggerName;
+            this.template = template;
+            this.thrownType = thrownType;
+            this.topFrame = topFrame;
+            this.level = level;
+            this.state = new AtomicLong(window << COUNT_BITS);
+        }
+
+        boolean matches(long hash, String loggerName, String template, String thrownType,
+                StackTraceElement topFrame) {
+            return this.hash == hash && equals(this.loggerName, loggerName) && equals(this.template, template)
+                    && equals(this.thrownType, thrownType) && equals(this.topFrame, topFrame);
+        }
+
+        /**
+         * Whether the fingerprint was not seen in the previous window, nor has
+         * suppressed repeats waiting for their summary.
+         */
+        boolean isStale(long window) {
+            return (this.state.get() >>> COUNT_BITS) < window - 1 && this.suppressed.get() == 0;
+        }
+
+        /**
+         * Count an event in {@code window}.
+         *
+         * @return whether the event is within the burst
+         */
+        boolean count(long window, int burst) {
+            for (;;) {
+                long current = this.state.get();
+                long next;
+                if ((current >>> COUNT_BITS) < window) {
+                    next = (window << COUNT_BITS) | 1;
+                } else if ((current & COUNT_MASK) <= burst) {
+                    next = current + 1;
+                } else {
+                    // past the burst, the count stays where it is
+                    break;
+                }
+                if (this.state.compareAndSet(current, next)) {
+                    if ((next & COUNT_MASK) <= burst) {
+                        return true;
+                    }
+                    break;
+                }
+            }
+            this.suppressed.incrementAndGet();
+            return false;
+        }
+
+        private static boolean equals(Object first, Object second) {
+            return first == second || (first != null && first.equals(second));
+        }
+    }
+
+    /**
+     * Builder of {@link RepeatedEventFilter}, each field is a configuration
+     * attribute of the {@code <RepeatedEventFilter>} element.
+     */
+    public static class Builder extends AbstractFilterBuilder<Builder>
+            implements org.apache.logging.log4j.core.util.Builder<RepeatedEventFilter> {
+
+        @PluginBuilderAttribute
+        private int burst = 10;
+
+        @PluginBuilderAttribute
+        private long interval = 10000;
+
+        @PluginBuilderAttribute
+        private int tableSize = 1024;
+
+        @PluginConfiguration
+        private Configuration configuration;
+
+        public Builder setBurst(int burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        public Builder setInterval(long interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        public Builder setTableSize(int tableSize) {
+            this.tableSize = tableSize;
+            return this;
+        }
+
+        /**
+         * @param configuration configuration whose loggers log the summaries,
+         *                      default to the one of the current context
+         */
+        public Builder setConfiguration(Configuration configuration) {
+            this.configuration = configuration;
+            return this;
+        }
+
+        @Override
+        public RepeatedEventFilter build() {
+            return new RepeatedEventFilter(this);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Reusable per-thread rendering state of {@link CustomJsonLayout}: a
+ * {@link JsonGenerator} bound once to a reusable buffer, and whether it is
+ * rendering an entry.
+ * 
+ * @author dkakunsi
+ */
+abstract class AbstractLayoutWriter {
+
+    private boolean busy;
+
+    /**
+     * Mark this writer as rendering an entry.
+     * 
+     * @return false if it is already rendering one
+     */
+    boolean acquire() {
+        if (this.busy) {
+            return false;
+        }
+        this.busy = true;
+        return true;
+    }
+
+    /**
+     * Mark this writer as free.
+     * 
+     * @return false if it was not acquired
+     */
+    boolean release() {
+        boolean acquired = this.busy;
+        this.busy = false;
+        return acquired;
+    }
+
+    /**
+     * Prepare for the next entry.
+     * 
+     * @return the generator, positioned at root level
+     */
+    abstract JsonGenerator begin();
+
+    /**
+     * Shrink the buffer after an unusually big entry.
+     * 
+     * @param maxSize largest size kept
+     */
+    abstract void trim(int maxSize);
+}
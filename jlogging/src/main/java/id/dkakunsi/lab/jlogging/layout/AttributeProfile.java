@@ -0,0 +1,150 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+/**
+ * <p>
+ * Attributes printed by {@link CustomJsonLayout} for the events of some loggers
+ * or levels, instead of the layout's {@code attributes}. Each profile is
+ * compiled once, like the layout's own attributes.
+ * </p>
+ * <p>
+ * Configuration attributes of the {@code <AttributeProfile>} element:
+ * <ul>
+ * <li>{@code attributes}, list of JSON attributes to be printed. Required.</li>
+ * <li>{@code logger}, logger name prefix, matching the logger and its
+ * descendants, e.g. "org.hibernate". Default to every logger.</li>
+ * <li>{@code minLevel}, least severe level matched, e.g. WARN matches WARN,
+ * ERROR and FATAL. Default to every level.</li>
+ * <li>{@code maxLevel}, most severe level matched, e.g. DEBUG matches DEBUG and
+ * TRACE. Default to every level.</li>
+ * </ul>
+ * The first profile matching an event is used:
+ * </p>
+ *
+ * <pre>
+ *      {@code <CustomJsonLayout attributes="timestamp,correlationId,category,level,message">
+ *          <AttributeProfile maxLevel="DEBUG" attributes="timestamp,level,message" />
+ *          <AttributeProfile minLevel="WARN" attributes="timestamp,correlationId,category,level,message,stacktrace,payload" />
+ *      </CustomJsonLayout>}
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+@Plugin(name = "AttributeProfile", category = "Core", printObject = true)
+public final class AttributeProfile {
+
+    private final String logger;
+
+    private final Level minLevel;
+
+    private final Level maxLevel;
+
+    private final String attributes;
+
+    private AttributeProfile(Builder builder) {
+        this.logger = builder.logger != null && !builder.logger.isEmpty() ? builder.logger : null;
+        this.minLevel = builder.minLevel;
+        this.maxLevel = builder.maxLevel;
+        this.attributes = builder.attributes;
+    }
+
+    @PluginBuilderFactory
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @param event the event
+     * @return whether the profile applies to the event
+     */
+    public boolean matches(LogEvent event) {
+        Level level = event.getLevel();
+        if (this.minLevel != null && !level.isMoreSpecificThan(this.minLevel)) {
+            return false;
+        }
+        if (this.maxLevel != null && !level.isLessSpecificThan(this.maxLevel)) {
+            return false;
+        }
+        return this.logger == null || matchesLogger(event.getLoggerName());
+    }
+
+    private boolean matchesLogger(String loggerName) {
+        if (loggerName == null || !loggerName.startsWith(this.logger)) {
+            return false;
+        }
+        return loggerName.length() == this.logger.length() || loggerName.charAt(this.logger.length()) == '.';
+    }
+
+    public String getLogger() {
+        return this.logger;
+    }
+
+    public Level getMinLevel() {
+        return this.minLevel;
+    }
+
+    public Level getMaxLevel() {
+        return this.maxLevel;
+    }
+
+    public String getAttributes() {
+        return this.attributes;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeProfile[logger=" + this.logger + ", minLevel=" + this.minLevel + ", maxLevel="
+                + this.maxLevel + ", attributes=" + this.attributes + "]";
+    }
+
+    /**
+     * Builder of {@link AttributeProfile}, each field is a configuration
+     * attribute of the {@code <AttributeProfile>} element.
+     */
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<AttributeProfile> {
+
+        @PluginBuilderAttribute
+        private String logger;
+
+        @PluginBuilderAttribute
+        private Level minLevel;
+
+        @PluginBuilderAttribute
+        private Level maxLevel;
+
+        @PluginBuilderAttribute
+        @Required
+        private String attributes;
+
+        public Builder setLogger(String logger) {
+            this.logger = logger;
+            return this;
+        }
+
+        public Builder setMinLevel(Level minLevel) {
+            this.minLevel = minLevel;
+            return this;
+        }
+
+        public Builder setMaxLevel(Level maxLevel) {
+            this.maxLevel = maxLevel;
+            return this;
+        }
+
+        public Builder setAttributes(String attributes) {
+            this.attributes = attributes;
+            return this;
+        }
+
+        @Override
+        public AttributeProfile build() {
+            return new AttributeProfile(this);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import id.dkakunsi.lab.jlogging.attributeloader.JsonGenerators;
+
+/**
+ * {@link AbstractLayoutWriter} rendering into a reusable byte array, for a
+ * binary {@link OutputFormat} or JSON encoded as UTF-8. The UTF-8 generator
+ * escapes and encodes in one pass, instead of rendering chars that are encoded
+ * afterwards.
+ * 
+ * @author dkakunsi
+ */
+final class ByteLayoutWriter extends AbstractLayoutWriter {
+
+    private final Output output;
+
+    private final JsonGenerator generator;
+
+    ByteLayoutWriter(JsonFactory factory, int capacity) {
+        this.output = new Output(capacity);
+        try {
+            this.generator = factory.createGenerator(this.output);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (JsonGenerators.isText(this.generator)) {
+            this.generator.setRootValueSeparator(null);
+        }
+    }
+
+    @Override
+    JsonGenerator begin() {
+        this.output.reset();
+        return this.generator;
+    }
+
+    /**
+     * Flush the rendered entry from the generator's buffer.
+     * 
+     * @throws IOException when the generator fails to flush
+     */
+    void end() throws IOException {
+        this.generator.flush();
+    }
+
+    void writeTo(ByteBufferDestination destination) {
+        this.output.writeTo(destination);
+    }
+
+    byte[] toByteArray() {
+        return this.output.toByteArray();
+    }
+
+    int size() {
+        return this.output.size();
+    }
+
+    @Override
+    void trim(int maxSize) {
+        this.output.trim(maxSize);
+    }
+
+    /**
+     * Byte array stream giving access to its buffer.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        private final int capacity;
+
+        Output(int capacity) {
+            super(capacity);
+            this.capacity = capacity;
+        }
+
+        void writeTo(ByteBufferDestination destination) {
+            destination.writeBytes(this.buf, 0, this.count);
+        }
+
+        void trim(int maxSize) {
+            if (this.buf.length > maxSize) {
+                this.buf = new byte[this.capacity];
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.util.Constants;
+
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeScope;
+import id.dkakunsi.lab.jlogging.attributeloader.JsonGenerators;
+import id.dkakunsi.lab.jlogging.metrics.LayoutMetrics;
+
+/**
+ * One configured attribute, resolved once when the layout is created: its
+ * name, its JSON-encoded field name and the loader bound to it. With metrics,
+ * the time of each write is recorded for the loader.
+ * <p>
+ * The value of a {@link AttributeScope#CONSTANT} attribute is loaded here, once.
+ * The value of a {@link AttributeScope#THREAD} attribute is kept per rendering
+ * thread, for the last logging thread it rendered an event of.
+ * </p>
+ * <p>
+ * Consecutive constant attributes are folded into one, rendered once as JSON
+ * text, kept as chars and as UTF-8 bytes. It is copied into a JSON generator as
+ * one raw value after the first field name, and written field by field into a
+ * binary one.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+final class CompiledAttribute {
+
+    private final String name;
+
+    private final SerializableString key;
+
+    private final AttributeLoader loader;
+
+    private final int loaderIndex;
+
+    private final AttributeScope scope;
+
+    private final LayoutMetrics metrics;
+
+    private final Object constant;
+
+    private final ThreadLocal<ThreadValue> threadValues;
+
+    private final CompiledAttribute[] folded;
+
+    private final SerializableString foldedValue;
+
+    CompiledAttribute(String name, AttributeLoader loader, int loaderIndex, AttributeScope scope,
+            LayoutMetrics metrics) {
+        this.name = name;
+        this.key = new SerializedString(name);
+        this.loader = loader;
+        this.loaderIndex = loaderIndex;
+        this.scope = scope;
+        this.metrics = metrics;
+        this.constant = scope == AttributeScope.CONSTANT ? loader.load(name, null) : null;
+        this.threadValues = scope == AttributeScope.THREAD && Constants.ENABLE_THREADLOCALS
+                ? new ThreadLocal<ThreadValue>()
+                : null;
+        this.folded = null;
+        this.foldedValue = null;
+
+        // encode eagerly, so the first events do not pay for it
+        this.key.asQuotedChars();
+        this.key.asQuotedUTF8();
+    }
+
+    private CompiledAttribute(String name, CompiledAttribute[] folded, SerializableString foldedValue) {
+        this.name = name;
+        this.key = folded[0].key;
+        this.loader = null;
+        this.loaderIndex = -1;
+        this.scope = AttributeScope.CONSTANT;
+        this.metrics = null;
+        this.constant = null;
+        this.threadValues = null;
+        this.folded = folded;
+        this.foldedValue = foldedValue;
+    }
+
+    /**
+     * Render constant attributes once, as one attribute.
+     * 
+     * @param constants attributes that are {@link #isFoldable()}
+     * @param factory   factory of the layout's JSON generators
+     * @return the folded attribute
+     * @throws IOException when the attributes cannot be rendered
+     */
+    static CompiledAttribute fold(CompiledAttribute[] constants, JsonFactory factory) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(json)) {
+            generator.writeStartObject();
+            for (CompiledAttribute constant : constants) {
+                constant.writeField(constant.constant, generator);
+            }
+            generator.writeEndObject();
+        }
+
+        // skip {"first": and the closing }
+        String text = json.toString();
+        int start = 1 + constants[0].key.asQuotedChars().length + 3;
+        StringBuilder name = new StringBuilder();
+        for (CompiledAttribute constant : constants) {
+            name.append(name.length() > 0 ? "+" : "").append(constant.name);
+        }
+        SerializableString value = new SerializedString(text.substring(start, text.length() - 1));
+        // encode eagerly, so the first events do not pay for it
+        value.asUnquotedUTF8();
+        return new CompiledAttribute(name.toString(), constants.clone(), value);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    AttributeScope getScope() {
+        return this.scope;
+    }
+
+    /**
+     * Whether this is a constant with a value, which can be rendered once.
+     */
+    boolean isFoldable() {
+        return this.scope == AttributeScope.CONSTANT && this.folded == null && this.constant != null;
+    }
+
+    boolean isFolded() {
+        return this.folded != null;
+    }
+
+    void write(LogEvent event, JsonGenerator generator) throws IOException {
+        if (this.folded != null) {
+            writeFolded(event, generator);
+            return;
+        }
+        if (this.metrics == null) {
+            writeValue(event, generator);
+            return;
+        }
+        long start = System.nanoTime();
+        writeValue(event, generator);
+        this.metrics.recordLoader(this.loaderIndex, System.nanoTime() - start);
+    }
+
+    private void writeValue(LogEvent event, JsonGenerator generator) throws IOException {
+        switch (this.scope) {
+            case CONSTANT:
+                writeField(this.constant, generator);
+                break;
+            case THREAD:
+                writeField(getThreadValue(event), generator);
+                break;
+            default:
+                this.loader.write(this.key, event, generator);
+                break;
+        }
+    }
+
+    private void writeFolded(LogEvent event, JsonGenerator generator) throws IOException {
+        if (JsonGenerators.isText(generator)) {
+            generator.writeFieldName(this.key);
+            generator.writeRawValue(this.foldedValue);
+            return;
+        }
+        for (CompiledAttribute constant : this.folded) {
+            constant.write(event, generator);
+        }
+    }
+
+    private Object getThreadValue(LogEvent event) {
+        if (this.threadValues == null) {
+            return this.loader.load(this.name, event);
+        }
+        ThreadValue value = this.threadValues.get();
+        if (value == null) {
+            value = new ThreadValue();
+            this.threadValues.set(value);
+        }
+        if (!value.loaded || value.threadId != event.getThreadId()) {
+            value.value = this.loader.load(this.name, event);
+            value.threadId = event.getThreadId();
+            value.loaded = true;
+        }
+        return value.value;
+    }
+
+    private void writeField(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            return;
+        }
+        generator.writeFieldName(this.key);
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    /**
+     * Value of a per-thread attribute, for the logging thread it was loaded for.
+     */
+    private static final class ThreadValue {
+
+        private boolean loaded;
+
+        private long threadId;
+
+        private Object value;
+    }
+}
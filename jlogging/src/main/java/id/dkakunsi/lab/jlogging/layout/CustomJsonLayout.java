@@ -1,25 +1,53 @@
 package id.dkakunsi.lab.jlogging.layout;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
-import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
-import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.util.Constants;
 
 import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoaderFactory;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeScope;
 import id.dkakunsi.lab.jlogging.attributeloader.ContextAttributeLoader;
 import id.dkakunsi.lab.jlogging.attributeloader.HostAttributeLoader;
 import id.dkakunsi.lab.jlogging.attributeloader.StacktraceAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.StaticAttributeLoader;
 import id.dkakunsi.lab.jlogging.attributeloader.TimestampAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.TimestampFormatter.Precision;
 import id.dkakunsi.lab.jlogging.attributeloader.EventAttributeLoader;
+import id.dkakunsi.lab.jlogging.context.ContextKeyReader;
+import id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector;
+import id.dkakunsi.lab.jlogging.metrics.LayoutMetrics;
 
 /**
  * <p>
@@ -34,7 +62,76 @@ import id.dkakunsi.lab.jlogging.attributeloader.EventAttributeLoader;
  * <li>{@link #isRecursiveStackTrace}, whether the stacktrace will be printed recursively.</li>
  * <li>{@link #timezone}, default to "UTC"</li>
  * <li>{@link #dateFormat}, default to ISO-8601</li>
+ * <li>{@link #timestampPrecision}, MILLISECOND (default), MICROSECOND or
+ * NANOSECOND digits after the seconds.</li>
+ * <li>{@code eventEol}, whether each entry ends with a new line, which makes the
+ * file newline-delimited JSON. Default to false.</li>
+ * <li>{@code format}, see {@link OutputFormat}. Default to JSON. With a binary
+ * format, {@link #encode(LogEvent, ByteBufferDestination)} and
+ * {@link #toByteArray(LogEvent)} write the format's bytes while
+ * {@link #toSerializable(LogEvent)} still renders JSON text.
+ * {@code eventEol} only applies to JSON.</li>
+ * <li>{@code hostRefreshInterval}, seconds between background resolution of
+ * the host name, default to 0 which resolves it once at startup.</li>
+ * <li>{@code maxStackFrames}, frames printed per exception, default to 0 which
+ * prints all of them.</li>
+ * <li>{@code maxCauseDepth}, causes printed below the logged exception, default
+ * to -1 which prints all of them.</li>
+ * <li>{@code collapseCommonFrames}, whether a cause omits the frames it shares
+ * with its enclosing exception, default to false.</li>
+ * <li>{@code stackFilterPackages}, comma-separated class name prefixes of frames
+ * to omit, e.g. {@code sun.reflect.,java.lang.reflect.}.</li>
+ * <li>{@code stackTraceCacheSize}, number of rendered stacks kept for repeated
+ * exceptions, default to 256. 0 disables the cache.</li>
+ * <li>{@code stackTraceHashLineNumbers}, whether the {@code stacktraceHash}
+ * fingerprint of an exception includes the line numbers of its frames. Default
+ * to true; false keeps the hash of a trace across builds that move lines.</li>
+ * <li>{@code stackTraceRepeatWindow}, seconds during which a trace is printed
+ * once. Later entries with the same {@code stacktraceHash} in the window print
+ * {@code "stacktraceRepeat": n} instead of the {@code stacktrace}. Default to 0
+ * which prints every trace.</li>
+ * <li>{@code maxContextValueLength}, characters printed of a context value,
+ * default to 0 which prints all of them. A longer value is cut and ends with
+ * {@code truncationMarker}.</li>
+ * <li>{@code contextValueLimits}, limits of some context keys, overriding
+ * {@code maxContextValueLength}, e.g. {@code payload=65536,body=1024}.</li>
+ * <li>{@code truncationMarker}, text ending a cut value, default to
+ * {@code ...[truncated]}.</li>
+ * <li>{@code rawJsonAttributes}, comma-separated context keys whose values are
+ * JSON objects or arrays, embedded as JSON instead of a string when valid.</li>
+ * <li>{@code metrics}, whether to count the rendering cost into
+ * {@link LayoutMetrics}, read with {@link #getMetrics()}. Default to false.</li>
+ * <li>{@code metricsName}, name of the layout's MBean. The metrics are only
+ * registered over JMX when it is given. A layout of a later configuration with
+ * the same name replaces the MBean, and the MBean of a layout whose
+ * configuration is replaced in its logger context is unregistered, so a
+ * reconfiguration does not leave the previous layout registered. The MBean
+ * stays registered when the logger context is stopped without being
+ * reconfigured.</li>
+ * <li>nested {@code <KeyValuePair key="service" value="${env:SERVICE}" />}
+ * elements, static fields printed with every entry.</li>
+ * <li>{@code loaderDiscovery}, whether to use the {@link AttributeLoaderFactory}
+ * implementations found on the class path. Default to true.</li>
  * </ul>
+ * <p>
+ * Attributes are loaded by the built-in loaders, and by the loaders of every
+ * {@link AttributeLoaderFactory} discovered on the class path or set on the
+ * builder. A factory declares the keys it owns and their {@link AttributeScope}:
+ * constant values are loaded once, per-thread values once per logging thread,
+ * and only per-event values are loaded for every event.
+ * </p>
+ * <p>
+ * Static fields are printed where their key is in the attributes, or after the
+ * attributes otherwise. They, the host name when it is not refreshed, and any
+ * other constant are rendered once: a run of consecutive constants is copied
+ * into each JSON entry as pre-rendered text, so only the varying attributes
+ * are written per event.
+ * </p>
+ * <p>
+ * Nested {@link AttributeProfile} elements print other attributes for some
+ * loggers or levels, e.g. fewer for chatty DEBUG events.
+ * </p>
+ * <p>
  * The following is a layout with specific attributes value:
  * </p>
  * 
@@ -64,60 +161,281 @@ import id.dkakunsi.lab.jlogging.attributeloader.EventAttributeLoader;
  *      "payload": "Custom field loaded from {@code ThreadContext}"
  * }
  * </pre>
+ * <p>
+ * When log4j runs garbage-free (thread locals enabled, the default outside web
+ * applications), {@link #encode(LogEvent, ByteBufferDestination)} streams each
+ * entry through a per-thread {@link JsonGenerator}. With the UTF-8 charset, the
+ * default, the generator writes into a reusable byte array, escaping and
+ * encoding each string in one pass, and the bytes are copied into the
+ * destination. With another charset it writes into a reusable
+ * {@link StringBuilder}, which is then encoded straight into the destination.
+ * No map, {@link String} or byte array is created per event in steady state.
+ * </p>
+ * <p>
+ * The attributes loaded from the context are read by
+ * {@link SnapshotContextDataInjector} from the running configurations. When it
+ * is installed and no other layout or filter reads the context, each event
+ * only carries these keys, in an immutable array-backed snapshot, which is
+ * cheaper than a copy of the whole {@code ThreadContext} with many
+ * short-lived virtual threads.
+ * </p>
+ * <p>
+ * A {@link RenderedEvent} encoded by this layout beforehand, e.g. by the
+ * render workers of an {@code AsyncRender} appender, is copied as it is by
+ * {@link #encode(LogEvent, ByteBufferDestination)} and
+ * {@link #toByteArray(LogEvent)}, and decoded by {@link #toSerializable(LogEvent)}
+ * for JSON.
+ * </p>
+ * <p>
+ * The layout keeps no per-event state: the event is passed to every
+ * {@link AttributeLoader}, and the rendering state is per thread. One instance
+ * can serve any number of threads at once without locking. A nested call on
+ * the same thread, e.g. a message that logs while being formatted, renders
+ * into a temporary writer.
+ * </p>
  * 
  * @author dkakunsi
  */
 @Plugin(name = "CustomJsonLayout", category = "Core", elementType = "layout", printObject = true)
-public class CustomJsonLayout extends AbstractStringLayout {
+public class CustomJsonLayout extends AbstractStringLayout implements ContextKeyReader {
 
     private static final String DEFAULT_ATTRIBUTES = "timestamp,category,level,message";
 
+    private static final String[] BUILT_IN_LOADERS = { "host", "event", "timestamp", "stacktrace", "static",
+            "context" };
+
+    private static final int HOST_LOADER = 0;
+
+    private static final int STACKTRACE_LOADER = 3;
+
+    private static final int STATIC_LOADER = 4;
+
+    private static final int CONTEXT_LOADER = 5;
+
     private String dateFormat;
 
     private String timezone;
 
+    private Precision timestampPrecision;
+
     private boolean isRecursiveStackTrace;
 
-    private String attributes;
+    private boolean eventEol;
+
+    private int maxStackFrames;
+
+    private int maxCauseDepth;
+
+    private boolean collapseCommonFrames;
+
+    private String[] stackFilterPackages;
+
+    private int stackTraceCacheSize;
+
+    private boolean stackTraceHashLineNumbers;
+
+    private long stackTraceRepeatWindow;
+
+    private int maxContextValueLength;
+
+    private Map<String, Integer> contextValueLimits;
+
+    private String truncationMarker;
+
+    private List<String> rawJsonAttributes;
+
+    private CompiledAttribute[] attributes;
+
+    private AttributeProfile[] profiles;
+
+    private CompiledAttribute[][] profileAttributes;
 
-    private ObjectMapper mapper;
+    private JsonFactory factory;
+
+    private ThreadLocal<TextLayoutWriter> writers;
+
+    private OutputFormat format;
+
+    private JsonFactory byteFactory;
+
+    private ThreadLocal<ByteLayoutWriter> byteWriters;
 
     private AttributeLoader[] attributeLoaders;
 
-    private LogEvent event;
+    private Map<String, Integer> ownedKeys;
+
+    private Map<String, AttributeScope> ownedScopes;
+
+    private boolean hostConstant;
+
+    /**
+     * Context keys of the attributes of every profile, sorted.
+     */
+    private final Set<String> contextKeys = new TreeSet<>();
+
+    private LayoutMetrics metrics;
+
+    protected CustomJsonLayout(Builder builder) {
+        super(builder.configuration, builder.charset, null, null);
+        this.isRecursiveStackTrace = builder.isRecursiveStackTrace;
+        this.eventEol = builder.eventEol;
+        this.maxStackFrames = builder.maxStackFrames;
+        this.maxCauseDepth = builder.maxCauseDepth;
+        this.collapseCommonFrames = builder.collapseCommonFrames;
+        this.stackFilterPackages = split(builder.stackFilterPackages);
+        this.stackTraceCacheSize = builder.stackTraceCacheSize;
+        this.stackTraceHashLineNumbers = builder.stackTraceHashLineNumbers;
+        this.stackTraceRepeatWindow = builder.stackTraceRepeatWindow;
+        this.maxContextValueLength = builder.maxContextValueLength;
+        this.contextValueLimits = parseLimits(builder.contextValueLimits);
+        this.truncationMarker = builder.truncationMarker != null ? builder.truncationMarker : "";
+        this.rawJsonAttributes = Collections.unmodifiableList(Arrays.asList(split(builder.rawJsonAttributes)));
+        this.timezone = builder.timezone;
+        this.dateFormat = builder.dateFormat;
+        this.timestampPrecision = builder.timestampPrecision;
 
-    protected CustomJsonLayout(Charset charset, boolean isRecursiveStackTrace, String timezone, String dateFormat,
-            String attributes) {
-        super(charset);
-        this.mapper = new ObjectMapper();
+        this.factory = OutputFormat.JSON.createFactory();
+        this.writers = new ThreadLocal<TextLayoutWriter>() {
+            @Override
+            protected TextLayoutWriter initialValue() {
+                return createWriter();
+            }
+        };
+
+        this.format = builder.format != null ? builder.format : OutputFormat.JSON;
+        if (this.format.isBinary() || StandardCharsets.UTF_8.equals(getCharset())) {
+            this.byteFactory = this.format.isBinary() ? this.format.createFactory() : this.factory;
+            this.byteWriters = new ThreadLocal<ByteLayoutWriter>() {
+                @Override
+                protected ByteLayoutWriter initialValue() {
+                    return createByteWriter();
+                }
+            };
+        }
 
-        this.attributeLoaders = new AttributeLoader[5];
-        this.attributeLoaders[0] = new HostAttributeLoader();
+        List<AttributeLoaderFactory> factories = new ArrayList<>();
+        if (builder.loaderFactories != null) {
+            factories.addAll(Arrays.asList(builder.loaderFactories));
+        }
+        if (builder.loaderDiscovery) {
+            factories.addAll(discoverLoaderFactories());
+        }
+        String[] loaderNames = Arrays.copyOf(BUILT_IN_LOADERS, BUILT_IN_LOADERS.length + factories.size());
+        for (int i = 0; i < factories.size(); i++) {
+            loaderNames[BUILT_IN_LOADERS.length + i] = factories.get(i).getName();
+        }
+
+        if (builder.metrics) {
+            this.metrics = new LayoutMetrics(loaderNames);
+            if (builder.metricsName != null && this.metrics.register(builder.metricsName)) {
+                unregisterWhenReplaced(builder.configuration, this.metrics);
+            }
+        }
+
+        this.attributeLoaders = new AttributeLoader[loaderNames.length];
+        this.attributeLoaders[0] = new HostAttributeLoader(builder.hostRefreshInterval);
         this.attributeLoaders[1] = new EventAttributeLoader(this);
         this.attributeLoaders[2] = new TimestampAttributeLoader(this);
-        this.attributeLoaders[3] = new StacktraceAttributeLoader(this);
-        this.attributeLoaders[4] = new ContextAttributeLoader(this);
+        this.attributeLoaders[STACKTRACE_LOADER] = new StacktraceAttributeLoader(this);
+        this.attributeLoaders[4] = new StaticAttributeLoader(toMap(builder.staticFields));
+        this.attributeLoaders[CONTEXT_LOADER] = new ContextAttributeLoader(this);
+        this.hostConstant = builder.hostRefreshInterval <= 0;
+        this.ownedKeys = new HashMap<>();
+        this.ownedScopes = new HashMap<>();
+        for (String key : getStaticFields().keySet()) {
+            this.ownedKeys.put(key, STATIC_LOADER);
+            this.ownedScopes.put(key, AttributeScope.CONSTANT);
+        }
+        for (int i = 0; i < factories.size(); i++) {
+            int index = BUILT_IN_LOADERS.length + i;
+            AttributeLoaderFactory factory = factories.get(i);
+            this.attributeLoaders[index] = factory.createLoader(this);
+            for (String key : factory.getKeys()) {
+                if (this.ownedKeys.containsKey(key)) {
+                    LOGGER.warn("Attribute {} of loader {} is already owned by loader {}", key, factory.getName(),
+                            loaderNames[this.ownedKeys.get(key)]);
+                    continue;
+                }
+                this.ownedKeys.put(key, index);
+                AttributeScope scope = factory.getScope(key);
+                this.ownedScopes.put(key, scope != null ? scope : AttributeScope.EVENT);
+            }
+        }
 
-        this.attributes = attributes;
-        this.isRecursiveStackTrace = isRecursiveStackTrace;
-        this.timezone = timezone;
-        this.dateFormat = dateFormat;
+        this.attributes = compile(builder.attributes);
+        this.profiles = builder.profiles != null ? builder.profiles.clone() : new AttributeProfile[0];
+        this.profileAttributes = new CompiledAttribute[this.profiles.length][];
+        for (int i = 0; i < this.profiles.length; i++) {
+            String profileAttributes = this.profiles[i].getAttributes();
+            this.profileAttributes[i] = profileAttributes != null ? compile(profileAttributes) : this.attributes;
+        }
+        SnapshotContextDataInjector.watch(builder.configuration);
     }
 
-    @PluginFactory
-    public static CustomJsonLayout createLayout(
-            @PluginAttribute(value = "charset", defaultString = "UTF-8") Charset charset,
-            @PluginAttribute(value = "isRecursiveStackTrace", defaultBoolean = true) boolean recursiveStacktrace,
-            @PluginAttribute(value = "timezone") String timezone,
-            @PluginAttribute(value = "dateFormat") String dateFormat,
-            @PluginAttribute(value = "attributes", defaultString = DEFAULT_ATTRIBUTES) String attributes) {
-        return new CustomJsonLayout(charset, recursiveStacktrace, timezone, dateFormat, attributes);
+    @PluginBuilderFactory
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static CustomJsonLayout createLayout(Charset charset, boolean recursiveStacktrace, String timezone,
+            String dateFormat, String attributes) {
+        return newBuilder()
+                .setCharset(charset)
+                .setRecursiveStackTrace(recursiveStacktrace)
+                .setTimezone(timezone)
+                .setDateFormat(dateFormat)
+                .setAttributes(attributes)
+                .build();
     }
 
     public boolean isRecursiveStackTrace() {
         return this.isRecursiveStackTrace;
     }
 
+    public int getMaxStackFrames() {
+        return this.maxStackFrames;
+    }
+
+    public int getMaxCauseDepth() {
+        return this.maxCauseDepth;
+    }
+
+    public boolean isCollapseCommonFrames() {
+        return this.collapseCommonFrames;
+    }
+
+    public String[] getStackFilterPackages() {
+        return this.stackFilterPackages.clone();
+    }
+
+    public int getStackTraceCacheSize() {
+        return this.stackTraceCacheSize;
+    }
+
+    public boolean isStackTraceHashLineNumbers() {
+        return this.stackTraceHashLineNumbers;
+    }
+
+    public long getStackTraceRepeatWindow() {
+        return this.stackTraceRepeatWindow;
+    }
+
+    public int getMaxContextValueLength() {
+        return this.maxContextValueLength;
+    }
+
+    public Map<String, Integer> getContextValueLimits() {
+        return this.contextValueLimits;
+    }
+
+    public String getTruncationMarker() {
+        return this.truncationMarker;
+    }
+
+    public List<String> getRawJsonAttributes() {
+        return this.rawJsonAttributes;
+    }
+
     public String getTimezone() {
         return this.timezone;
     }
@@ -126,41 +444,658 @@ public class CustomJsonLayout extends AbstractStringLayout {
         return this.dateFormat;
     }
 
-    public LogEvent getEvent() {
-        return this.event;
+    public Precision getTimestampPrecision() {
+        return this.timestampPrecision;
+    }
+
+    public AttributeProfile[] getProfiles() {
+        return this.profiles.clone();
+    }
+
+    public OutputFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * @return cost counters of this layout, {@code null} when not enabled
+     */
+    public LayoutMetrics getMetrics() {
+        return this.metrics;
     }
 
+    /**
+     * @return the context keys this layout prints, sorted
+     */
+    @Override
+    public String[] getContextKeys() {
+        return this.contextKeys.toArray(new String[this.contextKeys.size()]);
+    }
+
+    /**
+     * @return static fields by key, in output order
+     */
+    public Map<String, String> getStaticFields() {
+        return ((StaticAttributeLoader) this.attributeLoaders[STATIC_LOADER]).getFields();
+    }
+
+    /**
+     * Render the event as JSON text, whatever the output format is.
+     */
     @Override
     public String toSerializable(LogEvent event) {
-        this.event = event;
+        byte[] rendered = this.format.isBinary() ? null : getRendered(event);
+        if (rendered != null) {
+            return new String(rendered, getCharset());
+        }
 
-        Map<String, Object> format = new LinkedHashMap<>();
-        for (String attribute : getAttributes()) {
+        TextLayoutWriter writer = acquireWriter();
+        boolean completed = false;
+        long start = startTime();
+        try {
+            serialize(event, writer.begin(), this.eventEol);
+            String entry = writer.end().toString();
+            completed = true;
+            recordEvent(start, entry.length());
+            return entry;
+        } catch (IOException ex) {
+            return failed(ex);
+        } finally {
+            release(writer, this.writers, completed);
+        }
+    }
+
+    @Override
+    public byte[] toByteArray(LogEvent event) {
+        byte[] rendered = getRendered(event);
+        if (rendered != null) {
+            return rendered.clone();
+        }
+        if (this.byteWriters == null) {
+            return super.toByteArray(event);
+        }
+
+        ByteLayoutWriter writer = acquireByteWriter();
+        boolean completed = false;
+        long start = startTime();
+        try {
+            serialize(event, writer.begin(), isEventEol());
+            writer.end();
+            completed = true;
+            recordEvent(start, writer.size());
+            return writer.toByteArray();
+        } catch (IOException ex) {
+            return getBytes(failed(ex));
+        } finally {
+            release(writer, this.byteWriters, completed);
+        }
+    }
 
-            Object attributeValue = selectLoader(attribute).load(attribute);
-            if (attributeValue != null) {
-                format.put(attribute, attributeValue);
+    @Override
+    public void encode(LogEvent event, ByteBufferDestination destination) {
+        byte[] rendered = getRendered(event);
+        if (rendered != null) {
+            destination.writeBytes(rendered, 0, rendered.length);
+            return;
+        }
+        if (this.byteWriters != null && (this.format.isBinary() || Constants.ENABLE_THREADLOCALS)) {
+            encodeBytes(event, destination);
+            return;
+        }
+        if (!Constants.ENABLE_THREADLOCALS) {
+            super.encode(event, destination);
+            return;
+        }
+
+        TextLayoutWriter writer = acquireWriter();
+        boolean completed = false;
+        long start = startTime();
+        try {
+            serialize(event, writer.begin(), this.eventEol);
+            StringBuilder entry = writer.end();
+            completed = true;
+            recordEvent(start, entry.length());
+            getStringBuilderEncoder().encode(entry, destination);
+        } catch (IOException ex) {
+            byte[] message = getBytes(failed(ex));
+            destination.writeBytes(message, 0, message.length);
+        } finally {
+            release(writer, this.writers, completed);
+        }
+    }
+
+    private void encodeBytes(LogEvent event, ByteBufferDestination destination) {
+        ByteLayoutWriter writer = acquireByteWriter();
+        boolean completed = false;
+        long start = startTime();
+        try {
+            serialize(event, writer.begin(), isEventEol());
+            writer.end();
+            completed = true;
+            recordEvent(start, writer.size());
+            writer.writeTo(destination);
+        } catch (IOException ex) {
+            byte[] message = getBytes(failed(ex));
+            destination.writeBytes(message, 0, message.length);
+        } finally {
+            release(writer, this.byteWriters, completed);
+        }
+    }
+
+    /**
+     * Get the bytes of the event already encoded by this layout, e.g. on a
+     * render worker.
+     */
+    private byte[] getRendered(LogEvent event) {
+        return event instanceof RenderedEvent ? ((RenderedEvent) event).getRendered(this) : null;
+    }
+
+    @Override
+    public String getContentType() {
+        return this.format.isBinary() ? this.format.getContentType() : super.getContentType();
+    }
+
+    private void serialize(LogEvent event, JsonGenerator generator, boolean eol) throws IOException {
+        generator.writeStartObject();
+        try {
+            for (CompiledAttribute attribute : selectAttributes(event)) {
+                attribute.write(event, generator);
+            }
+        } finally {
+            if (event.getThrown() != null) {
+                ((StacktraceAttributeLoader) this.attributeLoaders[STACKTRACE_LOADER]).endEvent();
             }
         }
+        generator.writeEndObject();
+        if (eol) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Whether the entry ends with a new line, only done for JSON.
+     */
+    private boolean isEventEol() {
+        return this.eventEol && !this.format.isBinary();
+    }
+
+    private long startTime() {
+        return this.metrics != null ? System.nanoTime() : 0;
+    }
 
+    private void recordEvent(long start, long bytes) {
+        if (this.metrics != null) {
+            this.metrics.recordEvent(System.nanoTime() - start, bytes);
+        }
+    }
+
+    /**
+     * Count and report a failed entry. The message of the failure is written in
+     * place of the entry.
+     */
+    private String failed(IOException ex) {
+        if (this.metrics != null) {
+            this.metrics.recordSerializationFailure();
+        }
+        LOGGER.error("Unable to serialize log event", ex);
+        return String.valueOf(ex.getMessage());
+    }
+
+    /**
+     * Get the plan of the first profile matching the event, or the layout's own.
+     */
+    private CompiledAttribute[] selectAttributes(LogEvent event) {
+        for (int i = 0; i < this.profiles.length; i++) {
+            if (this.profiles[i].matches(event)) {
+                return this.profileAttributes[i];
+            }
+        }
+        return this.attributes;
+    }
+
+    private TextLayoutWriter createWriter() {
+        return new TextLayoutWriter(this.factory, DEFAULT_STRING_BUILDER_SIZE);
+    }
+
+    private ByteLayoutWriter createByteWriter() {
+        return new ByteLayoutWriter(this.byteFactory, DEFAULT_STRING_BUILDER_SIZE);
+    }
+
+    /**
+     * Get the writer of the current thread, or a temporary one when thread locals
+     * are disabled or the thread's writer is already rendering an entry.
+     */
+    private TextLayoutWriter acquireWriter() {
+        if (Constants.ENABLE_THREADLOCALS) {
+            TextLayoutWriter writer = this.writers.get();
+            if (writer.acquire()) {
+                return writer;
+            }
+        }
+        return createWriter();
+    }
+
+    /**
+     * Same as {@link #acquireWriter()}, for the binary output format.
+     */
+    private ByteLayoutWriter acquireByteWriter() {
+        if (Constants.ENABLE_THREADLOCALS) {
+            ByteLayoutWriter writer = this.byteWriters.get();
+            if (writer.acquire()) {
+                return writer;
+            }
+        }
+        return createByteWriter();
+    }
+
+    /**
+     * Keep the writer for the next entry, unless it failed halfway. A failed
+     * generator is left in the middle of an object, so it is discarded.
+     */
+    private static void release(AbstractLayoutWriter writer, ThreadLocal<?> writers, boolean completed) {
+        if (!writer.release()) {
+            return;
+        }
+        if (completed) {
+            writer.trim(MAX_STRING_BUILDER_SIZE);
+        } else {
+            writers.remove();
+        }
+    }
+
+    /**
+     * Resolve the configured attributes into the plan walked for every event.
+     * 
+     * @param attributes comma-separated attribute names
+     * @return attributes bound to their loaders, in output order
+     */
+    private CompiledAttribute[] compile(String attributes) {
+        List<String> names = new ArrayList<>(Arrays.asList(attributes.split(",")));
+        for (String key : getStaticFields().keySet()) {
+            if (!names.contains(key)) {
+                names.add(key);
+            }
+        }
+
+        List<CompiledAttribute> compiled = new ArrayList<>();
+        List<CompiledAttribute> constants = new ArrayList<>();
+        List<String> contextKeys = new ArrayList<>();
+        for (String name : names) {
+            Integer owner = this.ownedKeys.get(name);
+            int loader = owner != null ? owner : selectLoader(name);
+            if (loader == CONTEXT_LOADER) {
+                contextKeys.add(name);
+            }
+            AttributeScope scope = owner != null ? this.ownedScopes.get(name)
+                    : loader == HOST_LOADER && this.hostConstant ? AttributeScope.CONSTANT : AttributeScope.EVENT;
+            CompiledAttribute attribute = new CompiledAttribute(name, this.attributeLoaders[loader], loader, scope,
+                    this.metrics);
+            if (attribute.isFoldable()) {
+                constants.add(attribute);
+                continue;
+            }
+            fold(constants, compiled);
+            compiled.add(attribute);
+        }
+        fold(constants, compiled);
+        this.contextKeys.addAll(contextKeys);
+        return compiled.toArray(new CompiledAttribute[compiled.size()]);
+    }
+
+    /**
+     * Add the pending constants to the plan as one folded attribute.
+     */
+    private void fold(List<CompiledAttribute> constants, List<CompiledAttribute> compiled) {
+        if (constants.isEmpty()) {
+            return;
+        }
         try {
-            return mapper.writeValueAsString(format);
-        } catch (JsonProcessingException ex) {
-            return ex.getMessage();
+            compiled.add(CompiledAttribute.fold(constants.toArray(new CompiledAttribute[constants.size()]),
+                    this.factory));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
         }
+        constants.clear();
     }
 
-    private String[] getAttributes() {
-        return this.attributes.split(",");
+    private static Map<String, String> toMap(KeyValuePair[] pairs) {
+        Map<String, String> map = new LinkedHashMap<>();
+        if (pairs != null) {
+            for (KeyValuePair pair : pairs) {
+                map.put(pair.getKey(), pair.getValue());
+            }
+        }
+        return map;
+    }
+
+    private static String[] split(String values) {
+        if (values == null || values.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] split = values.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        return split;
     }
 
-    private AttributeLoader selectLoader(String key) {
-        for (AttributeLoader attributeLoader : this.attributeLoaders) {
-            if (attributeLoader.contains(key)) {
-                return attributeLoader;
+    /**
+     * Parse {@code key=limit} pairs.
+     */
+    private static Map<String, Integer> parseLimits(String limits) {
+        Map<String, Integer> parsed = new HashMap<>();
+        for (String limit : split(limits)) {
+            int separator = limit.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid context value limit: " + limit);
             }
+            parsed.put(limit.substring(0, separator).trim(), Integer.valueOf(limit.substring(separator + 1).trim()));
+        }
+        return Collections.unmodifiableMap(parsed);
+    }
+
+    /**
+     * Unregister the metrics once the logger context of the configuration
+     * replaces it, so a dropped or renamed layout does not stay registered.
+     */
+    private static void unregisterWhenReplaced(Configuration configuration, LayoutMetrics metrics) {
+        LoggerContext context = configuration != null ? configuration.getLoggerContext() : null;
+        if (context != null) {
+            context.addPropertyChangeListener(new MetricsUnregistration(configuration, metrics));
+        }
+    }
+
+    /**
+     * Find the factories listed for {@link ServiceLoader}, skipping the ones that
+     * cannot be loaded.
+     */
+    private static List<AttributeLoaderFactory> discoverLoaderFactories() {
+        List<AttributeLoaderFactory> factories = new ArrayList<>();
+        Iterator<AttributeLoaderFactory> iterator = ServiceLoader
+                .load(AttributeLoaderFactory.class, CustomJsonLayout.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    return factories;
+                }
+                factories.add(iterator.next());
+            } catch (ServiceConfigurationError ex) {
+                LOGGER.error("Unable to load attribute loader", ex);
+            }
+        }
+    }
+
+    /**
+     * @return index of the built-in loader of {@code key}
+     */
+    private int selectLoader(String key) {
+        for (int i = 0; i < this.attributeLoaders.length; i++) {
+            if (this.attributeLoaders[i].contains(key)) {
+                return i;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Builder of {@link CustomJsonLayout}, each field is a configuration attribute
+     * of the {@code <CustomJsonLayout>} element.
+     */
+    /**
+     * Unregister the metrics of a layout when its configuration is replaced in
+     * its logger context.
+     */
+    private static final class MetricsUnregistration implements PropertyChangeListener {
+
+        private final Configuration configuration;
+
+        private final LayoutMetrics metrics;
+
+        MetricsUnregistration(Configuration configuration, LayoutMetrics metrics) {
+            this.configuration = configuration;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            if (LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName())
+                    && event.getOldValue() == this.configuration && event.getNewValue() != this.configuration) {
+                this.metrics.unregister();
+                ((LoggerContext) event.getSource()).removePropertyChangeListener(this);
+            }
+        }
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<CustomJsonLayout> {
+
+        @PluginConfiguration
+        private Configuration configuration;
+
+        @PluginBuilderAttribute
+        private Charset charset = StandardCharsets.UTF_8;
+
+        @PluginBuilderAttribute
+        private boolean isRecursiveStackTrace = true;
+
+        @PluginBuilderAttribute
+        private boolean eventEol;
+
+        @PluginBuilderAttribute
+        private int maxStackFrames;
+
+        @PluginBuilderAttribute
+        private int maxCauseDepth = -1;
+
+        @PluginBuilderAttribute
+        private boolean collapseCommonFrames;
+
+        @PluginBuilderAttribute
+        private String stackFilterPackages;
+
+        @PluginBuilderAttribute
+        private int stackTraceCacheSize = 256;
+
+        @PluginBuilderAttribute
+        private boolean stackTraceHashLineNumbers = true;
+
+        @PluginBuilderAttribute
+        private long stackTraceRepeatWindow;
+
+        @PluginBuilderAttribute
+        private int maxContextValueLength;
+
+        @PluginBuilderAttribute
+        private String contextValueLimits;
+
+        @PluginBuilderAttribute
+        private String truncationMarker = "...[truncated]";
+
+        @PluginBuilderAttribute
+        private String rawJsonAttributes;
+
+        @PluginBuilderAttribute
+        private String timezone;
+
+        @PluginBuilderAttribute
+        private String dateFormat;
+
+        @PluginBuilderAttribute
+        private Precision timestampPrecision = Precision.MILLISECOND;
+
+        @PluginBuilderAttribute
+        private long hostRefreshInterval;
+
+        @PluginBuilderAttribute
+        private OutputFormat format = OutputFormat.JSON;
+
+        @PluginBuilderAttribute
+        private boolean metrics;
+
+        @PluginBuilderAttribute
+        private String metricsName;
+
+        @PluginBuilderAttribute
+        private String attributes = DEFAULT_ATTRIBUTES;
+
+        @PluginBuilderAttribute
+        private boolean loaderDiscovery = true;
+
+        @PluginElement("AttributeProfiles")
+        private AttributeProfile[] profiles;
+
+        @PluginElement("StaticFields")
+        private KeyValuePair[] staticFields;
+
+        private AttributeLoaderFactory[] loaderFactories;
+
+        /**
+         * @param configuration configuration owning the layout
+         */
+        public Builder setConfiguration(Configuration configuration) {
+            this.configuration = configuration;
+            return this;
+        }
+
+        public Builder setCharset(Charset charset) {
+            this.charset = charset;
+            return this;
         }
 
-        return this.attributeLoaders[0];
+        public Builder setRecursiveStackTrace(boolean isRecursiveStackTrace) {
+            this.isRecursiveStackTrace = isRecursiveStackTrace;
+            return this;
+        }
+
+        public Builder setEventEol(boolean eventEol) {
+            this.eventEol = eventEol;
+            return this;
+        }
+
+        public Builder setMaxStackFrames(int maxStackFrames) {
+            this.maxStackFrames = maxStackFrames;
+            return this;
+        }
+
+        public Builder setMaxCauseDepth(int maxCauseDepth) {
+            this.maxCauseDepth = maxCauseDepth;
+            return this;
+        }
+
+        public Builder setCollapseCommonFrames(boolean collapseCommonFrames) {
+            this.collapseCommonFrames = collapseCommonFrames;
+            return this;
+        }
+
+        public Builder setStackFilterPackages(String stackFilterPackages) {
+            this.stackFilterPackages = stackFilterPackages;
+            return this;
+        }
+
+        public Builder setStackTraceCacheSize(int stackTraceCacheSize) {
+            this.stackTraceCacheSize = stackTraceCacheSize;
+            return this;
+        }
+
+        public Builder setStackTraceHashLineNumbers(boolean stackTraceHashLineNumbers) {
+            this.stackTraceHashLineNumbers = stackTraceHashLineNumbers;
+            return this;
+        }
+
+        public Builder setStackTraceRepeatWindow(long stackTraceRepeatWindow) {
+            this.stackTraceRepeatWindow = stackTraceRepeatWindow;
+            return this;
+        }
+
+        public Builder setMaxContextValueLength(int maxContextValueLength) {
+            this.maxContextValueLength = maxContextValueLength;
+            return this;
+        }
+
+        public Builder setContextValueLimits(String contextValueLimits) {
+            this.contextValueLimits = contextValueLimits;
+            return this;
+        }
+
+        public Builder setTruncationMarker(String truncationMarker) {
+            this.truncationMarker = truncationMarker;
+            return this;
+        }
+
+        public Builder setRawJsonAttributes(String rawJsonAttributes) {
+            this.rawJsonAttributes = rawJsonAttributes;
+            return this;
+        }
+
+        public Builder setTimezone(String timezone) {
+            this.timezone = timezone;
+            return this;
+        }
+
+        public Builder setDateFormat(String dateFormat) {
+            this.dateFormat = dateFormat;
+            return this;
+        }
+
+        public Builder setTimestampPrecision(Precision timestampPrecision) {
+            this.timestampPrecision = timestampPrecision;
+            return this;
+        }
+
+        public Builder setHostRefreshInterval(long hostRefreshInterval) {
+            this.hostRefreshInterval = hostRefreshInterval;
+            return this;
+        }
+
+        public Builder setFormat(OutputFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        public Builder setMetrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder setMetricsName(String metricsName) {
+            this.metricsName = metricsName;
+            return this;
+        }
+
+        public Builder setAttributes(String attributes) {
+            this.attributes = attributes;
+            return this;
+        }
+
+        public Builder setProfiles(AttributeProfile... profiles) {
+            this.profiles = profiles;
+            return this;
+        }
+
+        public Builder setStaticFields(KeyValuePair... staticFields) {
+            this.staticFields = staticFields;
+            return this;
+        }
+
+        /**
+         * @param loaderDiscovery whether to use the loader factories found with
+         *                        {@link ServiceLoader}
+         */
+        public Builder setLoaderDiscovery(boolean loaderDiscovery) {
+            this.loaderDiscovery = loaderDiscovery;
+            return this;
+        }
+
+        /**
+         * @param loaderFactories factories used before the discovered ones
+         */
+        public Builder setLoaderFactories(AttributeLoaderFactory... loaderFactories) {
+            this.loaderFactories = loaderFactories;
+            return this;
+        }
+
+        @Override
+        public CustomJsonLayout build() {
+            return new CustomJsonLayout(this);
+        }
     }
 }
@@ -0,0 +1,96 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+/**
+ * <p>
+ * Output format of {@link CustomJsonLayout}. Every format is written by the
+ * same attribute loaders, through the {@link JsonFactory} of the format.
+ * </p>
+ * <p>
+ * The binary formats need their Jackson data format module on the class path:
+ * {@code jackson-dataformat-cbor}, {@code jackson-dataformat-smile} or
+ * {@code jackson-dataformat-msgpack}. Each entry is a standalone root value,
+ * a file is the values one after another. Smile is written without header
+ * and without shared names, so every entry can be decoded on its own.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public enum OutputFormat {
+
+    JSON("application/json"), CBOR("application/cbor"), SMILE("application/x-jackson-smile"),
+    MESSAGEPACK("application/x-msgpack");
+
+    private final String contentType;
+
+    private OutputFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * Create the factory of this format, with an {@link ObjectMapper} as codec
+     * so any object can be written.
+     *
+     * @return new factory, for writing and reading
+     */
+    public JsonFactory createFactory() {
+        switch (this) {
+            case CBOR:
+                return Cbor.createFactory();
+            case SMILE:
+                return Smile.createFactory();
+            case MESSAGEPACK:
+                return MessagePack.createFactory();
+            default:
+                return new ObjectMapper().getFactory();
+        }
+    }
+
+    /*
+     * Each binary module is only referenced by its own holder class, so the
+     * others need not be on the class path: verifying a class loads every
+     * class it assigns to a JsonFactory.
+     */
+
+    private static final class Cbor {
+
+        static JsonFactory createFactory() {
+            return new ObjectMapper(new CBORFactory()).getFactory();
+        }
+    }
+
+    private static final class Smile {
+
+        static JsonFactory createFactory() {
+            SmileFactory smile = new SmileFactory();
+            smile.disable(SmileGenerator.Feature.WRITE_HEADER);
+            smile.disable(SmileGenerator.Feature.CHECK_SHARED_NAMES);
+            smile.disable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+            smile.disable(SmileParser.Feature.REQUIRE_HEADER);
+            return new ObjectMapper(smile).getFactory();
+        }
+    }
+
+    private static final class MessagePack {
+
+        static JsonFactory createFactory() {
+            return new ObjectMapper(new MessagePackFactory()).getFactory();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * <p>
+ * Event whose entry may already be encoded by a layout, e.g. by a render
+ * worker of {@link id.dkakunsi.lab.jlogging.appender.AsyncRenderAppender}.
+ * {@link CustomJsonLayout} copies these bytes when it encodes the event,
+ * instead of rendering it again.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public interface RenderedEvent extends LogEvent {
+
+    /**
+     * @param layout layout encoding the event
+     * @return the bytes of {@link Layout#toByteArray(LogEvent)} of the layout,
+     *         or {@code null} when it did not encode the event
+     */
+    byte[] getRendered(Layout<?> layout);
+}
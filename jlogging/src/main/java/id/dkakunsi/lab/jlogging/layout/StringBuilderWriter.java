@@ -0,0 +1,61 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import java.io.Writer;
+
+/**
+ * {@link Writer} that appends straight into a {@link StringBuilder}, without
+ * synchronization nor intermediate buffer.
+ * 
+ * @author dkakunsi
+ */
+final class StringBuilderWriter extends Writer {
+
+    private final StringBuilder builder;
+
+    StringBuilderWriter(StringBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public void write(int c) {
+        this.builder.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        this.builder.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        this.builder.append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        this.builder.append(csq);
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) {
+        this.builder.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) {
+        this.builder.append(c);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
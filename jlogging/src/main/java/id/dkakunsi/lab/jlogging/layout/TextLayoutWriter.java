@@ -0,0 +1,60 @@
+package id.dkakunsi.lab.jlogging.layout;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * {@link AbstractLayoutWriter} of {@link OutputFormat#JSON}. A
+ * {@link JsonGenerator} is bound once to a {@link StringBuilder}, so rendering
+ * an entry does not create any generator, map, or intermediate text.
+ * 
+ * @author dkakunsi
+ */
+final class TextLayoutWriter extends AbstractLayoutWriter {
+
+    private final StringBuilder builder;
+
+    private final JsonGenerator generator;
+
+    TextLayoutWriter(JsonFactory factory, int capacity) {
+        this.builder = new StringBuilder(capacity);
+        try {
+            this.generator = factory.createGenerator(new StringBuilderWriter(this.builder));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Prepare for the next entry.
+     * 
+     * @return the generator, positioned at root level
+     */
+    @Override
+    JsonGenerator begin() {
+        this.builder.setLength(0);
+        return this.generator;
+    }
+
+    /**
+     * Flush the rendered entry from the generator's buffer.
+     * 
+     * @return the rendered entry
+     * @throws IOException when the generator fails to flush
+     */
+    StringBuilder end() throws IOException {
+        this.generator.flush();
+        return this.builder;
+    }
+
+    @Override
+    void trim(int maxSize) {
+        if (this.builder.capacity() > maxSize) {
+            this.builder.setLength(maxSize);
+            this.builder.trimToSize();
+        }
+    }
+}
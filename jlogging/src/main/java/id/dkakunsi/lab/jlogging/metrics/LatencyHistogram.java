@@ -0,0 +1,142 @@
+package id.dkakunsi.lab.jlogging.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free histogram of durations in nanoseconds, bucketed the way
+ * HdrHistogram does: each power of two is split into {@value #SUB_BUCKETS}
+ * linear buckets, so a recorded value is off by at most 1/{@value #SUB_BUCKETS}
+ * of itself. Recording is one increment of an array slot plus one addition.
+ * </p>
+ * <p>
+ * The histogram is cumulative. A {@link Snapshot} taken while other threads
+ * record is not atomic, it can be off by the events recorded meanwhile.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * @param nanos duration to record, a negative one is recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(index(value));
+        this.total.addAndGet(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new Snapshot(copy, this.total.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the highest value recorded into the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Counts of a {@link LatencyHistogram} at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+            long count = 0;
+            for (long bucket : counts) {
+                count += bucket;
+            }
+            this.count = count;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return sum of the recorded durations, in nanoseconds
+         */
+        public long getTotal() {
+            return this.total;
+        }
+
+        /**
+         * @return mean duration in nanoseconds, 0 when nothing is recorded
+         */
+        public double getMean() {
+            return this.count > 0 ? (double) this.total / this.count : 0;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return duration in nanoseconds at or below which {@code percentile} of
+         *         the recorded ones are, 0 when nothing is recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            double bounded = Math.min(100, Math.max(0, percentile));
+            long rank = Math.max(1, (long) Math.ceil(bounded / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return the longest recorded duration in nanoseconds, within the bucket
+         *         precision
+         */
+        public long getMax() {
+            for (int i = this.counts.length - 1; i >= 0; i--) {
+                if (this.counts[i] > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package id.dkakunsi.lab.jlogging.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * <p>
+ * Cost counters of one layout: events and bytes rendered, render time, time
+ * per attribute loader, stack traces and serialization failures. All of them
+ * are updated lock-free by the logging threads.
+ * </p>
+ * <p>
+ * Read them with {@link #snapshot()}, or over JMX once {@link #register(String)}
+ * is called, under
+ * {@code id.dkakunsi.lab.jlogging:type=CustomJsonLayout,name=<name>}. The JMX
+ * getters share one snapshot of the render time, taken at most every
+ * {@value #JMX_SNAPSHOT_MILLIS} ms, so reading all the attributes copies the
+ * histogram once.
+ * </p>
+ *
+ * @author dkakunsi
+ */
+public final class LayoutMetrics implements LayoutMetricsMXBean {
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    public static final String DOMAIN = "id.dkakunsi.lab.jlogging";
+
+    private static final long JMX_SNAPSHOT_MILLIS = 1000;
+
+    /**
+     * Owner of each registered name, so a replaced instance does not unregister
+     * its successor.
+     */
+    private static final ConcurrentMap<ObjectName, LayoutMetrics> REGISTERED = new ConcurrentHashMap<>();
+
+    private final AtomicLong eventsRendered = new AtomicLong();
+
+    private final AtomicLong bytesProduced = new AtomicLong();
+
+    private final AtomicLong serializationFailures = new AtomicLong();
+
+    private final AtomicLong stackTracesRendered = new AtomicLong();
+
+    private final AtomicLong stackTraceCacheHits = new AtomicLong();
+
+    private final AtomicLong stackTraceCacheMisses = new AtomicLong();
+
+    private final LatencyHistogram renderTime = new LatencyHistogram();
+
+    private final String[] loaderNames;
+
+    private final LatencyHistogram[] loaderTimes;
+
+    private volatile ObjectName objectName;
+
+    private volatile LatencyHistogram.Snapshot renderTimeSnapshot;
+
+    private volatile long renderTimeSnapshotMillis;
+
+    /**
+     * @param loaderNames names of the attribute loaders, in the order of the
+     *                    index passed to {@link #recordLoader(int, long)}
+     */
+    public LayoutMetrics(String[] loaderNames) {
+        this.loaderNames = loaderNames.clone();
+        this.loaderTimes = new LatencyHistogram[loaderNames.length];
+        for (int i = 0; i < this.loaderTimes.length; i++) {
+            this.loaderTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param nanos time to render the entry
+     * @param bytes size of the entry
+     */
+    public void recordEvent(long nanos, long bytes) {
+        this.eventsRendered.incrementAndGet();
+        this.bytesProduced.addAndGet(bytes);
+        this.renderTime.record(nanos);
+    }
+
+    public void recordLoader(int loader, long nanos) {
+        this.loaderTimes[loader].record(nanos);
+    }
+
+    public void recordSerializationFailure() {
+        this.serializationFailures.incrementAndGet();
+    }
+
+    public void recordStackTrace() {
+        this.stackTracesRendered.incrementAndGet();
+    }
+
+    /**
+     * @param hit whether a stack was found in the stack trace cache
+     */
+    public void recordStackTraceCache(boolean hit) {
+        if (hit) {
+            this.stackTraceCacheHits.incrementAndGet();
+        } else {
+            this.stackTraceCacheMisses.incrementAndGet();
+        }
+    }
+
+    public LayoutMetricsSnapshot snapshot() {
+        Map<String, LatencyHistogram.Snapshot> loaders = new LinkedHashMap<>();
+        for (int i = 0; i < this.loaderNames.length; i++) {
+            loaders.put(this.loaderNames[i], this.loaderTimes[i].snapshot());
+        }
+        return new LayoutMetricsSnapshot(this.eventsRendered.get(), this.bytesProduced.get(),
+                this.serializationFailures.get(), this.stackTracesRendered.get(), this.stackTraceCacheHits.get(),
+                this.stackTraceCacheMisses.get(), this.renderTime.snapshot(), loaders);
+    }
+
+    /**
+     * Register this as MBean of the platform server, replacing the one already
+     * registered with the same name, e.g. by the layout of a previous
+     * configuration.
+     *
+     * @param name value of the {@code name} key
+     * @return whether it is registered
+     */
+    public boolean register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=CustomJsonLayout,name=" + ObjectName.quote(name));
+            synchronized (REGISTERED) {
+                try {
+                    server.registerMBean(this, objectName);
+                } catch (InstanceAlreadyExistsException ex) {
+                    server.unregisterMBean(objectName);
+                    server.registerMBean(this, objectName);
+                }
+                REGISTERED.put(objectName, this);
+            }
+            this.objectName = objectName;
+            return true;
+        } catch (JMException | SecurityException ex) {
+            LOGGER.warn("Unable to register layout metrics {}", name, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Unregister this from the platform server, unless another instance
+     * replaced it. Called for a layout once its configuration is replaced.
+     */
+    public void unregister() {
+        ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+        this.objectName = null;
+        try {
+            synchronized (REGISTERED) {
+                if (REGISTERED.remove(objectName, this)) {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                }
+            }
+        } catch (InstanceNotFoundException ex) {
+            // unregistered by someone else
+        } catch (JMException | SecurityException ex) {
+            LOGGER.warn("Unable to unregister layout metrics {}", objectName, ex);
+        }
+    }
+
+    /**
+     * @return name it is registered with, {@code null} when not registered
+     */
+    public ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    @Override
+    public long getEventsRendered() {
+        return this.eventsRendered.get();
+    }
+
+    @Override
+    public long getBytesProduced() {
+        return this.bytesProduced.get();
+    }
+
+    @Override
+    public long getSerializationFailures() {
+        return this.serializationFailures.get();
+    }
+
+    @Override
+    public long getStackTracesRendered() {
+        return this.stackTracesRendered.get();
+    }
+
+    @Override
+    public double getStackTraceCacheHitRate() {
+        long hits = this.stackTraceCacheHits.get();
+        long lookups = hits + this.stackTraceCacheMisses.get();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public double getRenderTimeMean() {
+        return getRenderTimeSnapshot().getMean();
+    }
+
+    @Override
+    public long getRenderTime50thPercentile() {
+        return getRenderTimeSnapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getRenderTime99thPercentile() {
+        return getRenderTimeSnapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getRenderTime999thPercentile() {
+        return getRenderTimeSnapshot().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getRenderTimeMax() {
+        return getRenderTimeSnapshot().getMax();
+    }
+
+    /**
+     * @return the snapshot of the render time shared by the JMX getters, taken
+     *         again once older than {@value #JMX_SNAPSHOT_MILLIS} ms
+     */
+    private LatencyHistogram.Snapshot getRenderTimeSnapshot() {
+        long now = System.currentTimeMillis();
+        LatencyHistogram.Snapshot snapshot = this.renderTimeSnapshot;
+        if (snapshot == null || now - this.renderTimeSnapshotMillis >= JMX_SNAPSHOT_MILLIS) {
+            snapshot = this.renderTime.snapshot();
+            this.renderTimeSnapshotMillis = now;
+            this.renderTimeSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public Map<String, Long> getLoaderTimes() {
+        Map<String, Long> times = new LinkedHashMap<>();
+        for (int i = 0; i < this.loaderNames.length; i++) {
+            times.put(this.loaderNames[i], this.loaderTimes[i].snapshot().getTotal());
+        }
+        return times;
+    }
+}
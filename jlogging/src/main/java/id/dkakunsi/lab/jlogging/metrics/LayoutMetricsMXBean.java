@@ -0,0 +1,44 @@
+package id.dkakunsi.lab.jlogging.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LayoutMetrics}. Counters are cumulative since the layout
+ * was created, durations are in nanoseconds.
+ *
+ * @author dkakunsi
+ */
+public interface LayoutMetricsMXBean {
+
+    long getEventsRendered();
+
+    /**
+     * @return bytes of the rendered entries; characters for JSON text, which
+     *         equal the bytes of ASCII content
+     */
+    long getBytesProduced();
+
+    long getSerializationFailures();
+
+    long getStackTracesRendered();
+
+    /**
+     * @return share of stacks written from the stack trace cache, between 0 and 1
+     */
+    double getStackTraceCacheHitRate();
+
+    double getRenderTimeMean();
+
+    long getRenderTime50thPercentile();
+
+    long getRenderTime99thPercentile();
+
+    long getRenderTime999thPercentile();
+
+    long getRenderTimeMax();
+
+    /**
+     * @return total time spent in each attribute loader, by loader name
+     */
+    Map<String, Long> getLoaderTimes();
+}
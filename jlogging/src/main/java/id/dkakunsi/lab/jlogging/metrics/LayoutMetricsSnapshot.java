@@ -0,0 +1,88 @@
+package id.dkakunsi.lab.jlogging.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Values of {@link LayoutMetrics} at one point in time.
+ *
+ * @author dkakunsi
+ */
+public final class LayoutMetricsSnapshot {
+
+    private final long eventsRendered;
+
+    private final long bytesProduced;
+
+    private final long serializationFailures;
+
+    private final long stackTracesRendered;
+
+    private final long stackTraceCacheHits;
+
+    private final long stackTraceCacheMisses;
+
+    private final LatencyHistogram.Snapshot renderTime;
+
+    private final Map<String, LatencyHistogram.Snapshot> loaderTimes;
+
+    LayoutMetricsSnapshot(long eventsRendered, long bytesProduced, long serializationFailures,
+            long stackTracesRendered, long stackTraceCacheHits, long stackTraceCacheMisses,
+            LatencyHistogram.Snapshot renderTime, Map<String, LatencyHistogram.Snapshot> loaderTimes) {
+        this.eventsRendered = eventsRendered;
+        this.bytesProduced = bytesProduced;
+        this.serializationFailures = serializationFailures;
+        this.stackTracesRendered = stackTracesRendered;
+        this.stackTraceCacheHits = stackTraceCacheHits;
+        this.stackTraceCacheMisses = stackTraceCacheMisses;
+        this.renderTime = renderTime;
+        this.loaderTimes = Collections.unmodifiableMap(new LinkedHashMap<>(loaderTimes));
+    }
+
+    public long getEventsRendered() {
+        return this.eventsRendered;
+    }
+
+    public long getBytesProduced() {
+        return this.bytesProduced;
+    }
+
+    public long getSerializationFailures() {
+        return this.serializationFailures;
+    }
+
+    public long getStackTracesRendered() {
+        return this.stackTracesRendered;
+    }
+
+    public long getStackTraceCacheHits() {
+        return this.stackTraceCacheHits;
+    }
+
+    public long getStackTraceCacheMisses() {
+        return this.stackTraceCacheMisses;
+    }
+
+    /**
+     * @return share of stacks written from the cache, 0 when none was written
+     */
+    public double getStackTraceCacheHitRate() {
+        long lookups = this.stackTraceCacheHits + this.stackTraceCacheMisses;
+        return lookups > 0 ? (double) this.stackTraceCacheHits / lookups : 0;
+    }
+
+    /**
+     * @return time to render a whole entry
+     */
+    public LatencyHistogram.Snapshot getRenderTime() {
+        return this.renderTime;
+    }
+
+    /**
+     * @return time per attribute written by each loader, by loader name
+     */
+    public Map<String, LatencyHistogram.Snapshot> getLoaderTimes() {
+        return this.loaderTimes;
+    }
+}
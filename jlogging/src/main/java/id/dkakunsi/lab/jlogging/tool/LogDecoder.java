@@ -0,0 +1,92 @@
+package id.dkakunsi.lab.jlogging.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.OutputFormat;
+
+/**
+ * <p>
+ * Turn a file written by {@link CustomJsonLayout} in a binary
+ * {@link OutputFormat} back into the JSON the layout renders, one entry per
+ * line.
+ * </p>
+ * 
+ * <pre>
+ * java -cp jlogging.jar:... id.dkakunsi.lab.jlogging.tool.LogDecoder CBOR app.cbor [more files] &gt; app.json
+ * </pre>
+ * <p>
+ * Standard input is read when no file is given.
+ * </p>
+ * 
+ * @author dkakunsi
+ */
+public final class LogDecoder {
+
+    private final ObjectMapper reader;
+
+    private final ObjectMapper writer;
+
+    public LogDecoder(OutputFormat format) {
+        this.reader = new ObjectMapper(format.createFactory());
+        this.writer = new ObjectMapper();
+    }
+
+    /**
+     * Decode every entry of {@code input} into {@code output}.
+     * 
+     * @param input  encoded entries, not closed
+     * @param output target of the JSON lines, flushed but not closed
+     * @return number of decoded entries
+     * @throws IOException when reading or writing fails
+     */
+    public long decode(InputStream input, Writer output) throws IOException {
+        long entries = 0;
+        try (JsonParser parser = this.reader.getFactory().createParser(input);
+                JsonGenerator generator = this.writer.getFactory().createGenerator(output)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+
+            while (parser.nextToken() != null) {
+                JsonNode entry = this.reader.readTree(parser);
+                this.writer.writeTree(generator, entry);
+                generator.writeRaw('\n');
+                entries++;
+            }
+            generator.flush();
+        }
+        return entries;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LogDecoder <CBOR|SMILE|MESSAGEPACK> [file...]");
+            System.exit(1);
+        }
+
+        LogDecoder decoder = new LogDecoder(OutputFormat.valueOf(args[0].toUpperCase()));
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        if (args.length == 1) {
+            decoder.decode(new BufferedInputStream(System.in), output);
+        }
+        for (int i = 1; i < args.length; i++) {
+            try (InputStream input = new BufferedInputStream(new FileInputStream(args[i]))) {
+                decoder.decode(input, output);
+            }
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,189 @@
+package id.dkakunsi.lab.jlogging.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import id.dkakunsi.lab.jlogging.appender.MappedRollingFileAppender;
+import id.dkakunsi.lab.jlogging.appender.SegmentIndex;
+import id.dkakunsi.lab.jlogging.appender.SidecarIndex;
+
+/**
+ * <p>
+ * Find the events of a context value, e.g. every line of one
+ * {@code correlationId}, in the segments of a
+ * {@link MappedRollingFileAppender}.
+ * </p>
+ * <p>
+ * A segment with a {@link SidecarIndex} of the key is not scanned: only the
+ * lines of the value are read, at their offsets. Any other segment, e.g. the
+ * one still written, is scanned line by line for the top-level field of the
+ * key, as written by {@code CustomJsonLayout} for a context key.
+ * </p>
+ *
+ * <pre>
+ * java -cp jlogging.jar:... id.dkakunsi.lab.jlogging.tool.TraceLookup logs/app.log correlationId 0xgdtrsd2345634heu [fromMillis]
+ * </pre>
+ *
+ * @author dkakunsi
+ */
+public final class TraceLookup {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private final String fileName;
+
+    /**
+     * @param fileName base name of the segments, the {@code fileName} of the
+     *                 appender
+     */
+    public TraceLookup(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return segments of the appender, in order
+     */
+    public List<File> getSegments() {
+        File base = new File(this.fileName).getAbsoluteFile();
+        String[] names = base.getParentFile() != null ? base.getParentFile().list() : null;
+        TreeMap<Integer, File> segments = new TreeMap<>();
+        if (names != null) {
+            String prefix = base.getName() + ".";
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    try {
+                        segments.put(Integer.parseInt(name.substring(prefix.length())),
+                                new File(base.getParentFile(), name));
+                    } catch (NumberFormatException ex) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * Write the lines of the events with a value of a context key.
+     *
+     * @param key    context key, e.g. {@code correlationId}
+     * @param value  value of the key
+     * @param from   milliseconds since epoch, the indexed segments are read
+     *               from the time bucket of it, {@link Long#MIN_VALUE} for all
+     * @param output target of the lines, flushed but not closed
+     * @return number of lines
+     * @throws IOException when a segment cannot be read or the output written
+     */
+    public long find(String key, String value, long from, OutputStream output) throws IOException {
+        long count = 0;
+        for (File segment : getSegments()) {
+            SidecarIndex index = SidecarIndex.read(segment);
+            long[] offsets = index != null ? index.findOffsets(key, value) : null;
+            if (offsets != null) {
+                count += read(segment, offsets, index.findOffset(from), output);
+            } else {
+                count += scan(segment, key, value, output);
+            }
+        }
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Read the lines at the offsets, skipping those before {@code start}.
+     */
+    private static long read(File segment, long[] offsets, long start, OutputStream output) throws IOException {
+        long count = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            for (long offset : offsets) {
+                if (offset < start) {
+                    continue;
+                }
+                file.seek(offset);
+                int read;
+                boolean ended = false;
+                while (!ended && (read = file.read(buffer)) > 0) {
+                    int length = 0;
+                    while (length < read && buffer[length] != '\n') {
+                        length++;
+                    }
+                    ended = length < read;
+                    output.write(buffer, 0, length);
+                }
+                output.write('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Scan every line of a segment until its footer, or the zero bytes of the
+     * space not written yet.
+     */
+    private static long scan(File segment, String key, String value, OutputStream output) throws IOException {
+        SegmentIndex index = SegmentIndex.read(segment);
+        long limit = index != null ? index.getDataLength() : segment.length();
+        long count = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        try (InputStream input = new BufferedInputStream(new FileInputStream(segment), BUFFER_SIZE)) {
+            for (long position = 0; position < limit; position++) {
+                int next = input.read();
+                if (next < 0 || next == 0) {
+                    break;
+                }
+                if (next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                if (matches(line.toByteArray(), key, value)) {
+                    line.writeTo(output);
+                    output.write('\n');
+                    count++;
+                }
+                line.reset();
+            }
+        }
+        return count;
+    }
+
+    private static boolean matches(byte[] line, String key, String value) throws IOException {
+        if (line.length == 0 || line[0] != '{') {
+            return false;
+        }
+        try {
+            JsonNode field = mapper.readTree(line).get(key);
+            return field != null && field.isValueNode() && value.equals(field.asText());
+        } catch (JsonProcessingException ex) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: TraceLookup <fileName> <key> <value> [fromMillis]");
+            System.exit(1);
+        }
+
+        long from = args.length > 3 ? Long.parseLong(args[3]) : Long.MIN_VALUE;
+        OutputStream output = new BufferedOutputStream(System.out, 64 * 1024);
+        new TraceLookup(args[0]).find(args[1], args[2], from, output);
+    }
+}
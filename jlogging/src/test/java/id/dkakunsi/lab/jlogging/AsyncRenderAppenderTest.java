@@ -0,0 +1,374 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.appender.AsyncRenderAppender;
+import id.dkakunsi.lab.jlogging.appender.QueueFullPolicy;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.RenderedEvent;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.Test;
+
+/**
+ * Verify {@link AsyncRenderAppender} renders captured events on its own
+ * threads, in order, and applies its queue full policy.
+ *
+ * @author dkakunsi
+ */
+public class AsyncRenderAppenderTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int THREADS = 4;
+
+    private static final int EVENTS_PER_THREAD = 5000;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testCaptureReusedEvent() throws Exception {
+        CollectingAppender target = new CollectingAppender(createLayout());
+        AsyncRenderAppender appender = createAppender(target, 16, QueueFullPolicy.BLOCK);
+        appender.start();
+
+        StringMap context = new SortedArrayStringMap();
+        context.putValue("correlationId", "c-1");
+        context.putValue("unprinted", "noise");
+        MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName("async");
+        event.setLevel(Level.INFO);
+        event.setMessage(ReusableMessageFactory.INSTANCE.newMessage("Order {} of {}", 1, "alice"));
+        event.setContextData(context);
+        event.setThreadName(Thread.currentThread().getName());
+        appender.append(event);
+
+        // log4j reuses both once the event is appended
+        event.clear();
+        event.setMessage(ReusableMessageFactory.INSTANCE.newMessage("Order {} of {}", 2, "bob"));
+        context.putValue("correlationId", "c-2");
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(1, target.lines.size());
+        JsonNode json = mapper.readTree(target.lines.get(0));
+        assertEquals("Order 1 of alice", json.get("message").asText());
+        assertEquals("c-1", json.get("correlationId").asText());
+        assertFalse(target.events.get(0).getContextData().containsKey("unprinted"));
+        assertEquals(Thread.currentThread().getName(), target.events.get(0).getThreadName());
+        assertNotEquals(Thread.currentThread().getName(), target.threadNames.get(0));
+        assertTrue(target.events.get(0).isEndOfBatch());
+    }
+
+    @Test
+    public void testKeepWholeContextForOtherLayouts() throws Exception {
+        CollectingAppender json = new CollectingAppender(createLayout());
+        CollectingAppender pattern = new CollectingAppender("pattern",
+                PatternLayout.newBuilder().withPattern("%X{user} %m").withCharset(CHARSET).build());
+        json.start();
+        pattern.start();
+        DefaultConfiguration configuration = new DefaultConfiguration();
+        configuration.addAppender(json);
+        configuration.addAppender(pattern);
+        AsyncRenderAppender appender = AsyncRenderAppender.newBuilder().withName("async")
+                .setConfiguration(configuration)
+                .withAppenderRefs(AppenderRef.createAppenderRef(json.getName(), null, null),
+                        AppenderRef.createAppenderRef(pattern.getName(), null, null))
+                .build();
+        appender.start();
+
+        StringMap context = new SortedArrayStringMap();
+        context.putValue("correlationId", "c-1");
+        context.putValue("user", "alice");
+        appender.append(Log4jLogEvent.newBuilder().setLoggerName("async").setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("paid")).setContextData(context).build());
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals("alice paid", pattern.lines.get(0));
+        assertEquals("c-1", mapper.readTree(json.lines.get(0)).get("correlationId").asText());
+        assertEquals("alice", pattern.events.get(0).getContextData().getValue("user"));
+    }
+
+    @Test
+    public void testKeepOrderOfEachThread() throws Exception {
+        CollectingAppender target = new CollectingAppender(createLayout());
+        final AsyncRenderAppender appender = createAppender(target, 64, QueueFullPolicy.BLOCK);
+        appender.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        appender.append(createEvent(Level.INFO, worker + "-" + j));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * EVENTS_PER_THREAD, target.lines.size());
+        Map<String, Integer> last = new HashMap<>();
+        for (String line : target.lines) {
+            String[] message = mapper.readTree(line).get("message").asText().split("-");
+            Integer previous = last.put(message[0], Integer.valueOf(message[1]));
+            assertEquals(previous == null ? 0 : previous + 1, Integer.parseInt(message[1]));
+        }
+        assertEquals(0, appender.getDroppedCount());
+        assertEquals(0, appender.getQueueSize());
+    }
+
+    @Test
+    public void testShardedKeepOrderOfEachThread() throws Exception {
+        CustomJsonLayout layout = createLayout();
+        CollectingAppender target = new CollectingAppender(layout);
+        final AsyncRenderAppender appender = createAppender(target, 64, QueueFullPolicy.BLOCK, 3);
+        appender.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        appender.append(createEvent(Level.INFO, worker + "-" + j));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * EVENTS_PER_THREAD, target.lines.size());
+        Map<String, Integer> last = new HashMap<>();
+        for (String line : target.lines) {
+            String[] message = mapper.readTree(line).get("message").asText().split("-");
+            Integer previous = last.put(message[0], Integer.valueOf(message[1]));
+            assertEquals(previous == null ? 0 : previous + 1, Integer.parseInt(message[1]));
+        }
+        assertEquals(0, appender.getQueueSize());
+
+        // encoded by the workers, copied by the writer
+        RenderedEvent event = (RenderedEvent) target.events.get(0);
+        assertEquals(target.lines.get(0), new String(event.getRendered(layout), CHARSET));
+        assertTrue(target.threadNames.get(0).contains("AsyncRender-async-writer"));
+    }
+
+    @Test
+    public void testShardedMergeBySequence() throws Exception {
+        CollectingAppender target = new CollectingAppender(createLayout());
+        final AsyncRenderAppender appender = createAppender(target, 16, QueueFullPolicy.BLOCK, 4);
+        appender.start();
+
+        // one thread after the other, so the sequence is the order of the lines
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        appender.append(createEvent(Level.INFO, worker + "-" + j));
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * 500, target.lines.size());
+        for (int i = 0; i < target.lines.size(); i++) {
+            assertEquals((i / 500) + "-" + (i % 500), mapper.readTree(target.lines.get(i)).get("message").asText());
+        }
+    }
+
+    @Test
+    public void testShardedWaitForEventBeingEncoded() throws Exception {
+        final CountDownLatch encoding = new CountDownLatch(1);
+        CustomJsonLayout slow = new CustomJsonLayout(
+                CustomJsonLayout.newBuilder().setCharset(CHARSET).setAttributes("message")) {
+            @Override
+            public byte[] toByteArray(LogEvent event) {
+                if ("first".equals(event.getMessage().getFormattedMessage())) {
+                    encoding.countDown();
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.toByteArray(event);
+            }
+        };
+        CollectingAppender target = new CollectingAppender(slow);
+        final AsyncRenderAppender appender = createAppender(target, 16, QueueFullPolicy.BLOCK, 2);
+        appender.start();
+
+        // two threads of different shards, the first one's event is encoded slowly
+        Thread[] threads = new Thread[2];
+        final String[] messages = { "first", "second" };
+        for (int i = 0; i < threads.length;) {
+            final int index = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    appender.append(createEvent(Level.INFO, messages[index]));
+                }
+            });
+            if (i == 0 || (thread.getId() - threads[0].getId()) % 2 != 0) {
+                threads[i++] = thread;
+            }
+        }
+        threads[0].start();
+        threads[0].join();
+        assertTrue(encoding.await(10, TimeUnit.SECONDS));
+        threads[1].start();
+        threads[1].join();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(2, target.lines.size());
+        assertEquals("first", mapper.readTree(target.lines.get(0)).get("message").asText());
+        assertEquals("second", mapper.readTree(target.lines.get(1)).get("message").asText());
+    }
+
+    @Test
+    public void testDropPolicyKeepsWarnings() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CollectingAppender target = new CollectingAppender(createLayout()) {
+            @Override
+            public void append(LogEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.append(event);
+            }
+        };
+        AsyncRenderAppender appender = createAppender(target, 2, QueueFullPolicy.DROP);
+        appender.start();
+
+        // warnings wait for space, so only log them once the target renders
+        int total = 200;
+        for (int i = 0; i < total / 2; i++) {
+            appender.append(createEvent(Level.DEBUG, String.valueOf(i)));
+        }
+        release.countDown();
+        for (int i = total / 2; i < total; i++) {
+            appender.append(createEvent(i % 10 == 0 ? Level.WARN : Level.DEBUG, String.valueOf(i)));
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertTrue(appender.getDroppedCount() > 0);
+        assertTrue(appender.getQueueFullCount() >= appender.getDroppedCount());
+        assertEquals(total, target.lines.size() + appender.getDroppedCount());
+
+        int warnings = 0;
+        for (String line : target.lines) {
+            if ("WARN".equals(mapper.readTree(line).get("level").asText())) {
+                warnings++;
+            }
+        }
+        assertEquals(total / 20, warnings);
+    }
+
+    private static CustomJsonLayout createLayout() {
+        return CustomJsonLayout.newBuilder().setCharset(CHARSET).setAttributes("level,message,correlationId").build();
+    }
+
+    private static AsyncRenderAppender createAppender(CollectingAppender target, int queueSize,
+            QueueFullPolicy policy) {
+        return createAppender(target, queueSize, policy, 1);
+    }
+
+    private static AsyncRenderAppender createAppender(CollectingAppender target, int queueSize,
+            QueueFullPolicy policy, int renderThreads) {
+        DefaultConfiguration configuration = new DefaultConfiguration();
+        target.start();
+        configuration.addAppender(target);
+        return AsyncRenderAppender.newBuilder().withName("async").setConfiguration(configuration)
+                .withAppenderRefs(AppenderRef.createAppenderRef(target.getName(), null, null))
+                .withQueueSize(queueSize).withQueueFullPolicy(policy).withRenderThreads(renderThreads).build();
+    }
+
+    private static LogEvent createEvent(Level level, String message) {
+        return Log4jLogEvent.newBuilder().setLoggerName("async").setLevel(level)
+                .setMessage(new SimpleMessage(message)).build();
+    }
+
+    /**
+     * Keeps the rendered lines, on the render thread only.
+     */
+    private static class CollectingAppender extends AbstractAppender {
+
+        private final List<String> lines = new ArrayList<>();
+
+        private final List<LogEvent> events = new ArrayList<>();
+
+        private final List<String> threadNames = new ArrayList<>();
+
+        CollectingAppender(Layout<String> layout) {
+            this("target", layout);
+        }
+
+        CollectingAppender(String name, Layout<String> layout) {
+            super(name, null, layout, false);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void append(LogEvent event) {
+            this.lines.add(((Layout<String>) getLayout()).toSerializable(event));
+            this.events.add(event);
+            this.threadNames.add(Thread.currentThread().getName());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeLoaderFactory;
+import id.dkakunsi.lab.jlogging.attributeloader.AttributeScope;
+import id.dkakunsi.lab.jlogging.attributeloader.ProcessAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.StaticAttributeLoader;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.Test;
+
+/**
+ * Verify {@link CustomJsonLayout} binds keys to the loaders of
+ * {@link AttributeLoaderFactory} and loads them as often as their scope says.
+ *
+ * @author dkakunsi
+ */
+public class AttributeLoaderFactoryTest {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testDiscoverLoader() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("discovered,message").build();
+
+        assertEquals("yes", mapper.readTree(layout.toSerializable(createEvent(7))).get("discovered").asText());
+    }
+
+    @Test
+    public void testDisableDiscovery() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("discovered,message")
+                .setLoaderDiscovery(false).build();
+
+        assertFalse(mapper.readTree(layout.toSerializable(createEvent(7))).has("discovered"));
+    }
+
+    @Test
+    public void testProcessLoader() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("pid,threadId,message")
+                .setLoaderFactories(new ProcessAttributeLoader.Factory()).build();
+
+        JsonNode node = mapper.readTree(layout.toSerializable(createEvent(7)));
+        String runtime = ManagementFactory.getRuntimeMXBean().getName();
+        assertEquals(runtime.substring(0, runtime.indexOf('@')), node.get("pid").asText());
+        assertEquals(7, node.get("threadId").asLong());
+    }
+
+    @Test
+    public void testContextKeysOfProcessLoader() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("pid,threadId,message").build();
+        StringMap contextData = ContextDataFactory.createContextData();
+        contextData.putValue("pid", "context-pid");
+        contextData.putValue("threadId", "context-thread");
+        LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("loader").setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Loader message")).setThreadId(7).setContextData(contextData).build();
+
+        JsonNode node = mapper.readTree(layout.toSerializable(event));
+        assertEquals("context-pid", node.get("pid").asText());
+        assertEquals("context-thread", node.get("threadId").asText());
+    }
+
+    @Test
+    public void testLoadByScope() throws IOException {
+        CountingFactory factory = new CountingFactory();
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("build,span,worker,message")
+                .setLoaderFactories(factory).build();
+        assertEquals(1, factory.loader.constantLoads.get());
+
+        for (int i = 0; i < 10; i++) {
+            JsonNode node = mapper.readTree(layout.toSerializable(createEvent(i < 5 ? 1 : 2)));
+            assertEquals("1.0", node.get("build").asText());
+            assertEquals(i, node.get("span").asInt());
+            assertEquals("worker-" + (i < 5 ? 1 : 2), node.get("worker").asText());
+        }
+        assertEquals(1, factory.loader.constantLoads.get());
+        assertEquals(2, factory.loader.threadLoads.get());
+        assertEquals(10, factory.loader.eventWrites.get());
+    }
+
+    @Test
+    public void testOwnBuiltInKey() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("message")
+                .setLoaderFactories(new CountingFactory("message"), new CountingFactory("message")).build();
+
+        JsonNode node = mapper.readTree(layout.toSerializable(createEvent(1)));
+        assertTrue(node.get("message").isInt());
+    }
+
+    private static LogEvent createEvent(long threadId) {
+        return Log4jLogEvent.newBuilder().setLoggerName("loader").setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Loader message")).setThreadId(threadId).build();
+    }
+
+    /**
+     * Factory listed for discovery in the test resources, owning
+     * {@code discovered} as constant.
+     */
+    public static final class DiscoveredFactory implements AttributeLoaderFactory {
+
+        @Override
+        public String getName() {
+            return "discovered";
+        }
+
+        @Override
+        public String[] getKeys() {
+            return new String[] { "discovered" };
+        }
+
+        @Override
+        public AttributeScope getScope(String key) {
+            return AttributeScope.CONSTANT;
+        }
+
+        @Override
+        public AttributeLoader createLoader(CustomJsonLayout layout) {
+            return new StaticAttributeLoader(Collections.singletonMap("discovered", "yes"));
+        }
+    }
+
+    /**
+     * Factory of {@link CountingLoader}, owning {@code build} as constant,
+     * {@code worker} per thread and the span key per event.
+     */
+    private static final class CountingFactory implements AttributeLoaderFactory {
+
+        private final String spanKey;
+
+        private CountingLoader loader;
+
+        CountingFactory() {
+            this("span");
+        }
+
+        CountingFactory(String spanKey) {
+            this.spanKey = spanKey;
+        }
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public String[] getKeys() {
+            return new String[] { "build", "worker", this.spanKey };
+        }
+
+        @Override
+        public AttributeScope getScope(String key) {
+            switch (key) {
+                case "build":
+                    return AttributeScope.CONSTANT;
+                case "worker":
+                    return AttributeScope.THREAD;
+                default:
+                    return AttributeScope.EVENT;
+            }
+        }
+
+        @Override
+        public AttributeLoader createLoader(CustomJsonLayout layout) {
+            this.loader = new CountingLoader();
+            return this.loader;
+        }
+    }
+
+    private static final class CountingLoader implements AttributeLoader {
+
+        private final AtomicInteger constantLoads = new AtomicInteger();
+
+        private final AtomicInteger threadLoads = new AtomicInteger();
+
+        private final AtomicInteger eventWrites = new AtomicInteger();
+
+        @Override
+        public Object load(String key, LogEvent event) {
+            switch (key) {
+                case "build":
+                    this.constantLoads.incrementAndGet();
+                    return "1.0";
+                case "worker":
+                    this.threadLoads.incrementAndGet();
+                    return "worker-" + event.getThreadId();
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public void write(SerializableString key, LogEvent event, JsonGenerator generator) throws IOException {
+            generator.writeFieldName(key);
+            generator.writeNumber(this.eventWrites.getAndIncrement());
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return true;
+        }
+    }
+}
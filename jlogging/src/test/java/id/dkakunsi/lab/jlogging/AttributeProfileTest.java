@@ -0,0 +1,120 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.layout.AttributeProfile;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.xml.XmlConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+/**
+ * Verify {@link CustomJsonLayout} prints the attributes of the first matching
+ * {@link AttributeProfile}.
+ *
+ * @author dkakunsi
+ */
+public class AttributeProfileTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSelectProfileByLevel() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("category,level,message")
+                .setProfiles(
+                        AttributeProfile.newBuilder().setMaxLevel(Level.DEBUG).setAttributes("level,message").build(),
+                        AttributeProfile.newBuilder().setMinLevel(Level.WARN)
+                                .setAttributes("level,category,thread,message").build())
+                .build();
+
+        assertEquals("[\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.DEBUG)));
+        assertEquals("[\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.TRACE)));
+        assertEquals("[\"category\",\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.INFO)));
+        assertEquals("[\"level\",\"category\",\"thread\",\"message\"]",
+                fieldNames(layout, createEvent("app", Level.WARN)));
+        assertEquals("[\"level\",\"category\",\"thread\",\"message\"]",
+                fieldNames(layout, createEvent("app", Level.FATAL)));
+    }
+
+    @Test
+    public void testSelectProfileByLogger() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("category,level,message")
+                .setProfiles(AttributeProfile.newBuilder().setLogger("org.hibernate").setAttributes("message").build())
+                .build();
+
+        assertEquals("[\"message\"]", fieldNames(layout, createEvent("org.hibernate", Level.INFO)));
+        assertEquals("[\"message\"]", fieldNames(layout, createEvent("org.hibernate.SQL", Level.ERROR)));
+        assertEquals("[\"category\",\"level\",\"message\"]",
+                fieldNames(layout, createEvent("org.hibernatex", Level.INFO)));
+        assertEquals("[\"category\",\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.INFO)));
+    }
+
+    @Test
+    public void testMatches() {
+        AttributeProfile profile = AttributeProfile.newBuilder().setLogger("app").setMinLevel(Level.INFO)
+                .setMaxLevel(Level.WARN).setAttributes("message").build();
+
+        assertTrue(profile.matches(createEvent("app.service", Level.INFO)));
+        assertTrue(profile.matches(createEvent("app", Level.WARN)));
+        assertFalse(profile.matches(createEvent("app", Level.DEBUG)));
+        assertFalse(profile.matches(createEvent("app", Level.ERROR)));
+        assertFalse(profile.matches(createEvent("other", Level.INFO)));
+    }
+
+    @Test
+    public void testConfigure() throws IOException {
+        String xml = "<Configuration packages=\"id.dkakunsi.lab.jlogging\">"
+                + "<Appenders><Console name=\"CONSOLE\">"
+                + "<CustomJsonLayout attributes=\"category,level,message\">"
+                + "<AttributeProfile maxLevel=\"DEBUG\" attributes=\"level,message\" />"
+                + "<AttributeProfile logger=\"org.hibernate\" attributes=\"message\" />"
+                + "</CustomJsonLayout>"
+                + "</Console></Appenders>"
+                + "<Loggers><Root level=\"INFO\" /></Loggers>"
+                + "</Configuration>";
+        XmlConfiguration configuration = new XmlConfiguration(new LoggerContext("profiles"),
+                new ConfigurationSource(new ByteArrayInputStream(xml.getBytes(CHARSET))));
+        configuration.initialize();
+        configuration.start();
+        try {
+            ConsoleAppender console = configuration.getAppender("CONSOLE");
+            CustomJsonLayout layout = (CustomJsonLayout) console.getLayout();
+
+            assertEquals(2, layout.getProfiles().length);
+            assertEquals("[\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.DEBUG)));
+            assertEquals("[\"message\"]", fieldNames(layout, createEvent("org.hibernate.SQL", Level.INFO)));
+            assertEquals("[\"category\",\"level\",\"message\"]", fieldNames(layout, createEvent("app", Level.INFO)));
+        } finally {
+            configuration.stop();
+        }
+    }
+
+    private static String fieldNames(CustomJsonLayout layout, LogEvent event) throws IOException {
+        JsonNode node = mapper.readTree(layout.toSerializable(event));
+        return mapper.writeValueAsString(node.fieldNames());
+    }
+
+    private static LogEvent createEvent(String loggerName, Level level) {
+        return Log4jLogEvent.newBuilder().setLoggerName(loggerName).setLevel(level)
+                .setMessage(new SimpleMessage("Hello")).build();
+    }
+}
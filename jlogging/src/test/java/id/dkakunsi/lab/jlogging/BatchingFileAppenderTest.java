@@ -0,0 +1,139 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.appender.BatchingFileAppender;
+import id.dkakunsi.lab.jlogging.appender.QueueFullPolicy;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link BatchingFileAppender} writes every queued event, and applies
+ * its queue full policy.
+ *
+ * @author dkakunsi
+ */
+public class BatchingFileAppenderTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int THREADS = 4;
+
+    private static final int EVENTS_PER_THREAD = 5000;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private File file;
+
+    @Before
+    public void init() throws IOException {
+        this.file = File.createTempFile("batching", ".log");
+    }
+
+    @After
+    public void destroy() {
+        this.file.delete();
+    }
+
+    @Test
+    public void testWriteFromManyThreads() throws Exception {
+        final BatchingFileAppender appender = createAppender(64, 16, QueueFullPolicy.BLOCK);
+        appender.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        appender.append(createEvent(Level.INFO, worker + "-" + j));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        List<String> lines = Files.readAllLines(this.file.toPath(), CHARSET);
+        assertEquals(THREADS * EVENTS_PER_THREAD, lines.size());
+
+        Set<String> messages = new HashSet<>();
+        for (String line : lines) {
+            JsonNode node = mapper.readTree(line);
+            assertEquals("INFO", node.get("level").asText());
+            messages.add(node.get("message").asText());
+        }
+        assertEquals(THREADS * EVENTS_PER_THREAD, messages.size());
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void testDropPolicyKeepsWarnings() throws Exception {
+        BatchingFileAppender appender = createAppender(2, 1, QueueFullPolicy.DROP);
+        appender.start();
+
+        int total = 2000;
+        for (int i = 0; i < total; i++) {
+            appender.append(createEvent(i % 10 == 0 ? Level.WARN : Level.DEBUG, String.valueOf(i)));
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        List<String> lines = Files.readAllLines(this.file.toPath(), CHARSET);
+        assertEquals(total, lines.size() + appender.getDroppedCount());
+
+        int warnings = 0;
+        for (String line : lines) {
+            if ("WARN".equals(mapper.readTree(line).get("level").asText())) {
+                warnings++;
+            }
+        }
+        assertEquals(total / 10, warnings);
+    }
+
+    private BatchingFileAppender createAppender(int ringBufferSize, int batchSize, QueueFullPolicy policy) {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setCharset(CHARSET).setEventEol(true)
+                .setAttributes("level,message").build();
+        return BatchingFileAppender.newBuilder().withName("batching").withLayout(layout)
+                .withFileName(this.file.getPath()).withAppend(false).withRingBufferSize(ringBufferSize)
+                .withBatchSize(batchSize).withFlushInterval(1).withQueueFullPolicy(policy).build();
+    }
+
+    private static LogEvent createEvent(Level level, String message) {
+        return Log4jLogEvent.newBuilder().setLoggerName("batching").setLevel(level)
+                .setMessage(new SimpleMessage(message)).build();
+    }
+}
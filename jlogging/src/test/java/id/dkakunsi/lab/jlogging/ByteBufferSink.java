@@ -0,0 +1,90 @@
+package id.dkakunsi.lab.jlogging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+/**
+ * In-memory {@link ByteBufferDestination} which keeps the last drained content
+ * and the total number of bytes written, without allocating per write.
+ * 
+ * @author dkakunsi
+ */
+public class ByteBufferSink implements ByteBufferDestination {
+
+    private final ByteBuffer buffer;
+
+    private final byte[] content;
+
+    private int contentLength;
+
+    private long written;
+
+    public ByteBufferSink(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+        this.content = new byte[capacity * 4];
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(ByteBuffer buf) {
+        buf.flip();
+        int length = Math.min(buf.remaining(), this.content.length - this.contentLength);
+        buf.get(this.content, this.contentLength, length);
+        this.contentLength += length;
+        this.written += length;
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    public void writeBytes(ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(byte[] data, int offset, int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    /**
+     * Drain the pending bytes and forget the content, keeping the written count.
+     */
+    public void reset() {
+        drain(this.buffer);
+        this.contentLength = 0;
+    }
+
+    /**
+     * Drain the pending bytes and return everything written since the last
+     * {@link #reset()}.
+     * 
+     * @param charset content charset
+     * @return written content
+     */
+    public String getContent(Charset charset) {
+        drain(this.buffer);
+        return new String(this.content, 0, this.contentLength, charset);
+    }
+
+    /**
+     * Same as {@link #getContent(Charset)}, as bytes.
+     * 
+     * @return written content
+     */
+    public byte[] getContentBytes() {
+        drain(this.buffer);
+        return Arrays.copyOf(this.content, this.contentLength);
+    }
+
+    public long getWritten() {
+        return this.written + this.buffer.position();
+    }
+}
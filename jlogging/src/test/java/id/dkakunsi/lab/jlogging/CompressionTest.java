@@ -0,0 +1,139 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.appender.BatchingFileAppender;
+import id.dkakunsi.lab.jlogging.compress.CompressedLogReader;
+import id.dkakunsi.lab.jlogging.compress.Compression;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify the block-compressed output of {@link BatchingFileAppender} reads
+ * back with {@link CompressedLogReader}, also when cut short.
+ *
+ * @author dkakunsi
+ */
+public class CompressionTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int EVENTS = 5000;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private File file;
+
+    @Before
+    public void init() throws IOException {
+        this.file = File.createTempFile("compressed", ".log");
+    }
+
+    @After
+    public void destroy() {
+        this.file.delete();
+    }
+
+    @Test
+    public void testLz4() throws IOException {
+        verify(Compression.LZ4, 0);
+        verify(Compression.LZ4, 9);
+    }
+
+    @Test
+    public void testZstd() throws IOException {
+        verify(Compression.ZSTD, 0);
+        verify(Compression.ZSTD, 19);
+    }
+
+    @Test
+    public void testTruncatedLz4() throws IOException {
+        verifyTruncated(Compression.LZ4);
+    }
+
+    @Test
+    public void testTruncatedZstd() throws IOException {
+        verifyTruncated(Compression.ZSTD);
+    }
+
+    private void verify(Compression compression, int level) throws IOException {
+        write(compression, level);
+        assertTrue(this.file.length() * 4 < EVENTS * 60);
+
+        try (CompressedLogReader reader = open(new FileInputStream(this.file), compression)) {
+            List<String> lines = readAll(reader);
+            assertEquals(EVENTS, lines.size());
+            for (int i = 0; i < EVENTS; i++) {
+                assertEquals("Event number " + i, mapper.readTree(lines.get(i)).get("message").asText());
+            }
+            assertFalse(reader.isTruncated());
+        }
+    }
+
+    private void verifyTruncated(Compression compression) throws IOException {
+        write(compression, 0);
+        byte[] content = Files.readAllBytes(this.file.toPath());
+        byte[] truncated = Arrays.copyOf(content, content.length - 10);
+
+        try (CompressedLogReader reader = open(new ByteArrayInputStream(truncated), compression)) {
+            List<String> lines = readAll(reader);
+            assertTrue(lines.size() > 0);
+            assertTrue(lines.size() < EVENTS);
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals("Event number " + i, mapper.readTree(lines.get(i)).get("message").asText());
+            }
+            assertTrue(reader.isTruncated());
+        }
+    }
+
+    /**
+     * Write the events in many small batches, so the file has many frames.
+     */
+    private void write(Compression compression, int level) {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setCharset(CHARSET).setEventEol(true)
+                .setAttributes("category,level,message").build();
+        BatchingFileAppender appender = BatchingFileAppender.newBuilder().withName("compressed").withLayout(layout)
+                .withFileName(this.file.getPath()).withAppend(false).withBatchSize(100)
+                .withCompression(compression).withCompressionLevel(level).build();
+        appender.start();
+        for (int i = 0; i < EVENTS; i++) {
+            appender.append(Log4jLogEvent.newBuilder().setLoggerName("compressed").setLevel(Level.INFO)
+                    .setMessage(new SimpleMessage("Event number " + i)).build());
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+    }
+
+    private static CompressedLogReader open(InputStream input, Compression compression) throws IOException {
+        return new CompressedLogReader(input, compression, CHARSET);
+    }
+
+    private static List<String> readAll(CompressedLogReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,119 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import id.dkakunsi.lab.jlogging.attributeloader.ContextAttributeLoader;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.OutputFormat;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.Test;
+
+/**
+ * Verify the size limits and raw JSON values of {@link ContextAttributeLoader}.
+ *
+ * @author dkakunsi
+ */
+public class ContextAttributeLoaderTest {
+
+    private static final String JSON = "{\"order\":{\"id\":12,\"items\":[\"a\",\"b\"]},\"paid\":true}";
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testTruncate() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("service,payload")
+                .setMaxContextValueLength(5).setContextValueLimits("payload = 8").build();
+
+        JsonNode node = render(layout, "service", "Service \"A\"", "payload", "0123456789");
+        assertEquals("Servi...[truncated]", node.get("service").asText());
+        assertEquals("01234567...[truncated]", node.get("payload").asText());
+
+        node = render(layout, "service", "short", "payload", "01234567");
+        assertEquals("short", node.get("service").asText());
+        assertEquals("01234567", node.get("payload").asText());
+    }
+
+    @Test
+    public void testTruncateSurrogatePair() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload")
+                .setMaxContextValueLength(3).setTruncationMarker("~").build();
+
+        JsonNode node = render(layout, "payload", "ab😀cd");
+        assertEquals("ab~", node.get("payload").asText());
+    }
+
+    @Test
+    public void testRawJson() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload,body")
+                .setRawJsonAttributes("payload").build();
+
+        String entry = layout.toSerializable(createEvent("payload", JSON, "body", JSON));
+        assertTrue(entry, entry.contains("\"payload\":" + JSON));
+
+        JsonNode node = mapper.readTree(entry);
+        assertEquals(12, node.get("payload").get("order").get("id").asInt());
+        assertEquals(JSON, node.get("body").asText());
+    }
+
+    @Test
+    public void testRawJsonSpanningLines() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload").setEventEol(true)
+                .setRawJsonAttributes("payload").build();
+
+        String entry = layout.toSerializable(createEvent("payload", "{\n  \"id\": 12,\n  \"paid\": true\n}"));
+        assertEquals("{\"payload\":{\"id\":12,\"paid\":true}}\n", entry);
+    }
+
+    @Test
+    public void testInvalidRawJson() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload")
+                .setRawJsonAttributes("payload").build();
+
+        for (String invalid : new String[] { "{\"id\":", "{\"id\":1} {\"id\":2}", "12", "plain text", "" }) {
+            assertEquals(invalid, render(layout, "payload", invalid).get("payload").asText());
+        }
+    }
+
+    @Test
+    public void testRawJsonOverLimit() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload")
+                .setRawJsonAttributes("payload").setContextValueLimits("payload=10").build();
+
+        assertEquals("{\"order\":{...[truncated]", render(layout, "payload", JSON).get("payload").asText());
+    }
+
+    @Test
+    public void testRawJsonBinaryFormat() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("payload")
+                .setRawJsonAttributes("payload").setFormat(OutputFormat.CBOR).build();
+
+        byte[] entry = layout.toByteArray(createEvent("payload", JSON));
+        JsonNode node = new ObjectMapper(new CBORFactory()).readTree(entry);
+        assertEquals(mapper.readTree(JSON), node.get("payload"));
+    }
+
+    private static JsonNode render(CustomJsonLayout layout, String... context) throws IOException {
+        return mapper.readTree(layout.toSerializable(createEvent(context)));
+    }
+
+    private static LogEvent createEvent(String... context) {
+        StringMap contextData = ContextDataFactory.createContextData();
+        for (int i = 0; i < context.length; i += 2) {
+            contextData.putValue(context[i], context[i + 1]);
+        }
+        return Log4jLogEvent.newBuilder().setLoggerName("context").setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Context message")).setContextData(contextData).build();
+    }
+}
@@ -0,0 +1,214 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.context.ContextSnapshot;
+import id.dkakunsi.lab.jlogging.context.ScopedContext;
+import id.dkakunsi.lab.jlogging.context.SnapshotContextDataInjector;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.Reconfigurable;
+import org.apache.logging.log4j.core.config.xml.XmlConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Verify {@link ContextSnapshot} and {@link SnapshotContextDataInjector} give
+ * events only the context keys that are printed, and the whole context when
+ * the configuration may read any key.
+ *
+ * @author dkakunsi
+ */
+public class ContextSnapshotTest {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @After
+    public void destroy() {
+        ThreadContext.clearAll();
+    }
+
+    @Test
+    public void testSnapshot() {
+        ContextSnapshot snapshot = ContextSnapshot.of("principal", "alice", "correlationId", "c-1", "empty", null);
+        assertEquals(2, snapshot.size());
+        assertEquals("correlationId", snapshot.getKeyAt(0));
+        assertEquals("alice", snapshot.getValue("principal"));
+        assertNull(snapshot.getValue("empty"));
+        assertTrue(snapshot.isFrozen());
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("correlationId", "c-1");
+        expected.put("principal", "alice");
+        assertEquals(expected, snapshot.toMap());
+        assertEquals(snapshot, ContextSnapshot.of(expected));
+        assertEquals(snapshot.hashCode(), ContextSnapshot.of(expected).hashCode());
+
+        ContextSnapshot changed = snapshot.with("principal", "bob").with("correlationId", null);
+        assertEquals(Collections.singletonMap("principal", "bob"), changed.toMap());
+        assertEquals("alice", snapshot.getValue("principal"));
+
+        try {
+            snapshot.putValue("principal", "bob");
+            fail("snapshot must be immutable");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCapturePrintedKeys() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("principal,correlationId,level,message").build();
+        assertArrayEquals(new String[] { "correlationId", "principal" }, layout.getContextKeys());
+
+        SnapshotContextDataInjector injector = new SnapshotContextDataInjector();
+        ThreadContext.put("correlationId", "c-1");
+        ThreadContext.put("principal", "alice");
+        ThreadContext.put("unprinted", "noise");
+
+        StringMap context = SnapshotContextDataInjector.capture(injector.rawContextData(), layout.getContextKeys());
+        assertEquals("c-1", context.getValue("correlationId"));
+        assertEquals("alice", context.getValue("principal"));
+        assertFalse(context.containsKey("unprinted"));
+
+        JsonNode json = mapper.readTree(layout.toSerializable(Log4jLogEvent.newBuilder().setLoggerName("context")
+                .setLevel(Level.INFO).setMessage(new SimpleMessage("Captured")).setContextData(context).build()));
+        assertEquals("c-1", json.get("correlationId").asText());
+        assertEquals("alice", json.get("principal").asText());
+
+        ThreadContext.remove("principal");
+        context = injector.injectContextData(Arrays.asList(Property.createProperty("principal", "system"),
+                Property.createProperty("correlationId", "configured")), null);
+        assertTrue(context instanceof ContextSnapshot);
+        assertEquals("c-1", context.getValue("correlationId"));
+        assertEquals("system", context.getValue("principal"));
+
+        ThreadContext.clearAll();
+        assertTrue(injector.injectContextData(null, null).isEmpty());
+    }
+
+    @Test
+    public void testKeysFollowConfiguration() throws IOException {
+        LoggerContext context = new LoggerContext("snapshot");
+        context.start(createConfiguration(context, "<CustomJsonLayout attributes=\"stale,level,message\" />", ""));
+        try {
+            assertArrayEquals(new String[] { "stale" },
+                    SnapshotContextDataInjector.getContextKeys(context.getConfiguration()));
+
+            // rebuilt, the keys of the dropped layout are not read anymore
+            reconfigure(context, createConfiguration(context,
+                    "<CustomJsonLayout attributes=\"principal,correlationId,message\" />", ""));
+            assertArrayEquals(new String[] { "correlationId", "principal" },
+                    SnapshotContextDataInjector.getContextKeys(context.getConfiguration()));
+
+            // a context map filter reads any key
+            reconfigure(context, createConfiguration(context, "<CustomJsonLayout attributes=\"principal\" />",
+                    "<ThreadContextMapFilter onMatch=\"ACCEPT\" onMismatch=\"DENY\">"
+                            + "<KeyValuePair key=\"tenant\" value=\"a\" /></ThreadContextMapFilter>"));
+            assertNull(SnapshotContextDataInjector.getContextKeys(context.getConfiguration()));
+            assertNull(SnapshotContextDataInjector.getKeys());
+
+            // so does a pattern layout
+            reconfigure(context, createConfiguration(context, "<PatternLayout pattern=\"%X{tenant} %m\" />", ""));
+            assertNull(SnapshotContextDataInjector.getContextKeys(context.getConfiguration()));
+            assertNull(SnapshotContextDataInjector.getKeys());
+
+            ThreadContext.put("principal", "alice");
+            ThreadContext.put("tenant", "a");
+            StringMap captured = new SnapshotContextDataInjector().injectContextData(null, null);
+            assertEquals("alice", captured.getValue("principal"));
+            assertEquals("a", captured.getValue("tenant"));
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testScopedContext() {
+        SnapshotContextDataInjector injector = new SnapshotContextDataInjector();
+        ThreadContext.put("principal", "outer");
+
+        final StringMap[] captured = new StringMap[1];
+        ScopedContext.run(ContextSnapshot.of("correlationId", "c-2", "principal", "inner"), new Runnable() {
+            @Override
+            public void run() {
+                captured[0] = new SnapshotContextDataInjector().injectContextData(null, null);
+            }
+        });
+        assertEquals("c-2", captured[0].getValue("correlationId"));
+        assertEquals("inner", captured[0].getValue("principal"));
+
+        // restored after the task
+        assertEquals(ScopedContext.getScopedValue() != null, ScopedContext.isScoped());
+        assertNull(ScopedContext.current());
+        assertEquals("outer", ThreadContext.get("principal"));
+        assertNull(ThreadContext.get("correlationId"));
+        assertEquals("outer", injector.rawContextData().getValue("principal"));
+    }
+
+    @Test
+    public void testSelectSharesSnapshot() {
+        final ContextSnapshot scoped = ContextSnapshot.of("correlationId", "c-3");
+        final StringMap[] captured = new StringMap[1];
+        ScopedContext.run(scoped, new Runnable() {
+            @Override
+            public void run() {
+                captured[0] = new SnapshotContextDataInjector().injectContextData(null, null);
+            }
+        });
+        if (ScopedContext.isScoped()) {
+            assertSame(scoped, captured[0]);
+        } else {
+            assertEquals(scoped, captured[0]);
+        }
+    }
+
+    private static Configuration createConfiguration(LoggerContext context, String layout, String rootFilter)
+            throws IOException {
+        String xml = "<Configuration packages=\"id.dkakunsi.lab.jlogging\">"
+                + "<Appenders><Console name=\"CONSOLE\">" + layout + "</Console></Appenders>"
+                + "<Loggers><Root level=\"INFO\">" + rootFilter + "<AppenderRef ref=\"CONSOLE\" /></Root></Loggers>"
+                + "</Configuration>";
+        return new XmlConfiguration(context,
+                new ConfigurationSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Replace the configuration the way a watched configuration file does.
+     */
+    private static void reconfigure(LoggerContext context, final Configuration configuration) {
+        context.onChange(new Reconfigurable() {
+
+            @Override
+            public Configuration reconfigure() {
+                return configuration;
+            }
+        });
+    }
+}
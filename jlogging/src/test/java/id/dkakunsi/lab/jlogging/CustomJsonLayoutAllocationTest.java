@@ -0,0 +1,84 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link CustomJsonLayout#encode} does not allocate in steady state.
+ * 
+ * @author dkakunsi
+ */
+public class CustomJsonLayoutAllocationTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final String ATTRIBUTES = "timestamp,correlationId,host,service,thread,category,level,message";
+
+    private static final int WARMUP = 50000;
+
+    private static final int ITERATIONS = 10000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setup() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        this.threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(this.threadBean.isThreadAllocatedMemorySupported());
+        this.threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @After
+    public void destroy() {
+        ThreadContext.clearAll();
+    }
+
+    @Test
+    public void testEncodeIsGarbageFree() {
+        ThreadContext.put("correlationId", "0xoqwie1267sdh2");
+        ThreadContext.put("service", "Service \"A\"");
+
+        final CustomJsonLayout layout = CustomJsonLayout.createLayout(CHARSET, false, "UTC", null, ATTRIBUTES);
+        final LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName("category")
+                .setLoggerFqcn("category")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Hello, \"World\"\n"))
+                .build();
+        final ByteBufferSink sink = new ByteBufferSink(1024);
+
+        layout.encode(event, sink);
+        assertEquals(layout.toSerializable(event), sink.getContent(CHARSET));
+
+        for (int i = 0; i < WARMUP; i++) {
+            layout.encode(event, sink);
+            sink.reset();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = this.threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            layout.encode(event, sink);
+            sink.reset();
+        }
+        long allocated = this.threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Allocated " + allocated + " bytes for " + ITERATIONS + " events", allocated < ITERATIONS);
+    }
+}
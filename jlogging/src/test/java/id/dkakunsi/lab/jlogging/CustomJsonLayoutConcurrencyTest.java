@@ -0,0 +1,185 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Verify a single {@link CustomJsonLayout} can be shared by many threads.
+ * 
+ * @author dkakunsi
+ */
+public class CustomJsonLayoutConcurrencyTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final String ATTRIBUTES = "correlationId,thread,category,level,message,stacktrace";
+
+    private static final int THREADS = 8;
+
+    private static final int EVENTS_PER_THREAD = 5000;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @After
+    public void destroy() {
+        ThreadContext.clearAll();
+    }
+
+    @Test
+    public void testNoFieldLeaksBetweenThreads() throws Exception {
+        final CustomJsonLayout layout = CustomJsonLayout.createLayout(CHARSET, true, "UTC", null, ATTRIBUTES);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    return render(layout, worker);
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Future<Integer> result : results) {
+            assertEquals(EVENTS_PER_THREAD, result.get().intValue());
+        }
+        executor.shutdown();
+    }
+
+    private static int render(CustomJsonLayout layout, int worker) throws Exception {
+        ByteBufferSink sink = new ByteBufferSink(4096);
+        String threadName = Thread.currentThread().getName();
+
+        int verified = 0;
+        for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+            String id = worker + "-" + i;
+            ThreadContext.put("correlationId", id);
+
+            Log4jLogEvent.Builder builder = Log4jLogEvent.newBuilder()
+                    .setLoggerName("logger-" + worker)
+                    .setLevel(i % 2 == 0 ? Level.INFO : Level.ERROR)
+                    .setMessage(new SimpleMessage("message " + id));
+            if (i % 10 == 0) {
+                builder.setThrown(new IllegalStateException(id));
+            }
+            LogEvent event = builder.build();
+
+            String entry;
+            if (i % 2 == 0) {
+                entry = layout.toSerializable(event);
+            } else {
+                sink.reset();
+                layout.encode(event, sink);
+                entry = sink.getContent(CHARSET);
+            }
+
+            JsonNode node = mapper.readTree(entry);
+            assertEquals(id, node.get("correlationId").asText());
+            assertEquals(threadName, node.get("thread").asText());
+            assertEquals("logger-" + worker, node.get("category").asText());
+            assertEquals(event.getLevel().name(), node.get("level").asText());
+            assertEquals("message " + id, node.get("message").asText());
+            if (i % 10 == 0) {
+                assertEquals(id, node.get("stacktrace").get(0).get("message").asText());
+            } else {
+                assertTrue(node.get("stacktrace") == null);
+            }
+            verified++;
+        }
+        return verified;
+    }
+
+    @Test
+    public void testReentrantRendering() throws Exception {
+        final CustomJsonLayout layout = CustomJsonLayout.createLayout(CHARSET, true, "UTC", null, "category,message");
+        final LogEvent inner = Log4jLogEvent.newBuilder()
+                .setLoggerName("inner")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("inner message"))
+                .build();
+        final LogEvent outer = Log4jLogEvent.newBuilder()
+                .setLoggerName("outer")
+                .setLevel(Level.INFO)
+                .setMessage(new LoggingMessage(layout, inner))
+                .build();
+
+        ByteBufferSink sink = new ByteBufferSink(1024);
+        layout.encode(outer, sink);
+
+        JsonNode node = mapper.readTree(sink.getContent(CHARSET));
+        assertEquals("outer", node.get("category").asText());
+        assertEquals(layout.toSerializable(inner), node.get("message").asText());
+    }
+
+    /**
+     * Message that renders another event with the same layout while it is being
+     * formatted.
+     */
+    private static class LoggingMessage implements Message, StringBuilderFormattable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient CustomJsonLayout layout;
+
+        private final transient LogEvent event;
+
+        LoggingMessage(CustomJsonLayout layout, LogEvent event) {
+            this.layout = layout;
+            this.event = event;
+        }
+
+        @Override
+        public void formatTo(StringBuilder buffer) {
+            buffer.append(this.layout.toSerializable(this.event));
+        }
+
+        @Override
+        public String getFormattedMessage() {
+            StringBuilder buffer = new StringBuilder();
+            formatTo(buffer);
+            return buffer.toString();
+        }
+
+        @Override
+        public String getFormat() {
+            return null;
+        }
+
+        @Override
+        public Object[] getParameters() {
+            return null;
+        }
+
+        @Override
+        public Throwable getThrowable() {
+            return null;
+        }
+    }
+}
@@ -2,9 +2,13 @@ package id.dkakunsi.lab.jlogging;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.IOException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -72,15 +76,34 @@ public class CustomJsonLayoutTest {
     private static ObjectMapper mapper = new ObjectMapper();
 
     @BeforeClass
-    public static void setup() throws UnknownHostException {
+    public static void setup() throws IOException {
         ConfigurationFactory.setConfigurationFactory(cf);
         final LoggerContext ctx = LoggerContext.getContext();
         ctx.reconfigure();
 
-        HOST = InetAddress.getLocalHost().getHostName();
+        HOST = getHostName();
         THREAD = Thread.currentThread().getName();
     }
 
+    /**
+     * Host name from HOSTNAME, then /etc/hostname, then the local address.
+     */
+    private static String getHostName() throws IOException {
+        String hostName = System.getenv("HOSTNAME");
+        if (hostName != null && !hostName.trim().isEmpty()) {
+            return hostName.trim();
+        }
+        Path file = Paths.get("/etc/hostname");
+        if (Files.isReadable(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    return line.trim();
+                }
+            }
+        }
+        return InetAddress.getLocalHost().getHostName();
+    }
+
     @After
     public void destroy() {
         ThreadContext.clearAll();
@@ -0,0 +1,80 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import id.dkakunsi.lab.jlogging.attributeloader.HostAttributeLoader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * HostAttributeLoaderTest
+ */
+public class HostAttributeLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEnvironmentFirst() throws IOException {
+        Map<String, String> environment = Collections.singletonMap("HOSTNAME", " env-host ");
+        HostAttributeLoader loader = new HostAttributeLoader(0, environment, writeHostNameFile("file-host"));
+
+        assertEquals("env-host", loader.load("host", null));
+        assertEquals("env-host", loader.load("hostname", null));
+        assertNull(loader.load("service", null));
+    }
+
+    @Test
+    public void testHostNameFileWhenNoEnvironment() throws IOException {
+        Map<String, String> environment = Collections.singletonMap("HOSTNAME", " ");
+        HostAttributeLoader loader = new HostAttributeLoader(0, environment, writeHostNameFile("", " file-host"));
+
+        assertEquals("file-host", loader.load("host", null));
+    }
+
+    @Test
+    public void testInetAddressWhenNoFile() throws IOException {
+        Map<String, String> environment = Collections.emptyMap();
+        Path missing = this.folder.getRoot().toPath().resolve("missing");
+
+        assertEquals(InetAddress.getLocalHost().getHostName(),
+                new HostAttributeLoader(0, environment, missing).load("host", null));
+        assertEquals(InetAddress.getLocalHost().getHostName(),
+                new HostAttributeLoader(0, environment, writeHostNameFile("")).load("host", null));
+    }
+
+    @Test
+    public void testRefreshPicksUpNewHostName() throws Exception {
+        Map<String, String> environment = new ConcurrentHashMap<>();
+        environment.put("HOSTNAME", "old-host");
+        HostAttributeLoader loader = new HostAttributeLoader(1, environment, null);
+        assertEquals("old-host", loader.load("host", null));
+
+        environment.put("HOSTNAME", "new-host");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"new-host".equals(loader.load("host", null)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals("new-host", loader.load("host", null));
+    }
+
+    private Path writeHostNameFile(String... lines) throws IOException {
+        Path file = this.folder.newFile().toPath();
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+}
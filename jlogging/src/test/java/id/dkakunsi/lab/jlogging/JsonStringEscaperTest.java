@@ -0,0 +1,108 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.attributeloader.JsonStringEscaper;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.Test;
+
+/**
+ * Verify the UTF-8 output of {@link CustomJsonLayout}, escaped by
+ * {@link JsonStringEscaper}, is the JSON text encoded as UTF-8.
+ *
+ * @author dkakunsi
+ */
+public class JsonStringEscaperTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private CustomJsonLayout layout = CustomJsonLayout.newBuilder().setCharset(CHARSET)
+            .setAttributes("thread,category,level,message,payload").build();
+
+    @Test
+    public void testAscii() {
+        verify("Processed request for \"account\" 12345 in 10 ms");
+        verify("path C:\\temp\\file\r\n\ttab\b\f/slash");
+        verify("control \u0000\u0001\u001f\u007f end");
+        verify("");
+    }
+
+    @Test
+    public void testUnicode() {
+        verify("caf\u00e9 \u00fc\u00df \u0430\u0431\u0432 \u4f60\u597d \u0645\u0631\u062d\u0628\u0627");
+        verify("emoji \ud83d\ude00\ud83d\udc4d at end \ud83c\udf89");
+        verify("\u20ac\u20ac\u20ac mixed \"quoted\" \u00e9\n\ud83d\ude00");
+    }
+
+    @Test
+    public void testLongText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            text.append(i % 7 == 0 ? '\u4f60' : i % 11 == 0 ? '\n' : (char) ('a' + i % 26));
+        }
+        verify(text.toString());
+        verify("short text after a long one");
+    }
+
+    @Test
+    public void testUnpairedSurrogate() throws IOException {
+        byte[] escaped = JsonStringEscaper.escape("a\ud83db\ude00");
+        assertEquals("a\\uD83Db\\uDE00", new String(escaped, CHARSET));
+        assertEquals("a\ud83db\ude00", mapper.readTree("\"" + new String(escaped, CHARSET) + "\"").asText());
+    }
+
+    @Test
+    public void testParameterizedMessage() {
+        LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("escaper").setLevel(Level.INFO)
+                .setThreadName("worker \u00e9").setContextData(ContextDataFactory.createContextData())
+                .setMessage(new ParameterizedMessage("Order {} paid by {}", "\u00e9\ud83d\ude00", "\"tab\t\""))
+                .build();
+        verify(event);
+    }
+
+    @Test
+    public void testRepeatedNames() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            LogEvent event = createEvent("logger.name" + i % 300, "thread-" + i % 40, "message " + i);
+            verify(event);
+            assertEquals("logger.name" + i % 300, mapper.readTree(encode(event)).get("category").asText());
+        }
+    }
+
+    private void verify(String message) {
+        verify(createEvent("escaper", "main", message));
+    }
+
+    private void verify(LogEvent event) {
+        assertArrayEquals(this.layout.toSerializable(event).getBytes(CHARSET), encode(event));
+        assertArrayEquals(this.layout.toSerializable(event).getBytes(CHARSET), this.layout.toByteArray(event));
+    }
+
+    private byte[] encode(LogEvent event) {
+        ByteBufferSink sink = new ByteBufferSink(64 * 1024);
+        this.layout.encode(event, sink);
+        return sink.getContentBytes();
+    }
+
+    private static LogEvent createEvent(String loggerName, String threadName, String message) {
+        StringMap context = ContextDataFactory.createContextData();
+        context.putValue("payload", message);
+        return Log4jLogEvent.newBuilder().setLoggerName(loggerName).setLevel(Level.INFO).setThreadName(threadName)
+                .setContextData(context).setMessage(new SimpleMessage(message)).build();
+    }
+}
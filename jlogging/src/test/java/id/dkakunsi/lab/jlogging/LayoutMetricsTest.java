@@ -0,0 +1,186 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.metrics.LatencyHistogram;
+import id.dkakunsi.lab.jlogging.metrics.LayoutMetrics;
+import id.dkakunsi.lab.jlogging.metrics.LayoutMetricsSnapshot;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.Reconfigurable;
+import org.apache.logging.log4j.core.config.xml.XmlConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+/**
+ * Verify the cost counters of {@link CustomJsonLayout} and their JMX view.
+ *
+ * @author dkakunsi
+ */
+public class LayoutMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500.0, snapshot.getMean(), 0.1);
+        assertWithin(500000, snapshot.getValueAtPercentile(50));
+        assertWithin(990000, snapshot.getValueAtPercentile(99));
+        assertWithin(1000000, snapshot.getMax());
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().build();
+        assertNull(layout.getMetrics());
+        layout.toSerializable(createEvent(null));
+    }
+
+    @Test
+    public void testRegisteredOnlyWithName() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setMetrics(true).build();
+        layout.toSerializable(createEvent(null));
+
+        assertNull(layout.getMetrics().getObjectName());
+        assertEquals(1, layout.getMetrics().snapshot().getEventsRendered());
+    }
+
+    @Test
+    public void testCountRendering() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setMetrics(true).setMetricsName("count")
+                .setAttributes("timestamp,category,level,message,stacktrace").build();
+        Exception thrown = new IllegalStateException("failed");
+        long bytes = 0;
+        for (int i = 0; i < 10; i++) {
+            bytes += layout.toSerializable(createEvent(thrown)).length();
+        }
+        layout.toSerializable(createEvent(null));
+
+        LayoutMetricsSnapshot snapshot = layout.getMetrics().snapshot();
+        assertEquals(11, snapshot.getEventsRendered());
+        assertTrue(snapshot.getBytesProduced() > bytes);
+        assertEquals(11, snapshot.getRenderTime().getCount());
+        assertEquals(10, snapshot.getStackTracesRendered());
+        assertEquals(0.9, snapshot.getStackTraceCacheHitRate(), 0.001);
+        assertEquals(0, snapshot.getSerializationFailures());
+
+        Map<String, LatencyHistogram.Snapshot> loaders = snapshot.getLoaderTimes();
+        assertEquals(33, loaders.get("event").getCount());
+        assertEquals(11, loaders.get("timestamp").getCount());
+        assertEquals(11, loaders.get("stacktrace").getCount());
+        assertEquals(0, loaders.get("context").getCount());
+        layout.getMetrics().unregister();
+    }
+
+    @Test
+    public void testRegisterMBean() throws JMException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setMetrics(true).setMetricsName("jmx").build();
+        layout.toSerializable(createEvent(null));
+
+        LayoutMetrics metrics = layout.getMetrics();
+        ObjectName name = metrics.getObjectName();
+        assertNotNull(name);
+        assertEquals(LayoutMetrics.DOMAIN + ":type=CustomJsonLayout,name=\"jmx\"", name.toString());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "EventsRendered"));
+        assertTrue((Long) server.getAttribute(name, "RenderTimeMax") > 0);
+
+        CustomJsonLayout reconfigured = CustomJsonLayout.newBuilder().setMetrics(true).setMetricsName("jmx").build();
+        assertEquals(0L, server.getAttribute(name, "EventsRendered"));
+
+        metrics.unregister();
+        assertTrue(server.isRegistered(name));
+        reconfigured.getMetrics().unregister();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testUnregisterOnReconfigure() throws IOException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        LoggerContext context = new LoggerContext("metrics");
+        context.start(createConfiguration(context, "first"));
+        try {
+            ObjectName first = getLayout(context).getMetrics().getObjectName();
+            assertTrue(server.isRegistered(first));
+
+            // renamed
+            reconfigure(context, createConfiguration(context, "second"));
+            ObjectName second = getLayout(context).getMetrics().getObjectName();
+            assertFalse(server.isRegistered(first));
+            assertTrue(server.isRegistered(second));
+
+            // dropped
+            reconfigure(context, createConfiguration(context, null));
+            assertFalse(server.isRegistered(second));
+        } finally {
+            context.stop();
+        }
+    }
+
+    private static Configuration createConfiguration(LoggerContext context, String metricsName) throws IOException {
+        String xml = "<Configuration packages=\"id.dkakunsi.lab.jlogging\">"
+                + "<Appenders><Console name=\"CONSOLE\">"
+                + "<CustomJsonLayout metrics=\"true\""
+                + (metricsName != null ? " metricsName=\"" + metricsName + "\"" : "") + " />"
+                + "</Console></Appenders>"
+                + "<Loggers><Root level=\"INFO\" /></Loggers>"
+                + "</Configuration>";
+        return new XmlConfiguration(context,
+                new ConfigurationSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Replace the configuration the way a watched configuration file does.
+     */
+    private static void reconfigure(LoggerContext context, final Configuration configuration) {
+        context.onChange(new Reconfigurable() {
+
+            @Override
+            public Configuration reconfigure() {
+                return configuration;
+            }
+        });
+    }
+
+    private static CustomJsonLayout getLayout(LoggerContext context) {
+        ConsoleAppender console = context.getConfiguration().getAppender("CONSOLE");
+        return (CustomJsonLayout) console.getLayout();
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not near " + expected, Math.abs(actual - expected) <= expected / 16);
+    }
+
+    private static LogEvent createEvent(Throwable thrown) {
+        return Log4jLogEvent.newBuilder().setLoggerName("metrics").setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("Metrics message")).setThrown(thrown).build();
+    }
+}
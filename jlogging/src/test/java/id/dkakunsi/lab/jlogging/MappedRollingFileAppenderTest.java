@@ -0,0 +1,351 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.appender.MappedRollingFileAppender;
+import id.dkakunsi.lab.jlogging.appender.SegmentIndex;
+import id.dkakunsi.lab.jlogging.appender.SidecarIndex;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.tool.TraceLookup;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.ContextDataFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link MappedRollingFileAppender} rolls over, keeps every event, and
+ * indexes the segments.
+ *
+ * @author dkakunsi
+ */
+public class MappedRollingFileAppenderTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int THREADS = 4;
+
+    private static final int EVENTS_PER_THREAD = 2000;
+
+    private static final int INDEX_INTERVAL = 16;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private File directory;
+
+    @Before
+    public void init() throws IOException {
+        this.directory = File.createTempFile("mapped", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+    }
+
+    @After
+    public void destroy() {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+    @Test
+    public void testRollBySize() throws Exception {
+        final MappedRollingFileAppender appender = createAppender("16 KB", 0);
+        appender.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        appender.append(createEvent(worker + "-" + j, System.currentTimeMillis()));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        File[] segments = getSegments();
+        assertTrue(segments.length > 1);
+
+        Set<String> messages = new HashSet<>();
+        for (File segment : segments) {
+            SegmentIndex index = SegmentIndex.read(segment);
+            assertNotNull(index);
+            assertTrue(index.getDataLength() <= 16 * 1024);
+
+            List<String> lines = readLines(segment, 0, index.getDataLength());
+            assertEquals(index.getEvents(), lines.size());
+            for (String line : lines) {
+                messages.add(mapper.readTree(line).get("message").asText());
+            }
+
+            long[] offsets = index.getOffsets();
+            long[] timestamps = index.getTimestamps();
+            assertEquals((lines.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL, offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                String line = readLines(segment, offsets[i], index.getDataLength()).get(0);
+                assertEquals(timestamps[i], getTime(line));
+            }
+        }
+        assertEquals(THREADS * EVENTS_PER_THREAD, messages.size());
+    }
+
+    @Test
+    public void testSeekByTimestamp() throws Exception {
+        MappedRollingFileAppender appender = createAppender("1 MB", 0);
+        appender.start();
+        for (int i = 0; i < 1000; i++) {
+            appender.append(createEvent(String.valueOf(i), 1000 + i));
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        File[] segments = getSegments();
+        assertEquals(1, segments.length);
+
+        SegmentIndex index = SegmentIndex.read(segments[0]);
+        long offset = index.findOffset(1500);
+        List<String> lines = readLines(segments[0], offset, index.getDataLength());
+        long first = getTime(lines.get(0));
+        assertTrue(first < 1500);
+        assertTrue(first > 1500 - INDEX_INTERVAL - 1);
+        assertEquals(0, index.findOffset(0));
+    }
+
+    @Test
+    public void testRollByTime() throws Exception {
+        MappedRollingFileAppender appender = createAppender("1 MB", 1);
+        appender.start();
+        appender.append(createEvent("before", System.currentTimeMillis()));
+        appender.append(createEvent("after", System.currentTimeMillis() + 2000));
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        File[] segments = getSegments();
+        assertEquals(2, segments.length);
+        for (File segment : segments) {
+            assertEquals(1, SegmentIndex.read(segment).getEvents());
+        }
+    }
+
+    @Test
+    public void testContinueAfterExistingSegments() throws Exception {
+        MappedRollingFileAppender appender = createAppender("1 MB", 0);
+        appender.start();
+        appender.append(createEvent("first", 1));
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        appender = createAppender("1 MB", 0);
+        appender.start();
+        appender.append(createEvent("second", 2));
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        File[] segments = getSegments();
+        assertEquals(2, segments.length);
+        assertEquals("first",
+                mapper.readTree(readLines(segments[0], 0, 100).get(0)).get("message").asText().split("@")[0]);
+        assertEquals("second",
+                mapper.readTree(readLines(segments[1], 0, 100).get(0)).get("message").asText().split("@")[0]);
+        assertFalse(new File(MappedRollingFileAppender.getSegmentName(getFileName(), 3)).exists());
+    }
+
+    @Test
+    public void testSidecarLookup() throws Exception {
+        final MappedRollingFileAppender appender = createAppender("16 KB", 0, "correlationId,tid");
+        appender.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int worker = i;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        StringMap context = ContextDataFactory.createContextData();
+                        if (j % 10 != 0) {
+                            context.putValue("correlationId", "request-" + (j % 37));
+                        }
+                        context.putValue("tid", "worker-" + worker);
+                        appender.append(createEvent(worker + "-" + j, 1000 + j, context));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        File[] segments = getSegments();
+        assertTrue(segments.length > 1);
+        for (File segment : segments) {
+            SidecarIndex index = SidecarIndex.read(segment);
+            assertNotNull(index);
+            assertEquals(SegmentIndex.read(segment).getDataLength(), index.getDataLength());
+            assertEquals(SegmentIndex.read(segment).getEvents(), index.getEvents());
+
+            // every event at or after a time is found from its offset
+            for (long time = 900; time < 1000 + EVENTS_PER_THREAD + 100; time += 50) {
+                long offset = index.findOffset(time);
+                long minimum = index.getDataLength();
+                long position = 0;
+                for (String line : readLines(segment, 0, index.getDataLength())) {
+                    if (getTime(line) >= time) {
+                        minimum = Math.min(minimum, position);
+                    }
+                    position += line.getBytes(CHARSET).length + 1;
+                }
+                assertTrue(offset <= minimum);
+            }
+            assertNull(index.findOffsets("service", "any"));
+        }
+
+        TraceLookup lookup = new TraceLookup(getFileName());
+        int expected = 0;
+        for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+            expected += j % 10 != 0 && j % 37 == 5 ? THREADS : 0;
+        }
+        assertEquals(expected, lookup(lookup, "correlationId", "request-5", Long.MIN_VALUE).size());
+        assertEquals(EVENTS_PER_THREAD, lookup(lookup, "tid", "worker-2", Long.MIN_VALUE).size());
+        assertEquals(0, lookup(lookup, "correlationId", "request-37", Long.MIN_VALUE).size());
+        for (String line : lookup(lookup, "correlationId", "request-5", Long.MIN_VALUE)) {
+            assertEquals("request-5", mapper.readTree(line).get("correlationId").asText());
+        }
+
+        // after the time, and maybe a few before within its bucket
+        List<String> recent = lookup(lookup, "tid", "worker-1", 1000 + EVENTS_PER_THREAD - 100);
+        assertTrue(recent.size() >= 100);
+        assertTrue(recent.size() < EVENTS_PER_THREAD);
+
+        // a segment without sidecar is scanned
+        List<String> indexed = lookup(lookup, "correlationId", "request-11", Long.MIN_VALUE);
+        for (File segment : segments) {
+            assertTrue(SidecarIndex.getFile(segment).delete());
+        }
+        assertEquals(new HashSet<>(indexed),
+                new HashSet<>(lookup(lookup, "correlationId", "request-11", Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void testNoSidecarByDefault() throws Exception {
+        MappedRollingFileAppender appender = createAppender("1 MB", 0);
+        appender.start();
+        appender.append(createEvent("first", 1));
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        assertEquals(1, this.directory.listFiles().length);
+        assertNull(SidecarIndex.read(getSegments()[0]));
+    }
+
+    private MappedRollingFileAppender createAppender(String segmentSize, long rolloverInterval) {
+        return createAppender(segmentSize, rolloverInterval, null);
+    }
+
+    private MappedRollingFileAppender createAppender(String segmentSize, long rolloverInterval, String sidecarKeys) {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setCharset(CHARSET).setEventEol(true)
+                .setAttributes("level,message,correlationId,tid").build();
+        return MappedRollingFileAppender.newBuilder().withName("mapped").withLayout(layout)
+                .withFileName(getFileName()).withSegmentSize(segmentSize).withRolloverInterval(rolloverInterval)
+                .withIndexInterval(INDEX_INTERVAL).withSidecarKeys(sidecarKeys).withSidecarBucketMillis(100).build();
+    }
+
+    private static List<String> lookup(TraceLookup lookup, String key, String value, long from) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long count = lookup.find(key, value, from, output);
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(output.toByteArray(), CHARSET).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        assertEquals(count, lines.size());
+        return lines;
+    }
+
+    private String getFileName() {
+        return new File(this.directory, "app.log").getPath();
+    }
+
+    private File[] getSegments() {
+        List<File> segments = new ArrayList<>();
+        for (int i = 1;; i++) {
+            File segment = new File(MappedRollingFileAppender.getSegmentName(getFileName(), i));
+            if (!segment.exists()) {
+                return segments.toArray(new File[0]);
+            }
+            segments.add(segment);
+        }
+    }
+
+    private static List<String> readLines(File file, long from, long to) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) (Math.min(to, input.length()) - from)];
+            input.seek(from);
+            input.readFully(data);
+
+            List<String> lines = new ArrayList<>();
+            for (String line : new String(data, CHARSET).split("\n")) {
+                if (line.startsWith("{")) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+
+    private static long getTime(String line) throws IOException {
+        String message = mapper.readTree(line).get("message").asText();
+        return Long.parseLong(message.substring(message.indexOf('@') + 1));
+    }
+
+    /**
+     * The event time is put in the message as well, after '@'.
+     */
+    private static LogEvent createEvent(String message, long timestamp) {
+        return createEvent(message, timestamp, ContextDataFactory.createContextData());
+    }
+
+    private static LogEvent createEvent(String message, long timestamp, StringMap context) {
+        return Log4jLogEvent.newBuilder().setLoggerName("mapped").setLevel(Level.INFO).setContextData(context)
+                .setMessage(new SimpleMessage(message + "@" + timestamp)).setTimeMillis(timestamp).build();
+    }
+}
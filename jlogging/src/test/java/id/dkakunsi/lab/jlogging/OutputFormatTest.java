@@ -0,0 +1,106 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.OutputFormat;
+import id.dkakunsi.lab.jlogging.tool.LogDecoder;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.Test;
+
+/**
+ * Verify every binary {@link OutputFormat} decodes back into the JSON of the
+ * layout.
+ *
+ * @author dkakunsi
+ */
+public class OutputFormatTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final String ATTRIBUTES = "timestamp,correlationId,host,thread,category,level,message,stacktrace,payload";
+
+    @Test
+    public void testCbor() throws IOException {
+        verify(OutputFormat.CBOR);
+    }
+
+    @Test
+    public void testSmile() throws IOException {
+        verify(OutputFormat.SMILE);
+    }
+
+    @Test
+    public void testMessagePack() throws IOException {
+        verify(OutputFormat.MESSAGEPACK);
+    }
+
+    @Test
+    public void testContentType() {
+        assertEquals("application/cbor", createLayout(OutputFormat.CBOR).getContentType());
+        assertTrue(createLayout(OutputFormat.JSON).getContentType().startsWith("text/plain"));
+    }
+
+    private static void verify(OutputFormat format) throws IOException {
+        CustomJsonLayout layout = createLayout(format);
+        List<LogEvent> events = createEvents();
+
+        ByteBufferSink sink = new ByteBufferSink(64 * 1024);
+        StringBuilder expected = new StringBuilder();
+        for (LogEvent event : events) {
+            layout.encode(event, sink);
+            expected.append(layout.toSerializable(event)).append('\n');
+        }
+        byte[] encoded = sink.getContentBytes();
+
+        StringWriter decoded = new StringWriter();
+        long entries = new LogDecoder(format).decode(new ByteArrayInputStream(encoded), decoded);
+
+        assertEquals(events.size(), entries);
+        assertEquals(expected.toString(), decoded.toString());
+        assertTrue(encoded.length < expected.toString().getBytes(CHARSET).length);
+
+        StringWriter single = new StringWriter();
+        new LogDecoder(format).decode(new ByteArrayInputStream(layout.toByteArray(events.get(0))), single);
+        assertEquals(layout.toSerializable(events.get(0)) + "\n", single.toString());
+    }
+
+    private static CustomJsonLayout createLayout(OutputFormat format) {
+        return CustomJsonLayout.newBuilder().setCharset(CHARSET).setTimezone("UTC").setFormat(format)
+                .setAttributes(ATTRIBUTES).build();
+    }
+
+    private static List<LogEvent> createEvents() {
+        SortedArrayStringMap context = new SortedArrayStringMap();
+        context.putValue("correlationId", "0xoqwie1267sdh2");
+        context.putValue("payload", Collections.singletonMap("amount", 10));
+
+        List<LogEvent> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Throwable thrown = i % 5 == 0 ? new IllegalStateException("failed " + i, new RuntimeException()) : null;
+            events.add(Log4jLogEvent.newBuilder()
+                    .setLoggerName("id.dkakunsi.lab.jlogging.OutputFormatTest")
+                    .setLevel(i % 2 == 0 ? Level.INFO : Level.WARN)
+                    .setMessage(new SimpleMessage("Hello, \"World\" é " + i))
+                    .setContextData(context)
+                    .setThrown(thrown)
+                    .setTimeMillis(1546300800000L + i)
+                    .build());
+        }
+        return events;
+    }
+}
@@ -0,0 +1,223 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.filter.RepeatedEventFilter;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Filter.Result;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verify {@link RepeatedEventFilter} lets through the first events of a
+ * fingerprint and summarizes the suppressed repeats.
+ *
+ * @author dkakunsi
+ */
+public class RepeatedEventFilterTest {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private DefaultConfiguration configuration;
+
+    private CapturingAppender appender;
+
+    private CustomJsonLayout layout;
+
+    @Before
+    public void init() {
+        this.layout = CustomJsonLayout.newBuilder().setAttributes("category,level,message,suppressedCount").build();
+        this.appender = new CapturingAppender();
+        this.appender.start();
+        this.configuration = new DefaultConfiguration();
+        this.configuration.start();
+        this.configuration.getRootLogger().addAppender(this.appender, null, null);
+    }
+
+    @After
+    public void destroy() {
+        this.configuration.stop();
+    }
+
+    @Test
+    public void testSuppressRepeats() throws IOException {
+        RepeatedEventFilter filter = createFilter(3, 60000, 16);
+        Exception thrown = new IllegalStateException("failed");
+
+        int passed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (filter.filter(createEvent("app.service", "Failed order {}", i, thrown)) == Result.NEUTRAL) {
+                passed++;
+            }
+        }
+        assertEquals(3, passed);
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app.service", "Failed order {}", 1, null)));
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app.other", "Failed order {}", 1, thrown)));
+
+        filter.logSummaries();
+        assertEquals(1, this.appender.events.size());
+        JsonNode summary = mapper.readTree(this.layout.toSerializable(this.appender.events.get(0)));
+        assertEquals("app.service", summary.get("category").asText());
+        assertEquals("ERROR", summary.get("level").asText());
+        assertEquals("Failed order {}", summary.get("message").asText());
+        assertEquals(97, summary.get("suppressedCount").asLong());
+
+        // counted once
+        filter.logSummaries();
+        assertEquals(1, this.appender.events.size());
+        assertEquals(Result.NEUTRAL, filter.filter(this.appender.events.get(0)));
+    }
+
+    @Test
+    public void testDistinguishTopFrame() {
+        RepeatedEventFilter filter = createFilter(1, 60000, 16);
+        Exception first = new IllegalStateException("failed");
+        Exception second = new IllegalStateException("failed");
+
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Failed", 0, first)));
+        assertEquals(Result.DENY, filter.filter(createEvent("app", "Failed", 0, first)));
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Failed", 0, second)));
+    }
+
+    @Test
+    public void testNewWindow() throws InterruptedException {
+        RepeatedEventFilter filter = createFilter(1, 50, 16);
+
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Retry", 0, null)));
+        assertEquals(Result.DENY, filter.filter(createEvent("app", "Retry", 0, null)));
+        Thread.sleep(120);
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Retry", 0, null)));
+    }
+
+    @Test
+    public void testFullTable() {
+        RepeatedEventFilter filter = createFilter(1, 60000, 1);
+
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "First", 0, null)));
+        assertEquals(Result.DENY, filter.filter(createEvent("app", "First", 0, null)));
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Second", 0, null)));
+        assertEquals(Result.NEUTRAL, filter.filter(createEvent("app", "Second", 0, null)));
+    }
+
+    @Test
+    public void testLogSummariesOnStop() {
+        RepeatedEventFilter filter = createFilter(1, 60000, 16);
+        filter.start();
+        filter.filter(createEvent("app", "Stopping", 0, null));
+        filter.filter(createEvent("app", "Stopping", 0, null));
+        filter.stop();
+
+        assertEquals(1, this.appender.events.size());
+        assertEquals(1L, this.appender.events.get(0).getContextData().getValue(RepeatedEventFilter.SUPPRESSED_COUNT));
+    }
+
+    @Test
+    public void testContextWideLevelChecks() throws IOException {
+        DefaultConfiguration configuration = new DefaultConfiguration();
+        RepeatedEventFilter filter = RepeatedEventFilter.newBuilder().setBurst(2).setInterval(60000)
+                .setConfiguration(configuration).build();
+        configuration.addFilter(filter);
+        configuration.getRootLogger().addAppender(this.appender, null, null);
+        configuration.getRootLogger().setLevel(Level.DEBUG);
+        LoggerContext context = new LoggerContext("repeated");
+        context.start(configuration);
+        try {
+            Logger logger = context.getLogger("app.guarded");
+            for (int i = 0; i < 100; i++) {
+                assertTrue(logger.isDebugEnabled());
+                assertTrue(logger.isErrorEnabled());
+                assertTrue(logger.isEnabled(Level.WARN));
+            }
+            for (int i = 0; i < 5; i++) {
+                logger.error("Failed order {}", i);
+            }
+            assertEquals(2, this.appender.events.size());
+
+            filter.logSummaries();
+            assertEquals(3, this.appender.events.size());
+            JsonNode summary = mapper.readTree(this.layout.toSerializable(this.appender.events.get(2)));
+            assertEquals("Failed order {}", summary.get("message").asText());
+            assertEquals(3, summary.get("suppressedCount").asLong());
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentBurst() throws InterruptedException {
+        final RepeatedEventFilter filter = createFilter(1000, 60000, 16);
+        final int threads = 4;
+        final int events = 2000;
+        final int[] passed = new int[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        if (filter.filter(createEvent("app", "Busy", i, null)) == Result.NEUTRAL) {
+                            passed[index]++;
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        int total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += passed[t];
+        }
+
+        assertEquals(1000, total);
+        filter.logSummaries();
+        assertEquals((long) threads * events - 1000,
+                this.appender.events.get(0).getContextData().getValue(RepeatedEventFilter.SUPPRESSED_COUNT));
+    }
+
+    private RepeatedEventFilter createFilter(int burst, long interval, int tableSize) {
+        return RepeatedEventFilter.newBuilder().setBurst(burst).setInterval(interval).setTableSize(tableSize)
+                .setConfiguration(this.configuration).build();
+    }
+
+    private static LogEvent createEvent(String loggerName, String template, int parameter, Throwable thrown) {
+        return Log4jLogEvent.newBuilder().setLoggerName(loggerName).setLevel(Level.ERROR)
+                .setMessage(new ParameterizedMessage(template, parameter)).setThrown(thrown).build();
+    }
+
+    /**
+     * Keep the appended events in memory.
+     */
+    private static final class CapturingAppender extends AbstractAppender {
+
+        private final List<LogEvent> events = Collections.synchronizedList(new ArrayList<LogEvent>());
+
+        CapturingAppender() {
+            super("capturing", null, null);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            this.events.add(event.toImmutable());
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.attributeloader.StackTraceWriter;
+import id.dkakunsi.lab.jlogging.attributeloader.StacktraceAttributeLoader;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+/**
+ * StackTraceWriterTest
+ * 
+ * @author dkakunsi
+ */
+public class StackTraceWriterTest {
+
+    /**
+     * Fingerprints of the trace of {@link #testFingerprintOfFixedTrace()}, which
+     * must not change across versions for the same trace.
+     */
+    private static final long FIXED_FINGERPRINT = 5895722922629300014L;
+
+    private static final long FIXED_FINGERPRINT_WITH_LINES = 5373121297223458261L;
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSameAsGeneratedStackTrace() throws IOException {
+        Exception exception = createException();
+        String expected = mapper.writeValueAsString(StacktraceAttributeLoader.generateStackTrace(exception, true));
+
+        StackTraceWriter uncached = new StackTraceWriter(true, 0, -1, false, null, 0);
+        StackTraceWriter cached = new StackTraceWriter(true, 0, -1, false, null, 16);
+
+        assertEquals(expected, write(uncached, exception));
+        assertEquals(expected, write(cached, exception));
+        assertEquals(expected, write(cached, exception));
+    }
+
+    @Test
+    public void testInnerExceptionOnly() throws IOException {
+        Exception exception = createException();
+        String expected = mapper.writeValueAsString(StacktraceAttributeLoader.generateStackTrace(exception, false));
+
+        assertEquals(expected, write(new StackTraceWriter(false, 0, -1, false, null, 16), exception));
+    }
+
+    @Test
+    public void testMaxFrames() throws IOException {
+        Exception exception = createException();
+        int frames = exception.getStackTrace().length;
+
+        JsonNode stacktrace = mapper.readTree(write(new StackTraceWriter(true, 2, -1, false, null, 16), exception));
+        JsonNode outer = stacktrace.get(1);
+
+        assertEquals(2, outer.get("stack").size());
+        assertEquals(frames - 2, outer.get("omittedFrames").asInt());
+    }
+
+    @Test
+    public void testMaxCauseDepth() throws IOException {
+        Exception exception = new Exception("outer", new IllegalStateException("middle", createException()));
+
+        JsonNode stacktrace = mapper.readTree(write(new StackTraceWriter(true, 0, 1, false, null, 16), exception));
+
+        assertEquals(2, stacktrace.size());
+        assertEquals("middle", stacktrace.get(0).get("message").asText());
+        assertEquals("outer", stacktrace.get(1).get("message").asText());
+    }
+
+    @Test
+    public void testCollapseCommonFrames() throws IOException {
+        Exception exception = createException();
+        Throwable cause = exception.getCause();
+
+        JsonNode stacktrace = mapper.readTree(write(new StackTraceWriter(true, 0, -1, true, null, 16), exception));
+        JsonNode collapsed = stacktrace.get(0);
+        JsonNode outer = stacktrace.get(1);
+
+        int common = collapsed.get("commonFrames").asInt();
+        assertEquals(cause.getStackTrace().length, collapsed.get("stack").size() + common);
+        assertEquals(exception.getStackTrace().length, outer.get("stack").size());
+        assertNull(outer.get("commonFrames"));
+    }
+
+    @Test
+    public void testFilteredPackages() throws IOException {
+        Exception exception = createException();
+        String[] filtered = { "org.junit.", "sun.", "jdk.", "java.lang.reflect." };
+
+        JsonNode stacktrace = mapper.readTree(write(new StackTraceWriter(false, 0, -1, false, filtered, 16), exception));
+        JsonNode stack = stacktrace.get(0).get("stack");
+
+        assertEquals(exception.getCause().getStackTrace().length,
+                stack.size() + stacktrace.get(0).get("omittedFrames").asInt());
+        for (JsonNode frame : stack) {
+            assertFalse(frame.get("method").asText().equals("invoke0"));
+        }
+    }
+
+    @Test
+    public void testCircularCause() throws IOException {
+        Exception first = new Exception("first");
+        Exception second = new Exception("second", first);
+        first.initCause(second);
+
+        JsonNode recursive = mapper.readTree(write(new StackTraceWriter(true, 0, -1, false, null, 16), first));
+        JsonNode inner = mapper.readTree(write(new StackTraceWriter(false, 0, -1, false, null, 16), first));
+
+        assertEquals(2, recursive.size());
+        assertEquals("second", inner.get(0).get("message").asText());
+    }
+
+    @Test
+    public void testFingerprintIgnoresMessages() {
+        StackTraceWriter writer = new StackTraceWriter(true, 0, -1, false, null, 16);
+        Exception[] exceptions = createExceptions("first", "second");
+        Exception first = exceptions[0];
+        Exception second = exceptions[1];
+
+        assertEquals(writer.fingerprint(first, true), writer.fingerprint(second, true));
+        assertNotEquals(writer.fingerprint(first, true), writer.fingerprint(first.getCause(), true));
+    }
+
+    @Test
+    public void testFingerprintLineNumbers() {
+        StackTraceWriter writer = new StackTraceWriter(true, 0, -1, false, null, 16);
+        Exception[] exceptions = createExceptions("first", "second");
+        Exception first = exceptions[0];
+        Exception second = exceptions[1];
+        StackTraceElement frame = second.getStackTrace()[0];
+        StackTraceElement[] moved = second.getStackTrace();
+        moved[0] = new StackTraceElement(frame.getClassName(), frame.getMethodName(), frame.getFileName(),
+                frame.getLineNumber() + 1);
+        second.setStackTrace(moved);
+
+        assertNotEquals(writer.fingerprint(first, true), writer.fingerprint(second, true));
+        assertEquals(writer.fingerprint(first, false), writer.fingerprint(second, false));
+    }
+
+    @Test
+    public void testFingerprintOfFixedTrace() {
+        StackTraceWriter writer = new StackTraceWriter(true, 0, -1, false, null, 16);
+        Exception exception = new IllegalStateException("failed");
+        exception.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement("com.example.OrderService", "pay", "OrderService.java", 42),
+                new StackTraceElement("com.example.Main", "main", "Main.java", 7) });
+
+        assertEquals(FIXED_FINGERPRINT, writer.fingerprint(exception, false));
+        assertEquals(FIXED_FINGERPRINT_WITH_LINES, writer.fingerprint(exception, true));
+    }
+
+    @Test
+    public void testFingerprintOncePerEvent() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("stacktraceHash,stacktrace")
+                .setStackTraceRepeatWindow(60)
+                .build();
+        WalkCountingException exception = new WalkCountingException();
+
+        // fingerprinted once, then written
+        JsonNode first = mapper.readTree(layout.toSerializable(createEvent(exception, 1000L)));
+        assertEquals(2, exception.walks);
+        assertNotNull(first.get("stacktrace"));
+
+        // fingerprinted again for the next event, which is a repeat
+        JsonNode second = mapper.readTree(layout.toSerializable(createEvent(exception, 2000L)));
+        assertEquals(3, exception.walks);
+        assertEquals(first.get("stacktraceHash"), second.get("stacktraceHash"));
+        assertEquals(1, second.get("stacktraceRepeat").asInt());
+
+        // the same exception refilled with another trace is a new trace
+        exception.setStackTrace(new StackTraceElement[] { new StackTraceElement("Other", "run", "Other.java", 1) });
+        JsonNode refilled = mapper.readTree(layout.toSerializable(createEvent(exception, 3000L)));
+        assertNotEquals(first.get("stacktraceHash"), refilled.get("stacktraceHash"));
+        assertNotNull(refilled.get("stacktrace"));
+    }
+
+    @Test
+    public void testRepeatWindow() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("message,stacktraceHash,stacktrace")
+                .setStackTraceRepeatWindow(60)
+                .build();
+        Exception[] exceptions = createExceptions("first", "other");
+        Exception exception = exceptions[0];
+
+        JsonNode first = mapper.readTree(layout.toSerializable(createEvent(exception, 1000L)));
+        JsonNode second = mapper.readTree(layout.toSerializable(createEvent(exceptions[1], 2000L)));
+        JsonNode third = mapper.readTree(layout.toSerializable(createEvent(exception, 3000L)));
+        JsonNode later = mapper.readTree(layout.toSerializable(createEvent(exception, 61000L)));
+
+        String hash = first.get("stacktraceHash").asText();
+        assertEquals(16, hash.length());
+        assertNotNull(first.get("stacktrace"));
+        assertNull(first.get("stacktraceRepeat"));
+
+        assertEquals(hash, second.get("stacktraceHash").asText());
+        assertNull(second.get("stacktrace"));
+        assertEquals(1, second.get("stacktraceRepeat").asInt());
+        assertEquals(2, third.get("stacktraceRepeat").asInt());
+
+        assertNotNull(later.get("stacktrace"));
+        assertNull(later.get("stacktraceRepeat"));
+    }
+
+    @Test
+    public void testRepeatWindowDisabled() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("stacktraceHash,stacktrace").build();
+        Exception exception = createException();
+
+        layout.toSerializable(createEvent(exception, 1000L));
+        JsonNode second = mapper.readTree(layout.toSerializable(createEvent(exception, 2000L)));
+
+        assertNotNull(second.get("stacktrace"));
+        assertNull(second.get("stacktraceRepeat"));
+    }
+
+    private static LogEvent createEvent(Throwable thrown, long timeMillis) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("test")
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("failed"))
+                .setThrown(thrown)
+                .setTimeMillis(timeMillis)
+                .build();
+    }
+
+    private static String write(StackTraceWriter writer, Throwable thrown) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(json)) {
+            writer.write(thrown, generator);
+        }
+        return json.toString();
+    }
+
+    private static Exception createException() {
+        return createException("This is exception");
+    }
+
+    /**
+     * Exceptions with the same trace, created at the same line.
+     */
+    private static Exception[] createExceptions(String... messages) {
+        Exception[] exceptions = new Exception[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            exceptions[i] = createException(messages[i]);
+        }
+        return exceptions;
+    }
+
+    private static Exception createException(String message) {
+        try {
+            throwCause();
+            return null;
+        } catch (IllegalArgumentException ex) {
+            return new Exception(message, ex);
+        }
+    }
+
+    private static void throwCause() {
+        throw new IllegalArgumentException("This is cause");
+    }
+
+    /**
+     * Exception counting the walks of its trace.
+     */
+    private static final class WalkCountingException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private int walks;
+
+        @Override
+        public StackTraceElement[] getStackTrace() {
+            this.walks++;
+            return super.getStackTrace();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+import id.dkakunsi.lab.jlogging.layout.OutputFormat;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.xml.XmlConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+/**
+ * Verify the static fields of {@link CustomJsonLayout} and the constants
+ * rendered once.
+ *
+ * @author dkakunsi
+ */
+public class StaticFieldTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testFoldConstants() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder()
+                .setAttributes("service,version,level,instance,message")
+                .setStaticFields(new KeyValuePair("service", "order \"api\""), new KeyValuePair("version", "1.2"),
+                        new KeyValuePair("instance", "i-1"), new KeyValuePair("region", "eu"))
+                .build();
+
+        assertEquals("{\"service\":\"order \\\"api\\\"\",\"version\":\"1.2\",\"level\":\"INFO\",\"instance\":\"i-1\","
+                + "\"message\":\"Static message\",\"region\":\"eu\"}", layout.toSerializable(createEvent()));
+    }
+
+    @Test
+    public void testOnlyConstants() {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("service")
+                .setStaticFields(new KeyValuePair("service", "order"), new KeyValuePair("version", "1.2")).build();
+
+        assertEquals("{\"service\":\"order\",\"version\":\"1.2\"}", layout.toSerializable(createEvent()));
+    }
+
+    @Test
+    public void testBinaryFormat() throws IOException {
+        CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes("service,level")
+                .setStaticFields(new KeyValuePair("service", "order"), new KeyValuePair("version", "1.2"))
+                .setFormat(OutputFormat.CBOR).build();
+
+        JsonNode node = new ObjectMapper(new CBORFactory()).readTree(layout.toByteArray(createEvent()));
+        assertEquals("{\"service\":\"order\",\"level\":\"INFO\",\"version\":\"1.2\"}", node.toString());
+    }
+
+    @Test
+    public void testConfigure() throws IOException {
+        System.setProperty("static.test.version", "3.4");
+        String xml = "<Configuration packages=\"id.dkakunsi.lab.jlogging\">"
+                + "<Appenders><Console name=\"CONSOLE\">"
+                + "<CustomJsonLayout attributes=\"host,service,version,message\">"
+                + "<KeyValuePair key=\"service\" value=\"order\" />"
+                + "<KeyValuePair key=\"version\" value=\"${sys:static.test.version}\" />"
+                + "</CustomJsonLayout>"
+                + "</Console></Appenders>"
+                + "<Loggers><Root level=\"INFO\" /></Loggers>"
+                + "</Configuration>";
+        XmlConfiguration configuration = new XmlConfiguration(new LoggerContext("static"),
+                new ConfigurationSource(new ByteArrayInputStream(xml.getBytes(CHARSET))));
+        configuration.initialize();
+        configuration.start();
+        try {
+            ConsoleAppender console = configuration.getAppender("CONSOLE");
+            CustomJsonLayout layout = (CustomJsonLayout) console.getLayout();
+
+            JsonNode node = mapper.readTree(layout.toSerializable(createEvent()));
+            assertEquals("order", node.get("service").asText());
+            assertEquals("3.4", node.get("version").asText());
+            assertEquals("[\"host\",\"service\",\"version\",\"message\"]", mapper.writeValueAsString(node.fieldNames()));
+        } finally {
+            configuration.stop();
+            System.clearProperty("static.test.version");
+        }
+    }
+
+    private static LogEvent createEvent() {
+        return Log4jLogEvent.newBuilder().setLoggerName("static").setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Static message")).build();
+    }
+}
@@ -0,0 +1,106 @@
+package id.dkakunsi.lab.jlogging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.dkakunsi.lab.jlogging.attributeloader.EventAttributeLoader;
+import id.dkakunsi.lab.jlogging.layout.CustomJsonLayout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ObjectMessage;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
+import org.apache.logging.log4j.message.ReusableParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.message.StringMapMessage;
+import org.junit.Test;
+
+/**
+ * Verify the typed message attributes of {@link EventAttributeLoader}.
+ *
+ * @author dkakunsi
+ */
+public class StructuredMessageTest {
+
+    private static final String ATTRIBUTES = "messageTemplate,messageParameters,messageFields";
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private CustomJsonLayout layout = CustomJsonLayout.newBuilder().setAttributes(ATTRIBUTES).build();
+
+    @Test
+    public void testParameterizedMessage() throws IOException {
+        JsonNode node = render(new ParameterizedMessage("Order {} of {} paid {}: {}", 12, "jane", true,
+                new BigDecimal("10.50")));
+
+        assertEquals("Order {} of {} paid {}: {}", node.get("messageTemplate").asText());
+        assertEquals("[12,\"jane\",true,10.5]", node.get("messageParameters").toString());
+        assertFalse(node.has("messageFields"));
+    }
+
+    @Test
+    public void testReusableMessage() throws IOException {
+        Message message = new ReusableMessageFactory().newMessage("Retry {} after {} ms", 3, 2.5f);
+        assertTrue(message instanceof ReusableParameterizedMessage);
+
+        JsonNode node = render(message);
+        assertEquals("Retry {} after {} ms", node.get("messageTemplate").asText());
+        assertEquals("[3,2.5]", node.get("messageParameters").toString());
+    }
+
+    @Test
+    public void testTrailingThrowable() throws IOException {
+        Exception thrown = new IllegalStateException("failed");
+
+        JsonNode node = render(new ParameterizedMessage("Failed {}", 42, thrown));
+        assertEquals("[42]", node.get("messageParameters").toString());
+
+        node = render(new ReusableMessageFactory().newMessage("Failed {}", 42, thrown));
+        assertEquals("[42]", node.get("messageParameters").toString());
+
+        node = render(new ParameterizedMessage("Failed", thrown));
+        assertFalse(node.has("messageParameters"));
+
+        node = render(new ParameterizedMessage("Failed {}", thrown));
+        assertEquals("[\"" + thrown + "\"]", node.get("messageParameters").toString());
+    }
+
+    @Test
+    public void testMapMessage() throws IOException {
+        StringMapMessage message = new StringMapMessage().with("order", "12").with("amount", 10.5).with("paid",
+                true);
+
+        JsonNode node = render(message);
+        assertEquals("{\"amount\":10.5,\"order\":\"12\",\"paid\":true}", node.get("messageFields").toString());
+        assertFalse(node.has("messageTemplate"));
+        assertFalse(node.has("messageParameters"));
+    }
+
+    @Test
+    public void testObjectMessage() throws IOException {
+        JsonNode node = render(new ObjectMessage(42L));
+        assertEquals("[42]", node.get("messageParameters").toString());
+    }
+
+    @Test
+    public void testNoParameters() throws IOException {
+        JsonNode node = render(new SimpleMessage("Started"));
+        assertEquals("Started", node.get("messageTemplate").asText());
+        assertFalse(node.has("messageParameters"));
+    }
+
+    private JsonNode render(Message message) throws IOException {
+        LogEvent event = Log4jLogEvent.newBuilder().setLoggerName("structured").setLevel(Level.INFO)
+                .setMessage(message).build();
+        return mapper.readTree(this.layout.toSerializable(event));
+    }
+}
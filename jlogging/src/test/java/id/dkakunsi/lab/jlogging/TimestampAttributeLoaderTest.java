@@ -1,12 +1,17 @@
 package id.dkakunsi.lab.jlogging;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import id.dkakunsi.lab.jlogging.attributeloader.TimestampAttributeLoader;
+import id.dkakunsi.lab.jlogging.attributeloader.TimestampFormatter;
+import id.dkakunsi.lab.jlogging.attributeloader.TimestampFormatter.Precision;
 
 import org.junit.Test;
 
@@ -26,6 +31,38 @@ public class TimestampAttributeLoaderTest {
         assertTrue(matcher.matches());
     }
 
+    @Test
+    public void testFormatterMatchesSimpleDateFormat() {
+        String[] patterns = { null, "yyyy-MM-dd'T'HH:mm'Z'", "yyyy-MM-dd HH:mm:ss,S", "HH:mm:ss.SS 'at' zzzz",
+                "EEE, d MMM yyyy HH:mm:ss.SSSSSS Z", "'It''s' yyyy.MM.dd G 'S' hh:mm a", "ss.S.SSS" };
+        String[] timezones = { null, "UTC", "Asia/Jakarta", "America/New_York" };
+        long[] times = { 0L, -1L, -999L, 7L, 1546300799999L, 1552201200123L, 1552201200987L, System.currentTimeMillis() };
+
+        for (String pattern : patterns) {
+            for (String timezone : timezones) {
+                TimestampFormatter formatter = new TimestampFormatter(pattern, timezone, Precision.MILLISECOND);
+                for (long time : times) {
+                    String expected = (String) TimestampAttributeLoader.load(new Date(time), timezone, pattern);
+                    assertEquals(pattern + " " + timezone, expected, formatter.format(time, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFormatterSubMillisecondPrecision() {
+        long time = 1552201200123L;
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String seconds = format.format(new Date(time));
+
+        TimestampFormatter micros = new TimestampFormatter("HH:mm:ss.SSS", "UTC", Precision.MICROSECOND);
+        assertEquals(seconds + ".123045", micros.format(time, 45678));
+
+        TimestampFormatter nanos = new TimestampFormatter("HH:mm:ss.SSS", "UTC", Precision.NANOSECOND);
+        assertEquals(seconds + ".123045678", nanos.format(time, 45678));
+    }
+
     private static Matcher createMatcher(String input) {
         Pattern pattern = Pattern.compile(REGEX_PATTERN);
         return pattern.matcher(input);